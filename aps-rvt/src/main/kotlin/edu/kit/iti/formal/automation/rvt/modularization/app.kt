@@ -3,8 +3,12 @@ package edu.kit.iti.formal.automation.rvt.modularization
 import com.github.ajalt.clikt.core.CliktCommand
 import com.github.ajalt.clikt.parameters.options.*
 import com.github.ajalt.clikt.parameters.types.file
+import com.github.ajalt.clikt.parameters.types.int
+import com.github.ajalt.clikt.parameters.types.long
 import edu.kit.iti.formal.automation.IEC61131Facade
 import edu.kit.iti.formal.automation.sfclang.getUniqueName
+import edu.kit.iti.formal.smt.SmtSolverPool
+import edu.kit.iti.formal.smv.NuXMVPool
 import edu.kit.iti.formal.smv.SMVFacade
 import edu.kit.iti.formal.smv.ast.SLiteral
 import edu.kit.iti.formal.smv.conjunction
@@ -44,6 +48,7 @@ class ModularizationApp : CliktCommand() {
     val disableProofBodyEquivalenceClassic by option(help = "").flag()
     val disableUpdateCache by option(help = "").flag()
     val disableCheckCache by option(help = "").flag()
+    val portfolio by option(help = "race the SMT and the model-checking strategy").flag()
 
     /*val contexts by option("--context",
             help = "expected equality of sub modules",
@@ -70,6 +75,19 @@ class ModularizationApp : CliktCommand() {
 
     val nuxmvPath by option("--nuxmv", envvar = "NUXMV").default("nuXmv")
 
+    val nuxmvWorkers by option("--nuxmv-workers",
+            help = "number of persistent nuXmv processes, 0 starts a process for every proof").int().default(0)
+
+    val nuxmvTimeout by option("--nuxmv-timeout", help = "time limit of a nuXmv query in ms").long().default(0)
+
+    val z3Workers by option("--z3-workers",
+            help = "number of persistent z3 processes, 0 starts a process for every proof").int().default(0)
+
+    val z3Timeout by option("--z3-timeout", help = "time limit of a z3 query in ms").long().default(0)
+
+    val threads by option("-j", "--threads", help = "number of concurrent proofs")
+            .int().default(Runtime.getRuntime().availableProcessors())
+
     override fun run() {
         outputFolder.mkdirs()
 
@@ -103,6 +121,7 @@ class ModularizationApp : CliktCommand() {
                 outputFolder = outputFolder
         )
         m.ctxManager.addAll(reveContextManager)
+        m.parallelism = threads
 
         m.proveStrategy.disableCheckCache = disableCheckCache
         m.proveStrategy.disableProofBodyEquivalenceClassic = disableProofBodyEquivalenceClassic
@@ -113,6 +132,13 @@ class ModularizationApp : CliktCommand() {
         m.proveStrategy.disableProofBodyEquivalenceWithAbstractionBody = disableProofBodyEquivalenceWithAbstractionBody
         m.proveStrategy.disableProofBodyEquivalenceWithAbstractionSubFrames = disableProofBodyEquivalenceWithAbstractionSubFrames
         m.proveStrategy.disableUpdateCache = disableUpdateCache
+        m.proveStrategy.portfolio = portfolio
+
+        if (nuxmvWorkers > 0)
+            m.proveStrategy.nuXmvPool = NuXMVPool(listOf(nuxmvPath), nuxmvWorkers, nuxmvTimeout, outputFolder)
+
+        if (z3Workers > 0)
+            m.proveStrategy.smtPool = SmtSolverPool(size = z3Workers, timeout = z3Timeout)
 
         m.proveStrategy.assumeAsProven.addAll(this.assume)
         info("Following sub-calls are marked as proven by assumption: ${m.proveStrategy.assumeAsProven}")
@@ -124,6 +150,8 @@ class ModularizationApp : CliktCommand() {
             info("Start with the proof")
             m.proof()
         }
+        m.proveStrategy.nuXmvPool?.close()
+        m.proveStrategy.smtPool?.close()
     }
 }
 
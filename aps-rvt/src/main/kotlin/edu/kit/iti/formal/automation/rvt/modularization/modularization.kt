@@ -9,15 +9,19 @@ import edu.kit.iti.formal.automation.scope.Scope
 import edu.kit.iti.formal.automation.st.ast.*
 import edu.kit.iti.formal.automation.st.util.AstVisitorWithScope
 import edu.kit.iti.formal.automation.st.util.UsageFinder
+import edu.kit.iti.formal.smv.CanonicalCopier
 import edu.kit.iti.formal.smv.SMVFacade
 import edu.kit.iti.formal.smv.SMVPrinter
 import edu.kit.iti.formal.smv.ast.*
 import edu.kit.iti.formal.smv.conjunction
 import edu.kit.iti.formal.util.CodeWriter
 import edu.kit.iti.formal.util.info
+import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
 import java.io.File
 import java.util.*
+import java.util.concurrent.Executors
 import kotlin.collections.HashMap
 import kotlin.collections.component1
 import kotlin.collections.component2
@@ -212,12 +216,21 @@ class ModularProver(
         }
     }
 
+    /** Number of threads on which independent frame pairs are proven. */
+    var parallelism = Runtime.getRuntime().availableProcessors()
+
     fun proof() {
         outputFolder.mkdirs()
-        //runBlocking(ModApp.processContext) {
-            val equal = proveStrategy.proofEquivalenceTopLevel()
-            info("Proof result: $equal")
-        //}
+        val executor = Executors.newFixedThreadPool(parallelism)
+        proveStrategy.solvers = Semaphore(parallelism)
+        try {
+            runBlocking(executor.asCoroutineDispatcher()) {
+                val equal = proveStrategy.proofEquivalenceTopLevel()
+                info("Proof result: $equal")
+            }
+        } finally {
+            executor.shutdown()
+        }
     }
 
     fun inferReveContexts() {
@@ -277,6 +290,10 @@ object ModFacade {
         complete.accept(se)
         val moduleBuilder = ModuleBuilder(complete, se.peek())
         moduleBuilder.run()
+        // the frames are changed in place by the strategies, see SymbExFacade
+        val copier = CanonicalCopier()
+        moduleBuilder.module.accept(copier)
+        se.catch.values.forEach { it.copyCanonical(copier) }
         return moduleBuilder.module to se.catch
     }
 
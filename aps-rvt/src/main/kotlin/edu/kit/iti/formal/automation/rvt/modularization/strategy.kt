@@ -12,6 +12,7 @@ import edu.kit.iti.formal.automation.rvt.translators.DefaultTypeTranslator
 import edu.kit.iti.formal.automation.scope.Scope
 import edu.kit.iti.formal.automation.smt.DefaultS2SFunctionTranslator
 import edu.kit.iti.formal.automation.smt.DefaultS2STranslator
+import edu.kit.iti.formal.automation.smt.SMTProgram
 import edu.kit.iti.formal.automation.smt.Smv2SmtVisitor
 import edu.kit.iti.formal.automation.st.ast.*
 import edu.kit.iti.formal.automation.st.util.AstMutableVisitor
@@ -20,12 +21,23 @@ import edu.kit.iti.formal.smv.*
 import edu.kit.iti.formal.smv.ast.*
 import edu.kit.iti.formal.util.CodeWriter
 import edu.kit.iti.formal.util.info
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import java.io.File
+import java.io.Writer
 import java.math.BigInteger
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 import kotlin.collections.HashMap
 import kotlin.collections.HashSet
 
@@ -50,6 +62,25 @@ class DefaultEqualityStrategy(mp: ModularProver) {
     var disableUpdateCache = false
     var disableCheckCache = false
 
+    /**
+     * If set, the SMT and the classic model-checking strategies are started at the same time,
+     * after the syntactical and SSA checks failed. The first successful proof cancels the other.
+     */
+    var portfolio = false
+
+    /** If set, the proofs are run on these persistent nuXmv processes, instead of one process per proof. */
+    var nuXmvPool: NuXMVPool? = null
+
+    /** If set, the SMT proofs are run on these persistent z3 processes, and the SMT problems are not written to disk. */
+    var smtPool: SmtSolverPool? = null
+
+    /**
+     * Bounds the solver processes (z3 and nuXmv) started without a pool. They wait on the IO dispatcher,
+     * hence they are not bounded by the threads of the proof. Set by [ModularProver.proof] from its parallelism.
+     */
+    var solvers = Semaphore(Runtime.getRuntime().availableProcessors())
+
+    /** Read during the proof by concurrent coroutines, hence set it before. */
     var assumeAsProven = TreeSet<String>()
 
     val reveContextManager: ReveContextManager = mp.ctxManager
@@ -61,12 +92,12 @@ class DefaultEqualityStrategy(mp: ModularProver) {
     val newProgram = mp.newProgram
     val topLevelContext = mp.context
 
-    val smvCache = HashMap<Frame, SymbolicState>()
+    val smvCache = ConcurrentHashMap<Frame, SymbolicState>()
 
-    /*suspend*/ fun proofEquivalenceTopLevel() =
+    suspend fun proofEquivalenceTopLevel() =
             proofEquivalence(oldProgram.frame, newProgram.frame, topLevelContext)
 
-    /*suspend*/ fun proofEquivalence(old: Frame, new: Frame,
+    suspend fun proofEquivalence(old: Frame, new: Frame,
                                      ctx: ReveContext = reveContextManager.get(old, new)): Boolean {
         val lp = logprfx("proofEquivalence", old, new)
 
@@ -84,29 +115,87 @@ class DefaultEqualityStrategy(mp: ModularProver) {
 
         if (!equal) stat.time("cache") { equal = checkCache(old, new, ctx) }
 
-        if (!equal) stat.time("src") {
+        if (!equal) equal = deduplicated(old, new, ctx) { proofBodyEquivalence(old, new, ctx, stat) }
+
+        info("$lp Timings: ${stat}")
+        return equal
+    }
+
+    /** The cascade of the proof strategies, cheapest first. A successful proof is cached. */
+    private suspend fun proofBodyEquivalence(old: Frame, new: Frame, ctx: ReveContext, stat: StopWatch): Boolean {
+        var equal = false
+        stat.time("src") {
             equal = proofBodyEquivalenceSource(old, new, ctx)
         }
         if (!equal) stat.time("ssa") {
             equal = proofBodyEquivalenceSSA(old, new, ctx)
         }
-        if (!equal) stat.time("smt") {
-            equal = proofBodyEquivalenceSMT(old, new, ctx)
-        }
-        if (!equal) stat.time("mod") {
-            equal = proofBodyEquivalenceWithAbstraction(old, new, ctx)
-        }
-        if (!equal) stat.time("cmc") {
-            equal = proofBodyEquivalenceClassic(old, new, ctx)
+        if (portfolio) {
+            if (!equal) equal = firstProof(stat,
+                    "smt" to suspend { proofBodyEquivalenceSMT(old, new, ctx) },
+                    "cmc" to suspend { proofBodyEquivalenceClassic(old, new, ctx) })
+            if (!equal) stat.time("mod") {
+                equal = proofBodyEquivalenceWithAbstraction(old, new, ctx)
+            }
+        } else {
+            if (!equal) stat.time("smt") {
+                equal = proofBodyEquivalenceSMT(old, new, ctx)
+            }
+            if (!equal) stat.time("mod") {
+                equal = proofBodyEquivalenceWithAbstraction(old, new, ctx)
+            }
+            if (!equal) stat.time("cmc") {
+                equal = proofBodyEquivalenceClassic(old, new, ctx)
+            }
         }
         if (equal) updateCache(old, new, ctx, equal)
-
-        info("$lp Timings: ${stat}")
         return equal
     }
 
     //region caching
-    private val equivCache = arrayListOf<Triple<String, String, ReveContext>>()
+    private val equivCache = CopyOnWriteArrayList<Triple<String, String, ReveContext>>()
+
+    /** Running proofs of instance pairs under a perfect context, i.e., those that end up in [equivCache]. */
+    private val inFlight = ConcurrentHashMap<Pair<String, String>, Deferred<Boolean>>()
+
+    /**
+     * Runs [proof], unless the same pair of instances is already proven by another coroutine under a perfect
+     * context. Then its verdict is awaited: a success holds for every context, like a hit in [equivCache],
+     * a failure only for a perfect context. Otherwise, and if the other proof is cancelled, [proof] is run.
+     */
+    private suspend fun deduplicated(old: Frame, new: Frame, ctx: ReveContext, proof: suspend () -> Boolean): Boolean {
+        val oldInstance = old.block.originalInvoked.name
+        val newInstance = new.block.originalInvoked.name
+        if (disableCheckCache || disableUpdateCache || oldInstance == null || newInstance == null) return proof()
+
+        val lp = logprfx("deduplicated", old, new)
+        val key = oldInstance to newInstance
+        // the abstraction proves the same instances again, it must not wait for itself
+        val owned = coroutineContext[OwnedProofs]?.keys ?: emptySet()
+        if (key in owned) return proof()
+        val own = CompletableDeferred<Boolean>()
+        val running = if (ctx.isPerfect) inFlight.computeIfAbsent(key) { own } else inFlight[key]
+        if (running != null && running !== own) {
+            info("$lp Await the running proof of $oldInstance with $newInstance")
+            val r = try {
+                running.await()
+            } catch (e: CancellationException) {
+                coroutineContext.ensureActive()
+                null
+            }
+            return if (r != null && (r || ctx.isPerfect)) r else proof()
+        }
+        if (running == null) return proof()
+        try {
+            return withContext(OwnedProofs(owned + key)) { proof() }.also { own.complete(it) }
+        } catch (e: Throwable) {
+            own.cancel()
+            throw e
+        } finally {
+            inFlight.remove(key, own)
+        }
+    }
+
     private fun checkCache(old: Frame, new: Frame, ctx: ReveContext): Boolean {
         val lp = logprfx("checkCache", old, new)
 
@@ -141,13 +230,18 @@ class DefaultEqualityStrategy(mp: ModularProver) {
             info("$lp Update cache with $oldInstance and $newInstance")
         }
     }
+
+    /** The keys of [inFlight] owned by the current coroutine or its parents. */
+    private class OwnedProofs(val keys: Set<Pair<String, String>>) : AbstractCoroutineContextElement(OwnedProofs) {
+        companion object Key : CoroutineContext.Key<OwnedProofs>
+    }
     //endregion
 
     /**
      * Proofs the equivalence of the given frames without respect to the
      */
-    /*suspend*/ fun proofBodyEquivalenceClassic(old: Frame, new: Frame,
-                                                ctx: ReveContext = reveContextManager.get(old, new)): Boolean {
+    suspend fun proofBodyEquivalenceClassic(old: Frame, new: Frame,
+                                            ctx: ReveContext = reveContextManager.get(old, new)): Boolean {
         val lp = logprfx("proofBodyEquivalenceClassic", old, new)
 
         if (disableProofBodyEquivalenceClassic) {
@@ -170,7 +264,7 @@ class DefaultEqualityStrategy(mp: ModularProver) {
 
         info("$lp Starting proof: $smvFile, $logFile")
 
-        val r = runBlocking { runNuXmv(modules, smvFile, logFile) }
+        val r = runNuXmv(modules, smvFile, logFile)
 
         if (r) {
             info("$lp Equality proven")
@@ -194,9 +288,9 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         return moduleBuilder.module
     }
 
-    private val abstractionRecursionProtection = HashSet<Pair<String, String>>()
+    private val abstractionRecursionProtection: MutableSet<Pair<String, String>> = ConcurrentHashMap.newKeySet()
 
-    private /*suspend*/ fun proofBodyEquivalenceWithAbstraction(old: Frame, new: Frame, ctx: ReveContext): Boolean {
+    private suspend fun proofBodyEquivalenceWithAbstraction(old: Frame, new: Frame, ctx: ReveContext): Boolean {
         val lp = logprfx("proofBodyEquivalenceWithAbstraction", old, new)
 
         if (old.name.endsWith("_abstracted") && (new.name.endsWith("_abstracted"))) {
@@ -237,7 +331,7 @@ class DefaultEqualityStrategy(mp: ModularProver) {
     /**
      *
      */
-    private /*suspend*/ fun proofBodyEquivalenceWithAbstractionBody(
+    private suspend fun proofBodyEquivalenceWithAbstractionBody(
             old: Frame, new: Frame, ctx: ReveContext = reveContextManager.get(old, new),
             oldAbstractedFrames: List<BlockStatement>,
             newAbstractedFrames: List<BlockStatement>): Boolean {
@@ -291,7 +385,7 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         return proofEquivalence(oldM, newM, ctxNew)
     }
 
-    private /*suspend*/ fun proofBodyEquivalenceWithAbstractionSubFrames(
+    private suspend fun proofBodyEquivalenceWithAbstractionSubFrames(
             old: Frame, new: Frame, ctx: ReveContext = reveContextManager.get(old, new),
             oldAbstractedFrames: List<BlockStatement>,
             newAbstractedFrames: List<BlockStatement>): Boolean {
@@ -301,27 +395,16 @@ class DefaultEqualityStrategy(mp: ModularProver) {
             return false
         }
 
-        val subFrames = callSitePairs.asSequence()
+        val subFrames = callSitePairs
                 .filter { (a, b) -> a.isTruePrefix(old.block.fqName) && b.isTruePrefix(new.block.fqName) }
 
         val names = subFrames.joinToString { (a, b) -> "${a.name}=${b.name}" }
         info("$lp Proving sub-frames: $names")
 
-        val ctxEqual = subFrames.all { (cOld, cNew) ->
-            //async
+        val ret = allConcurrently(subFrames) { (cOld, cNew) ->
             proofEquivalence(createFrame(cOld, oldProgram.complete.scope),
                     createFrame(cNew, newProgram.complete.scope))
         }
-
-        /*var ret = true
-        for (deferred in ctxEqual) {
-            if (!ret) {
-                deferred.cancel("Because!")
-                continue
-            }
-            ret = ret && !deferred //!deferred.await()
-        }*/
-        val ret = ctxEqual
         if (ret) {
             info("$lp proved equality of subframes")
         } else {
@@ -351,7 +434,7 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         return result
     }
 
-    /*suspend*/ fun proofBodyEquivalenceSSA(old: Frame, new: Frame, ctx: ReveContext): Boolean {
+    suspend fun proofBodyEquivalenceSSA(old: Frame, new: Frame, ctx: ReveContext): Boolean {
         val lp = logprfx("proofBodyEquivalenceSSA", old, new)
         if (disableProofBodyEquivalenceSSA) {
             info("$lp Skipped because `disableProofBodyEquivalenceSSA` is set")
@@ -376,7 +459,7 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         return r
     }
 
-    /*suspend*/ fun proofBodyEquivalenceSMT(old: Frame, new: Frame, ctx: ReveContext): Boolean {
+    suspend fun proofBodyEquivalenceSMT(old: Frame, new: Frame, ctx: ReveContext): Boolean {
         val lp = logprfx("proofBodyEquivalenceSMT", old, new)
         if (disableProofBodyEquivalenceSMT) {
             info("$lp Skipped because `disableProofBodyEquivalenceSMT` is set")
@@ -384,57 +467,93 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         }
         info("$lp Proof equivalence of frames ${old.name} and ${new.name}")
 
-        info("$lp Translate ${old.name} to SMT")
         val pfxOld = "O_"
         val pfxNew = "N_"
-        val oldSmv = smt(old, oldProgram.complete.scope, pfxOld)
-
-        info("$lp Translate ${new.name} to SMT")
-        val newSmv = smt(new, newProgram.complete.scope, pfxNew)
-
-        info("$lp Create assertion")
-        /*
-        val commontInputState =
-                old.block.input.intersect(new.block.input) + old.block.state.intersect(new.block.state)
-        val commonOutput = old.block.output.intersect(new.block.output)
-        */
-
-        val assertion = CodeWriter()
-
-        val equalInputStateSmv = ctx.createInRelation(old.block, new.block, pfxOld, pfxNew) and ctx.condition
-        val equalOutputStateSmv = ctx.createOutRelation(old.block, new.block, pfxOld, pfxNew)
-
-        val equalInputState = smv2smt(equalInputStateSmv).toString()
-        /*commontInputState.joinToString(" ") {
-    val op = ctx.relationBetween(it.identifier, it.identifier)
-    "(${op.symbol()} O_${it.identifier} N_${it.identifier})"
-        }*/
-
-        val equal = smv2smt(equalOutputStateSmv).toString()/*commonOutput.joinToString(" ") {
-            val op = ctx.relationBetween(it.identifier, it.identifier)
-            "(${op.symbol()} O_${it.identifier} N_${it.identifier})"
-        }*/
-
-        assertion.write("(assert (and $equalInputState))\n")
-        assertion.write("(assert (not (and $equal)))\n")
-        assertion.write("(check-sat)\n")
-        val smtProblem = oldSmv + newSmv + assertion.stream
-
-        val smtFile = file("${old.name}_${new.name}_equiv.smt")
-        info("$lp Write SMT problem into $smtFile")
-
-        //withContext(Dispatchers.IO) {
-        smtFile.bufferedWriter().use { it.write(smtProblem) }
-        //}
+        val equalInputState = smv2smt(ctx.createInRelation(old.block, new.block, pfxOld, pfxNew) and ctx.condition)
+        val equal = smv2smt(ctx.createOutRelation(old.block, new.block, pfxOld, pfxNew))
+
+        // the problem is written directly into the solver, resp. the file
+        val problem = { out: Writer ->
+            info("$lp Translate ${old.name} to SMT")
+            smt(old, oldProgram.complete.scope, pfxOld, out)
+            info("$lp Translate ${new.name} to SMT")
+            smt(new, newProgram.complete.scope, pfxNew, out)
+            info("$lp Create assertion")
+            out.append("(assert (and ")
+            equalInputState.writeTo(out)
+            out.append("))\n(assert (not (and ")
+            equal.writeTo(out)
+            out.append(")))\n(check-sat)\n")
+        }
+
+        val pool = smtPool
+        val r = if (pool != null) {
+            info("$lp Run z3 pool for ${old.name}_${new.name}_equiv")
+            // the operator definitions are loaded once per worker
+            SmtFacade.checkSmtSat(pool, SMTProgram.OPERATORS, problem) == SmtAnswer.UNSAT
+        } else {
+            val smtFile = file("${old.name}_${new.name}_equiv.smt")
+            info("$lp Write SMT problem into $smtFile")
+            withContext(Dispatchers.IO) {
+                smtFile.bufferedWriter().use {
+                    it.write(SMTProgram.OPERATORS)
+                    problem(it)
+                }
+            }
 
-        info("$lp Run z3 for ${old.name}_${new.name}_equiv.smt")
-        val r = runBlocking { SmtFacade.checkSmtSat(smtProblem) == SmtAnswer.UNSAT }
+            info("$lp Run z3 for ${old.name}_${new.name}_equiv.smt")
+            solvers.withPermit { SmtFacade.checkSmtSat(smtFile) } == SmtAnswer.UNSAT
+        }
 
         info("$lp Result of z3 is $r for ${old.name}_${new.name}_equiv.smt")
         return r
     }
 
     //region helpers
+    /**
+     * Proves all [items] concurrently. The first failed proof cancels the remaining ones.
+     */
+    private suspend fun <T> allConcurrently(items: List<T>, proof: suspend (T) -> Boolean): Boolean =
+            coroutineScope {
+                val results = Channel<Boolean>(items.size)
+                val jobs = items.map { launch { results.send(proof(it)) } }
+                repeat(items.size) {
+                    if (!results.receive()) {
+                        jobs.forEach { it.cancel() }
+                        return@coroutineScope false
+                    }
+                }
+                true
+            }
+
+    /**
+     * Runs the [strategies] concurrently. The first successful proof wins and cancels the others,
+     * which kills their solver processes. The timings and the winner are recorded in [stat].
+     */
+    private suspend fun firstProof(stat: StopWatch, vararg strategies: Pair<String, suspend () -> Boolean>): Boolean =
+            coroutineScope {
+                val results = Channel<Pair<String, Boolean>>(strategies.size)
+                val start = System.currentTimeMillis()
+                val jobs = strategies.map { (name, proof) ->
+                    launch {
+                        try {
+                            results.send(name to proof())
+                        } finally {
+                            stat.record(name, System.currentTimeMillis() - start)
+                        }
+                    }
+                }
+                repeat(strategies.size) {
+                    val (name, proven) = results.receive()
+                    if (proven) {
+                        stat.winner = name
+                        jobs.forEach { it.cancel() }
+                        return@coroutineScope true
+                    }
+                }
+                false
+            }
+
     private val dtSTranslator = DefaultTypeTranslator.INSTANCE
     private val dtTranslator = DefaultS2STranslator()
     private val fnTranslator = DefaultS2SFunctionTranslator()
@@ -444,9 +563,9 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         return expr.accept(v)
     }
 
-    private fun smt(frame: Frame, e: Scope, prefix: String): String {
+    private fun smt(frame: Frame, e: Scope, prefix: String, out: Appendable) {
         val v = Smv2SmtVisitor(fnTranslator, dtTranslator, statePrefix = "")
-        val out = CodeWriter()
+        val sexpr = PrefixingWriter(out, prefix)
         val state = symbex(frame)
         val inputVars = frame.block.input.map { it.identifier }
         val stateVars = frame.block.state.map { it.identifier }
@@ -455,7 +574,7 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         e.variables.filter { it.name in inputVars || it.name in outputVars || it.name in stateVars }
                 .forEach {
                     val dt = dtTranslator.translate(dtSTranslator.translate(it.dataType!!))
-                    out.write("(declare-const ${prefix}${it.name} $dt)\n")
+                    out.append("(declare-const ${prefix}${it.name} $dt)\n")
                 }
 
         val defs = state.getAllDefinitions()
@@ -464,21 +583,18 @@ class DefaultEqualityStrategy(mp: ModularProver) {
                     val e = state[it] ?: error("output variable not in defined in SSA.")
                     val e1 = e.replaceExhaustive(defs)
                     val expr = e1.accept(v)
-                    out.write("(assert (= ${prefix}${it.name} ${expr.toString(prefix)}))\n")
+                    out.append("(assert (= ${prefix}${it.name} ")
+                    sexpr.write(expr)
+                    out.append("))\n")
                 }
-        return out.stream.toString()
     }
 
-    private fun SExpr.toString(varPrefix: String): String = when (this) {
-        is SSymbol ->
-            if (!text.startsWith("#")) "${varPrefix}${this.text}"
-            else toString()
-        is SList -> {
-            val args = if (list.isNotEmpty()) list.drop(1).joinToString(" ") { it.toString(varPrefix) }
-            else ""
-            "(${list.first()} $args)"
+    /** Prefixes the symbols in argument positions, i.e., the variables, with [varPrefix]. */
+    private class PrefixingWriter(out: Appendable, val varPrefix: String) : SExprWriter(out) {
+        override fun writeAtom(atom: SAtom, operator: Boolean) {
+            if (!operator && atom is SSymbol && !atom.text.startsWith("#")) out.append(varPrefix)
+            super.writeAtom(atom, operator)
         }
-        else -> toString()
     }
 
     private fun symbex(frame: Frame, useDefs: Boolean = false): SymbolicState =
@@ -494,9 +610,18 @@ class DefaultEqualityStrategy(mp: ModularProver) {
         }
 
         info("runNuXmv: Run solver on $smvFile")
-        val nuxmv = NuXMVProcess(smvFile, xmvCommandFile)
-        nuxmv.outputFile = logFile
-        val result = nuxmv.call()
+        val pool = nuXmvPool
+        val result = if (pool != null) {
+            val future = pool.submit(smvFile, xmvIc3Commands, logFile)
+            suspendCancellableCoroutine<NuXMVOutput> { cont ->
+                cont.invokeOnCancellation { future.cancel(true) }
+                future.whenComplete { r, e -> if (e != null) cont.resumeWithException(e) else cont.resume(r) }
+            }
+        } else {
+            val nuxmv = NuXMVProcess(smvFile, xmvCommandFile)
+            nuxmv.outputFile = logFile
+            solvers.withPermit { nuxmv.call() }
+        }
         info("runNuXmv: Solver finished for $smvFile with $result")
         return when (result) {
             NuXMVOutput.Verified -> true
@@ -519,13 +644,13 @@ class DefaultEqualityStrategy(mp: ModularProver) {
     //endregion
 
     //region symbolic execution with abstraction
-    var uniqueCnt = 0
+    private val uniqueCnt = AtomicInteger()
     fun abstractFrames(exec: Frame, abstractedBlocks: List<BlockStatement>)
             : Triple<Frame, HashMap<BlockStatement, Map<String, String>>, HashMap<BlockStatement, Map<String, String>>> {
         val (abstracted, inputs, outputs)
                 = createProgramWithAbstraction(exec, abstractedBlocks)
 
-        file("${exec.block.name}_abstracted_${++uniqueCnt}.st").bufferedWriter()
+        file("${exec.block.name}_abstracted_${uniqueCnt.incrementAndGet()}.st").bufferedWriter()
                 .use {
                     IEC61131Facade.printTo(
                             it,
@@ -577,15 +702,25 @@ class DefaultEqualityStrategy(mp: ModularProver) {
 
 class StopWatch {
     private val data = TreeMap<String, Long>()
-    fun time(name: String, function: () -> Unit) {
+    inline fun time(name: String, function: () -> Unit) {
         val start = System.currentTimeMillis()
         function()
         val end = System.currentTimeMillis()
-        data[name] = (end - start)
+        record(name, end - start)
     }
 
+    /** The strategy that won a race, see [DefaultEqualityStrategy.portfolio]. */
+    @Volatile
+    var winner: String? = null
+
+    @Synchronized
+    fun record(name: String, millis: Long) {
+        data[name] = millis
+    }
+
+    @Synchronized
     override fun toString(): String {
-        return data.toString()
+        return if (winner == null) data.toString() else "$data, winner: $winner"
     }
 }
 
@@ -807,7 +942,12 @@ class ProcessRunner(val commandLine: Array<String>,
             // destroy the sub-process, if java is killed
             Runtime.getRuntime().addShutdownHook(
                     Thread { if (process.isAlive) process.destroyForcibly() })
-            process.waitFor()
+            try {
+                // or if the proof is cancelled
+                while (!process.waitFor(50, TimeUnit.MILLISECONDS)) ensureActive()
+            } finally {
+                if (process.isAlive) process.destroyForcibly()
+            }
             stdoutFile.bufferedReader().readText()
         }
     }
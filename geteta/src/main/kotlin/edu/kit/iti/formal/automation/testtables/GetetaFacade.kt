@@ -21,6 +21,10 @@ import edu.kit.iti.formal.automation.testtables.model.automata.AutomatonState
 import edu.kit.iti.formal.automation.testtables.model.automata.TestTableAutomaton
 import edu.kit.iti.formal.automation.testtables.model.automata.Transition
 import edu.kit.iti.formal.automation.testtables.model.automata.TransitionType
+import edu.kit.iti.formal.automation.testtables.model.options.RowEncoding
+import edu.kit.iti.formal.automation.testtables.model.options.TableOptions
+import edu.kit.iti.formal.automation.testtables.monitor.JvmMonitor
+import edu.kit.iti.formal.automation.testtables.monitor.JvmMonitorCompiler
 import edu.kit.iti.formal.automation.testtables.print.DSLTablePrinter
 import edu.kit.iti.formal.automation.testtables.viz.CounterExampleAnalyzer
 import edu.kit.iti.formal.automation.testtables.viz.Mapping
@@ -241,12 +245,30 @@ object GetetaFacade {
     fun constructTable(table: GeneralizedTestTable) =
             AutomatonBuilderPipeline(table).transform()
 
+    /**
+     * The automaton of [table] with one state per cycle, regardless of [TableOptions.rowEncoding].
+     * Used by the back ends without support of counter states: the ST monitor and the miter construction.
+     */
+    fun constructExplicitTable(table: GeneralizedTestTable): AutomataTransformerState {
+        val encoding = table.options.rowEncoding
+        table.options.rowEncoding = RowEncoding.EXPLICIT
+        try {
+            return constructTable(table)
+        } finally {
+            table.options.rowEncoding = encoding
+        }
+    }
+
     fun constructSMV(table: GeneralizedTestTable, superEnum: EnumType) =
             constructSMV(constructTable(table), superEnum)
 
     fun constructSMV(automaton: AutomataTransformerState, superEnum: EnumType) =
             SmvConstructionPipeline(automaton, superEnum).transform()
 
+    /** A monitor of [table] for the evaluation of traces inside the JVM. */
+    fun compileMonitor(table: GeneralizedTestTable): JvmMonitor =
+            JvmMonitorCompiler(table, constructTable(table).automaton).call()
+
     fun analyzeCounterExample(automaton: TestTableAutomaton, testTable: GeneralizedTestTable, counterExample: CounterExample): MutableList<Mapping> {
         val analyzer = CounterExampleAnalyzer(automaton, testTable, counterExample,
                 "_${testTable.name}")
@@ -9,11 +9,12 @@ import edu.kit.iti.formal.automation.ProgramOptions
 import edu.kit.iti.formal.automation.SymbExFacade
 import edu.kit.iti.formal.automation.smt.*
 import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.smt.SExprWriter
 import edu.kit.iti.formal.smt.SList
 import edu.kit.iti.formal.smv.ExpressionReplacer
-import edu.kit.iti.formal.smv.SMVAstVisitor
 import edu.kit.iti.formal.smv.ast.*
 import edu.kit.iti.formal.smv.conjunction
+import edu.kit.iti.formal.smv.unfoldDefinitions
 import edu.kit.iti.formal.util.info
 import java.io.File
 
@@ -56,7 +57,7 @@ class CoverageApp : CliktCommand(
 
         val definitions = modCode.definitions.map { it.target.name to it.expr }.toMap()
         //val r = ExpressionReplacer(definitions)
-        modCode.unfold()
+        modCode.unfoldDefinitions()
 
         val dtTranslator: S2SDataTypeTranslator = DefaultS2STranslator()
         val fnTranslator: S2SFunctionTranslator = DefaultS2SFunctionTranslator()
@@ -75,25 +76,30 @@ class CoverageApp : CliktCommand(
             var renamer = ExpressionReplacer(varRename)
 
             File(outputFile, "${gtt.name}.smt2").bufferedWriter().use { out ->
-                out.write(";;Preamble\n${program.preamble}\n;;--\n")
-                out.write(program.getStepDefinition(true, "old"))
+                val sexpr = SExprWriter(out)
+                out.write(";;Preamble\n")
+                program.writePreamble(out)
+                out.write("\n;;--\n")
+                program.writeStepDefinition(out, true, "old")
                 out.newLine()
-                out.write(program.getStepDefinition(false, "new"))
+                program.writeStepDefinition(out, false, "new")
                 out.newLine()
-                out.write(SList("assert", program.nextBody).toString())
+                sexpr.write(SList("assert", program.nextBody))
                 out.newLine()
                 //println(program.getAssertNext("_cur", "_new"))
                 gtt.region.flat().forEach {
                     val assume = it.inputExpr.values.conjunction(SLiteral.TRUE).accept(renamer).accept(toSmt)
                     val assert = it.outputExpr.values.conjunction(SLiteral.TRUE).accept(renamer).accept(toSmt)
-                    out.write("""
-                        (push)  ;; Table row ${it.id}
-                        (assert $assume) ;; pre-condition
-                        (assert $assert) ;; post-condition
-                    """.trimIndent())
+                    out.write("(push)  ;; Table row ${it.id}\n(assert ")
+                    sexpr.write(assume)
+                    out.write(") ;; pre-condition\n(assert ")
+                    sexpr.write(assert)
+                    out.write(") ;; post-condition")
                     lineMap.branchMap.forEach { (t, _) ->
                         val e = definitions[t]?.accept(toSmtState)
-                        out.write("\t(push) (assert ${e}) (check-sat) (pop);; check for $t")
+                        out.write("\t(push) (assert ")
+                        if (e != null) sexpr.write(e) else out.write("null")
+                        out.write(") (check-sat) (pop);; check for $t")
                         out.newLine()
                     }
                     out.write("(pop)\n")
@@ -102,24 +108,3 @@ class CoverageApp : CliktCommand(
         }
     }
 }
-
-private fun SMVModule.unfold() {
-    val defs = definitions.map { it.target to it.expr }.toMap()
-    var m = defs.toMap()
-    val r = ExpressionReplacer(defs)
-    while (true) {
-        r.changed = false
-        val updated = m.map { (t, u) ->
-            t to u.accept(r as SMVAstVisitor<SMVAst>) as SMVExpr
-        }.toMap()
-        m = updated
-        if (!r.changed) break
-    }
-
-    definitions.clear()
-
-    initAssignments.forEach { it.expr = it.expr.accept(r) as SMVExpr }
-    nextAssignments.forEach { it.expr = it.expr.accept(r) as SMVExpr }
-    transExpr = transExpr.map { it.accept(r) as SMVExpr }.toMutableList()
-    initExpr = initExpr.map { it.accept(r) as SMVExpr }.toMutableList()
-}
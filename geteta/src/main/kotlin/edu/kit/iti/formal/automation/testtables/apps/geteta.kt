@@ -21,8 +21,10 @@ package edu.kit.iti.formal.automation.testtables.apps
 
 import com.github.ajalt.clikt.core.CliktCommand
 import com.github.ajalt.clikt.parameters.groups.provideDelegate
-import com.github.ajalt.clikt.parameters.options.convert
-import com.github.ajalt.clikt.parameters.options.option
+import com.github.ajalt.clikt.parameters.options.*
+import com.github.ajalt.clikt.parameters.types.file
+import com.github.ajalt.clikt.parameters.types.int
+import com.github.ajalt.clikt.parameters.types.long
 import com.github.jferard.fastods.tool.FastOds
 import edu.kit.iti.formal.automation.*
 import edu.kit.iti.formal.automation.rvt.LineMap
@@ -33,13 +35,17 @@ import edu.kit.iti.formal.automation.testtables.GetetaFacade
 import edu.kit.iti.formal.automation.testtables.algorithms.MultiModelGluer
 import edu.kit.iti.formal.automation.testtables.builder.*
 import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
+import edu.kit.iti.formal.automation.testtables.model.VerificationTechnique
 import edu.kit.iti.formal.automation.testtables.model.automata.TestTableAutomaton
 import edu.kit.iti.formal.automation.testtables.model.options.Mode
+import edu.kit.iti.formal.automation.testtables.monitor.CsvTrace
+import edu.kit.iti.formal.automation.testtables.monitor.MonitorVerdict
 import edu.kit.iti.formal.automation.testtables.viz.AutomatonDrawer
 import edu.kit.iti.formal.automation.testtables.viz.CounterExamplePrinterJson
 import edu.kit.iti.formal.automation.testtables.viz.CounterExamplePrinterWithProgram
 import edu.kit.iti.formal.automation.testtables.viz.ODSCounterExampleWriter
 import edu.kit.iti.formal.smv.NuXMVOutput
+import edu.kit.iti.formal.smv.ast.SMVModule
 import edu.kit.iti.formal.util.*
 import java.io.File
 import kotlin.system.exitProcess
@@ -68,6 +74,26 @@ class GetetaApp : CliktCommand(
     val mode by option("-m", "--mode", help = "verification mode")
             .convert { Mode.valueOf(it) }
 
+    val traces by option("--trace", help = "recorded traces (CSV) to check the tables against before model checking")
+            .file(mustExist = true, mustBeReadable = true)
+            .multiple()
+
+    val parallel by option("--parallel", help = "verify every table (and technique) in its own nuXmv run")
+            .flag()
+
+    val techniques by option("--technique", help = "verification technique, a job per technique in parallel mode: " +
+            VerificationTechnique.values().joinToString(",") { it.name })
+            .convert { VerificationTechnique.valueOf(it.toUpperCase()) }
+            .multiple()
+
+    val jobs by option("-j", "--jobs", help = "maximal number of nuXmv processes in parallel mode")
+            .int()
+            .default(Runtime.getRuntime().availableProcessors())
+
+    val timeout by option("--timeout", help = "global deadline in seconds for all nuXmv runs in parallel mode")
+            .long()
+            .default(0)
+
     override fun run() {
         val gtts = tableOptions.readTables()
 
@@ -83,6 +109,11 @@ class GetetaApp : CliktCommand(
             info("Mode is ${it.options.mode} for table ${it.name}")
         }
 
+        if (traces.isNotEmpty() && !checkTraces(gtts)) {
+            info("STATUS: not-verified")
+            exitProcess(0)
+        }
+
         val (lineMap, modCode) = SymbExFacade.evaluateProgramWithLineMap(code,
                 programOptions.disableSimplify)
         info("Program evaluation")
@@ -102,6 +133,14 @@ class GetetaApp : CliktCommand(
             info("For drawing the automaton use: `--draw-automaton'.")
         }
 
+        if (parallel) {
+            if (tableOptions.enableMesh) warn("--parallel is ignored for meshed tables.")
+            else {
+                verifyInParallel(tt, modCode, lineMap, code)
+                return
+            }
+        }
+
         val modules =
                 if (tableOptions.enableMesh) {
                     warn("mesh gtt support is experimental and not well-tested or completely implemented!!!")
@@ -141,7 +180,7 @@ class GetetaApp : CliktCommand(
 
         val t = this.tableOptions.table.first()
         val folder = File(t.parent, t.nameWithoutExtension).absolutePath
-        val verificationTechnique = gtts.first().options.verificationTechnique
+        val verificationTechnique = techniques.firstOrNull() ?: gtts.first().options.verificationTechnique
         info("Run nuXmv: $nuxmv in $folder using ${verificationTechnique}")
         val nuxmv = findProgram(nuxmv)
 
@@ -186,6 +225,80 @@ class GetetaApp : CliktCommand(
         }
     }
 
+    /**
+     * Verifies every table with every technique in its own nuXmv run, see [ParallelVerification].
+     * The verdicts are printed and written to `verdicts.jsonl` when a job finishes.
+     */
+    private fun verifyInParallel(tt: List<SMVConstructionModel>, modCode: SMVModule,
+                                 lineMap: LineMap, code: PouExecutable) {
+        val t = this.tableOptions.table.first()
+        val folder = File(t.parent, t.nameWithoutExtension)
+        val nuxmv = findProgram(nuxmv)
+        val pv = ParallelVerification(modCode, tt.first().testTable.programRuns.first(),
+                nuxmv?.absolutePath ?: "n/a", jobs, 1000 * timeout)
+        for (model in tt) {
+            val vts = techniques.ifEmpty { listOf(model.testTable.options.verificationTechnique) }
+            for (vt in vts) pv.add(model, vt, File(folder, "${model.testTable.name}_$vt"))
+        }
+
+        if (!dryRun) {
+            pv.jobs.forEach { GetetaFacade.createNuXMVProcess(it.folder.absolutePath, pv.modules(it), pv.nuxmv, it.technique) }
+            info("Model checker skipped due to `--dont-model-check` flag.")
+            return
+        }
+        if (nuxmv == null) {
+            error("Could not find ${this.nuxmv}.")
+            exitProcess(1)
+        }
+
+        info("Run ${pv.jobs.size} nuXmv jobs in $folder with at most $jobs processes")
+        val json = File(outputFolder, "verdicts.jsonl")
+        val verdicts = json.bufferedWriter().use { out ->
+            pv.run { v ->
+                info("STATUS ${v.job.name}: ${v.status} (${v.millis} ms)")
+                out.write(v.toJson())
+                out.newLine()
+                out.flush()
+                val b = v.output
+                if (b is NuXMVOutput.Cex) {
+                    val models = listOf(v.job.model)
+                    if (cexAnalysation.cexPrinter) useCounterExamplePrinter(outputFolder, b, models, lineMap, code)
+                    if (cexAnalysation.cexJson) useCounterExamplePrinterJson(outputFolder, b, models)
+                    if (cexAnalysation.runAnalyzer) createRowMapping(b, models)
+                }
+            }
+        }
+
+        val status = when {
+            verdicts.any { it.output is NuXMVOutput.Cex } -> "not-verified"
+            verdicts.any { it.output is NuXMVOutput.Error } -> "error"
+            verdicts.any { it.output == null } -> "timeout"
+            else -> "verified"
+        }
+        info("STATUS: $status")
+        exitProcess(if (verdicts.any { it.output is NuXMVOutput.Error }) 1 else 0)
+    }
+
+    /**
+     * Runs the tables as monitors on the given [traces]. Returns false if a trace violates a table.
+     */
+    private fun checkTraces(gtts: List<GeneralizedTestTable>): Boolean {
+        var valid = true
+        for (gtt in gtts) {
+            val monitor = GetetaFacade.compileMonitor(gtt)
+            for (trace in traces) {
+                monitor.reset()
+                val result = trace.bufferedReader().use { monitor.run(CsvTrace(it, monitor)) }
+                info("Trace $trace on table ${gtt.name}: ${result.verdict} after ${result.cycles} cycles")
+                if (result.verdict == MonitorVerdict.ERROR) {
+                    error("Table ${gtt.name} is violated by $trace in cycle ${result.cycles}.")
+                    valid = false
+                }
+            }
+        }
+        return valid
+    }
+
     private fun useCounterExamplePrinterJson(outputFolder: String,
                                              result: NuXMVOutput.Cex,
                                              tt: List<SMVConstructionModel>) {
@@ -314,7 +427,7 @@ class GetetaSmtApp : CliktCommand() {
 
         for (table in tables) {
             info("Compute miter and product program for table ${table.name}")
-            val automaton = GetetaFacade.constructTable(table)
+            val automaton = GetetaFacade.constructExplicitTable(table)
             val mc = GttMiterConstruction(table, automaton.automaton, enum)
             val miter = mc.constructMiter()
             val program = ProgMiterConstruction(pous).constructMiter()
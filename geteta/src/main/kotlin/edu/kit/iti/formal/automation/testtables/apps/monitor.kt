@@ -22,7 +22,7 @@ object Monitor {
 }
 
 enum class CodeOutput {
-    /*STRCUTURED_TEXT, ESTEREL, */CPP//, C
+    /*STRCUTURED_TEXT, ESTEREL, */CPP, C
 }
 
 class MonitorApp : CliktCommand(name = "ttmonitor",
@@ -47,6 +47,9 @@ class MonitorApp : CliktCommand(name = "ttmonitor",
 
     val includes by option("-I", help="give header files to be included").multiple()
 
+    val packStates by option("--pack-states",
+            help = "C monitors: pack the automaton states into 64-bit words").flag()
+
     override fun run() {
         info("Files: ${tableOptions.table}")
         info("Filter: ${tableOptions.tableWhitelist}")
@@ -65,16 +68,16 @@ class MonitorApp : CliktCommand(name = "ttmonitor",
 
         val pairs = gtts.map { it to GetetaFacade.constructTable(it).automaton }
 
-        val options = MonitorGenerationOptions(includes = includes)
+        val options = MonitorGenerationOptions(includes = includes, packStates = packStates)
 
         val output =
-                if (gtts.size == 1 || disableCombinedMonitor) {
+                if (gtts.size == 1 || disableCombinedMonitor || format == CodeOutput.C) {
                     val monitor = Monitor()
                     for ((gtt, automaton) in pairs) {
                         val m = when (format) {
                             //CodeOutput.STRCUTURED_TEXT -> MonitorGenerationST.generate(gtt, automaton)
                             // CodeOutput.ESTEREL -> TODO()
-                            //CodeOutput.C -> CMonitorGenerator.generate(gtt, automaton)
+                            CodeOutput.C -> CMonitorGenerator.generate(gtt, automaton, options)
                             CodeOutput.CPP -> CppMonitorGenerator.generate(gtt, automaton, options)
                         }
                         monitor.preamble = m.preamble
@@ -86,7 +89,7 @@ class MonitorApp : CliktCommand(name = "ttmonitor",
                 } else {
                     when (format) {
                         CodeOutput.CPP -> CppCombinedMonitorGeneration.generate("mcombined", pairs)
-                        //else -> TODO()
+                        CodeOutput.C -> throw IllegalStateException("no combined C monitor")
                     }
                 }
         this.output.bufferedWriter().use {
@@ -0,0 +1,162 @@
+package edu.kit.iti.formal.automation.testtables.apps
+
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.algorithms.MultiModelGluer
+import edu.kit.iti.formal.automation.testtables.builder.SMVConstructionModel
+import edu.kit.iti.formal.automation.testtables.model.VerificationTechnique
+import edu.kit.iti.formal.smv.NuXMVOutput
+import edu.kit.iti.formal.smv.NuXMVPool
+import edu.kit.iti.formal.smv.ast.SMVModule
+import java.io.File
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A table checked with one [technique] in its own nuXmv run. The product of the program and the table
+ * is written to [folder].
+ */
+class VerificationJob(val model: SMVConstructionModel,
+                      val technique: VerificationTechnique,
+                      val folder: File) {
+    val name: String
+        get() = "${model.testTable.name}/$technique"
+}
+
+/**
+ * The result of a [VerificationJob], [output] is null if the job did not finish before the deadline.
+ * [millis] is the time from the start of the verification until the verdict.
+ */
+class JobVerdict(val job: VerificationJob, val output: NuXMVOutput?, val millis: Long) {
+    val status: String
+        get() = when (output) {
+            null -> "timeout"
+            NuXMVOutput.Verified -> "verified"
+            is NuXMVOutput.Error -> "error"
+            is NuXMVOutput.Cex -> "not-verified"
+        }
+
+    fun toJson() = "{\"table\": \"${job.model.testTable.name}\", \"technique\": \"${job.technique}\", " +
+            "\"status\": \"$status\", \"time\": $millis}"
+}
+
+/**
+ * Verifies every table separately, instead of the product of all tables in one nuXmv run.
+ *
+ * All jobs share the SMV module of the program ([program]), which is evaluated once.
+ * The jobs are run on a [NuXMVPool] of [processes] nuXmv processes, which are reused between the jobs. The verdicts are reported in the order
+ * in which the jobs finish. After [timeout] milliseconds (`0` disables the deadline), the running processes
+ * are killed, and the remaining jobs are reported with the status `timeout`.
+ */
+class ParallelVerification(val program: SMVModule,
+                           val programRun: String,
+                           val nuxmv: String,
+                           val processes: Int = Runtime.getRuntime().availableProcessors(),
+                           val timeout: Long = 0) {
+    val jobs = arrayListOf<VerificationJob>()
+
+    fun add(model: SMVConstructionModel, technique: VerificationTechnique, folder: File) {
+        jobs += VerificationJob(model, technique, folder)
+    }
+
+    /** The program and the single table of [job]. */
+    fun modules(job: VerificationJob): List<SMVModule> {
+        val model = job.model
+        val mainModule = MultiModelGluer().apply {
+            addProgramRun(programRun, program)
+            addTable("_" + model.testTable.name, model.ttType!!)
+        }
+        return arrayListOf(mainModule.product, program, model.tableModule) + model.helperModules
+    }
+
+    /** Runs all jobs, [onVerdict] is called on the calling thread as soon as a job finishes. */
+    fun run(onVerdict: (JobVerdict) -> Unit): List<JobVerdict> {
+        val deadline = if (timeout > 0) System.currentTimeMillis() + timeout else Long.MAX_VALUE
+        val start = System.currentTimeMillis()
+        val verdicts = arrayListOf<JobVerdict>()
+        NuXMVPool(listOf(nuxmv), processes.coerceAtLeast(1)).use { pool ->
+            ModelCheckerCompletion<VerificationJob>().use { runs ->
+                // the module files are written sequentially, only the model checkers run concurrently
+                for (job in jobs) {
+                    val process = GetetaFacade.createNuXMVProcess(job.folder.absolutePath, modules(job), nuxmv, job.technique)
+                    runs.submit(job, pool.submit(process.moduleFile, job.technique.commands.toList(), process.outputFile))
+                }
+                runs.await(deadline) { job, output ->
+                    val verdict = JobVerdict(job, output, System.currentTimeMillis() - start)
+                    verdicts += verdict
+                    onVerdict(verdict)
+                }
+            }
+        }
+        return verdicts
+    }
+}
+
+/**
+ * Model checker runs, whose outputs are reported on the calling thread in the order in which the runs finish.
+ *
+ * A run is either a future, e.g., of a [NuXMVPool], or a [Callable], which is executed on one of at most
+ * [threads] daemon threads. A run failing with an exception is reported as [NuXMVOutput.Error].
+ * [close] cancels the runs that are not reported yet.
+ */
+internal class ModelCheckerCompletion<K : Any>(private val threads: Int = 1) : AutoCloseable {
+    private var executor: ExecutorService? = null
+    private val finished = LinkedBlockingQueue<Future<NuXMVOutput>>()
+    private val pending = LinkedHashMap<Future<NuXMVOutput>, K>()
+
+    /** Runs [check] on the threads of this runner. */
+    fun submit(key: K, check: Callable<NuXMVOutput>) {
+        val task = object : FutureTask<NuXMVOutput>(check) {
+            override fun done() {
+                finished.offer(this)
+            }
+        }
+        pending[task] = key
+        val e = executor ?: Executors.newFixedThreadPool(threads.coerceAtLeast(1), daemonThreads())
+        executor = e
+        e.execute(task)
+    }
+
+    fun submit(key: K, future: CompletableFuture<NuXMVOutput>) {
+        pending[future] = key
+        future.whenComplete { _, _ -> finished.offer(future) }
+    }
+
+    /**
+     * Calls [report] for every run as soon as it finishes. The runs not finished at [deadline]
+     * (in epoch milliseconds) are cancelled, and reported without an output.
+     */
+    fun await(deadline: Long = Long.MAX_VALUE, report: (K, NuXMVOutput?) -> Unit) {
+        while (pending.isNotEmpty()) {
+            val remaining = deadline - System.currentTimeMillis()
+            val future = (if (remaining > 0) finished.poll(remaining, TimeUnit.MILLISECONDS) else null)
+                    ?: break
+            val key = pending.remove(future) ?: continue
+            val output = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                NuXMVOutput.Error(listOf(e.cause.toString()))
+            }
+            report(key, output)
+        }
+        val late = pending.entries.toList()
+        pending.clear()
+        // cancelling a run kills its nuXmv process
+        for ((future, key) in late) {
+            future.cancel(true)
+            report(key, null)
+        }
+    }
+
+    override fun close() {
+        pending.keys.forEach { it.cancel(true) }
+        pending.clear()
+        executor?.shutdownNow()
+    }
+
+    private fun daemonThreads(): ThreadFactory {
+        val counter = AtomicInteger()
+        return ThreadFactory { r ->
+            Thread(r, "nuxmv-${counter.incrementAndGet()}").also { it.isDaemon = true }
+        }
+    }
+}
@@ -2,28 +2,36 @@ package edu.kit.iti.formal.automation.testtables.apps
 
 import com.github.ajalt.clikt.core.CliktCommand
 import com.github.ajalt.clikt.parameters.groups.provideDelegate
+import com.github.ajalt.clikt.parameters.options.default
 import com.github.ajalt.clikt.parameters.options.flag
 import com.github.ajalt.clikt.parameters.options.option
+import com.github.ajalt.clikt.parameters.types.int
 import edu.kit.iti.formal.automation.*
 import edu.kit.iti.formal.automation.st.ast.PouExecutable
 import edu.kit.iti.formal.automation.st.ast.ProgramDeclaration
+import edu.kit.iti.formal.automation.st.ast.SFCImplementation
+import edu.kit.iti.formal.automation.st.ast.StatementList
 import edu.kit.iti.formal.automation.st0.TransformationState
 import edu.kit.iti.formal.automation.testtables.GetetaFacade
 import edu.kit.iti.formal.automation.testtables.algorithms.MultiModelGluer
 import edu.kit.iti.formal.automation.testtables.algorithms.OmegaSimplifier
+import edu.kit.iti.formal.automation.testtables.builder.SMVConstructionModel
 import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
 import edu.kit.iti.formal.automation.testtables.model.chapterMarksForProgramRuns
 import edu.kit.iti.formal.automation.testtables.rtt.RTTCodeAugmentation
 import edu.kit.iti.formal.automation.testtables.viz.AutomatonDrawer
 import edu.kit.iti.formal.automation.testtables.viz.CounterExampleTablePrinter
+import edu.kit.iti.formal.smv.EnumType
 import edu.kit.iti.formal.smv.NuXMVOutput
 import edu.kit.iti.formal.smv.ast.SMVModule
 import edu.kit.iti.formal.util.CodeWriter
+import edu.kit.iti.formal.util.error
 import edu.kit.iti.formal.util.fail
 import edu.kit.iti.formal.util.info
 import edu.kit.iti.formal.util.warn
 import java.io.File
 import java.util.*
+import java.util.concurrent.Callable
 import kotlin.system.exitProcess
 
 object RetetaApp {
@@ -52,6 +60,11 @@ class Reteta : CliktCommand(
 
     val printAugmentedPrograms by option(help = "prints the augmented programs into files: <name>.st").flag()
 
+    val jobs by option("-j", "--jobs",
+            help = "number of tables verified in parallel, each in its own folder <output>/<table> and nuXmv process")
+            .int()
+            .default(1)
+
     override fun run() {
         common.enableVerbosity()
 
@@ -68,95 +81,115 @@ class Reteta : CliktCommand(
             it.simplify()
         }
 
-        gtts.forEach { table ->
-            val chapterMarks = table.chapterMarksForProgramRuns
-            val augmentedPrograms = programs.mapIndexed { idx, exec ->
-                val rttPipeline = RTTCodeAugmentation(false, chapterMarks[idx]!!)
-                val s = rttPipeline.transform(TransformationState(exec))
-                val p = ProgramDeclaration(exec.name, s.scope, s.stBody)
-
-                if (printAugmentedPrograms) {
-                    File(outputFolder).mkdirs()
-                    val out = File(outputFolder, "${exec.name}_${idx}.st")
-                    out.bufferedWriter().use {
-                        IEC61131Facade.printTo(it, p)
-                    }
-                    info("Write augmented program into $out.")
-                }
-
-                SymbExFacade.evaluateProgram(p, true)?.also {
-                    it.name = "${it.name}_${idx}" // rename module, otherwise clash on self-compositions
-                }
+        val evaluatedPrograms = AugmentedPrograms(programs, ::augment)
+        // only the nuXmv processes run in parallel, the construction of the models is sequential
+        val exitCode = ModelCheckerRuns(jobs).use { runs ->
+            for (table in gtts) {
+                if (runs.stopped) break
+                verify(table, evaluatedPrograms.get(table.chapterMarksForProgramRuns), superEnumType, runs)
             }
+            runs.await()
+        }
+        if (exitCode != 0) exitProcess(exitCode)
+    }
 
-            if (!table.options.relational) {
-                throw IllegalStateException()
-            }
+    /** Constructs the model of [table] and submits its model checker to [runs]. */
+    private fun verify(table: GeneralizedTestTable, augmentedPrograms: List<SMVModule>,
+                       superEnumType: EnumType, runs: ModelCheckerRuns) {
+        val folder = if (runs.parallel) File(outputFolder, table.name).path else outputFolder
+
+        if (!table.options.relational) {
+            throw IllegalStateException()
+        }
+
+        val tt = GetetaFacade.constructSMV(table, superEnumType)
 
+        if (automatonOptions.drawAutomaton) {
+            info("Automaton drawing requested. This may took a while.")
+            val ad = AutomatonDrawer(File(folder, "${table.name}.dot"),
+                    listOf(table.region), tt.automaton)
+            ad.runDot = true
+            ad.show = automatonOptions.showAutomaton
+            ad.run()
+            if (automatonOptions.showAutomaton)
+                info("Image viewer should open now")
+        } else {
+            info("For drawing the automaton use: `--draw-automaton'.")
+        }
 
-            val tt = GetetaFacade.constructSMV(table, superEnumType)
+        val out = GetetaFacade.print(table)
+        File(folder).mkdirs()
+        File(folder, "table.gtt").bufferedWriter().use { it.write(out) }
 
-            if (automatonOptions.drawAutomaton) {
-                info("Automaton drawing requested. This may took a while.")
-                val ad = AutomatonDrawer(File(outputFolder, "${table.name}.dot"),
-                        listOf(table.region), tt.automaton)
-                ad.runDot = true
-                ad.show = automatonOptions.showAutomaton
-                ad.run()
-                if (automatonOptions.showAutomaton)
-                    info("Image viewer should open now")
-            } else {
-                info("For drawing the automaton use: `--draw-automaton'.")
+        val modTable = tt.tableModule
+        val mainModule = MultiModelGluer().apply {
+            table.programRuns.zip(augmentedPrograms).forEach { (n, p) ->
+                addProgramRun(n, p)
             }
+            addTable("_${table.name}", tt.ttType!!)
+        }
 
-            val out = GetetaFacade.print(table)
-            File(outputFolder, "table.gtt").bufferedWriter().use { it.write(out) }
+        val modules = LinkedList<SMVModule>()
+        modules.add(mainModule.product)
+        modules.add(modTable)
+        modules.addAll(augmentedPrograms)
+        modules.addAll(tt.helperModules)
+        val pNuxmv = GetetaFacade.createNuXMVProcess(
+                folder, modules, nuxmv ?: "nuxmv",
+                table.options.verificationTechnique)
+        if (!dryRun) {
+            info("Model checker skipped due to `--dont-model-check` flag.")
+        } else {
+            runs.submit(pNuxmv) { report(table, tt, folder, it) }
+        }
+    }
 
-            val modTable = tt.tableModule
-            val mainModule = MultiModelGluer().apply {
-                table.programRuns.zip(augmentedPrograms).forEach { (n, p) ->
-                    addProgramRun(n, p)
-                }
-                addTable("_${table.name}", tt.ttType!!)
+    /** Adds the chapter marks to the program [exec] (on a copy), and evaluates it into an SMV module. */
+    private fun augment(idx: Int, exec: PouExecutable, chapterMarks: Set<String>): SMVModule {
+        val rttPipeline = RTTCodeAugmentation(false, chapterMarks)
+        val s = rttPipeline.transform(TransformationState(exec.scope.clone(),
+                exec.stBody?.clone() ?: StatementList(), exec.sfcBody?.clone() ?: SFCImplementation()))
+        val p = ProgramDeclaration(exec.name, s.scope, s.stBody)
+
+        if (printAugmentedPrograms) {
+            File(outputFolder).mkdirs()
+            val out = File(outputFolder, "${exec.name}_${idx}.st")
+            out.bufferedWriter().use {
+                IEC61131Facade.printTo(it, p)
             }
+            info("Write augmented program into $out.")
+        }
 
-            val modules = LinkedList<SMVModule>()
-            modules.add(mainModule.product)
-            modules.add(modTable)
-            modules.addAll(augmentedPrograms)
-            modules.addAll(tt.helperModules)
-            val pNuxmv = GetetaFacade.createNuXMVProcess(
-                    outputFolder, modules, nuxmv ?: "nuxmv",
-                    table.options.verificationTechnique)
-            if (dryRun) {
-                val b = pNuxmv.call()
-                when (b) {
-                    NuXMVOutput.Verified -> {
-                        info("Verified!")
-                    }
-                    is NuXMVOutput.Cex -> {
-                        info("Not verified. Counter example available.")
-                        File(outputFolder, "counterexample.txt").bufferedWriter().use {
-                            CounterExampleTablePrinter(tt.automaton, table, b.counterExample, CodeWriter(it)).print()
-                        }
-                        /*else info("Use `--cexout' to print a cex analysation.")
-                            if (runAnalyzer) runCexAnalysation(b, tt)
-                            else info("Use `--row-map' to print possible row mappings.")
-                             */
-                        exitProcess(67)
+        return SymbExFacade.evaluateProgram(p, true).also {
+            it.name = "${it.name}_${idx}" // rename module, otherwise clash on self-compositions
+        }
+    }
+
+    /** Prints the result of the model checker for [table], returns the exit code. */
+    private fun report(table: GeneralizedTestTable, tt: SMVConstructionModel, folder: String, b: NuXMVOutput): Int =
+            when (b) {
+                NuXMVOutput.Verified -> {
+                    info("Verified ${table.name}!")
+                    0
+                }
+                is NuXMVOutput.Cex -> {
+                    info("Not verified ${table.name}. Counter example available.")
+                    File(folder, "counterexample.txt").bufferedWriter().use {
+                        CounterExampleTablePrinter(tt.automaton, table, b.counterExample, CodeWriter(it)).print()
                     }
-                    is NuXMVOutput.Error -> {
-                        for (e in b.errors) {
-                            error(e)
-                        }
-                        exitProcess(1)
+                    /*else info("Use `--cexout' to print a cex analysation.")
+                        if (runAnalyzer) runCexAnalysation(b, tt)
+                        else info("Use `--row-map' to print possible row mappings.")
+                         */
+                    67
+                }
+                is NuXMVOutput.Error -> {
+                    for (e in b.errors) {
+                        error(e)
                     }
+                    1
                 }
-            } else {
-                info("Model checker skipped due to `--dont-model-check` flag.")
             }
-        }
-    }
 
     fun readPrograms(): List<PouExecutable> {
         info("Provided library code: ${programOptions.library}")
@@ -181,4 +214,64 @@ internal fun GeneralizedTestTable.simplify(): GeneralizedTestTable {
     }
     info("No rows unreachable!")
     return this
-}
\ No newline at end of file
+}
+
+/**
+ * The augmented and evaluated programs by the index of the program and the chapter marks of its run.
+ * Tables with the same chapter marks share the module of a program, [augment] is called once per key.
+ */
+internal class AugmentedPrograms<T>(private val programs: List<PouExecutable>,
+                                    private val augment: (Int, PouExecutable, Set<String>) -> T) {
+    private val cache = HashMap<Pair<Int, Set<String>>, T>()
+
+    fun get(chapterMarks: Map<Int, Set<String>>): List<T> =
+            programs.mapIndexed { idx, exec ->
+                val marks = chapterMarks[idx]!!
+                cache.getOrPut(idx to marks) { augment(idx, exec, marks) }
+            }
+}
+
+/**
+ * Runs the model checker of each table, on [jobs] daemon threads of a [ModelCheckerCompletion]
+ * or on the calling thread if [jobs] is 1.
+ *
+ * The outputs are reported on the calling thread: sequentially directly in [submit], which [stopped] after the
+ * first failing table; in parallel by [await] in the order in which the checks finish.
+ * The exit code of all tables is the most severe: an error (1) takes precedence over a counter example (67).
+ */
+internal class ModelCheckerRuns(val jobs: Int) : AutoCloseable {
+    private val runs = if (jobs > 1) ModelCheckerCompletion<(NuXMVOutput) -> Int>(jobs) else null
+
+    val parallel: Boolean
+        get() = runs != null
+
+    var exitCode = 0
+        private set
+
+    val stopped: Boolean
+        get() = !parallel && exitCode != 0
+
+    /** Runs [check], [report] prints its output and returns the exit code of the table. */
+    fun submit(check: Callable<NuXMVOutput>, report: (NuXMVOutput) -> Int) {
+        if (runs == null) exitCode = severer(exitCode, report(check.call()))
+        else runs.submit(report, check)
+    }
+
+    /** Waits for the submitted checks and returns the exit code of all tables. */
+    fun await(): Int {
+        runs?.await { report, output -> exitCode = severer(exitCode, report(output!!)) }
+        return exitCode
+    }
+
+    override fun close() {
+        runs?.close()
+    }
+
+    companion object {
+        fun severer(a: Int, b: Int) = when {
+            a == 1 || b == 1 -> 1
+            a == 67 || b == 67 -> 67
+            else -> maxOf(a, b)
+        }
+    }
+}
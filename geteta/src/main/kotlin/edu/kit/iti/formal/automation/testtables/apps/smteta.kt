@@ -36,7 +36,7 @@ class SMTetaApp : CliktCommand() {
         val gtt = GetetaFacade.readTables(tableFile).first()
         gtt.programRuns = listOf("")
         gtt.generateSmvExpression()
-        val gttAsAutomaton = GetetaFacade.constructTable(gtt).automaton
+        val gttAsAutomaton = GetetaFacade.constructExplicitTable(gtt).automaton
         //endregion
 
         //region read program
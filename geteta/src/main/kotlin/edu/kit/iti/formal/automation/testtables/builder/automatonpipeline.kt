@@ -2,11 +2,13 @@ package edu.kit.iti.formal.automation.testtables.builder
 
 import edu.kit.iti.formal.automation.testtables.algorithms.StateReachability
 import edu.kit.iti.formal.automation.testtables.model.*
+import edu.kit.iti.formal.automation.testtables.model.automata.RowCounter
 import edu.kit.iti.formal.automation.testtables.model.automata.RowState
 import edu.kit.iti.formal.automation.testtables.model.automata.SpecialState
 import edu.kit.iti.formal.automation.testtables.model.automata.TestTableAutomaton
 import edu.kit.iti.formal.automation.testtables.model.automata.TransitionType
 import edu.kit.iti.formal.automation.testtables.model.options.Mode
+import edu.kit.iti.formal.automation.testtables.model.options.RowEncoding
 import edu.kit.iti.formal.util.info
 import kotlin.collections.set
 
@@ -210,7 +212,13 @@ open class RowStateCreator : AbstractTransformer<AutomataTransformerState>() {
                         }
                     }
             is Duration.ClosedInterval ->
-                (1..duration.upper).map {
+                if (useCounter(s, duration))
+                    listOf(RowState(s, 1).also { a ->
+                        a.optional = true
+                        a.progressFlag = duration.pflag
+                        a.counter = RowCounter(duration.lower, duration.upper, duration.pflag)
+                    })
+                else (1..duration.upper).map {
                     RowState(s, it).also { a ->
                         a.optional = it >= duration.lower
                         if (a.optional)
@@ -220,6 +228,26 @@ open class RowStateCreator : AbstractTransformer<AutomataTransformerState>() {
         }
     }
 
+    private fun useCounter(row: TableRow, duration: Duration.ClosedInterval): Boolean {
+        val options = model.testTable.options
+        return options.rowEncoding == RowEncoding.COUNTER && duration.upper > options.counterThreshold
+                && isEnteredOnce(row, hashSetOf())
+    }
+
+    /**
+     * The counters only keep the smallest and the largest age of a row, which is exact if the row is entered
+     * in a single cycle. This holds for a row, that is only reachable from the start, or whose only predecessor
+     * has a fixed duration and is entered in a single cycle itself. Other rows are encoded explicitly.
+     */
+    private fun isEnteredOnce(row: TableRow, visited: MutableSet<TableRow>): Boolean {
+        if (!visited.add(row)) return false
+        val predecessor = row.incoming.singleOrNull() ?: return false
+        if (predecessor == model.stateReachability.startSentinel) return true
+        val d = predecessor.duration
+        return d is Duration.ClosedInterval && d.lower == d.upper && d.lower > 0 && !d.pflag
+                && isEnteredOnce(predecessor, visited)
+    }
+
     private fun introduceState(s: TableRow) {
         val states = createRowStates(s)
         model.automaton.rowStates[s] = states
@@ -301,6 +329,8 @@ class TransitionCreator : AbstractTransformer<AutomataTransformerState>() {
 
     private fun internalTransitions(s: TableRow) {
         model.automaton.getStates(s)?.let { states ->
+            states.filter { it.counter != null }
+                    .forEach { model.automaton.addTransition(it, it, TransitionType.KEEP) }
             states.zipWithNext { a, b ->
                 val pflag = s.duration.pflag && s.duration.isOptional(a.time)
                 model.automaton.addTransition(a, b,
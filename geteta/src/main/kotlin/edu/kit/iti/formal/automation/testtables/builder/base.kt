@@ -98,6 +98,16 @@ class SMVConstructionModel(val superEnumType: SMVType, state: AutomataTransforme
     fun getFail(ss: RowState): SVariable =
             SVariable(ss.fail, SMVTypes.BOOLEAN)
 
+    fun getKeep(ss: RowState): SVariable =
+            SVariable(ss.keep, SMVTypes.BOOLEAN)
+
+    fun getCounter(ss: RowState): SVariable =
+            SVariable(ss.cnt, SMVTypes.unsigned(ss.counter!!.width))
+
+    /** A literal of the counter type of [ss]. */
+    fun counterValue(ss: RowState, value: Int) =
+            SWordLiteral(value.toBigInteger(), SMVTypes.unsigned(ss.counter!!.width))
+
     fun getVariable(to: AutomatonState): SVariable =
             when (to) {
                 is SpecialState -> if (to == automaton.stateSentinel) stateSentinel else stateError
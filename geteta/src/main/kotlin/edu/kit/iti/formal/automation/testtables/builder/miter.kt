@@ -19,7 +19,7 @@ import edu.kit.iti.formal.automation.st0.trans.FBEmbeddCode
 import edu.kit.iti.formal.automation.st0.trans.SCOPE_SEPARATOR
 import edu.kit.iti.formal.automation.st0.trans.VariableRenamer
 import edu.kit.iti.formal.automation.testtables.GetetaFacade
-import edu.kit.iti.formal.automation.testtables.GetetaFacade.constructTable
+import edu.kit.iti.formal.automation.testtables.GetetaFacade.constructExplicitTable
 import edu.kit.iti.formal.automation.testtables.GetetaFacade.readTables
 import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
 import edu.kit.iti.formal.automation.testtables.model.automata.*
@@ -63,6 +63,9 @@ private fun createNext(t: Transition): SMVExpr {
                 stateVar and inputExpr and outputExpr.not()
             TransitionType.MISS -> stateVar and inputExpr.not()
             TransitionType.TRUE -> stateVar
+            TransitionType.KEEP ->
+                error("Counter-encoded rows are not supported by the miter construction, " +
+                        "use GetetaFacade.constructExplicitTable.")
         }
     }
 }
@@ -70,7 +73,6 @@ private fun createNext(t: Transition): SMVExpr {
 class GttMiterConstruction(val gtt: GeneralizedTestTable,
                            val automaton: TestTableAutomaton,
                            val enumValues: EnumValueTable) {
-    private var transitions = automaton.transitions.groupBy { it.to }
     private val sentinel = VariableDeclaration(automaton.stateSentinel.name, VariableDeclaration.LOCAL, AnyBit.BOOL)
     private val inv = VariableDeclaration("__INV__", VariableDeclaration.OUTPUT, AnyBit.BOOL)
     private val err = VariableDeclaration("error", VariableDeclaration.LOCAL, AnyBit.BOOL)
@@ -180,8 +182,7 @@ class GttMiterConstruction(val gtt: GeneralizedTestTable,
     }
 
     private fun createNext(state: AutomatonState): Expression {
-        val expr: List<SMVExpr>? = transitions[state]?.map { createNext(it) }
-        val a: SMVExpr = expr?.disjunction() ?: SLiteral.FALSE
+        val a: SMVExpr = automaton.getIncomingTransition(state).map { createNext(it) }.disjunction(SLiteral.FALSE)
         return a.translateToSt()
     }
 
@@ -511,7 +512,7 @@ fun run(programFile: String, table: String) {
     val gtt = readTables(File(table)).first()
     gtt.programRuns = listOf("")
     gtt.generateSmvExpression()
-    val gttAsAutomaton = constructTable(gtt).automaton
+    val gttAsAutomaton = constructExplicitTable(gtt).automaton
     //endregion
 
     //region read program
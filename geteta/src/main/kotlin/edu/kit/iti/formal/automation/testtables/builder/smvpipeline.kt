@@ -9,6 +9,7 @@ import edu.kit.iti.formal.automation.testtables.model.DurationModifier
 import edu.kit.iti.formal.automation.testtables.model.ProjectionVariable
 import edu.kit.iti.formal.automation.testtables.model.TableRow
 import edu.kit.iti.formal.automation.testtables.model.automata.AutomatonState
+import edu.kit.iti.formal.automation.testtables.model.automata.RowCounter
 import edu.kit.iti.formal.automation.testtables.model.automata.RowState
 import edu.kit.iti.formal.automation.testtables.model.automata.Transition
 import edu.kit.iti.formal.automation.testtables.model.automata.TransitionType
@@ -17,6 +18,7 @@ import edu.kit.iti.formal.smv.HistoryModuleBuilder
 import edu.kit.iti.formal.smv.ModuleType
 import edu.kit.iti.formal.smv.SMVType
 import edu.kit.iti.formal.smv.ast.SAssignment
+import edu.kit.iti.formal.smv.ast.SCaseExpression
 import edu.kit.iti.formal.smv.ast.SLiteral
 import edu.kit.iti.formal.smv.ast.SVariable
 import edu.kit.iti.formal.smv.disjunction
@@ -93,6 +95,9 @@ object DefineStateVariables : SmvConstructionTransformer {
         }.forEach {
             model.tableModule.stateVars.add(it)
         }
+        model.rowStates.filter { it.counter != null }.forEach {
+            model.tableModule.stateVars.add(model.getCounter(it))
+        }
         model.tableModule.stateVars.add(model.stateError)
         model.tableModule.stateVars.add(model.stateSentinel)
     }
@@ -105,6 +110,9 @@ object InitialStates : SmvConstructionTransformer {
             val v = model.getStateVariable(it)
             model.tableModule.initExpr.add(
                     if (it in model.automaton.initialStates) v else v.not())
+            if (it.counter != null) {
+                model.tableModule.initExpr.add(model.getCounter(it) equal model.counterValue(it, 1))
+            }
         }
 
         model.tableModule.initExpr.addAll(
@@ -115,9 +123,7 @@ object InitialStates : SmvConstructionTransformer {
 
 
 object DefineTransitions : AbstractTransformer<SMVConstructionModel>() {
-    private lateinit var transitions: Map<AutomatonState, List<Transition>>
     override fun transform() {
-        transitions = model.automaton.transitions.groupBy { it.to }
         model.rowStates.forEach {
             createNext(it)
         }
@@ -126,19 +132,36 @@ object DefineTransitions : AbstractTransformer<SMVConstructionModel>() {
     }
 
 
+    private fun guard(t: Transition) =
+            when (t.type) {
+                TransitionType.ACCEPT -> model.getAccept(t.from as RowState)
+                TransitionType.ACCEPT_PROGRESS -> model.getAcceptProgress(t.from as RowState)
+                TransitionType.FAIL -> model.getFail(t.from as RowState)
+                TransitionType.TRUE -> model.getVariable(t.to)
+                TransitionType.MISS -> model.getMiss(t.from as RowState)
+                TransitionType.KEEP -> model.getKeep(t.from as RowState)
+            }
+
     private fun createNext(it: AutomatonState) {
-        val expr =
-                transitions[it]?.map { t ->
-                    when (t.type) {
-                        TransitionType.ACCEPT -> model.getAccept(t.from as RowState)
-                        TransitionType.ACCEPT_PROGRESS -> model.getAcceptProgress(t.from as RowState)
-                        TransitionType.FAIL -> model.getFail(t.from as RowState)
-                        TransitionType.TRUE -> model.getVariable(it)
-                        TransitionType.MISS -> model.getMiss(t.from as RowState)
-                    }
-                }?.disjunction() ?: SLiteral.FALSE
+        val expr = model.automaton.getIncomingTransition(it).map { t -> guard(t) }.disjunction(SLiteral.FALSE)
         model.tableModule.nextAssignments.add(
                 SAssignment(model.getVariable(it), expr))
+        if (it is RowState && it.counter != null) createNextCounter(it)
+    }
+
+    /** `cnt` restarts with 1 if the row is entered, and counts the cycles that stay in the row. */
+    private fun createNextCounter(ss: RowState) {
+        val cnt = model.getCounter(ss)
+        val one = model.counterValue(ss, 1)
+
+        val entry = model.automaton.getIncomingTransition(ss).filter { t -> t.type != TransitionType.KEEP }
+                .map { t -> guard(t) }.disjunction(SLiteral.FALSE)
+
+        val next = SCaseExpression()
+        next.add(entry, one)
+        next.add(model.getKeep(ss), cnt + one)
+        next.add(SLiteral.TRUE, one)
+        model.tableModule.nextAssignments.add(SAssignment(cnt, next))
     }
 }
 
@@ -181,11 +204,34 @@ object RegisterDefines : SmvConstructionTransformer {
      */
     private fun stateDefines(model: SMVConstructionModel, ss: RowState) {
         val stateVar = model.getStateVariable(ss)
-        model.define(model.getAccept(ss), stateVar and ss.row.defForward)
+        val counter = ss.counter
+        if (counter == null) {
+            model.define(model.getAccept(ss), stateVar and ss.row.defForward)
+        } else {
+            // leaving the row requires a cycle beyond the lower bound
+            val cnt = model.getCounter(ss)
+            model.define(model.getAccept(ss),
+                    stateVar and ss.row.defForward and (cnt ge model.counterValue(ss, counter.lower)))
+            counterDefines(model, ss, counter)
+        }
         model.define(model.getFail(ss), stateVar and ss.row.defFailed)
         model.define(model.getAcceptProgress(ss),
                 model.getAccept(ss) and ss.row.defProgress.not())
     }
+
+    /**
+     * Defines `s_keep`, whether a cycle of the row is active that may continue.
+     * These are the cycles below the upper bound, for a progress flag the optional cycles
+     * only continue if no successor is ready (cf. [TransitionCreator]).
+     */
+    private fun counterDefines(model: SMVConstructionModel, ss: RowState, counter: RowCounter) {
+        val stateVar = model.getStateVariable(ss)
+        val cnt = model.getCounter(ss)
+        val belowUpper = cnt lt model.counterValue(ss, counter.upper)
+        val keep = if (!counter.pflag) belowUpper
+        else (cnt lt model.counterValue(ss, counter.lower)) or (belowUpper and ss.row.defProgress.not())
+        model.define(model.getKeep(ss), stateVar and ss.row.defForward and keep)
+    }
 }
 
 internal val Duration.pflag: Boolean
@@ -2,6 +2,7 @@ package edu.kit.iti.formal.automation.testtables.model.automata
 
 import edu.kit.iti.formal.automation.testtables.model.TableRow
 import edu.kit.iti.formal.smv.ast.SMVExpr
+import java.util.IdentityHashMap
 
 /**
  *
@@ -16,7 +17,13 @@ data class Transition(
 )
 
 enum class TransitionType {
-    ACCEPT, ACCEPT_PROGRESS, FAIL, TRUE, MISS
+    ACCEPT, ACCEPT_PROGRESS, FAIL, TRUE, MISS,
+
+    /**
+     * A row state with a [RowCounter] stays active for further cycles of its row.
+     * Only used as a self-loop.
+     */
+    KEEP
 }
 
 sealed class AutomatonState(open var name: String) {
@@ -33,6 +40,25 @@ data class RowState(val row: TableRow, val time: Int)
     val fwd = "${name}_accept"
     val fwdprogress = "${name}_acceptp"
     val fail = "${name}_fail"
+    val keep = "${name}_keep"
+    val cnt = "${name}_cnt"
+
+    /** If set, this state represents all cycles of its row, counted by [cnt]. */
+    var counter: RowCounter? = null
+}
+
+/**
+ * Bounds of a row state that represents the cycles `1..upper` of a row with a single state.
+ *
+ * Instead of one state per cycle, the number of cycles since the row was entered (`cnt`) is tracked.
+ * The state may leave the row if `cnt >= lower`, and it stays in the row by [TransitionType.KEEP]
+ * while `cnt < upper`. A single counter is exact, as only rows entered in a single cycle are encoded
+ * by counters (cf. `RowStateCreator`).
+ */
+data class RowCounter(val lower: Int, val upper: Int, val pflag: Boolean) {
+    /** Bits needed for the counters. */
+    val width: Int
+        get() = 32 - Integer.numberOfLeadingZeros(upper)
 }
 
 /*
@@ -92,10 +118,97 @@ class AutomatonState(private val position: Int, private val name: String) {
         }
 }*/
 
+/**
+ * The transitions of a [TestTableAutomaton] with indexes from states to their outgoing and incoming transitions.
+ *
+ * Every state that occurs in a transition, or is [register]ed, gets a dense integer id, see [stateId].
+ * States are identified by object identity, because their names (and the ids of their rows) are
+ * changed after construction, e.g., when tables are meshed.
+ *
+ * The order of the transitions of a state follows the order of insertion.
+ */
+class TransitionIndex : AbstractMutableList<Transition>() {
+    private val list = ArrayList<Transition>()
+    private val ids = IdentityHashMap<AutomatonState, Int>()
+    private val states = ArrayList<AutomatonState>()
+    private val outgoing = ArrayList<MutableList<Transition>>()
+    private val incoming = ArrayList<MutableList<Transition>>()
+
+    override val size: Int
+        get() = list.size
+
+    /** Number of states with an id. */
+    val stateCount: Int
+        get() = states.size
+
+    override fun get(index: Int) = list[index]
+
+    override fun add(index: Int, element: Transition) {
+        list.add(index, element)
+        outgoing[register(element.from)].add(element)
+        incoming[register(element.to)].add(element)
+    }
+
+    override fun removeAt(index: Int): Transition {
+        val t = list.removeAt(index)
+        unregister(t)
+        return t
+    }
+
+    override fun set(index: Int, element: Transition): Transition {
+        val old = list.set(index, element)
+        unregister(old)
+        outgoing[register(element.from)].add(element)
+        incoming[register(element.to)].add(element)
+        return old
+    }
+
+    override fun clear() {
+        list.clear()
+        ids.clear()
+        states.clear()
+        outgoing.clear()
+        incoming.clear()
+    }
+
+    private fun unregister(t: Transition) {
+        outgoing[ids[t.from]!!].removeFirstIdentical(t)
+        incoming[ids[t.to]!!].removeFirstIdentical(t)
+    }
+
+    private fun MutableList<Transition>.removeFirstIdentical(t: Transition) {
+        val i = indexOfFirst { it === t }
+        if (i >= 0) removeAt(i)
+    }
+
+    /** The id of [state], or -1 if [state] is unknown. */
+    fun stateId(state: AutomatonState): Int = ids[state] ?: -1
+
+    /** Assigns an id to [state], e.g., for a state without transitions, and returns it. */
+    fun register(state: AutomatonState): Int =
+            ids.getOrPut(state) {
+                states.add(state)
+                outgoing.add(ArrayList())
+                incoming.add(ArrayList())
+                states.size - 1
+            }
+
+    fun state(id: Int): AutomatonState = states[id]
+
+    fun outgoing(from: AutomatonState): List<Transition> = ids[from]?.let { outgoing[it] } ?: emptyList()
+    fun incoming(to: AutomatonState): List<Transition> = ids[to]?.let { incoming[it] } ?: emptyList()
+    fun outgoing(from: Int): List<Transition> = outgoing[from]
+    fun incoming(to: Int): List<Transition> = incoming[to]
+}
+
 data class TestTableAutomaton(
         val rowStates: MutableMap<TableRow, List<RowState>> = HashMap(),
-        val transitions: MutableList<Transition> = ArrayList()
+        val transitions: TransitionIndex = TransitionIndex()
 ) {
+    /** An automaton with a copy of the given [transitions]. */
+    constructor(rowStates: MutableMap<TableRow, List<RowState>>, transitions: MutableList<Transition>)
+            : this(rowStates, TransitionIndex().also { it.addAll(transitions) })
+
     var definitions: MutableMap<String, SMVExpr> = HashMap()
     var stateError: AutomatonState = SpecialState("n/a")
     var stateSentinel: AutomatonState = SpecialState("n/a")
@@ -107,7 +220,8 @@ data class TestTableAutomaton(
         transitions.add(Transition(name, from, to, guard))
     }
 
-    fun getTransition(from: AutomatonState, to: AutomatonState): Transition? = transitions.find { it.from == from && it.to == to }
+    fun getTransition(from: AutomatonState, to: AutomatonState): Transition? =
+            transitions.outgoing(from).find { it.to == to }
 
     fun clear() {
         transitions.clear()
@@ -130,10 +244,10 @@ data class TestTableAutomaton(
                 .map { (_, v) -> v.get(0) }
     }
 
-    fun getOutgoingTransition(from: AutomatonState) =
-            transitions.filter { it.from == from }
+    /** Dense id of [state] within this automaton, or -1, see [TransitionIndex.stateId]. */
+    fun stateId(state: AutomatonState) = transitions.stateId(state)
 
-    fun getIncomingTransition(to: AutomatonState) =
-            transitions.filter { it.to == to }
+    fun getOutgoingTransition(from: AutomatonState) = transitions.outgoing(from)
 
-}
\ No newline at end of file
+    fun getIncomingTransition(to: AutomatonState) = transitions.incoming(to)
+}
@@ -107,9 +107,27 @@ class TableOptions(properties: MutableMap<String, String>) : Options("", propert
     var dataTypeOptions = DataTypeOptions(properties)
     var relational: Boolean = false
 
+    /** Encoding of rows with bounded durations in the automaton. */
+    var rowEncoding: RowEncoding by any(RowEncoding.EXPLICIT, RowEncoding::toString, RowEncoding::valueOf)
+
+    /** Only rows with a larger upper bound are encoded by counters, if [rowEncoding] is [RowEncoding.COUNTER]. */
+    var counterThreshold: Int by integer(8)
+
     val monitor = MonitorOptions(properties)
 }
 
+enum class RowEncoding {
+    /** One automaton state for every cycle of a row. */
+    EXPLICIT,
+
+    /**
+     * One automaton state for a row with a duration `[l, u]`, and a counter of the cycles the row is active.
+     * Only rows, that are entered in a single cycle, are encoded by counters, the others stay [EXPLICIT].
+     * The ST monitor and the miter construction always use [EXPLICIT].
+     */
+    COUNTER
+}
+
 class MonitorOptions(properties: MutableMap<String, String>) : Options("monitor", properties) {
     val resetTrigger by string
     val dynamicTrigger by string
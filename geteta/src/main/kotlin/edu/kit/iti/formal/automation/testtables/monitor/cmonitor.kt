@@ -4,17 +4,16 @@ import edu.kit.iti.formal.automation.cpp.TranslateToCppFacade
 import edu.kit.iti.formal.automation.datatypes.AnyBit
 import edu.kit.iti.formal.automation.datatypes.AnyInt
 import edu.kit.iti.formal.automation.datatypes.EnumerateType
-import edu.kit.iti.formal.automation.st.ast.BooleanLit
 import edu.kit.iti.formal.automation.testtables.GetetaFacade
-import edu.kit.iti.formal.automation.testtables.apps.bindsConstraintVariable
+import edu.kit.iti.formal.automation.testtables.builder.pflag
 import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
+import edu.kit.iti.formal.automation.testtables.model.TableRow
 import edu.kit.iti.formal.automation.testtables.model.Variable
 import edu.kit.iti.formal.automation.testtables.model.automata.*
 import edu.kit.iti.formal.smv.SMVAstDefaultVisitorNN
 import edu.kit.iti.formal.smv.ast.*
 import edu.kit.iti.formal.smv.conjunction
 import edu.kit.iti.formal.util.CodeWriter
-import edu.kit.iti.formal.util.joinInto
 import edu.kit.iti.formal.util.times
 import java.io.StringWriter
 import java.util.*
@@ -23,19 +22,30 @@ import java.util.concurrent.Callable
 object CMonitorGenerator : MonitorGeneration {
     override val key = "c"
     override fun generate(gtt: GeneralizedTestTable, automaton: TestTableAutomaton, options: MonitorGenerationOptions): Monitor {
-        val impl = CMonitorGeneratorImpl(gtt, automaton)
+        val impl = CMonitorGeneratorImpl(gtt, automaton, packStates = options.packStates)
         return impl.call()
     }
 }
 
+/**
+ * Generates a C monitor for a table.
+ *
+ * By default, every automaton state is an `int8_t` field of the state structure (a bit field if [compressState]).
+ * With [packStates], the active states are a bit vector of `uint64_t` words, in which the states of a row
+ * are consecutive. The successors are then computed with word-wide operations on masks, that are precomputed
+ * from the automaton: the transitions of a row with the same guard and the same distance between source
+ * and target are a shifted mask, transitions of several states into the same target are a test of a mask.
+ * Only the transitions from and into states with counters are evaluated state by state.
+ */
 private class CMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton: TestTableAutomaton,
                                     val compressState: Boolean = false,
-                                    val useDefines: Boolean = false) : Callable<Monitor> {
+                                    val packStates: Boolean = false) : Callable<Monitor> {
     val monitor = Monitor()
     val stream = StringWriter()
     val writer = CodeWriter(stream)
-    val state_t = "state_${gtt.name.toLowerCase()}_t"
-    val inout_t = "inout_${gtt.name.toLowerCase()}_t"
+    val name = gtt.name.toLowerCase()
+    val state_t = "state_${name}_t"
+    val inout_t = "inout_${name}_t"
 
     val userReset = "FORCE_RST"
     val error = "ERROR"
@@ -47,6 +57,27 @@ private class CMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton
     val sLostSync = "state->$lostSync"
     val sResets = "state->RESETS"
 
+    val translator = SmvToCTranslator()
+
+    /** The rows in the order of the table. */
+    val rows: List<TableRow> = gtt.region.flat().let { order ->
+        automaton.rowStates.keys.sortedBy { order.indexOf(it) }
+    }
+
+    /** The states in the order of their bits, the states of a row are consecutive. */
+    val states: List<AutomatonState> =
+            rows.flatMap { automaton.rowStates[it]!! } + automaton.stateError + automaton.stateSentinel
+    val index = IdentityHashMap<AutomatonState, Int>().also { map -> states.forEachIndexed { i, s -> map[s] = i } }
+    val words = (states.size + 63) / 64
+
+    init {
+        gtt.programVariables.forEach {
+            translator.variableReplacement[gtt.parseContext.getSMVVariable(it).name] = "io->${it.name}"
+        }
+        gtt.constraintVariables.forEach {
+            translator.variableReplacement[gtt.parseContext.getSMVVariable(it).name] = "state->${it.name}"
+        }
+    }
 
     override fun call(): Monitor {
         header()
@@ -54,7 +85,10 @@ private class CMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton
         declareInoutType()
         declareStateFunctions()
         declareInoutFunctions()
+        if (packStates) declareWordFunctions()
         declareFunUpdateMonitor()
+        monitor.name = gtt.name
+        monitor.body = stream.toString()
         return monitor
     }
 
@@ -69,7 +103,10 @@ private class CMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton
 $asciiTable
 */
 
+#include <stdbool.h>
 #include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
 
 """.trimIndent())
     }
@@ -81,23 +118,22 @@ $asciiTable
                 .write("// Structure for internal state of the monitor.")
                 .nl()
 
-        writer.cblock("struct $state_t {", "}") {
-            writer.print("//global variables").nl()
-            gtt.constraintVariables
-                    .joinInto(this, "\n") {
-                        "${it.ctype} ${it.name};\n"
-                    }
-
-            gtt.constraintVariables
-                    .joinInto(this, "\n") {
-                        "    int8_t ${it.name}_bound" + (if (compressState) " : 1 " else "") + ";"
-                    }
-
-            automaton.rowStates.values.flatMap { it }.joinInto(writer) {
-                "    int8_t ${it.name} " + (if (compressState) " : 1 " else "") + ";"
+        writer.cblock("typedef struct {", "} $state_t;") {
+            write("//global variables")
+            gtt.constraintVariables.forEach {
+                nl().write("${it.ctype} ${it.name};")
+                nl().write("int8_t ${it.name}_bound;")
+            }
 
+            if (packStates) nl().write("uint64_t STATES[$words];")
+            else states.forEach { nl().write("int8_t ${it.name}" + (if (compressState) " : 1" else "") + ";") }
 
+            automaton.getRowStates().filter { it.counter != null }.forEach {
+                nl().write("int32_t ${it.cnt};")
             }
+            nl().write("int8_t $error;")
+            nl().write("int8_t $lostSync;")
+            nl().write("int32_t $resets;")
         }
     }
 
@@ -106,16 +142,12 @@ $asciiTable
                 .write("// Structure for the input and output of the monitor.")
                 .nl()
 
-        writer.cblock("struct $inout_t {", "}") {
-            gtt.programVariables.joinInto(writer, "\n") {
-                "${it.ctype} ${it.name};"
-            }
+        writer.cblock("typedef struct {", "} $inout_t;") {
+            write("int8_t $userReset;")
+            gtt.programVariables.forEach { nl().write("${it.ctype} ${it.name};") }
         }
     }
 
-    /*gtt.programVariables.joinInto(writer, "\n"){
-                    "io->${it.name} = ${it.cInitValue};"
-                }*/
     fun declareInoutFunctions() {
         writer.write("""
 
@@ -132,9 +164,9 @@ $asciiTable
              *  ...
              */
             $inout_t* new_$inout_t() {
-                        $inout_t* io = ($inout_t*) malloc(sizeof($inout_t));
-                        init_$inout_t(io)
-                        return io
+                $inout_t* io = ($inout_t*) malloc(sizeof($inout_t));
+                init_$inout_t(io);
+                return io;
             }
 
 
@@ -149,7 +181,9 @@ $asciiTable
     }
 
     fun declareStateFunctions() {
-
+        if (packStates) {
+            writer.nl().nl().write("static const uint64_t init_states_$name[$words] = ${mask(automaton.initialStates)};")
+        }
 
         writer.write("""
 
@@ -160,20 +194,20 @@ $asciiTable
         """.trimIndent())
 
         writer.cblock("void init_$state_t($state_t* state) {", "}") {
-            gtt.constraintVariables.joinInto(this, "") {
-                nl()
-                write("state->${it.name} = ${it.cInitValue};")
-            }
-
-            gtt.constraintVariables.joinInto(this, "") {
-                nl()
-                write("state->${it.name} = 0;")
+            gtt.constraintVariables.forEach {
+                nl().write("state->${it.name} = ${it.cInitValue};")
+                nl().write("state->${it.name}_bound = 0;")
             }
 
-            automaton.rowStates.values.flatMap { it }.joinInto(writer, "") {
+            if (packStates)
+                nl().write("memcpy(state->STATES, init_states_$name, sizeof(state->STATES));")
+            else states.forEach {
                 val initValue = if (it in automaton.initialStates) "1" else "0"
                 nl().write("state->${it.name} = $initValue;")
             }
+            automaton.getRowStates().filter { it.counter != null }.forEach {
+                nl().write("state->${it.cnt} = 1;")
+            }
         }
 
 
@@ -189,9 +223,9 @@ $asciiTable
 
         stream.write("""
             $state_t* new_$state_t() {
-                $state_t* state = ($state_t*) malloc(sizeof($state_t));
-                init_$state_t(state)
-                return state
+                $state_t* state = ($state_t*) calloc(1, sizeof($state_t));
+                init_$state_t(state);
+                return state;
             }
         """.trimIndent())
 
@@ -214,8 +248,40 @@ $asciiTable
 
     }
 
+    /** Helper functions over the state words, the masks only cover the words `[from, to)`. */
+    fun declareWordFunctions() {
+        writer.write("""
+
+
+            /*
+             *  next |= (active & mask) shifted by 64 * q + b bits
+             */
+            static inline void shift_or_$name(uint64_t* next, const uint64_t* active, const uint64_t* mask,
+                                              int from, int to, int q, int b) {
+                for (int i = from; i < to; i++) {
+                    uint64_t v = active[i] & mask[i - from];
+                    if (v == 0) continue;
+                    int j = i + q;
+                    if (j >= 0 && j < $words) next[j] |= v << b;
+                    if (b != 0 && j + 1 >= 0 && j + 1 < $words) next[j + 1] |= v >> (64 - b);
+                }
+            }
+
+
+            /*
+             *  (active & mask) != 0
+             */
+            static inline int any_$name(const uint64_t* active, const uint64_t* mask, int from, int to) {
+                for (int i = from; i < to; i++)
+                    if (active[i] & mask[i - from]) return 1;
+                return 0;
+            }
+        """.trimIndent())
+    }
+
     fun declareFunUpdateMonitor() {
-        declareAuxVariables(false)
+        val plan = if (packStates) planWordOperations() else null
+        plan?.let { declareMasks(it) }
         writer.nl().nl()
 
         writer.write("""
@@ -227,33 +293,49 @@ $asciiTable
 
         """.trimIndent())
 
-        writer.cblock("void update_monitor($state_t* state, $inout_t* io) {", "}") {
+        writer.cblock("void update_monitor_$name($state_t* state, $inout_t* io) {", "}") {
             bindFreeVariables()
             writer.write(commentLine)
-            declareAuxVariables(true)
-            writer.write(commentLine)
-            updateStateVariables()
+            declareAuxVariables()
             writer.write(commentLine)
-            resets()
+            if (plan != null) updateStateWords(plan) else updateStateVariables()
             writer.write(commentLine)
             updateOutput()
+            writer.write(commentLine)
+            resets()
         }
     }
 
+    /** The expression for the activity of [s] in the current cycle. */
+    private fun active(s: AutomatonState): String {
+        val i = index[s]!!
+        return if (packStates) "((state->STATES[${i / 64}] >> ${i % 64}) & 1)"
+        else "state->${s.name}"
+    }
+
+    private fun setNext(s: AutomatonState): String {
+        val i = index[s]!!
+        return "next[${i / 64}] |= 1ULL << ${i % 64};"
+    }
+
+    /** A bit vector as C array initializer. */
+    private fun mask(set: Iterable<AutomatonState>, from: Int = 0, to: Int = words): String {
+        val bits = LongArray(words)
+        set.forEach { val i = index[it]!!; bits[i / 64] = bits[i / 64] or (1L shl (i % 64)) }
+        return (from until to).joinToString(", ", "{", "}") { "0x%016xULL".format(bits[it]) }
+    }
+
     private fun bindFreeVariables() {
         gtt.constraintVariables.forEach { fvar ->
+            val svar = gtt.parseContext.getSMVVariable(fvar)
             val boundFlag = "state->${fvar.name}_bound"
-            automaton.rowStates.forEach { row, states ->
-                val oneOfRowStates = states.map { "state->${it.name}" }
-                row.rawFields.forEach { pvar, ctx ->
-                    val bind = bindsConstraintVariable(ctx, fvar)
-                    if (bind) {
-                        writer.nl()
-                        writer.cblock("if(!$boundFlag && $oneOfRowStates) {", "}") {
-                            writer.write("${fvar.name} = ${pvar.name};")
-                                    .nl().write("$boundFlag = 1;")
-
-                        }
+            rows.forEach { row ->
+                (row.inputExpr.values + row.outputExpr.values).findAssignment(svar)?.let { assignment ->
+                    val oneOfRowStates = automaton.rowStates[row]!!.joinToString(" || ") { active(it) }
+                    writer.nl()
+                    writer.cblock("if(!$boundFlag && ($oneOfRowStates)) {", "}") {
+                        writer.write("state->${fvar.name} = ${assignment.accept(translator)};")
+                                .nl().write("$boundFlag = 1;")
                     }
                 }
             }
@@ -261,104 +343,209 @@ $asciiTable
     }
 
     private fun updateOutput() {
-        val noStateOccupied = automaton.rowStates.values.flatMap { it }
-                .map { it.name }
-                .reduce { a: String, b: String -> "$a || $b" }
+        val rowStates = automaton.getRowStates().toList()
+        val noStateOccupied =
+                if (packStates) "!any_$name(state->STATES, row_states_$name, 0, $words)"
+                else "!(" + (rowStates.map { active(it) }.ifEmpty { listOf("0") }).joinToString(" || ") + ")"
 
-        writer.write("$sLostSync = !($noStateOccupied);")
+        writer.write("$sLostSync = $noStateOccupied;")
                 .nl()
-                .write("$sError = ($sLostSync && state->${automaton.stateError.name});")
+                .write("$sError = ($sLostSync && ${active(automaton.stateError)});")
     }
 
     private fun resets() {
         val inputs = automaton.initialStates
                 .map { (it as RowState).row.defInput.name }
-                .reduce { a: String, b: String -> "$a || $b" }
-        writer.cblock("if(${sLostSync} && $inputs) ||| $sUserReset) {", "}") {
+                .ifEmpty { listOf("0") }
+                .joinToString(" || ")
+        writer.cblock("if(($sLostSync && ($inputs)) || $sUserReset) {", "}") {
             write("init_$state_t(state);")
-            nl().write("${sResets} += 1;")
-
+            nl().write("$sResets += 1;")
         }
     }
 
+    //region byte per state
+    /** All next values are computed from the current state, before the state is updated. */
     private fun updateStateVariables() {
-        val transitions = automaton.transitions.groupBy { it.to }
-        automaton.rowStates.values.flatMap { it }.forEach { createNext(transitions, it) }
-        createNext(transitions, automaton.stateError)
-        createNext(transitions, automaton.stateSentinel)
-    }
-
-    private fun createNext(transitions: Map<AutomatonState, List<Transition>>, it: AutomatonState) {
-        val to = it.name
-        val expr = transitions[it]?.map { t ->
-            val from = t.from as? RowState
-            val fromName = t.from.name
-            when (t.type) {
-                TransitionType.ACCEPT ->
-                    from!!.row.defForward.name + " && " + fromName
-                TransitionType.MISS -> "! " + from!!.row.defInput
-                TransitionType.ACCEPT_PROGRESS ->
-                    from!!.row.defProgress.name + " && " + fromName
-                TransitionType.FAIL ->
-                    from!!.row.defFailed.name + " && " + fromName
-                TransitionType.TRUE ->
-                    fromName
+        states.forEach { createNext(it) }
+        automaton.getRowStates().filter { it.counter != null }.forEach { updateCounter(it, "${it.name}_keep", "${it.name}_entry") }
+        states.forEach { writer.nl().write("state->${it.name} = next_${it.name};") }
+    }
+
+    private fun createNext(it: AutomatonState) {
+        val to = "next_${it.name}"
+        if (it is RowState && it.counter != null) {
+            val incoming = automaton.getIncomingTransition(it)
+            val entry = incoming.filter { t -> t.type != TransitionType.KEEP }.map { t -> guard(t) }
+                    .ifEmpty { listOf("0") }.joinToString(" || ")
+            writer.nl().write("int8_t ${it.name}_entry = $entry;")
+            writer.nl().write("int8_t ${it.name}_keep = ${keep(it, it.counter!!)};")
+            writer.nl().write("int8_t $to = ${it.name}_keep || ${it.name}_entry;")
+            return
+        }
+        val expr = automaton.getIncomingTransition(it).map { t -> guard(t) }
+                .ifEmpty { listOf("0") }.joinToString(" || ")
+        writer.nl().write("int8_t $to = $expr;")
+    }
+    //endregion
+
+    //region packed states
+    /**
+     * The word operations of a cycle. [shifts] and [tests] are keyed by the guard, the source row,
+     * and the distance or the target; the values are the source states.
+     */
+    private class WordPlan {
+        val shifts = LinkedHashMap<Triple<TableRow, TransitionType, Int>, MutableList<AutomatonState>>()
+        val tests = LinkedHashMap<Triple<TableRow, TransitionType, AutomatonState>, MutableList<AutomatonState>>()
+        val single = arrayListOf<Transition>()
+        val masks = IdentityHashMap<List<AutomatonState>, String>()
+    }
+
+    private fun planWordOperations(): WordPlan {
+        val plan = WordPlan()
+        val byTarget = LinkedHashMap<Triple<TableRow, TransitionType, AutomatonState>, MutableList<Transition>>()
+        for (s in states) {
+            for (t in automaton.getOutgoingTransition(s)) {
+                if (t.type == TransitionType.KEEP) continue
+                val from = t.from as? RowState
+                // counters and special states are handled state by state
+                if (from == null || from.counter != null) plan.single += t
+                else byTarget.getOrPut(Triple(from.row, t.type, t.to)) { arrayListOf() } += t
             }
-        }?.reduce { a, b -> "$a || $b" }
-                ?: BooleanLit.LFALSE
-        writer.nl().write("$to = $expr;")
-    }
-
-    private fun declareAuxVariables(localVars: Boolean) {
-        if (localVars && !useDefines) {
-            automaton.rowStates.forEach { tr, rs ->
-                val defInput = (tr.defInput.name)
-                val defOutput = (tr.defOutput.name)
-                val defFailed = (tr.defFailed.name)
-                val defForward = (tr.defForward.name)
-                val defProgress = (tr.defProgress.name)
-
-                val progress = tr.outgoing.map { it.defInput.name }
-                        .reduce { acc: String, v: String -> "$acc || $v" }
-
-                writer.write("int8_t $defInput  = ${tr.inputExpr.values.conjunction().toCExpression()};")
-                        .nl()
-                        .write("int8_t $defOutput  = ${tr.outputExpr.values.conjunction().toCExpression()};")
-                        .nl()
-                        .write("int8_t $defFailed = ($defInput && !$defOutput);")
-                        .nl()
-                        .write("int8_t $defForward = ($defInput && $defOutput);")
-                        .nl()
-                        .write("int8_t $defProgress = (($defInput && $defOutput) && !$progress);")
+        }
+        for ((key, transitions) in byTarget) {
+            if (transitions.size > 1) plan.tests[key] = transitions.mapTo(arrayListOf()) { it.from }
+            else {
+                val t = transitions.first()
+                plan.shifts.getOrPut(Triple(key.first, key.second, index[t.to]!! - index[t.from]!!)) { arrayListOf() } += t.from
             }
         }
+        return plan
+    }
+
+    private fun declareMasks(plan: WordPlan) {
+        writer.nl().nl().write("static const uint64_t row_states_$name[$words] = ${mask(automaton.getRowStates().asIterable())};")
+        (plan.shifts.values + plan.tests.values).forEachIndexed { k, sources ->
+            val (from, to) = wordRange(sources)
+            val id = "mask_${name}_$k"
+            plan.masks[sources] = id
+            writer.nl().write("static const uint64_t $id[${to - from}] = ${mask(sources, from, to)};")
+        }
+    }
 
-        if (!localVars && useDefines) {
-            automaton.rowStates.forEach { tr, rs ->
-                val defInput = (tr.defInput.name)
-                val defOutput = (tr.defOutput.name)
-                val defFailed = (tr.defFailed.name)
-                val defForward = (tr.defForward.name)
-                val defProgress = (tr.defProgress.name)
-
-                val progress = tr.outgoing.map { it.defInput.name }
-                        .reduce { acc: String, v: String -> "$acc || $v" }
-
-                writer.write("#define   $defInput  = (${tr.inputExpr.values.conjunction().toCExpression()});")
-                        .nl()
-                        .write("#define $defOutput  = (${tr.outputExpr.values.conjunction().toCExpression()});")
-                        .nl()
-                        .write("#define $defFailed = ($defInput && !$defOutput);")
-                        .nl()
-                        .write("#define $defForward = ($defInput && $defOutput);")
-                        .nl()
-                        .write("#define $defProgress = (($defInput && $defOutput) && !$progress);")
+    private fun wordRange(sources: List<AutomatonState>): Pair<Int, Int> =
+            sources.minOf { index[it]!! } / 64 to sources.maxOf { index[it]!! } / 64 + 1
+
+    private fun updateStateWords(plan: WordPlan) {
+        writer.write("uint64_t next[$words] = {0};")
+        for ((key, sources) in plan.shifts) {
+            val (row, type, distance) = key
+            val (from, to) = wordRange(sources)
+            val call = "shift_or_$name(next, state->STATES, ${plan.masks[sources]}, $from, $to, " +
+                    "${Math.floorDiv(distance, 64)}, ${Math.floorMod(distance, 64)});"
+            writer.nl().write(onGuard(rowGuard(row, type), call))
+        }
+        for ((key, sources) in plan.tests) {
+            val (row, type, target) = key
+            val (from, to) = wordRange(sources)
+            val test = "any_$name(state->STATES, ${plan.masks[sources]}, $from, $to)"
+            val guard = rowGuard(row, type)
+            writer.nl().write("if(${if (guard == "1") test else "$guard && $test"}) ${setNext(target)}")
+        }
+        for (t in plan.single) writer.nl().write("if(${guard(t)}) ${setNext(t.to)}")
+
+        automaton.getRowStates().filter { it.counter != null }.forEach {
+            val i = index[it]!!
+            writer.nl().cblock("{", "}") {
+                write("int8_t entry = (next[${i / 64}] >> ${i % 64}) & 1;")
+                nl().write("int8_t keep = ${keep(it, it.counter!!)};")
+                updateCounter(it, "keep", "entry")
+                nl().write("if(keep) ${setNext(it)}")
             }
         }
+        writer.nl().write("memcpy(state->STATES, next, sizeof(next));")
+    }
+
+    private fun onGuard(guard: String, statement: String) =
+            if (guard == "1") statement else "if($guard) $statement"
+    //endregion
+
+    /** The guard of a transition type that only depends on the row. */
+    private fun rowGuard(row: TableRow, type: TransitionType) = when (type) {
+        TransitionType.ACCEPT -> row.defForward.name
+        TransitionType.ACCEPT_PROGRESS -> "${row.defForward.name} && !${row.defProgress.name}"
+        TransitionType.FAIL -> row.defFailed.name
+        TransitionType.MISS -> "!" + row.defInput.name
+        TransitionType.TRUE -> "1"
+        TransitionType.KEEP -> throw IllegalArgumentException("keep depends on the counters")
+    }
+
+    private fun guard(t: Transition): String {
+        val from = t.from as? RowState
+        val fromName = active(t.from)
+        // a counter state leaves its row only from a cycle beyond the lower bound
+        val exit = from?.counter?.let { " && state->${from.cnt} >= ${it.lower}" } ?: ""
+        return when (t.type) {
+            TransitionType.TRUE -> fromName
+            TransitionType.KEEP -> keep(from!!, from.counter!!)
+            TransitionType.ACCEPT, TransitionType.ACCEPT_PROGRESS ->
+                "(${rowGuard(from!!.row, t.type)}) && $fromName$exit"
+            else -> rowGuard(from!!.row, t.type) + " && " + fromName
+        }
+    }
+
+    /** Cycles below the upper bound stay; for a progress flag the optional cycles only without progress. */
+    private fun keep(s: RowState, counter: RowCounter): String {
+        val row = s.row
+        val cnt = "state->${s.cnt}"
+        val name = active(s)
+        return if (!counter.pflag) "${row.defForward.name} && $name && $cnt < ${counter.upper}"
+        else "${row.defForward.name} && $name && ($cnt < ${counter.lower} " +
+                "|| ($cnt < ${counter.upper} && !${row.defProgress.name}))"
+    }
+
+    /** Updates the counter of [s] from the flags [keep] and [entry]; the activity is updated by the caller. */
+    private fun updateCounter(s: RowState, keep: String, entry: String) {
+        val cnt = "state->${s.cnt}"
+        writer.nl().write("$cnt = $entry ? 1 : $keep ? $cnt + 1 : 1;")
+    }
+
+    private fun declareAuxVariables() {
+        // the successors of the rows are needed for the progress
+        val successors = rows.flatMap { it.outgoing }.filter { it !in rows }.distinct()
+        successors.forEach {
+            writer.write("int8_t ${it.defInput.name} = ${cexpr(it.inputExpr.values)};").nl()
+        }
+
+        rows.forEach { tr ->
+            val defInput = (tr.defInput.name)
+            val defOutput = (tr.defOutput.name)
+            val defFailed = (tr.defFailed.name)
+            val defForward = (tr.defForward.name)
+            val defProgress = (tr.defProgress.name)
+
+            val progress = if (tr.duration.pflag) tr.outgoing.map { it.defInput.name }
+                    .ifEmpty { listOf("0") }
+                    .joinToString(" || ")
+            else "0"
+
+            writer.write("int8_t $defInput = ${cexpr(tr.inputExpr.values)};")
+                    .nl()
+                    .write("int8_t $defOutput = ${cexpr(tr.outputExpr.values)};")
+                    .nl()
+                    .write("int8_t $defFailed = ($defInput && !$defOutput);")
+                    .nl()
+                    .write("int8_t $defForward = ($defInput && $defOutput);")
+                    .nl()
+                    .write("int8_t $defProgress = (($defInput && $defOutput) && !($progress));")
+                    .nl()
+        }
     }
+
+    private fun cexpr(exprs: Collection<SMVExpr>) =
+            if (exprs.isEmpty()) "1" else exprs.toList().conjunction(SLiteral.TRUE).accept(translator)
 }
 
-private fun SMVAst.toCExpression(): String = accept(SmvToCTranslator())
 
 private val Variable.cInitValue: String
     get() {
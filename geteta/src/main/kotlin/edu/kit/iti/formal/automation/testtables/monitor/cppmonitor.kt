@@ -120,7 +120,8 @@ class CppMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton: Test
         cw.println("template <typename io_t>")
                 .cblock("class ${gtt.name.capitalize()}Monitor " +
                         ": public IMonitor<io_t> {", "};") {
-                    +("struct Token {int state; $structNameGv globalVars;};")
+                    // age: cycles spent in a counter state (see RowCounter) before the current one
+                    +("struct Token {int state; $structNameGv globalVars; int age;};")
                     +("vector<Token> tokens;")
                     +("int numErrors;")
                     this.historyValuesDeclaration(gtt)
@@ -227,9 +228,9 @@ class CppMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton: Test
         }
     }
 
-    private fun createNewToken(vec: String, state: String, globalvars: String) {
+    private fun createNewToken(vec: String, state: String, globalvars: String, age: String = "0") {
         cw.println("$vec.push_back((struct Token) " +
-                "{ .state = $state, .globalVars = $globalvars });")
+                "{ .state = $state, .globalVars = $globalvars, .age = $age });")
     }
 
     private fun generateCase(it: RowState) {
@@ -243,19 +244,26 @@ class CppMonitorGeneratorImpl(val gtt: GeneralizedTestTable, val automaton: Test
     }
 
     private fun handleTransition(t: Transition) {
+        // every token of a counter state knows its cycle in the row: token.age + 1
+        val counter = (t.from as? RowState)?.counter
+        val exit = counter?.let { " && token.age + 1 >= ${it.lower}" } ?: ""
         val condition = when (t.type) {
-            TransitionType.ACCEPT -> "__assumption && __assertion"
+            TransitionType.ACCEPT -> "__assumption && __assertion$exit"
             TransitionType.ACCEPT_PROGRESS ->
-                "__assumption && __assertion"
+                "__assumption && __assertion$exit"
             TransitionType.FAIL ->
                 "__assumption && !__assertion"
             TransitionType.TRUE -> "true"
             TransitionType.MISS -> "! __assumption"
+            TransitionType.KEEP -> "__assumption && __assertion && token.age + 1 < ${counter!!.upper}"
         }
 
         cw.nl().cblock("if($condition) {", "}") {
             val to = t.to.name
-            createNewToken("newTokens", "$enumStates::$to", "token.globalVars")
+            if (t.type == TransitionType.KEEP)
+                createNewToken("newTokens", "$enumStates::$to", "token.globalVars", "token.age + 1")
+            else
+                createNewToken("newTokens", "$enumStates::$to", "token.globalVars")
         }
     }
 
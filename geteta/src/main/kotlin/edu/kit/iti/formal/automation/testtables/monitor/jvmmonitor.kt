@@ -0,0 +1,531 @@
+package edu.kit.iti.formal.automation.testtables.monitor
+
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.builder.pflag
+import edu.kit.iti.formal.automation.testtables.exception.GetetaException
+import edu.kit.iti.formal.automation.testtables.model.ConstraintVariable
+import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
+import edu.kit.iti.formal.automation.testtables.model.ProgramVariable
+import edu.kit.iti.formal.automation.testtables.model.TableRow
+import edu.kit.iti.formal.automation.testtables.model.automata.AutomatonState
+import edu.kit.iti.formal.automation.testtables.model.automata.RowState
+import edu.kit.iti.formal.automation.testtables.model.automata.TestTableAutomaton
+import edu.kit.iti.formal.automation.testtables.model.automata.TransitionType
+import edu.kit.iti.formal.smv.SMVAstDefaultVisitorNN
+import edu.kit.iti.formal.smv.SMVWordType
+import edu.kit.iti.formal.smv.ast.*
+import java.io.BufferedReader
+import java.io.Reader
+import java.math.BigInteger
+import java.util.Arrays
+import java.util.IdentityHashMap
+import java.util.concurrent.Callable
+
+/**
+ * A compiled SMV expression over the values of a cycle.
+ * Booleans are `0` and `1`, enumeration literals are numbered by [JvmMonitor.enumValue].
+ */
+fun interface TraceTerm {
+    fun eval(v: LongArray): Long
+}
+
+enum class MonitorVerdict {
+    /** The table is still running. */
+    RUNNING,
+
+    /** The end of the table was reached. */
+    ACCEPTED,
+
+    /** The assumptions of a row were met, but not its assertions, and no other row is active. */
+    ERROR,
+
+    /** No row matches the trace, the table does not apply. */
+    LOST_SYNC
+}
+
+data class MonitorResult(val verdict: MonitorVerdict, val cycles: Long)
+
+/**
+ * A runtime monitor of a [GeneralizedTestTable] that runs inside the JVM, constructed by [JvmMonitorCompiler].
+ *
+ * The monitor follows the semantics of the SMV module of the table: the active states are a bit vector
+ * over the states of the [TestTableAutomaton], and the row predicates are compiled into [TraceTerm]s,
+ * which are evaluated at most once per cycle and only for rows that are needed.
+ *
+ * A cycle is given as a `long[]` with the values of the [columns]. Values of global variables and
+ * the history of backward references (`x[-1]`) are maintained by the monitor.
+ */
+class JvmMonitor internal constructor(
+        val columns: List<String>,
+        private val slotCount: Int,
+        private val enumValues: MutableMap<String, Long>,
+        private val rows: Array<CompiledRow>,
+        private val states: Array<CompiledState>,
+        private val initialStates: IntArray,
+        private val error: Int,
+        private val sentinel: Int,
+        private val globals: Array<CompiledGlobal>,
+        private val histories: Array<IntArray>) {
+
+    private val words = (states.size + 63) / 64
+    private var active = LongArray(words)
+    private var next = LongArray(words)
+    private val entered = LongArray(words)
+    private val kept = LongArray(words)
+    private val cnt = IntArray(states.size)
+
+    private val values = LongArray(slotCount)
+    private val rowCycle = LongArray(rows.size)
+    private val rowInput = BooleanArray(rows.size)
+    private val rowOutput = BooleanArray(rows.size)
+    private val bound = BooleanArray(globals.size)
+    private val counterStates = states.indices.filter { states[it].counter != null }.toIntArray()
+    private val rowStateIds = states.indices.filter { states[it].row >= 0 }.toIntArray()
+
+    /** Number of consumed cycles since the last [reset]. */
+    var cycle = 0L
+        private set
+
+    var verdict = MonitorVerdict.RUNNING
+        private set
+
+    init {
+        reset()
+    }
+
+    fun columnIndex(name: String) = columns.indexOf(name)
+
+    /** The number of an enumeration literal, equal to the encoding in the compiled predicates. */
+    fun enumValue(literal: String): Long = enumValues.getOrPut(literal) { enumValues.size.toLong() }
+
+    /** Parses a value of a trace: `TRUE`, `FALSE`, an integer, an SMV word literal or an enumeration literal. */
+    fun parseValue(text: String): Long {
+        val s = text.trim()
+        return when {
+            s.equals("true", true) -> 1L
+            s.equals("false", true) -> 0L
+            s.isNotEmpty() && (s[0].isDigit() || (s[0] == '-' && s.length > 1 && s[1].isDigit())) ->
+                if ('_' in s) SMVWordType(false, 64).read(s).toLong()
+                else s.toLong()
+            else -> enumValue(s)
+        }
+    }
+
+    fun reset() {
+        cycle = 0
+        verdict = MonitorVerdict.RUNNING
+        Arrays.fill(active, 0)
+        initialStates.forEach { set(active, it) }
+        Arrays.fill(cnt, 1)
+        Arrays.fill(values, 0)
+        Arrays.fill(rowCycle, -1)
+        Arrays.fill(bound, false)
+    }
+
+    /** Consumes the values of one cycle. After a final verdict, the monitor needs to be [reset]. */
+    fun step(row: LongArray): MonitorVerdict {
+        if (verdict != MonitorVerdict.RUNNING) return verdict
+        System.arraycopy(row, 0, values, 0, columns.size)
+        if (!bindGlobals()) {
+            verdict = MonitorVerdict.LOST_SYNC
+            return verdict
+        }
+
+        Arrays.fill(next, 0)
+        Arrays.fill(entered, 0)
+        Arrays.fill(kept, 0)
+        for (w in 0 until words) {
+            var bits = active[w]
+            while (bits != 0L) {
+                val s = 64 * w + java.lang.Long.numberOfTrailingZeros(bits)
+                bits = bits and (bits - 1)
+                fire(s)
+            }
+        }
+        for (s in counterStates) updateCounter(s)
+
+        val t = active
+        active = next
+        next = t
+        shiftHistories()
+        cycle++
+        verdict = verdict()
+        return verdict
+    }
+
+    /** Runs the monitor from its current state until the end of the [trace] or a final verdict. */
+    fun run(trace: Iterator<LongArray>): MonitorResult {
+        while (verdict == MonitorVerdict.RUNNING && trace.hasNext()) step(trace.next())
+        return MonitorResult(verdict, cycle)
+    }
+
+    /** The active states after the last cycle. */
+    fun activeStates(): List<AutomatonState> =
+            states.indices.filter { get(active, it) }.map { states[it].state }
+
+    private fun fire(s: Int) {
+        val state = states[s]
+        val targets = state.targets
+        val types = state.types
+        for (i in targets.indices) {
+            val type = types[i]
+            if (guard(s, state, type)) {
+                val target = targets[i]
+                set(next, target)
+                if (type == TransitionType.KEEP) set(kept, target)
+                else set(entered, target)
+            }
+        }
+    }
+
+    private fun guard(s: Int, state: CompiledState, type: TransitionType): Boolean {
+        val row = state.row
+        val counter = state.counter
+        return when (type) {
+            TransitionType.ACCEPT -> forward(row) && (counter == null || cnt[s] >= counter.lower)
+            TransitionType.ACCEPT_PROGRESS ->
+                forward(row) && (counter == null || cnt[s] >= counter.lower) && successorReady(row)
+            TransitionType.FAIL -> input(row) && !output(row)
+            TransitionType.MISS -> !input(row)
+            TransitionType.TRUE -> true
+            TransitionType.KEEP -> {
+                counter!!
+                forward(row) && (cnt[s] < counter.lower
+                        || cnt[s] < counter.upper && !(counter.pflag && progress(row)))
+            }
+        }
+    }
+
+    /** `cnt` restarts with 1 if the row is entered, and counts the cycles that stay in the row. */
+    private fun updateCounter(s: Int) {
+        cnt[s] = if (!get(entered, s) && get(kept, s)) cnt[s] + 1 else 1
+    }
+
+    private fun verdict(): MonitorVerdict {
+        if (get(active, sentinel)) return MonitorVerdict.ACCEPTED
+        val rowActive = rowStateIds.any { get(active, it) }
+        return when {
+            rowActive -> MonitorVerdict.RUNNING
+            get(active, error) -> MonitorVerdict.ERROR
+            else -> MonitorVerdict.LOST_SYNC
+        }
+    }
+
+    private fun evaluate(row: Int) {
+        if (rowCycle[row] == cycle) return
+        val r = rows[row]
+        rowInput[row] = r.input.eval(values) != 0L
+        rowOutput[row] = rowInput[row] && r.output.eval(values) != 0L
+        rowCycle[row] = cycle
+    }
+
+    private fun input(row: Int): Boolean {
+        evaluate(row)
+        return rowInput[row]
+    }
+
+    private fun output(row: Int): Boolean {
+        evaluate(row)
+        return rowOutput[row]
+    }
+
+    private fun forward(row: Int) = input(row) && output(row)
+
+    /** The assumptions of a succeeding row are met, only considered for rows with a progress flag. */
+    private fun successorReady(row: Int) = rows[row].pflag && rows[row].outgoing.any { input(it) }
+
+    /** The `defProgress` of the SMV module: the row holds, but no succeeding row is ready. */
+    private fun progress(row: Int) = forward(row) && !successorReady(row)
+
+    /** Binds free global variables, returns false if a value violates the constraint of its variable. */
+    private fun bindGlobals(): Boolean {
+        for (g in globals.indices) {
+            if (bound[g]) continue
+            val global = globals[g]
+            for (i in global.rows.indices) {
+                if (global.rows[i].any { get(active, it) }) {
+                    values[global.slot] = global.assignments[i].eval(values)
+                    bound[g] = true
+                    if (global.constraint.eval(values) == 0L) return false
+                    break
+                }
+            }
+        }
+        return true
+    }
+
+    private fun shiftHistories() {
+        for (h in histories) {
+            for (k in h.size - 1 downTo 2) values[h[k]] = values[h[k - 1]]
+            if (h.size > 1) values[h[1]] = values[h[0]]
+        }
+    }
+
+    private fun set(bits: LongArray, i: Int) {
+        bits[i ushr 6] = bits[i ushr 6] or (1L shl i)
+    }
+
+    private fun get(bits: LongArray, i: Int) = bits[i ushr 6] and (1L shl i) != 0L
+}
+
+internal class CompiledRow(val input: TraceTerm, val output: TraceTerm, val pflag: Boolean) {
+    var outgoing = IntArray(0)
+}
+
+internal class CompiledState(val state: AutomatonState, val row: Int,
+                             val targets: IntArray, val types: Array<TransitionType>) {
+    val counter = (state as? RowState)?.counter
+}
+
+/**
+ * A global variable is bound to the value of [assignments]`[i]`
+ * in the first cycle a state of the rows with the state ids [rows]`[i]` is active.
+ */
+internal class CompiledGlobal(val slot: Int, val assignments: Array<TraceTerm>, val rows: Array<IntArray>,
+                              val constraint: TraceTerm)
+
+/**
+ * Compiles a [GeneralizedTestTable] and its [TestTableAutomaton] into a [JvmMonitor].
+ *
+ * Only tables with a single program run are supported. As in the C++ monitor, a global variable is bound
+ * by the first active row with an equality for it (see [findAssignment]).
+ * Unsupported constructs, e.g., function calls or projections, raise a [GetetaException].
+ */
+class JvmMonitorCompiler(val gtt: GeneralizedTestTable, val automaton: TestTableAutomaton) : Callable<JvmMonitor> {
+    private val slots = LinkedHashMap<String, Int>()
+    private val enumValues = HashMap<String, Long>()
+    private val rowIndex = IdentityHashMap<TableRow, Int>()
+    private val rows = arrayListOf<CompiledRow>()
+    private val translator = SmvToTraceTerm()
+
+    override fun call(): JvmMonitor {
+        gtt.ensureProgramRuns()
+        if (gtt.programRuns.size > 1)
+            throw GetetaException("Monitors of relational tables are not supported.")
+        val ctx = gtt.generateSmvExpression()
+
+        val programVariables = gtt.programVariables.map {
+            it as? ProgramVariable ?: throw GetetaException("Column ${it.name} is not supported by the monitor.")
+        }
+        programVariables.forEach { slot(ctx.getSMVVariable(it).name) }
+        val columns = programVariables.map { it.name }
+
+        val histories = ctx.refs.map { (variable, cycles) ->
+            IntArray(1 - cycles) { if (it == 0) slots[variable.name]!! else slot(GetetaFacade.getHistoryName(variable, it)) }
+        }
+        gtt.constraintVariables.forEach { slot(ctx.getSMVVariable(it).name) }
+
+        // compile the rows of the states and their successors
+        automaton.rowStates.keys.forEach { row(it) }
+        rowIndex.keys.toList().forEach { row ->
+            rows[rowIndex[row]!!].outgoing = row.outgoing.map { row(it) }.toIntArray()
+        }
+
+        // states without transitions get an id, too
+        automaton.getRowStates().forEach { automaton.transitions.register(it) }
+        val error = automaton.transitions.register(automaton.stateError)
+        val sentinel = automaton.transitions.register(automaton.stateSentinel)
+        val states = Array(automaton.transitions.stateCount) { id ->
+            val state = automaton.transitions.state(id)
+            val outgoing = automaton.transitions.outgoing(id)
+            CompiledState(state, (state as? RowState)?.let { row(it.row) } ?: -1,
+                    outgoing.map { automaton.stateId(it.to) }.toIntArray(),
+                    outgoing.map { it.type }.toTypedArray())
+        }
+
+        val globals = gtt.constraintVariables.map { global(it) }
+
+        return JvmMonitor(columns, slots.size, enumValues, rows.toTypedArray(), states,
+                automaton.initialStates.map { automaton.stateId(it) }.toIntArray(),
+                error, sentinel, globals.toTypedArray(), histories.toTypedArray())
+    }
+
+    private fun slot(name: String) = slots.getOrPut(name) { slots.size }
+
+    private fun row(row: TableRow): Int = rowIndex.getOrPut(row) {
+        rows += CompiledRow(conjunction(row.inputExpr.values), conjunction(row.outputExpr.values),
+                row.duration.pflag)
+        rows.size - 1
+    }
+
+    private fun conjunction(exprs: Collection<SMVExpr>): TraceTerm =
+            exprs.map { it.accept(translator) }.reduceOrNull { a, b -> and(a, b) } ?: TraceTerm { 1L }
+
+    private fun global(cv: ConstraintVariable): CompiledGlobal {
+        val svar = gtt.parseContext.getSMVVariable(cv)
+        val bindings = automaton.rowStates.mapNotNull { (row, states) ->
+            (row.inputExpr.values + row.outputExpr.values).findAssignment(svar)?.let {
+                it.accept(translator) to states.map { s -> automaton.stateId(s) }.toIntArray()
+            }
+        }
+        if (bindings.isEmpty())
+            throw GetetaException("Global variable ${cv.name} is not bound by any row.")
+        val constraint = cv.constraint?.let {
+            GetetaFacade.exprToSMV(it, svar, 0, gtt.parseContext).accept(translator)
+        } ?: TraceTerm { 1L }
+        return CompiledGlobal(slots[svar.name]!!, bindings.map { it.first }.toTypedArray(),
+                bindings.map { it.second }.toTypedArray(), constraint)
+    }
+
+    private fun and(a: TraceTerm, b: TraceTerm) = TraceTerm { if (a.eval(it) == 0L) 0L else b.eval(it) }
+
+    private inner class SmvToTraceTerm : SMVAstDefaultVisitorNN<TraceTerm>() {
+        override fun defaultVisit(top: SMVAst): TraceTerm =
+                throw GetetaException("${top.javaClass.simpleName} is not supported by the monitor: $top")
+
+        override fun visit(v: SVariable): TraceTerm {
+            val slot = slots[v.name] ?: throw GetetaException("Unknown variable ${v.name} in the monitor.")
+            return TraceTerm { it[slot] }
+        }
+
+        override fun visit(l: SLiteral): TraceTerm {
+            val value = when (val v = l.value) {
+                is Boolean -> if (v) 1L else 0L
+                is BigInteger -> (l.dataType as? SMVWordType)?.let { wrap(it, v.toLong()) } ?: v.toLong()
+                is String -> enumValues.getOrPut(v) { enumValues.size.toLong() }
+                else -> return defaultVisit(l)
+            }
+            return TraceTerm { value }
+        }
+
+        override fun visit(ue: SUnaryExpression): TraceTerm {
+            val e = ue.expr.accept(this)
+            val word = ue.expr.dataType as? SMVWordType
+            return when (ue.operator) {
+                SUnaryOperator.NEGATE ->
+                    if (word != null) TraceTerm { wrap(word, e.eval(it).inv()) }
+                    else TraceTerm { e.eval(it) xor 1L }
+                SUnaryOperator.MINUS ->
+                    if (word != null) TraceTerm { wrap(word, -e.eval(it)) }
+                    else TraceTerm { -e.eval(it) }
+            }
+        }
+
+        override fun visit(be: SBinaryExpression): TraceTerm {
+            val a = be.left.accept(this)
+            val b = be.right.accept(this)
+            val word = be.left.dataType as? SMVWordType ?: be.right.dataType as? SMVWordType
+            val w = word ?: SMVWordType(true, 64)
+            return when (be.operator) {
+                SBinaryOperator.PLUS -> TraceTerm { wrap(w, a.eval(it) + b.eval(it)) }
+                SBinaryOperator.MINUS -> TraceTerm { wrap(w, a.eval(it) - b.eval(it)) }
+                SBinaryOperator.MUL -> TraceTerm { wrap(w, a.eval(it) * b.eval(it)) }
+                // nuXmv rejects a division by zero, the monitor evaluates it to zero
+                SBinaryOperator.DIV -> TraceTerm {
+                    val d = b.eval(it)
+                    if (d == 0L) 0L else wrap(w, a.eval(it) / d)
+                }
+                SBinaryOperator.MOD -> TraceTerm {
+                    val d = b.eval(it)
+                    if (d == 0L) 0L else wrap(w, a.eval(it) % d)
+                }
+                SBinaryOperator.AND ->
+                    if (word != null) TraceTerm { a.eval(it) and b.eval(it) }
+                    else and(a, b)
+                SBinaryOperator.OR ->
+                    if (word != null) TraceTerm { a.eval(it) or b.eval(it) }
+                    else TraceTerm { if (a.eval(it) != 0L) 1L else b.eval(it) }
+                SBinaryOperator.XOR -> TraceTerm { a.eval(it) xor b.eval(it) }
+                SBinaryOperator.XNOR, SBinaryOperator.EQUIV ->
+                    if (word != null) TraceTerm { wrap(word, (a.eval(it) xor b.eval(it)).inv()) }
+                    else TraceTerm { a.eval(it) xor b.eval(it) xor 1L }
+                SBinaryOperator.IMPL -> TraceTerm { if (a.eval(it) == 0L) 1L else b.eval(it) }
+                SBinaryOperator.EQUAL -> TraceTerm { if (a.eval(it) == b.eval(it)) 1L else 0L }
+                SBinaryOperator.NOT_EQUAL -> TraceTerm { if (a.eval(it) != b.eval(it)) 1L else 0L }
+                SBinaryOperator.LESS_THAN -> TraceTerm { if (a.eval(it) < b.eval(it)) 1L else 0L }
+                SBinaryOperator.LESS_EQUAL -> TraceTerm { if (a.eval(it) <= b.eval(it)) 1L else 0L }
+                SBinaryOperator.GREATER_THAN -> TraceTerm { if (a.eval(it) > b.eval(it)) 1L else 0L }
+                SBinaryOperator.GREATER_EQUAL -> TraceTerm { if (a.eval(it) >= b.eval(it)) 1L else 0L }
+                SBinaryOperator.SHL -> TraceTerm { wrap(w, a.eval(it) shl b.eval(it).toInt()) }
+                SBinaryOperator.SHR -> TraceTerm { wrap(w, a.eval(it) shr b.eval(it).toInt()) }
+                SBinaryOperator.WORD_CONCAT -> defaultVisit(be)
+            }
+        }
+
+        override fun visit(ce: SCaseExpression): TraceTerm {
+            val conditions = ce.cases.map { it.condition.accept(this) }.toTypedArray()
+            val values = ce.cases.map { it.then.accept(this) }.toTypedArray()
+            return TraceTerm {
+                var result = 0L
+                for (i in conditions.indices) {
+                    if (conditions[i].eval(it) != 0L) {
+                        result = values[i].eval(it)
+                        break
+                    }
+                }
+                result
+            }
+        }
+    }
+
+    companion object {
+        /** Truncates [value] to the width of the word [type], for signed words with sign extension. */
+        fun wrap(type: SMVWordType, value: Long): Long {
+            if (type.width >= 64) return value
+            val shift = 64 - type.width
+            return if (type.signed) (value shl shift) shr shift
+            else value and (-1L ushr shift)
+        }
+    }
+}
+
+/**
+ * Reads a trace in CSV format with a header line. The header names the [JvmMonitor.columns];
+ * further columns are ignored, missing columns are an error.
+ *
+ * The returned array is reused for every line.
+ */
+class CsvTrace(reader: Reader, private val monitor: JvmMonitor, private val delimiter: Char = ',')
+    : Iterator<LongArray> {
+    private val input = reader as? BufferedReader ?: BufferedReader(reader)
+    private val mapping: IntArray
+    private val row = LongArray(monitor.columns.size)
+    private var line: String? = null
+
+    init {
+        val header = input.readLine()?.split(delimiter)?.map { it.trim().removeSurrounding("\"") } ?: listOf()
+        mapping = IntArray(header.size) { monitor.columnIndex(header[it]) }
+        val missing = monitor.columns.filter { it !in header }
+        if (missing.isNotEmpty()) throw GetetaException("Columns $missing are missing in the trace.")
+        line = input.readLine()
+    }
+
+    override fun hasNext(): Boolean {
+        while (line?.isBlank() == true) line = input.readLine()
+        return line != null
+    }
+
+    override fun next(): LongArray {
+        if (!hasNext()) throw NoSuchElementException()
+        val l = line!!
+        var start = 0
+        var column = 0
+        while (start <= l.length && column < mapping.size) {
+            var end = l.indexOf(delimiter, start)
+            if (end < 0) end = l.length
+            val target = mapping[column++]
+            if (target >= 0) row[target] = parse(l, start, end)
+            start = end + 1
+        }
+        line = input.readLine()
+        return row
+    }
+
+    /** Integers are parsed without a substring. */
+    private fun parse(l: String, from: Int, to: Int): Long {
+        var s = from
+        var e = to
+        while (s < e && l[s].isWhitespace()) s++
+        while (e > s && l[e - 1].isWhitespace()) e--
+        val negative = s < e && l[s] == '-'
+        var i = if (negative) s + 1 else s
+        if (i == e) return monitor.parseValue(l.substring(s, e))
+        var v = 0L
+        while (i < e) {
+            val c = l[i++]
+            if (c !in '0'..'9') return monitor.parseValue(l.substring(s, e))
+            v = 10 * v + (c - '0')
+        }
+        return if (negative) -v else v
+    }
+}
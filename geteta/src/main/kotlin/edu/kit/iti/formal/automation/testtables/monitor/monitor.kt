@@ -4,7 +4,9 @@ import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
 import edu.kit.iti.formal.automation.testtables.model.automata.TestTableAutomaton
 
 data class MonitorGenerationOptions(
-        val includes : List<String> = listOf()
+        val includes : List<String> = listOf(),
+        /** Pack the automaton states into 64-bit words, only supported by [CMonitorGenerator]. */
+        val packStates : Boolean = false
 )
 
 interface MonitorGeneration {
@@ -32,8 +32,12 @@ import java.math.BigInteger
  */
 object MonitorGenerationST : MonitorGeneration {
     override val key: String = "st"
+    /** Counter states are not supported, a counter-encoded [automaton] is replaced by the explicit one. */
     override fun generate(gtt: GeneralizedTestTable, automaton: TestTableAutomaton, options: MonitorGenerationOptions): Monitor {
-        val mg = MonitorGenerationSTImpl(gtt, automaton)
+        val explicit = if (automaton.getRowStates().any { it.counter != null })
+            GetetaFacade.constructExplicitTable(gtt).automaton
+        else automaton
+        val mg = MonitorGenerationSTImpl(gtt, explicit)
         val elements = mg.call()
         return Monitor(body = IEC61131Facade.print(elements, true))
     }
@@ -158,16 +162,15 @@ object MonitorGenerationST : MonitorGeneration {
         }
 
         private fun updateStateVariables() {
-            val transitions = automaton.transitions.groupBy { it.to }
-            automaton.rowStates.values.flatMap { it }.forEach { createNext(transitions, it) }
-            createNext(transitions, automaton.stateError)
-            createNext(transitions, automaton.stateSentinel)
+            automaton.rowStates.values.flatMap { it }.forEach { createNext(it) }
+            createNext(automaton.stateError)
+            createNext(automaton.stateSentinel)
         }
 
-        private fun createNext(transitions: Map<AutomatonState, List<Transition>>, it: AutomatonState) {
+        private fun createNext(it: AutomatonState) {
             val to = SymbolicReference(it.name)
             val expr =
-                    transitions[it]?.map { t ->
+                    automaton.getIncomingTransition(it).map { t ->
                         val from = t.from as? RowState
                         val fromName = SymbolicReference(t.from.name)
                         when (t.type) {
@@ -180,8 +183,10 @@ object MonitorGenerationST : MonitorGeneration {
                             TransitionType.TRUE ->
                                 fromName
                             TransitionType.MISS -> SymbolicReference(from!!.row.defInput.name).not() and fromName
+                            TransitionType.KEEP ->
+                                error("Counter-encoded rows are not supported by the ST monitor.")
                         }
-                    }?.reduce { a, b -> a or b }
+                    }.reduceOrNull { a, b -> a or b }
                             ?: BooleanLit.LFALSE
 
             stBody.add(to assignTo expr)
@@ -27,9 +27,12 @@ import edu.kit.iti.formal.automation.testtables.builder.stateNameSentinel
 import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
 import edu.kit.iti.formal.automation.testtables.model.TableRow
 import edu.kit.iti.formal.automation.testtables.model.automata.AutomatonState
+import edu.kit.iti.formal.automation.testtables.model.automata.RowCounter
 import edu.kit.iti.formal.automation.testtables.model.automata.RowState
 import edu.kit.iti.formal.automation.testtables.model.automata.SpecialState
 import edu.kit.iti.formal.automation.testtables.model.automata.TestTableAutomaton
+import edu.kit.iti.formal.automation.testtables.model.automata.Transition
+import edu.kit.iti.formal.automation.testtables.model.automata.TransitionType
 import edu.kit.iti.formal.automation.testtables.model.options.Mode
 import edu.kit.iti.formal.smv.CounterExample
 import edu.kit.iti.formal.smv.SMVTypes
@@ -49,32 +52,6 @@ data class Mapping(private val state2Row: MutableList<Pair<Int, String>> = array
 }
 
 
-private data class SearchNode(
-        val cycle: Int,
-        val state: AutomatonState,
-        val parent: SearchNode? = null) {
-
-    fun jumpTo(to: AutomatonState): SearchNode = SearchNode(cycle + 1, to, this)
-
-    val searchPath: List<SearchNode>
-        get() {
-            return if (parent == null) listOf(this)
-            else parent.searchPath + this
-        }
-
-    val mapping: Mapping
-        get() {
-            val sp = searchPath
-            val m = Mapping(sp.size)
-            searchPath.forEachIndexed { i, it ->
-                if (it.state is RowState)
-                    m.connect(i, it.state.row.id)
-            }
-            return m
-        }
-}
-
-
 val OKMARK = '\u2714' // ✔
 val ERRMARK = '\u2717' // ✘
 val QMARK = '\u2753' // ❓
@@ -312,6 +289,18 @@ class CounterExampleTablePrinter(
 }
 
 /**
+ * Finds the mappings of the cycles of a counter example to the rows of a test table.
+ *
+ * The search is a dynamic program over the product of cycles and automaton states:
+ * first, the states that are reachable in each cycle are computed forwards,
+ * afterwards, the paths to the states that explain the counter example are enumerated backwards, on demand.
+ * Every state that is reachable in a cycle has a predecessor in the previous cycle, hence the enumeration never runs
+ * into dead ends. At most [maxMappings] distinct mappings are enumerated.
+ *
+ * The boolean variables of the automaton states are read once from the counter example into bitsets over the cycles.
+ * A state leaves by its accept variable, which requires `cnt >= lower` for a counter-encoded row (cf. [RowCounter]),
+ * and stays by its [TransitionType.KEEP] self-loop only if its keep variable holds.
+ *
  * @author Alexander Weigl
  * @version 1 (08.02.17)
  */
@@ -319,66 +308,158 @@ class CounterExampleAnalyzer(
         val automaton: TestTableAutomaton,
         val testTable: GeneralizedTestTable,
         val counterExample: CounterExample,
-        val tableModuleName: String) {
+        val tableModuleName: String,
+        val maxMappings: Int = 64) {
 
     private val tableRows = testTable.region.flat()
     val rowMapping: MutableList<Mapping> = arrayListOf()
 
-    fun run() {
-        val init = tableRows.filter { it.isInitialReachable }
-                .map { automaton.getFirstState(it) as RowState }
-                .map { SearchNode(0, it) }
+    private val cycles = counterExample.stateSize
+    private val concrete = testTable.options.mode == Mode.CONCRETE_TABLE
 
-        val queue = LinkedList(init)
+    private lateinit var states: Array<AutomatonState>
+    private lateinit var forward: Array<BitSet?>
+    private lateinit var failed: Array<BitSet?>
+    private lateinit var keep: Array<BitSet?>
+    private lateinit var sentinel: BitSet
 
-        while (!queue.isEmpty()) {
-            val cur = queue.remove()
-            val (cycle, row, _) = cur
+    /** `reachable[k]` holds the ids of the states that are active in cycle `k`. */
+    private lateinit var reachable: Array<BitSet>
 
-            // only consider rows.
-            if (row is SpecialState) {
-                if (testTable.options.mode == Mode.CONCRETE_TABLE && row.name == stateNameSentinel)
-                    rowMapping.add(cur.mapping)
-                continue
+    fun run() {
+        // states without transitions get an id, too
+        tableRows.filter { it.isInitialReachable }
+                .forEach { automaton.transitions.register(automaton.getFirstState(it) as RowState) }
+        automaton.getRowStates().forEach { automaton.transitions.register(it) }
+        automaton.transitions.register(automaton.stateError)
+        automaton.transitions.register(automaton.stateSentinel)
+        val n = automaton.transitions.stateCount
+        states = Array(n) { automaton.transitions.state(it) }
+
+        forward = arrayOfNulls(n)
+        failed = arrayOfNulls(n)
+        keep = arrayOfNulls(n)
+        states.forEachIndexed { id, s ->
+            if (s is RowState) {
+                forward[id] = bits(s.fwd)
+                if (s.counter != null) keep[id] = bits(s.keep)
+                if (!concrete) failed[id] = bits(s.fail)
             }
-
-            // traces ended nowhere, but sometimes it happens that the last is not fully complete printed
-            // bad for concretization
-            if (cycle >= counterExample.stateSize) {
-                if (testTable.options.mode == Mode.CONCRETE_TABLE)
-                    rowMapping.add(cur.mapping)
-                continue
+        }
+        sentinel = if (concrete) bits(stateNameSentinel) else BitSet()
+
+        reachable = Array(cycles + 1) { BitSet(n) }
+        tableRows.filter { it.isInitialReachable }
+                .forEach { reachable[0].set(automaton.stateId(automaton.getFirstState(it) as RowState)) }
+        for (k in 0 until cycles) {
+            reachable[k].forEachBit { s ->
+                automaton.transitions.outgoing(s).forEach {
+                    if (taken(it, s, k)) reachable[k + 1].set(automaton.stateId(it.to))
+                }
             }
+        }
 
-            //Smart casting
-            if (row !is RowState) continue
-
-            if (getBoolean(cycle, row.fwd)) {
-                //include every outgoing tableRow
-                automaton.transitions.filter { it.from == row }
-                        .forEach { queue.add(cur.jumpTo(it.to)) } //TODO exclude error?
+        val found = HashSet<Mapping>()
+        mappings@ for (k in 0..cycles) {
+            var s = reachable[k].nextSetBit(0)
+            while (s >= 0) {
+                if (explains(k, s)) {
+                    for (path in paths(k, s)) {
+                        val m = mapping(path)
+                        if (found.add(m)) rowMapping.add(m)
+                        if (rowMapping.size >= maxMappings) break@mappings
+                    }
+                }
+                s = reachable[k].nextSetBit(s + 1)
             }
+        }
+    }
+
+    /** True iff a path ending in state [s] at cycle [k] explains the counter example. */
+    private fun explains(k: Int, s: Int): Boolean {
+        val state = states[s]
+        return when {
+            state is SpecialState -> concrete && state.name == stateNameSentinel
+            // traces ended nowhere, but sometimes it happens that the last is not fully complete printed
+            k >= cycles -> concrete
+            state !is RowState -> false
+            concrete -> sentinel[k]
+            else -> failed[s]!![k]
+        }
+    }
 
-            val failed =
-                    when {
-                        testTable.options.mode == Mode.CONCRETE_TABLE ->
-                            getBoolean(cycle, stateNameSentinel)
-                        else ->
-                            getBoolean(cycle, row.fail)
+    /** True iff the transition [t] from state [s] can be taken in cycle [k]. */
+    private fun taken(t: Transition, s: Int, k: Int): Boolean =
+            if (t.type == TransitionType.KEEP) keep[s]?.get(k) == true
+            else forward[s]?.get(k) == true
+
+    /** Distinct states in cycle `k-1` from which [s] is entered in cycle [k]. */
+    private fun predecessors(k: Int, s: Int): IntArray =
+            automaton.transitions.incoming(s)
+                    .filter {
+                        val from = automaton.stateId(it.from)
+                        reachable[k - 1][from] && taken(it, from, k - 1)
                     }
-            if (failed) {
-                //yuhuuu the counter example
-                rowMapping.add(cur.mapping)
+                    .map { automaton.stateId(it.from) }
+                    .distinct()
+                    .toIntArray()
+
+    /** Enumerates the paths from an initial state to state [s] in cycle [k] by a backwards depth-first search. */
+    private fun paths(k: Int, s: Int): Sequence<IntArray> = sequence {
+        val path = IntArray(k + 1)
+        path[k] = s
+        if (k == 0) {
+            yield(path)
+            return@sequence
+        }
+        val preds = arrayOfNulls<IntArray>(k + 1)
+        val next = IntArray(k + 1)
+        preds[k] = predecessors(k, s)
+        var i = k
+        while (true) {
+            if (i == 0) {
+                yield(path.copyOf())
+                i = 1
+                continue
+            }
+            val p = preds[i]!!
+            if (next[i] < p.size) {
+                path[i - 1] = p[next[i]++]
+                i--
+                if (i > 0) {
+                    preds[i] = predecessors(i, path[i])
+                    next[i] = 0
+                }
+            } else {
+                if (i == k) break
+                i++
             }
         }
     }
 
-    private fun getBoolean(time: Int, `var`: String): Boolean {
-        return "TRUE" == getValue(time, `var`)
+    private fun mapping(path: IntArray): Mapping {
+        val m = Mapping(path.size)
+        path.forEachIndexed { i, s ->
+            val state = states[s]
+            if (state is RowState)
+                m.connect(i, state.row.id)
+        }
+        return m
     }
 
-    private fun getValue(time: Int, variable: String): String? {
+    private fun bits(variable: String): BitSet {
         val v = "$tableModuleName.$variable"
-        return counterExample[time, v]
+        val bits = BitSet(cycles)
+        for (k in 0 until cycles)
+            if ("TRUE" == counterExample[k, v]) bits.set(k)
+        return bits
+    }
+
+    private inline fun BitSet.forEachBit(action: (Int) -> Unit) {
+        var i = nextSetBit(0)
+        while (i >= 0) {
+            action(i)
+            i = nextSetBit(i + 1)
+        }
     }
 }
@@ -0,0 +1,68 @@
+package edu.kit.iti.formal.automation.testtables.apps
+
+import edu.kit.iti.formal.automation.scope.Scope
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.model.VerificationTechnique
+import edu.kit.iti.formal.smv.ast.SMVModule
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.system.measureTimeMillis
+
+/**
+ * Uses a shell script instead of `nuXmv -int`, that blocks for tables named `slow`.
+ */
+internal class ParallelVerificationTest {
+    private fun table(name: String) = GetetaFacade.parseTableDSL("""
+            table $name {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 1; o: 1 }
+                }
+            }""".trimIndent()).first()
+
+    @Test
+    fun deadline() {
+        Assumptions.assumeTrue(File("/bin/sh").exists())
+        val dir = Files.createTempDirectory("parallel").toFile()
+        val script = File(dir, "nuxmv.sh")
+        script.writeText("""
+            #!/bin/sh
+            model=""
+            while IFS= read -r line; do
+                case "${'$'}line" in
+                    "read_model -i "*) model="${'$'}line" ;;
+                    check_*) case "${'$'}model" in *slow*) exec sleep 30;; esac
+                             echo "-- invariant is true" ;;
+                    "echo "*) echo "${'$'}{line#echo }" ;;
+                    quit) exit 0 ;;
+                esac
+            done
+            """.trimIndent() + "\n")
+        script.setExecutable(true)
+
+        val pv = ParallelVerification(SMVModule("code"), "code", script.absolutePath, processes = 3, timeout = 2000)
+        val superEnum = GetetaFacade.createSuperEnum(listOf(Scope()))
+        for (name in listOf("slow", "fast")) {
+            val model = GetetaFacade.constructSMV(table(name), superEnum)
+            for (vt in listOf(VerificationTechnique.IC3, VerificationTechnique.BMC))
+                pv.add(model, vt, File(dir, "${name}_$vt"))
+        }
+
+        val streamed = arrayListOf<String>()
+        val time = measureTimeMillis {
+            val verdicts = pv.run { streamed += it.job.name }
+            Assertions.assertEquals(4, verdicts.size)
+            // the fast jobs finish on the remaining process, while the slow ones block the others
+            Assertions.assertEquals(setOf("fast/IC3", "fast/BMC"), streamed.take(2).toSet())
+            verdicts.forEach {
+                val slow = it.job.model.testTable.name == "slow"
+                Assertions.assertEquals(if (slow) "timeout" else "verified", it.status, it.job.name)
+            }
+        }
+        Assertions.assertTrue(time < 20_000, "slow processes were not killed")
+    }
+}
@@ -0,0 +1,109 @@
+package edu.kit.iti.formal.automation.testtables.apps
+
+import edu.kit.iti.formal.automation.st.ast.ProgramDeclaration
+import edu.kit.iti.formal.smv.NuXMVOutput
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+internal class RetetaTest {
+    @Test
+    fun augmentOncePerChapterMarks() {
+        val calls = arrayListOf<Pair<Int, Set<String>>>()
+        val programs = AugmentedPrograms(listOf(ProgramDeclaration("a"), ProgramDeclaration("b"))) { idx, exec, marks ->
+            calls += idx to marks
+            "${exec.name}$marks"
+        }
+        val first = programs.get(mapOf(0 to setOf("x"), 1 to setOf()))
+        Assertions.assertEquals(listOf("a[x]", "b[]"), first)
+        Assertions.assertEquals(first, programs.get(mapOf(0 to setOf("x"), 1 to setOf())))
+        Assertions.assertEquals(2, calls.size)
+
+        // only the program with other chapter marks is augmented again
+        Assertions.assertEquals(listOf("a[y]", "b[]"), programs.get(mapOf(0 to setOf("y"), 1 to setOf())))
+        Assertions.assertEquals(listOf(0 to setOf("x"), 1 to setOf<String>(), 0 to setOf("y")), calls)
+    }
+
+    @Test
+    fun parallelChecks() {
+        val started = CountDownLatch(3)
+        val reported = arrayListOf<Int>()
+        val exitCode = ModelCheckerRuns(3).use { runs ->
+            Assertions.assertTrue(runs.parallel)
+            for (i in 0 until 3) {
+                runs.submit(Callable<NuXMVOutput> {
+                    // finishes only if all checks run at the same time
+                    started.countDown()
+                    Assertions.assertTrue(started.await(30, TimeUnit.SECONDS))
+                    NuXMVOutput.Verified
+                }) {
+                    Assertions.assertEquals(NuXMVOutput.Verified, it)
+                    reported += i
+                    0
+                }
+            }
+            Assertions.assertTrue(reported.isEmpty())
+            runs.await()
+        }
+        Assertions.assertEquals(0, exitCode)
+        Assertions.assertEquals(setOf(0, 1, 2), reported.toSet())
+    }
+
+    @Test
+    fun errorsTakePrecedence() {
+        val outputs = arrayListOf<NuXMVOutput>()
+        val exitCode = ModelCheckerRuns(2).use { runs ->
+            runs.submit(Callable<NuXMVOutput> { NuXMVOutput.Verified }) { 67 }
+            runs.submit(Callable<NuXMVOutput> { throw IllegalStateException("crashed") }) {
+                outputs += it
+                1
+            }
+            runs.submit(Callable<NuXMVOutput> { NuXMVOutput.Verified }) { 0 }
+            runs.await()
+        }
+        Assertions.assertEquals(1, exitCode)
+        Assertions.assertTrue(outputs.single() is NuXMVOutput.Error)
+
+        val cex = ModelCheckerRuns(2).use { runs ->
+            listOf(0, 67, 0).forEach { code -> runs.submit(Callable<NuXMVOutput> { NuXMVOutput.Verified }) { code } }
+            runs.await()
+        }
+        Assertions.assertEquals(67, cex)
+    }
+
+    @Test
+    fun sequentialStopsAtFirstFailure() {
+        ModelCheckerRuns(1).use { runs ->
+            Assertions.assertFalse(runs.parallel)
+            runs.submit(Callable<NuXMVOutput> { NuXMVOutput.Verified }) { 0 }
+            Assertions.assertFalse(runs.stopped)
+            runs.submit(Callable<NuXMVOutput> { NuXMVOutput.Verified }) { 67 }
+            Assertions.assertTrue(runs.stopped)
+            Assertions.assertEquals(67, runs.await())
+        }
+    }
+
+    @Test
+    fun closeInterruptsRunningChecks() {
+        val started = CountDownLatch(1)
+        val interrupted = CountDownLatch(1)
+        var daemon = false
+        ModelCheckerRuns(2).use { runs ->
+            runs.submit(Callable<NuXMVOutput> {
+                daemon = Thread.currentThread().isDaemon
+                started.countDown()
+                try {
+                    Thread.sleep(30_000)
+                } catch (e: InterruptedException) {
+                    interrupted.countDown()
+                }
+                NuXMVOutput.Verified
+            }) { 0 }
+            Assertions.assertTrue(started.await(30, TimeUnit.SECONDS))
+        }
+        Assertions.assertTrue(interrupted.await(30, TimeUnit.SECONDS))
+        Assertions.assertTrue(daemon)
+    }
+}
@@ -0,0 +1,93 @@
+package edu.kit.iti.formal.automation.testtables.builder
+
+import edu.kit.iti.formal.automation.scope.Scope
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
+import edu.kit.iti.formal.automation.testtables.model.TableRow
+import edu.kit.iti.formal.automation.testtables.model.automata.TransitionType
+import edu.kit.iti.formal.automation.testtables.model.options.RowEncoding
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import java.util.*
+
+internal class RowEncodingTest {
+    private fun table(encoding: RowEncoding, flags: String = "", upper: Int = 200): GeneralizedTestTable {
+        val gtt = GetetaFacade.parseTableDSL("""
+            table counter {
+                var input i : INT
+                var output o : INT
+                group {
+                    row [1,1] { i: 1; o: 1 }
+                    row [2,$upper] $flags { i: 2; o: 2 }
+                    row [1,1] { i: 3; o: 3 }
+                }
+            }""".trimIndent()).first()
+        gtt.options.rowEncoding = encoding
+        return gtt
+    }
+
+    private fun longRow(gtt: GeneralizedTestTable) = gtt.region.children[1] as TableRow
+
+    @Test
+    fun explicit() {
+        val gtt = table(RowEncoding.EXPLICIT)
+        val automaton = GetetaFacade.constructTable(gtt).automaton
+        Assertions.assertEquals(200, automaton.getStates(longRow(gtt))!!.size)
+        Assertions.assertTrue(automaton.transitions.none { it.type == TransitionType.KEEP })
+    }
+
+    @Test
+    fun counter() {
+        val gtt = table(RowEncoding.COUNTER)
+        val automaton = GetetaFacade.constructTable(gtt).automaton
+        val states = automaton.getStates(longRow(gtt))!!
+        Assertions.assertEquals(1, states.size)
+        val state = states.first()
+        Assertions.assertEquals(8, state.counter?.width)
+        Assertions.assertTrue(automaton.getOutgoingTransition(state)
+                .any { it.type == TransitionType.KEEP && it.to == state })
+
+        val smv = GetetaFacade.constructSMV(gtt, GetetaFacade.createSuperEnum(listOf(Scope())))
+        val vars = smv.tableModule.stateVars.map { it.name }
+        Assertions.assertTrue(state.cnt in vars)
+        Assertions.assertTrue(smv.tableModule.definitions.any { it.target.name == state.keep })
+    }
+
+    @Test
+    fun shortRowsStayExplicit() {
+        val gtt = table(RowEncoding.COUNTER)
+        gtt.options.counterThreshold = 200
+        val automaton = GetetaFacade.constructTable(gtt).automaton
+        Assertions.assertEquals(200, automaton.getStates(longRow(gtt))!!.size)
+    }
+
+    /** The counter encoding and the explicit encoding give the same verdicts on random traces. */
+    @ParameterizedTest
+    @ValueSource(strings = ["", "progress"])
+    fun encodingsAgree(flags: String) {
+        val explicit = GetetaFacade.compileMonitor(table(RowEncoding.EXPLICIT, flags, 12))
+        val counter = GetetaFacade.compileMonitor(table(RowEncoding.COUNTER, flags, 12).also {
+            it.options.counterThreshold = 4
+        })
+        val random = Random(15)
+        repeat(2000) {
+            explicit.reset()
+            counter.reset()
+            val trace = (0 until 20).map { c ->
+                val i = if (c == 0) 1L else if (random.nextInt(6) == 0) 3L else 2L
+                longArrayOf(i, if (random.nextInt(40) == 0) 0L else i)
+            }
+            Assertions.assertEquals(explicit.run(trace.iterator()), counter.run(trace.iterator()))
+        }
+    }
+
+    @Test
+    fun explicitTableForBackEndsWithoutCounters() {
+        val gtt = table(RowEncoding.COUNTER)
+        val automaton = GetetaFacade.constructExplicitTable(gtt).automaton
+        Assertions.assertEquals(200, automaton.getStates(longRow(gtt))!!.size)
+        Assertions.assertEquals(RowEncoding.COUNTER, gtt.options.rowEncoding)
+    }
+}
@@ -0,0 +1,59 @@
+package edu.kit.iti.formal.automation.testtables.model.automata
+
+import edu.kit.iti.formal.automation.testtables.model.TableRow
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+internal class TransitionIndexTest {
+    private val a = RowState(TableRow("a"), 1)
+    private val b = RowState(TableRow("b"), 1)
+    private val c = RowState(TableRow("c"), 1)
+
+    private fun automaton() = TestTableAutomaton().also {
+        it.addTransition(a, b, TransitionType.ACCEPT)
+        it.addTransition(a, c, TransitionType.FAIL)
+        it.addTransition(b, c, TransitionType.ACCEPT)
+    }
+
+    @Test
+    fun lookup() {
+        val auto = automaton()
+        Assertions.assertEquals(listOf(b, c), auto.getOutgoingTransition(a).map { it.to })
+        Assertions.assertEquals(listOf(a, b), auto.getIncomingTransition(c).map { it.from })
+        Assertions.assertEquals(TransitionType.FAIL, auto.getTransition(a, c)?.type)
+        Assertions.assertNull(auto.getTransition(c, a))
+        Assertions.assertEquals(listOf(0, 1, 2), listOf(a, b, c).map { auto.stateId(it) })
+    }
+
+    @Test
+    fun removeAndRename() {
+        val auto = automaton()
+        auto.transitions.removeIf { it.to == c && it.from == a }
+        a.name = "renamed"
+        a.row.id = "renamed"
+        Assertions.assertEquals(listOf(b), auto.getOutgoingTransition(a).map { it.to })
+        Assertions.assertEquals(listOf(b), auto.getIncomingTransition(c).map { it.from })
+        Assertions.assertEquals(2, auto.transitions.size)
+
+        auto.clear()
+        Assertions.assertTrue(auto.getOutgoingTransition(a).isEmpty())
+    }
+
+    @Test
+    fun lookupHasNoSideEffect() {
+        val auto = automaton()
+        val d = RowState(TableRow("d"), 1)
+        Assertions.assertEquals(-1, auto.stateId(d))
+        Assertions.assertEquals(3, auto.transitions.stateCount)
+        Assertions.assertEquals(3, auto.transitions.register(d))
+        Assertions.assertEquals(3, auto.stateId(d))
+    }
+
+    @Test
+    fun transitionsArePartOfTheData() {
+        val auto = automaton()
+        Assertions.assertEquals(auto, auto.copy())
+        Assertions.assertNotEquals(auto, auto.copy(transitions = TransitionIndex()))
+        Assertions.assertEquals(auto, TestTableAutomaton(auto.rowStates, ArrayList(auto.transitions)))
+    }
+}
@@ -0,0 +1,80 @@
+package edu.kit.iti.formal.automation.testtables.monitor
+
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compiles the C monitor of a table with many states, with one byte per state and with packed states,
+ * using the system C compiler (`cc`, or the system property `cc`), and measures both on the same trace.
+ *
+ * The benchmark is only executed if the system property `benchmark` is set.
+ */
+internal class CMonitorBenchmarkTest {
+    private val cycles = 10_000_000
+
+    private val table = """
+            table bench {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 0; o: 0 }
+                    row [1,300] { i: >= 0; o: i }
+                    row [1,200] { i: -1; o: 0 }
+                }
+            }""".trimIndent()
+
+    private val driver = """
+            #include <stdio.h>
+            #include <time.h>
+
+            int main() {
+                state_bench_t* state = new_state_bench_t();
+                inout_bench_t* io = new_inout_bench_t();
+                clock_t start = clock();
+                for (long c = 0; c < $cycles; c++) {
+                    long k = c % 400;
+                    io->i = k == 0 ? 0 : k < 250 ? (int16_t) k : -1;
+                    io->o = k < 250 ? io->i : 0;
+                    update_monitor_bench(state, io);
+                }
+                double ms = 1000.0 * (clock() - start) / CLOCKS_PER_SEC;
+                printf("%d\t%.0f ms\n", state->RESETS, ms);
+                return 0;
+            }
+            """.trimIndent()
+
+    @Test
+    fun benchmark() {
+        Assumptions.assumeTrue(System.getProperty("benchmark") != null)
+        val dir = Files.createTempDirectory("cmonitor").toFile()
+        val scalar = run(dir, "scalar", false)
+        val packed = run(dir, "packed", true)
+        println("cycles: $cycles\tbyte per state: $scalar\tpacked: $packed")
+        // both variants reset equally often
+        Assertions.assertEquals(scalar.substringBefore('\t'), packed.substringBefore('\t'))
+    }
+
+    private fun run(dir: File, name: String, packStates: Boolean): String {
+        val gtt = GetetaFacade.parseTableDSL(table).first()
+        val automaton = GetetaFacade.constructTable(gtt).automaton
+        val monitor = CMonitorGenerator.generate(gtt, automaton, MonitorGenerationOptions(packStates = packStates))
+        val source = File(dir, "$name.c")
+        source.writeText(monitor.body + "\n\n" + driver)
+        val binary = File(dir, name)
+        exec(System.getProperty("cc", "cc"), "-std=c99", "-O2", "-o", binary.absolutePath, source.absolutePath)
+        return exec(binary.absolutePath).trim()
+    }
+
+    private fun exec(vararg command: String): String {
+        val process = ProcessBuilder(*command).redirectErrorStream(true).start()
+        val output = process.inputStream.bufferedReader().readText()
+        process.waitFor(5, TimeUnit.MINUTES)
+        Assertions.assertEquals(0, process.exitValue(), output)
+        return output
+    }
+}
@@ -0,0 +1,165 @@
+package edu.kit.iti.formal.automation.testtables.monitor
+
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
+import edu.kit.iti.formal.automation.testtables.model.options.RowEncoding
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compiles the C monitors of small tables with the system C compiler (`cc`, or the system property `cc`),
+ * and compares the flags `ERROR` and `LOST_SYNC` in every cycle with the verdicts of the [JvmMonitor],
+ * and between the packed and the scalar layout of the states.
+ *
+ * The tests are skipped if there is no C compiler.
+ */
+internal class CMonitorTest {
+    private val cc = System.getProperty("cc", "cc")
+    private lateinit var dir: File
+
+    @BeforeEach
+    fun compiler() {
+        Assumptions.assumeTrue(hasCompiler(), "no C compiler")
+        dir = Files.createTempDirectory("cmonitor").toFile()
+    }
+
+    @Test
+    fun counterWithProgressFlag() {
+        fun table() = GetetaFacade.parseTableDSL("""
+            table prog {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 0; o: 0 }
+                    row [2,12] progress { i: >= 1; o: i }
+                    row { i: 5; o: 0 }
+                }
+            }""".trimIndent()).first().also {
+            it.options.rowEncoding = RowEncoding.COUNTER
+            it.options.counterThreshold = 4
+        }
+
+        val automaton = GetetaFacade.constructTable(table()).automaton
+        Assertions.assertTrue(automaton.getRowStates().any { it.counter?.pflag == true })
+
+        val random = Random(15)
+        val traces = (1..300).map {
+            (0 until 16).map { c ->
+                val i = if (c == 0) 0L else random.nextInt(6).toLong()
+                longArrayOf(i, if (i == 5L) 0L else if (random.nextInt(30) == 0) i + 1 else i)
+            }
+        }
+        val flags = run(compile(table(), "counter", false), traces)
+        assertAgrees(GetetaFacade.compileMonitor(table()), traces, flags)
+    }
+
+    /** The packed states (`packStates`) and one byte per state give the same flags in every cycle. */
+    @Test
+    fun packedAgreesWithScalar() {
+        fun table() = GetetaFacade.parseTableDSL("""
+            table opt {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 0; o: 0 }
+                    row [0,1] { i: 1; o: 1 }
+                    row [1,-] { i: >= 2; o: i }
+                    row [0,2] { i: 3; o: 3 }
+                    row { i: 5; o: 0 }
+                }
+            }""".trimIndent()).first()
+
+        val random = Random(22)
+        val traces = (1..300).map {
+            (0 until 12).map { c ->
+                val i = if (c == 0) 0L else random.nextInt(6).toLong()
+                val o = if (i == 5L) 0L else i
+                longArrayOf(i, if (random.nextInt(25) == 0) o + 1 else o)
+            }
+        }
+        val packed = run(compile(table(), "packed", true), traces)
+        val scalar = run(compile(table(), "scalar", false), traces)
+        traces.indices.forEach { t ->
+            Assertions.assertEquals(scalar[t], packed[t], "trace $t")
+        }
+        assertAgrees(GetetaFacade.compileMonitor(table()), traces, packed)
+    }
+
+    /** Compares the flags of the C monitor with the verdicts up to the first final verdict of each trace. */
+    private fun assertAgrees(monitor: JvmMonitor, traces: List<List<LongArray>>, flags: List<List<String>>) {
+        traces.forEachIndexed { t, trace ->
+            monitor.reset()
+            cycles@ for ((c, values) in trace.withIndex()) {
+                val expected = when (monitor.step(values)) {
+                    MonitorVerdict.RUNNING -> "0 0"
+                    MonitorVerdict.ERROR -> "1 1"
+                    MonitorVerdict.LOST_SYNC -> "0 1"
+                    // the C monitor has no flag for the end of the table
+                    MonitorVerdict.ACCEPTED -> break@cycles
+                }
+                Assertions.assertEquals(expected, flags[t][c], "trace $t, cycle $c")
+                if (expected != "0 0") break@cycles
+            }
+        }
+    }
+
+    private fun compile(gtt: GeneralizedTestTable, name: String, packStates: Boolean): File {
+        val automaton = GetetaFacade.constructTable(gtt).automaton
+        val monitor = CMonitorGenerator.generate(gtt, automaton, MonitorGenerationOptions(packStates = packStates))
+        val n = gtt.name.toLowerCase()
+        val source = File(dir, "$name.c")
+        source.writeText(monitor.body + "\n\n" + """
+            #include <stdio.h>
+
+            int main() {
+                state_${n}_t* state = new_state_${n}_t();
+                inout_${n}_t* io = new_inout_${n}_t();
+                long reset, i, o;
+                while (scanf("%ld %ld %ld", &reset, &i, &o) == 3) {
+                    if (reset) init_state_${n}_t(state);
+                    io->i = i;
+                    io->o = o;
+                    update_monitor_$n(state, io);
+                    printf("%d %d\n", state->ERROR, state->LOST_SYNC);
+                }
+                return 0;
+            }
+            """.trimIndent())
+        val binary = File(dir, name)
+        exec(null, cc, "-std=c99", "-o", binary.absolutePath, source.absolutePath)
+        return binary
+    }
+
+    /** The flags `ERROR LOST_SYNC` of every cycle of the [traces], the monitor is reset before each trace. */
+    private fun run(binary: File, traces: List<List<LongArray>>): List<List<String>> {
+        val input = StringBuilder()
+        traces.forEach { trace ->
+            trace.forEachIndexed { c, v ->
+                input.append(if (c == 0) 1 else 0).append(' ').append(v[0]).append(' ').append(v[1]).append('\n')
+            }
+        }
+        val lines = exec(input.toString(), binary.absolutePath).lines().filter { it.isNotBlank() }.iterator()
+        return traces.map { trace -> trace.map { lines.next().trim() } }
+    }
+
+    private fun exec(stdin: String?, vararg command: String): String {
+        val process = ProcessBuilder(*command).redirectErrorStream(true).start()
+        process.outputStream.bufferedWriter().use { if (stdin != null) it.write(stdin) }
+        val output = process.inputStream.bufferedReader().readText()
+        process.waitFor(1, TimeUnit.MINUTES)
+        Assertions.assertEquals(0, process.exitValue(), output)
+        return output
+    }
+
+    private fun hasCompiler() = try {
+        ProcessBuilder(cc, "--version").redirectErrorStream(true).start().waitFor(30, TimeUnit.SECONDS)
+    } catch (e: Exception) {
+        false
+    }
+}
@@ -0,0 +1,151 @@
+package edu.kit.iti.formal.automation.testtables.monitor
+
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.builder.maximum
+import edu.kit.iti.formal.automation.testtables.model.GeneralizedTestTable
+import edu.kit.iti.formal.automation.testtables.model.options.RowEncoding
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+import java.io.StringReader
+import java.util.*
+import kotlin.system.measureTimeMillis
+
+/**
+ * The benchmark is only executed if the system property `benchmark` is set.
+ */
+internal class JvmMonitorTest {
+    private fun table(encoding: RowEncoding = RowEncoding.EXPLICIT): GeneralizedTestTable {
+        val gtt = GetetaFacade.parseTableDSL("""
+            table simple {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 1; o: 2 }
+                    row [1,30] { i: 2; o: >= 3 }
+                    row { i: 3; o: 0 }
+                }
+            }""".trimIndent()).first()
+        gtt.options.rowEncoding = encoding
+        return gtt
+    }
+
+    private fun run(monitor: JvmMonitor, vararg trace: Pair<Long, Long>) =
+            monitor.run(trace.map { longArrayOf(it.first, it.second) }.iterator())
+
+    @Test
+    fun verdicts() {
+        val monitor = GetetaFacade.compileMonitor(table())
+        Assertions.assertEquals(listOf("i", "o"), monitor.columns)
+        Assertions.assertEquals(MonitorResult(MonitorVerdict.ACCEPTED, 4),
+                run(monitor, 1L to 2L, 2L to 3L, 2L to 4L, 3L to 0L))
+
+        monitor.reset()
+        Assertions.assertEquals(MonitorResult(MonitorVerdict.ERROR, 2),
+                run(monitor, 1L to 2L, 2L to 1L))
+
+        monitor.reset()
+        Assertions.assertEquals(MonitorResult(MonitorVerdict.LOST_SYNC, 1), run(monitor, 7L to 2L))
+
+        monitor.reset()
+        Assertions.assertEquals(MonitorResult(MonitorVerdict.RUNNING, 2), run(monitor, 1L to 2L, 2L to 3L))
+    }
+
+    @Test
+    fun csv() {
+        val monitor = GetetaFacade.compileMonitor(table())
+        val trace = CsvTrace(StringReader("o, i, comment\n2,1,a\n3,2,b\n\n0, 3,c\n"), monitor)
+        Assertions.assertEquals(MonitorResult(MonitorVerdict.ACCEPTED, 3), monitor.run(trace))
+    }
+
+    @Test
+    fun counterEncodingAgrees() {
+        val explicit = GetetaFacade.compileMonitor(table(RowEncoding.EXPLICIT))
+        val counter = GetetaFacade.compileMonitor(table(RowEncoding.COUNTER).also {
+            it.options.counterThreshold = 4
+        })
+        val random = Random(42)
+        repeat(1000) {
+            explicit.reset()
+            counter.reset()
+            val length = 40
+            val trace = (0 until length).map { c ->
+                val i = if (c == 0) 1L else if (random.nextInt(8) == 0) 3L else 2L
+                val o = when (i) {
+                    1L -> 2L
+                    2L -> 3L + random.nextInt(2) - (if (random.nextInt(50) == 0) 2 else 0)
+                    else -> 0L
+                }
+                longArrayOf(i, o)
+            }
+            Assertions.assertEquals(explicit.run(trace.iterator()), counter.run(trace.iterator()))
+        }
+    }
+
+    @Test
+    fun counterEncodingAgreesOnNonConsecutiveEntries() {
+        // the long row is entered after the first row, or two cycles later after the optional group
+        fun gaps(encoding: RowEncoding) = GetetaFacade.parseTableDSL("""
+            table gaps {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 0; o: 0 }
+                    group [0,1] {
+                        row [2,2] { i: 1; o: 1 }
+                    }
+                    row [2,12] { i: >= 1; o: i }
+                    row { i: 3; o: 0 }
+                }
+            }""".trimIndent()).first().also {
+            it.options.rowEncoding = encoding
+            it.options.counterThreshold = 4
+        }
+
+        val long = GetetaFacade.constructTable(gaps(RowEncoding.COUNTER)).automaton.rowStates.entries
+                .first { (row, _) -> row.duration.maximum == 12 }.value
+        Assertions.assertEquals(12, long.size, "rows with several entry cycles are encoded explicitly")
+
+        val explicit = GetetaFacade.compileMonitor(gaps(RowEncoding.EXPLICIT))
+        val counter = GetetaFacade.compileMonitor(gaps(RowEncoding.COUNTER))
+        val random = Random(7)
+        repeat(1000) {
+            explicit.reset()
+            counter.reset()
+            val trace = (0 until 20).map { c ->
+                val i = if (c == 0) 0L else random.nextInt(4).toLong()
+                longArrayOf(i, if (i == 3L || random.nextInt(20) == 0) 0L else i)
+            }
+            Assertions.assertEquals(explicit.run(trace.iterator()), counter.run(trace.iterator()))
+        }
+    }
+
+    @Test
+    fun benchmark() {
+        Assumptions.assumeTrue(System.getProperty("benchmark") != null)
+        val gtt = GetetaFacade.parseTableDSL("""
+            table long {
+                var input i : INT
+                var output o : INT
+                group {
+                    row { i: 0; o: 0 }
+                    row >= 1 { i: >= 0; o: i }
+                }
+            }""".trimIndent()).first()
+        val monitor = GetetaFacade.compileMonitor(gtt)
+        val cycles = 10_000_000
+        val row = LongArray(2)
+        val trace = object : Iterator<LongArray> {
+            var n = 0
+            override fun hasNext() = n < cycles
+            override fun next(): LongArray {
+                row[0] = n.toLong()
+                row[1] = n.toLong()
+                n++
+                return row
+            }
+        }
+        val time = measureTimeMillis { monitor.run(trace) }
+        println("cycles: $cycles\tverdict: ${monitor.verdict}\t$time ms\t${cycles / 1000.0 / time} M cycles/s")
+    }
+}
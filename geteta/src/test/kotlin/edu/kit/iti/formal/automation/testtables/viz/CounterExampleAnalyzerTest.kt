@@ -0,0 +1,80 @@
+package edu.kit.iti.formal.automation.testtables.viz
+
+import edu.kit.iti.formal.automation.testtables.GetetaFacade
+import edu.kit.iti.formal.automation.testtables.model.options.RowEncoding
+import edu.kit.iti.formal.smv.CounterExample
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class CounterExampleAnalyzerTest {
+    private val gtt = GetetaFacade.parseTableDSL("""
+        table cex {
+            var input i : INT
+            group {
+                row a [1, -] { i: 1 }
+                row b [1, -] { i: 2 }
+            }
+        }""".trimIndent()).first()
+    private val automaton = GetetaFacade.constructTable(gtt).automaton
+
+    /** Both rows accept in every cycle, `b` fails in the last one. */
+    private fun counterExample(cycles: Int) = CounterExample().also { cex ->
+        for (k in 0 until cycles) {
+            cex.states += mapOf(
+                    "_cex.a_01_accept" to "TRUE",
+                    "_cex.b_01_accept" to "TRUE",
+                    "_cex.a_01_fail" to "FALSE",
+                    "_cex.b_01_fail" to if (k == cycles - 1) "TRUE" else "FALSE")
+        }
+    }
+
+    @Test
+    fun allMappings() {
+        val mappings = GetetaFacade.analyzeCounterExample(automaton, gtt, counterExample(4))
+        Assertions.assertEquals(
+                setOf(listOf("a", "a", "a", "b"), listOf("a", "a", "b", "b"), listOf("a", "b", "b", "b")),
+                mappings.map { it.asRowList() }.toSet())
+        Assertions.assertEquals(3, mappings.size)
+    }
+
+    @Test
+    fun limited() {
+        val analyzer = CounterExampleAnalyzer(automaton, gtt, counterExample(1000), "_cex", maxMappings = 2)
+        analyzer.run()
+        Assertions.assertEquals(2, analyzer.rowMapping.size)
+        analyzer.rowMapping.forEach { Assertions.assertEquals(1000, it.asRowList().size) }
+    }
+
+    /** Row `a` is counter-encoded, it leaves only with `cnt >= 3` and stays only with `cnt < 5`. */
+    @Test
+    fun counterStates() {
+        val gtt = GetetaFacade.parseTableDSL("""
+            table cnt {
+                var input i : INT
+                group {
+                    row a [3, 5] { i: 1 }
+                    row b [1, -] { i: 2 }
+                }
+            }""".trimIndent()).first()
+        gtt.options.rowEncoding = RowEncoding.COUNTER
+        gtt.options.counterThreshold = 2
+        val automaton = GetetaFacade.constructTable(gtt).automaton
+        Assertions.assertNotNull(automaton.getRowStates().single { it.row.id == "a" }.counter)
+
+        val cex = CounterExample()
+        for (k in 0 until 6) {
+            cex.states += mapOf(
+                    "_cnt.a_01_accept" to if (k >= 2) "TRUE" else "FALSE",
+                    "_cnt.a_01_keep" to if (k < 4) "TRUE" else "FALSE",
+                    "_cnt.b_01_accept" to "TRUE",
+                    "_cnt.a_01_fail" to "FALSE",
+                    "_cnt.b_01_fail" to if (k == 5) "TRUE" else "FALSE")
+        }
+        val mappings = GetetaFacade.analyzeCounterExample(automaton, gtt, cex)
+        Assertions.assertEquals(
+                setOf(listOf("a", "a", "a", "b", "b", "b"),
+                        listOf("a", "a", "a", "a", "b", "b"),
+                        listOf("a", "a", "a", "a", "a", "b")),
+                mappings.map { it.asRowList() }.toSet())
+    }
+}
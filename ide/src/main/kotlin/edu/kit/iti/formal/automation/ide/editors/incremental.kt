@@ -0,0 +1,168 @@
+package edu.kit.iti.formal.automation.ide.editors
+
+import edu.kit.iti.formal.automation.IEC61131Facade
+import edu.kit.iti.formal.automation.analysis.ReporterMessage
+import edu.kit.iti.formal.automation.parser.IEC61131Lexer
+import edu.kit.iti.formal.automation.parser.IEC61131Lexer.*
+import edu.kit.iti.formal.automation.parser.IEC61131Parser
+import edu.kit.iti.formal.automation.parser.IECParseTreeToAST
+import edu.kit.iti.formal.automation.parser.SyntaxErrorReporter
+import edu.kit.iti.formal.automation.st.ast.PouElements
+import org.antlr.v4.runtime.BufferedTokenStream
+import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonToken
+import org.antlr.v4.runtime.Token
+
+/**
+ * A syntax error, positions are absolute in the document.
+ */
+data class SyntaxProblem(val message: String, val line: Int, val offset: Int, val length: Int)
+
+/**
+ * Analysis of a Structured Text document that only re-parses the changed top-level elements.
+ *
+ * The document is split at the line boundaries between top-level POUs (see [split]).
+ * The parse tree of every chunk is cached by its text. If a chunk only moved, e.g., due to an edit above it,
+ * the positions of its tokens are shifted, instead of parsing it again.
+ * The AST reads its positions lazily from these tokens, hence the positions of [Result.elements]
+ * are only valid until the next call of [analyze].
+ *
+ * The data types are resolved and checked over all elements, as declarations in one POU affect the others.
+ * The AST nodes are rebuilt from the cached parse trees for every analysis, hence every run has a fresh AST.
+ *
+ * An instance is not thread-safe; [analyze] is meant to be called on a single background thread.
+ * It aborts with an [InterruptedException] if the calling thread is interrupted.
+ */
+class IncrementalStAnalysis {
+    class Chunk(val text: String, val line: Int, val offset: Int)
+
+    class Result(val elements: PouElements?,
+                 val problems: List<ReporterMessage>,
+                 val syntaxErrors: List<SyntaxProblem>)
+
+    private class ParsedChunk(val text: String,
+                              val tokens: List<Token>,
+                              val tree: IEC61131Parser.StartContext?,
+                              val errors: List<SyntaxProblem>) {
+        var line = 1
+        var offset = 0
+
+        fun moveTo(newLine: Int, newOffset: Int) {
+            val dl = newLine - line
+            val doff = newOffset - offset
+            if (dl == 0 && doff == 0) return
+            for (t in tokens) {
+                if (t is CommonToken && t.type != Token.EOF) {
+                    t.line += dl
+                    t.startIndex += doff
+                    t.stopIndex += doff
+                }
+            }
+            line = newLine
+            offset = newOffset
+        }
+
+        fun absoluteErrors() = errors.map {
+            it.copy(line = it.line + line - 1, offset = if (it.offset < 0) it.offset else it.offset + offset)
+        }
+    }
+
+    private var cache = HashMap<String, ArrayDeque<ParsedChunk>>()
+
+    /** Number of parsed chunks, i.e., cache misses. */
+    var parsedChunks = 0
+        private set
+
+    fun analyze(text: String, sourceName: String = ""): Result {
+        val chunks = split(text)
+        val parsed = ArrayList<ParsedChunk>(chunks.size)
+        val next = HashMap<String, ArrayDeque<ParsedChunk>>()
+        for (chunk in chunks) {
+            checkInterrupted()
+            val p = cache[chunk.text]?.removeFirstOrNull() ?: parse(chunk, sourceName)
+            p.moveTo(chunk.line, chunk.offset)
+            parsed += p
+            next.getOrPut(chunk.text) { ArrayDeque() }.addLast(p)
+        }
+        cache = next
+
+        val syntaxErrors = parsed.flatMap { it.absoluteErrors() }
+        if (syntaxErrors.isNotEmpty())
+            return Result(null, listOf(), syntaxErrors)
+
+        val elements = PouElements()
+        parsed.forEach { elements.addAll(it.tree!!.accept(IECParseTreeToAST()) as PouElements) }
+        checkInterrupted()
+        IEC61131Facade.resolveDataTypes(elements)
+        checkInterrupted()
+        return Result(elements, IEC61131Facade.check(elements), listOf())
+    }
+
+    private fun checkInterrupted() {
+        if (Thread.currentThread().isInterrupted) throw InterruptedException()
+    }
+
+    private fun parse(chunk: Chunk, sourceName: String): ParsedChunk {
+        parsedChunks++
+        var tokens: BufferedTokenStream? = null
+        return try {
+            val tree = IEC61131Facade.parse(CharStreams.fromString(chunk.text, sourceName)) {
+                tokens = it.tokenStream as BufferedTokenStream
+                it.start()
+            }
+            val list = tokens!!.tokens
+            // a token reads its text from the chunk by its indices, which are shifted by moveTo
+            for (t in list) if (t is CommonToken && t.type != Token.EOF) t.text = t.text
+            ParsedChunk(chunk.text, list, tree, listOf())
+        } catch (e: SyntaxErrorReporter.ParserException) {
+            val errors = e.errors.map {
+                SyntaxProblem(it.msg ?: "", it.line,
+                        it.offendingSymbol?.startIndex ?: -1, it.offendingSymbol?.text?.length ?: -1)
+            }
+            ParsedChunk(chunk.text, listOf(), null, errors)
+        }
+    }
+
+    companion object {
+        private val OPENING = setOf(PROGRAM, FUNCTION_BLOCK, FUNCTION, TYPE, CLASS, INTERFACE,
+                NAMESPACE, CONFIGURATION)
+        private val CLOSING = setOf(END_PROGRAM, END_FUNCTION_BLOCK, END_FUNCTION, END_TYPE, END_CLASS,
+                END_INTERFACE, END_NAMESPACE, END_CONFIGURATION)
+
+        /**
+         * Splits [text] at the starts of lines that begin a new top-level element,
+         * i.e., after the closing keyword of a POU, type declaration, class, interface or namespace.
+         */
+        fun split(text: String): List<Chunk> {
+            val lexer = IEC61131Lexer(CharStreams.fromString(text))
+            lexer.removeErrorListeners()
+            val lineStarts = arrayListOf(0)
+            text.forEachIndexed { i, c -> if (c == '\n') lineStarts += i + 1 }
+
+            val splits = arrayListOf<Int>() // line numbers (1-based) where a chunk starts
+            var depth = 0
+            var pending = -1
+            for (tok in lexer.allTokens) {
+                if (tok.channel != Token.DEFAULT_CHANNEL) continue
+                if (pending != -1 && tok.line >= pending && depth == 0) {
+                    splits += tok.line
+                    pending = -1
+                }
+                when (tok.type) {
+                    in OPENING -> depth++
+                    in CLOSING -> if (depth > 0 && --depth == 0) pending = tok.line + 1
+                }
+            }
+
+            val chunks = ArrayList<Chunk>(splits.size + 1)
+            var line = 1
+            for (s in splits + (lineStarts.size + 1)) {
+                val from = lineStarts[line - 1]
+                val to = if (s - 1 < lineStarts.size) lineStarts[s - 1] else text.length
+                chunks += Chunk(text.substring(from, to), line, from)
+                line = s
+            }
+            return chunks
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package edu.kit.iti.formal.automation.ide.editors
 
-import edu.kit.iti.formal.automation.IEC61131Facade
 import edu.kit.iti.formal.automation.ide.*
 import edu.kit.iti.formal.automation.ide.tools.OutlineService
 import edu.kit.iti.formal.automation.ide.tools.OverviewStructureNode
@@ -8,14 +7,12 @@ import edu.kit.iti.formal.automation.ide.tools.StructureData
 import edu.kit.iti.formal.automation.ide.tools.StructureTypeIcon
 import edu.kit.iti.formal.automation.parser.IEC61131Lexer
 import edu.kit.iti.formal.automation.parser.IEC61131Lexer.*
-import edu.kit.iti.formal.automation.parser.SyntaxErrorReporter
 import edu.kit.iti.formal.automation.scope.Scope
 import edu.kit.iti.formal.automation.st.ast.*
 import edu.kit.iti.formal.automation.st.util.AstVisitor
 import edu.kit.iti.formal.automation.ide.BaseLanguageSupport
 import org.antlr.v4.runtime.CharStreams
 import org.antlr.v4.runtime.Lexer
-import org.fife.io.DocumentReader
 import org.fife.ui.rsyntaxtextarea.RSyntaxDocument
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea
 import org.fife.ui.rsyntaxtextarea.Style
@@ -24,8 +21,12 @@ import org.fife.ui.rsyntaxtextarea.folding.Fold
 import org.fife.ui.rsyntaxtextarea.folding.FoldParser
 import org.fife.ui.rsyntaxtextarea.folding.FoldType
 import org.fife.ui.rsyntaxtextarea.parser.*
+import org.slf4j.LoggerFactory
 import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import javax.swing.Icon
+import javax.swing.SwingUtilities
 import javax.swing.text.BadLocationException
 
 class IECLanguageSupport(lookup: Lookup) : BaseLanguageSupport() {
@@ -153,32 +154,90 @@ class IEC61131SyntaxScheme(lookup: Lookup) : SyntaxScheme(true) {
     }
 }
 
+/**
+ * Checks the Structured Text of an editor in the background.
+ *
+ * [parse] is called by RSyntaxTextArea on the event dispatch thread. It only schedules an [IncrementalStAnalysis]
+ * of the current text, cancelling a still running analysis of an older text, and returns the notices of the last
+ * finished analysis. When an analysis finishes, the problems and the outline are only announced if they changed,
+ * and the text area is asked to reparse, which then picks up the new notices.
+ *
+ * The positions of the AST are read from the cached tokens of the analysis, which the next analysis shifts.
+ * Hence, the outline is created on the analysis thread, and only position snapshots reach the event dispatch thread.
+ */
 class STChecker(val codeEditor: CodeEditor, val lookup: Lookup) : AbstractParser() {
     val result = DefaultParseResult(this)
+    private val analysis = IncrementalStAnalysis()
+    private var running: Future<*>? = null
+    private var analyzedText: String? = null
+    private var lastProblems: List<Problem>? = null
+    private var lastOutline: List<Any?>? = null
+
     override fun parse(doc: RSyntaxDocument, style: String): ParseResult {
+        val text = try {
+            doc.getText(0, doc.length)
+        } catch (e: BadLocationException) {
+            return result
+        }
+        if (text == analyzedText) return result
+
+        running?.cancel(true)
+        val source = codeEditor.titleText
+        running = ANALYSIS.submit(Runnable {
+            val r = try {
+                analysis.analyze(text, source)
+            } catch (e: InterruptedException) {
+                return@Runnable
+            } catch (e: Exception) {
+                LOGGER.warn("analysis of $source failed", e)
+                null
+            }
+            val outline = r?.elements?.let { StOverviewTransformer(codeEditor).create(it) }
+            if (!Thread.currentThread().isInterrupted)
+                SwingUtilities.invokeLater { publish(text, r, outline) }
+        })
+        return result
+    }
+
+    private fun publish(text: String, r: IncrementalStAnalysis.Result?, outline: OverviewStructureNode?) {
+        if (text != codeEditor.textArea.text) return // a newer analysis is underway
         result.clearNotices()
-        val input = DocumentReader(doc)
-        val stream = CharStreams.fromReader(input, codeEditor.titleText)
-        try {
-            val (elements, issues) = IEC61131Facade.fileResolve(stream, false)
-            lookup.get<OutlineService>().show(StOverviewTransformer(codeEditor).create(elements))
-            issues.forEach {
-                result.addNotice(DefaultParserNotice(this, it.message,
-                        it.startLine, it.startOffset, it.length))
+        if (r != null) {
+            r.syntaxErrors.forEach {
+                result.addNotice(DefaultParserNotice(this, it.message, it.line, it.offset, it.length))
             }
-            lookup.get<ProblemService>().announceProblems(codeEditor, issues)
-        } catch (e: SyntaxErrorReporter.ParserException) {
-            e.errors.forEach {
-                result.addNotice(DefaultParserNotice(this, it.msg,
-                        it.line, it.offendingSymbol?.startIndex ?: -1,
-                        it.offendingSymbol?.text?.length ?: -1))
+            r.problems.forEach {
+                result.addNotice(DefaultParserNotice(this, it.message, it.startLine, it.startOffset, it.length))
+            }
+            if (r.problems != lastProblems) {
+                lastProblems = r.problems
+                lookup.get<ProblemService>().announceProblems(codeEditor, r.problems)
+            }
+            if (outline != null) {
+                val signature = outline.signature()
+                if (signature != lastOutline) {
+                    lastOutline = signature
+                    lookup.get<OutlineService>().show(outline)
+                }
             }
-        } catch (e: Exception) {
         }
-        return result
+        analyzedText = text
+        codeEditor.textArea.forceReparsing(this)
     }
 
+    private fun OverviewStructureNode.signature(): List<Any?> =
+            listOf(data.text, data.caretPosition, data.icon) + seq.map { it.signature() }
+
     override fun isEnabled(): Boolean = true
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(STChecker::class.java)
+
+        /** A single thread suffices, as every new text cancels the previous analysis. */
+        private val ANALYSIS = Executors.newSingleThreadExecutor { r ->
+            Thread(r, "st-checker").also { it.isDaemon = true }
+        }
+    }
 }
 
 class STFoldParser : FoldParser {
@@ -0,0 +1,63 @@
+package edu.kit.iti.formal.automation.ide.editors
+
+import edu.kit.iti.formal.automation.st.ast.ProgramDeclaration
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class IncrementalStAnalysisTest {
+    private val a = "PROGRAM a\n  VAR x : INT; END_VAR\n  x := 1;\nEND_PROGRAM\n"
+    private val b = "PROGRAM b\n  VAR y : INT; END_VAR\n  y := 2;\nEND_PROGRAM\n"
+    private val type = "TYPE\n  t : INT;\nEND_TYPE\n"
+
+    @Test
+    fun splitAtTopLevelElements() {
+        val text = a + type + b
+        val chunks = IncrementalStAnalysis.split(text)
+        Assertions.assertEquals(listOf(a, type, b), chunks.map { it.text })
+        Assertions.assertEquals(listOf(1, 5, 8), chunks.map { it.line })
+        Assertions.assertEquals(listOf(0, a.length, a.length + type.length), chunks.map { it.offset })
+    }
+
+    @Test
+    fun reuseUnchangedChunks() {
+        val analysis = IncrementalStAnalysis()
+        analysis.analyze(a + b)
+        Assertions.assertEquals(2, analysis.parsedChunks)
+        analysis.analyze(a + b)
+        Assertions.assertEquals(2, analysis.parsedChunks)
+        // only the edited program is parsed again
+        val result = analysis.analyze(a + b.replace("y := 2", "y := 3"))
+        Assertions.assertEquals(3, analysis.parsedChunks)
+        Assertions.assertEquals(listOf("a", "b"), result.elements!!.map { it.name })
+    }
+
+    @Test
+    fun shiftMovedChunks() {
+        val analysis = IncrementalStAnalysis()
+        analysis.analyze(a + b)
+        val header = "(* header *)\n\n"
+        val result = analysis.analyze(header + a + b)
+        // the first chunk changed, the second only moved
+        Assertions.assertEquals(3, analysis.parsedChunks)
+        val program = result.elements!!.filterIsInstance<ProgramDeclaration>().single { it.name == "b" }
+        Assertions.assertEquals(7, program.startPosition.lineNumber)
+        Assertions.assertEquals(header.length + a.length, program.startPosition.offset)
+
+        // and back, the cached chunk is shifted again
+        val back = analysis.analyze(a + b)
+        Assertions.assertEquals(3, analysis.parsedChunks)
+        val moved = back.elements!!.filterIsInstance<ProgramDeclaration>().single { it.name == "b" }
+        Assertions.assertEquals(5, moved.startPosition.lineNumber)
+        Assertions.assertEquals(a.length, moved.startPosition.offset)
+        // the texts of the shifted tokens are kept
+        Assertions.assertEquals(listOf("y"), moved.scope.variables.map { it.name })
+    }
+
+    @Test
+    fun absoluteSyntaxErrors() {
+        val result = IncrementalStAnalysis().analyze(a + "PROGRAM b\n  y := ;\nEND_PROGRAM\n")
+        Assertions.assertNull(result.elements)
+        Assertions.assertTrue(result.syntaxErrors.isNotEmpty())
+        Assertions.assertEquals(6, result.syntaxErrors.first().line)
+    }
+}
@@ -19,6 +19,9 @@ import edu.kit.iti.formal.automation.visitors.selectByName
 import edu.kit.iti.formal.util.CodeWriter
 import edu.kit.iti.formal.util.warn
 import org.antlr.v4.runtime.*
+import org.antlr.v4.runtime.atn.PredictionMode
+import org.antlr.v4.runtime.misc.ParseCancellationException
+import org.antlr.v4.runtime.tree.ParseTree
 import java.io.*
 import java.nio.charset.Charset
 import java.nio.file.Path
@@ -31,19 +34,49 @@ import java.util.stream.Collectors
  */
 object IEC61131Facade {
     /**
-     * Parse the given string into an expression.
+     * If set, [expr], [statements] and [file] parse in two stages: first with the faster SLL prediction,
+     * which bails out at the first syntax error, and only on failure again with the full LL prediction
+     * and error reporting. Both stages yield the same tree for valid input.
      *
-     * @param input an expression in Structured Text
-     * @return The AST of the Expression
+     * The DFA caches of the parser and lexer are static in the generated classes,
+     * hence every parse, also the parallel ones in [fileResolve], warms them for the following.
      */
-    fun expr(input: CharStream): Expression {
+    @JvmStatic
+    var twoStageParsing = true
+
+    /**
+     * Parses [input] with [rule]. The syntax errors are thrown after the parse.
+     * @see twoStageParsing
+     */
+    fun <T : ParseTree> parse(input: CharStream, rule: (IEC61131Parser) -> T): T {
         val parser = getParser(input)
-        val ctx = parser.expression()
-        val expr = ctx.accept(IECParseTreeToAST()) as Expression
+        if (twoStageParsing) {
+            parser.interpreter.predictionMode = PredictionMode.SLL
+            parser.removeErrorListeners()
+            parser.errorHandler = BailErrorStrategy()
+            try {
+                return rule(parser)
+            } catch (e: ParseCancellationException) {
+                parser.reset()
+                parser.interpreter.predictionMode = PredictionMode.LL
+                parser.addErrorListener(parser.errorReporter)
+                parser.errorHandler = DefaultErrorStrategy()
+            }
+        }
+        val ctx = rule(parser)
         parser.errorReporter.throwException()
-        return expr
+        return ctx
     }
 
+    /**
+     * Parse the given string into an expression.
+     *
+     * @param input an expression in Structured Text
+     * @return The AST of the Expression
+     */
+    fun expr(input: CharStream): Expression =
+            parse(input) { it.expression() }.accept(IECParseTreeToAST()) as Expression
+
     fun expr(input: String): Expression {
         return expr(CharStreams.fromString(input))
     }
@@ -56,51 +89,49 @@ object IEC61131Facade {
         return p
     }
 
-    fun statements(input: CharStream): StatementList {
-        val parser = getParser(input)
-        val stmts = parser.statement_list_eof().stBody().accept(IECParseTreeToAST()) as StatementList
-        parser.errorReporter.throwException()
-        return stmts
-    }
+    fun statements(input: CharStream): StatementList =
+            parse(input) { it.statement_list_eof() }.stBody().accept(IECParseTreeToAST()) as StatementList
 
     fun statements(input: String): StatementList = statements(CharStreams.fromString(input))
 
-    fun file(input: CharStream): PouElements {
-        val parser = getParser(input)
-        val tle = parser.start().accept(IECParseTreeToAST()) as PouElements
-        parser.errorReporter.throwException()
-        return tle
-    }
+    fun file(input: CharStream): PouElements =
+            parse(input) { it.start() }.accept(IECParseTreeToAST()) as PouElements
 
 
+    /**
+     * Parses the Structured Text or PLCopen XML file [path]. PLCopen XML is imported unit by unit
+     * ([PLCopenImporter]), unless the translated Structured Text should be written to [tee].
+     */
     fun file(path: Path, tee: File? = null): PouElements {
-        return if (path.endsWith("xml")) {
-            val out = IECXMLFacade.extractPLCOpenXml(path)
+        return if (path.toString().endsWith(".xml")) {
             if (tee != null) {
                 tee.bufferedWriter().use {
-                    it.write(out)
+                    it.write(IECXMLFacade.extractPLCOpenXml(path))
                 }
                 file(tee)
             } else {
-                file(CharStreams.fromString(out, path.toString()))
+                PLCopenImporter(path.toFile()).readAll()
             }
         } else
             file(CharStreams.fromPath(path))
     }
 
 
+    /**
+     * Parses the Structured Text or PLCopen XML file [f]. PLCopen XML is imported unit by unit ([PLCopenImporter]).
+     * If [teeXmlParser] is set, the whole file is translated into a `.st` file next to [f] instead, which is parsed.
+     */
     @Throws(IOException::class)
-    fun file(f: File, teeXmlParser: Boolean = true): PouElements {
+    fun file(f: File, teeXmlParser: Boolean = false): PouElements {
         return if (f.extension == "xml") {
-            val out = IECXMLFacade.extractPLCOpenXml(f.absolutePath)
             if (teeXmlParser) {
                 val stfile = File(f.parentFile, f.nameWithoutExtension + ".st")
                 stfile.bufferedWriter().use {
-                    it.write(out)
+                    it.write(IECXMLFacade.extractPLCOpenXml(f.absolutePath))
                 }
                 file(CharStreams.fromFileName(stfile.absolutePath))
             } else {
-                file(CharStreams.fromString(out, f.absolutePath))
+                PLCopenImporter(f).readAll()
             }
         } else
             file(CharStreams.fromFileName(f.absolutePath))
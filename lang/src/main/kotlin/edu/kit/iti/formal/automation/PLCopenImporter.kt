@@ -0,0 +1,34 @@
+package edu.kit.iti.formal.automation
+
+import edu.kit.iti.formal.automation.plcopenxml.PLCopenStreamReader
+import edu.kit.iti.formal.automation.plcopenxml.PLCopenUnit
+import edu.kit.iti.formal.automation.st.ast.PouElements
+import org.antlr.v4.runtime.CharStreams
+import java.io.File
+
+/**
+ * Imports PLCopen XML files into [PouElements], one POU or data type at a time.
+ *
+ * The file is read by a [PLCopenStreamReader]. Each unit is translated, including its SFC and FBD bodies,
+ * and parsed on its own, hence neither the XML document nor the Structured Text of the whole file
+ * is held in memory.
+ */
+class PLCopenImporter(val reader: PLCopenStreamReader, val sourceName: String = "") {
+    constructor(file: File) : this(PLCopenStreamReader(file), file.absolutePath)
+
+    /** Names of the POUs and data types in the file. */
+    val names: List<String> by lazy { reader.names() }
+
+    /** Imports all units of the file. */
+    fun readAll(): PouElements {
+        val elements = PouElements()
+        reader.read { elements.addAll(translate(it)); true }
+        return elements
+    }
+
+    /** Imports only the unit named [name]. The file is read until the unit is found. */
+    fun load(name: String): PouElements? = reader.find(name)?.let { translate(it) }
+
+    private fun translate(unit: PLCopenUnit): PouElements =
+            IEC61131Facade.file(CharStreams.fromString(unit.translate(), "$sourceName#${unit.name}"))
+}
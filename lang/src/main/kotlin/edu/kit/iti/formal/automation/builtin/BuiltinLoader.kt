@@ -23,6 +23,8 @@ package edu.kit.iti.formal.automation.builtin
  */
 
 import edu.kit.iti.formal.automation.IEC61131Facade
+import edu.kit.iti.formal.automation.parser.IEC61131Parser
+import edu.kit.iti.formal.automation.parser.IECParseTreeToAST
 import edu.kit.iti.formal.automation.st.ast.PouElements
 import org.antlr.v4.runtime.CharStreams
 import org.slf4j.LoggerFactory
@@ -34,6 +36,12 @@ import java.nio.file.Paths
 
 
 /**
+ * Loads the builtin library.
+ *
+ * The builtin files are parsed only once. The parse trees are kept and every call of [loadDefault]
+ * builds fresh AST nodes from them, which is much cheaper than parsing. Hence, callers may modify
+ * and resolve the returned elements without affecting each other.
+ *
  * @author Alexander Weigl
  * @version 1 (08.03.18)
  */
@@ -42,13 +50,17 @@ object BuiltinLoader {
 
     private val logger = LoggerFactory.getLogger(BuiltinLoader::class.java!!)
 
+    private val defaultTrees: List<IEC61131Parser.StartContext> by lazy { parseFromClasspath(DEFAULT_LIST) }
+
     @Throws(IOException::class, URISyntaxException::class)
     fun loadDefault(): PouElements {
-        return loadFromClasspath(DEFAULT_LIST)
+        val tle = PouElements()
+        defaultTrees.forEach { tle.addAll(it.accept(IECParseTreeToAST()) as PouElements) }
+        return tle
     }
 
     @Throws(IOException::class, URISyntaxException::class)
-    private fun loadFromClasspath(indexFile: String): PouElements {
+    private fun parseFromClasspath(indexFile: String): List<IEC61131Parser.StartContext> {
         val resource = BuiltinLoader::class.java!!.getResource(indexFile)
                 ?: throw RuntimeException("Could not find $indexFile in classpath.")
         val uri = resource.toURI()
@@ -60,16 +72,15 @@ object BuiltinLoader {
         }
         val text = resource.readText()
         val prefix = p.getParent()
-        val tle = PouElements()
+        val trees = arrayListOf<IEC61131Parser.StartContext>()
         text.splitToSequence('\n').forEach { it ->
             try {
                 val load = prefix.resolve(it)
-                val a = IEC61131Facade.file(CharStreams.fromPath(load))
-                tle.addAll(a)
+                trees += IEC61131Facade.parse(CharStreams.fromPath(load)) { parser -> parser.start() }
             } catch (e: IOException) {
                 logger.error("could not parse built in $it", e)
             }
         }
-        return tle
+        return trees
     }
 }
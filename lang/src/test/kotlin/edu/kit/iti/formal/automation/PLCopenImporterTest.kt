@@ -0,0 +1,43 @@
+package edu.kit.iti.formal.automation
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+
+class PLCopenImporterTest {
+    /** A copy of `plcopen.xml` in a fresh directory. */
+    private fun file(): File {
+        val dir = Files.createTempDirectory("plcopen").toFile()
+        val f = File(dir, "plcopen.xml")
+        javaClass.getResourceAsStream("plcopen.xml").use { input -> f.outputStream().use { input.copyTo(it) } }
+        return f
+    }
+
+    @Test
+    fun names() {
+        assertEquals(listOf("Counter", "Main"), PLCopenImporter(file()).names)
+    }
+
+    @Test
+    fun readAll() {
+        val elements = PLCopenImporter(file()).readAll()
+        assertEquals(listOf("Counter", "Main"), elements.map { it.name })
+        IEC61131Facade.resolveDataTypes(elements)
+    }
+
+    @Test
+    fun load() {
+        val importer = PLCopenImporter(file())
+        assertEquals(listOf("Main"), importer.load("Main")?.map { it.name })
+        assertNull(importer.load("DoesNotExist"))
+    }
+
+    @Test
+    fun facadeImportsUnitByUnit() {
+        val f = file()
+        assertEquals(listOf("Counter", "Main"), IEC61131Facade.file(f).map { it.name })
+        assertFalse(File(f.parentFile, "plcopen.st").exists())
+        assertEquals(listOf("Counter", "Main"), IEC61131Facade.file(f.toPath()).map { it.name })
+    }
+}
@@ -0,0 +1,67 @@
+package edu.kit.iti.formal.automation
+
+import com.google.common.truth.Truth.assertThat
+import org.antlr.v4.runtime.CharStreams
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+import java.io.File
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares the two-stage SLL/LL parsing against the plain LL parsing
+ * on the Structured Text sources of the test resources and the builtin library.
+ *
+ * The benchmark is only executed if the system property `benchmark` is set.
+ */
+class ParseBenchmark {
+    private val sources: List<String> by lazy {
+        listOf("/edu/kit/iti/formal/automation/st", "/builtins")
+                .mapNotNull { javaClass.getResource(it) }
+                .filter { it.protocol == "file" }
+                .flatMap { url -> File(url.toURI()).walk().filter { it.extension == "st" }.toList() }
+                .map { it.readText() }
+                .filter { parsable(it) }
+    }
+
+    private fun parsable(text: String) = try {
+        withMode(false) { IEC61131Facade.file(CharStreams.fromString(text)) }
+        true
+    } catch (e: Exception) {
+        false
+    }
+
+    private fun <T> withMode(twoStage: Boolean, f: () -> T): T {
+        val old = IEC61131Facade.twoStageParsing
+        IEC61131Facade.twoStageParsing = twoStage
+        try {
+            return f()
+        } finally {
+            IEC61131Facade.twoStageParsing = old
+        }
+    }
+
+    @Test
+    fun sameTrees() {
+        Assumptions.assumeTrue(sources.isNotEmpty())
+        for (text in sources) {
+            val ll = withMode(false) { IEC61131Facade.print(IEC61131Facade.file(CharStreams.fromString(text))) }
+            val sll = withMode(true) { IEC61131Facade.print(IEC61131Facade.file(CharStreams.fromString(text))) }
+            assertThat(sll).isEqualTo(ll)
+        }
+    }
+
+    @Test
+    fun benchmark() {
+        Assumptions.assumeTrue(System.getProperty("benchmark") != null)
+        val megabytes = sources.sumBy { it.length } / 1e6
+        for (twoStage in listOf(false, true, false, true)) {
+            val nanos = withMode(twoStage) {
+                measureNanoTime {
+                    repeat(20) { sources.forEach { IEC61131Facade.file(CharStreams.fromString(it)) } }
+                }
+            }
+            val mbs = 20 * megabytes / (nanos / 1e9)
+            println("two-stage: $twoStage\tfiles: ${sources.size}\t${"%.2f".format(mbs)} MB/s")
+        }
+    }
+}
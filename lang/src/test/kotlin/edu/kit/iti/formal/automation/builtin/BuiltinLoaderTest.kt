@@ -22,6 +22,7 @@ package edu.kit.iti.formal.automation.builtin
  * #L%
  */
 
+import edu.kit.iti.formal.automation.IEC61131Facade
 import edu.kit.iti.formal.automation.st.ast.PouElements
 import org.junit.jupiter.api.Assertions
  import org.junit.jupiter.api.Test
@@ -37,4 +38,14 @@ class BuiltinLoaderTest {
         val tle = BuiltinLoader.loadDefault()
         Assertions.assertTrue(tle.size > 0)
     }
+
+    @Test
+    fun loadsAreIndependent() {
+        val a = BuiltinLoader.loadDefault()
+        val b = BuiltinLoader.loadDefault()
+        Assertions.assertEquals(IEC61131Facade.print(a), IEC61131Facade.print(b))
+        Assertions.assertNotSame(a[0], b[0])
+        a.clear()
+        Assertions.assertEquals(b.size, BuiltinLoader.loadDefault().size)
+    }
 }
@@ -0,0 +1,155 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.datatypes.AnyReal
+import edu.kit.iti.formal.automation.datatypes.values.FALSE
+import edu.kit.iti.formal.automation.datatypes.values.TRUE
+import edu.kit.iti.formal.automation.datatypes.values.VAnyReal
+import edu.kit.iti.formal.automation.run.stexceptions.ExecutionException
+import java.math.BigDecimal
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+
+/**
+ * Struct-of-arrays values of some variables: one column with the values of all lanes per variable.
+ */
+class LaneColumns(val layout: SlotLayout, val lanes: Int, variables: Collection<String>) {
+    class Column(val slot: Slot, lanes: Int) {
+        val longs = LongArray(if (slot.kind == SlotKind.LONG) lanes else 0)
+        val bools = BooleanArray(if (slot.kind == SlotKind.BOOL) lanes else 0)
+        val reals = DoubleArray(if (slot.kind == SlotKind.REAL) lanes else 0)
+
+        private val width = IntWidth.of(slot.dataType)
+        private val real = slot.dataType as? AnyReal
+
+        /** Stores the value of [lane], wrapped to the width (or precision) of the variable, into [m]. */
+        internal fun store(lane: Int, m: Slots) {
+            when (slot.kind) {
+                SlotKind.LONG -> m.longs[slot.index] = width.wrap(longs[lane])
+                SlotKind.BOOL -> m.bools[slot.index] = bools[lane]
+                SlotKind.REAL -> m.reals[slot.index] = if (real != null) MachineArithmetic.round(real, reals[lane]) else reals[lane]
+            }
+        }
+
+        internal fun load(lane: Int, m: Slots) {
+            when (slot.kind) {
+                SlotKind.LONG -> longs[lane] = m.longs[slot.index]
+                SlotKind.BOOL -> bools[lane] = m.bools[slot.index]
+                SlotKind.REAL -> reals[lane] = m.reals[slot.index]
+            }
+        }
+
+        internal fun copyTo(other: Column) {
+            longs.copyInto(other.longs)
+            bools.copyInto(other.bools)
+            reals.copyInto(other.reals)
+        }
+    }
+
+    private val columns = LinkedHashMap<String, Column>()
+
+    init {
+        for (name in variables) {
+            val slot = layout[name] ?: throw ExecutionException("Variable $name not found or of unsupported type")
+            columns[name] = Column(slot, lanes)
+        }
+    }
+
+    val variables: Set<String>
+        get() = columns.keys
+
+    internal val all: Array<Column> = columns.values.toTypedArray()
+
+    operator fun get(name: String): Column =
+            columns[name] ?: throw ExecutionException("Variable $name is not part of these columns")
+
+    /** Returns the (boxed) value of [name] in the given lane. */
+    fun value(name: String, lane: Int): EValue {
+        val c = this[name]
+        return when (c.slot.kind) {
+            SlotKind.LONG -> SlotLayout.box(c.slot.dataType, c.longs[lane])
+            SlotKind.BOOL -> if (c.bools[lane]) TRUE else FALSE
+            SlotKind.REAL -> VAnyReal(c.slot.dataType as AnyReal, BigDecimal.valueOf(c.reals[lane]))
+        }
+    }
+
+    fun copy(): LaneColumns {
+        val c = LaneColumns(layout, lanes, variables)
+        all.forEachIndexed { i, column -> column.copyTo(c.all[i]) }
+        return c
+    }
+}
+
+/**
+ * Writes the inputs of all lanes for the given cycle into the input columns.
+ * Returns false if the simulation should stop before this cycle.
+ */
+fun interface BatchInput {
+    fun fill(cycle: Int, inputs: LaneColumns): Boolean
+}
+
+/**
+ * Receives the observed values of all lanes after a cycle. The columns are reused for the next cycle.
+ */
+fun interface BatchSink {
+    fun accept(cycle: Int, outputs: LaneColumns)
+}
+
+/**
+ * Simulates [lanes] independent input traces through the same [CompiledProgram].
+ *
+ * The simulation proceeds cycle by cycle: the inputs of all lanes are given as columns ([LaneColumns]),
+ * the lanes are executed in parallel on the [pool], and the observed variables are gathered into columns again.
+ * Every lane has its own [Slots]; only the interface variables are stored as struct-of-arrays,
+ * because the lanes of branching PLC code can not be executed in lock-step.
+ *
+ * If no sink is given to [run], the observed columns of every cycle are kept in [history].
+ */
+class BatchSimulation(val program: CompiledProgram,
+                      val lanes: Int,
+                      inputs: Collection<String>,
+                      observed: Collection<String>,
+                      private val pool: ForkJoinPool = ForkJoinPool.commonPool(),
+                      private val chunkSize: Int = 64) {
+    val slots: Array<Slots> = Array(lanes) { program.createSlots() }
+    val inputs = LaneColumns(program.layout, lanes, inputs)
+    val outputs = LaneColumns(program.layout, lanes, observed)
+    val history = arrayListOf<LaneColumns>()
+
+    var cycle = 0
+        private set
+
+    /**
+     * Executes up to [cycles] cycles. Returns the number of executed cycles.
+     */
+    fun run(cycles: Int, input: BatchInput, sink: BatchSink? = null): Int {
+        val start = cycle
+        while (cycle - start < cycles && input.fill(cycle, inputs)) {
+            pool.invoke(LaneTask(0, lanes))
+            if (sink != null) sink.accept(cycle, outputs)
+            else history += outputs.copy()
+            cycle++
+        }
+        return cycle - start
+    }
+
+    /** The state of a single lane. */
+    fun state(lane: Int): State = program.layout.toState(slots[lane])
+
+    private fun executeLane(lane: Int) {
+        val m = slots[lane]
+        for (c in inputs.all) c.store(lane, m)
+        program.executeCycle(m)
+        for (c in outputs.all) c.load(lane, m)
+    }
+
+    private inner class LaneTask(val from: Int, val to: Int) : RecursiveAction() {
+        override fun compute() {
+            if (to - from <= chunkSize) {
+                for (lane in from until to) executeLane(lane)
+            } else {
+                val mid = (from + to) ushr 1
+                invokeAll(LaneTask(from, mid), LaneTask(mid, to))
+            }
+        }
+    }
+}
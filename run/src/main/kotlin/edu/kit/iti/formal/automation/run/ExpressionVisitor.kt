@@ -44,6 +44,7 @@ class ExpressionVisitor(private val state: State,
 
 
     override fun visit(symbolicReference: SymbolicReference): EValue {
+        if (state is SlotState) return state.read(symbolicReference)
         val variableName = symbolicReference.asPath()
         val variableState = state[variableName]
                 ?: throw ExecutionException("Variable $variableName not found")
@@ -88,6 +89,8 @@ class ExpressionVisitor(private val state: State,
             Operators.OR -> OperationEvaluator.or(leftValue, rightValue)
             Operators.SUB -> OperationEvaluator.subtract(leftValue, rightValue)
             Operators.MOD -> OperationEvaluator.modulo(leftValue, rightValue)
+            Operators.DIV -> OperationEvaluator.divide(leftValue, rightValue)
+            Operators.XOR -> OperationEvaluator.xor(leftValue, rightValue)
             else -> TODO("operator ${binaryExpression.operator.symbol} isType not implemented (${binaryExpression.operator.toString()})")
         }
     }
@@ -8,6 +8,7 @@ import edu.kit.iti.formal.automation.datatypes.VOID
 import edu.kit.iti.formal.automation.datatypes.values.RecordValue
 import edu.kit.iti.formal.automation.datatypes.values.VVOID
 import edu.kit.iti.formal.automation.datatypes.values.Value
+import edu.kit.iti.formal.automation.run.stexceptions.ExecutionException
 import edu.kit.iti.formal.automation.scope.Scope
 import edu.kit.iti.formal.automation.st.DefaultInitValue
 import edu.kit.iti.formal.automation.st.ast.Expression
@@ -16,6 +17,7 @@ import edu.kit.iti.formal.automation.st.ast.PouElements
 import edu.kit.iti.formal.automation.st.ast.PouExecutable
 import edu.kit.iti.formal.automation.visitors.Utils
 import edu.kit.iti.formal.automation.visitors.findFirstProgram
+import java.util.concurrent.ForkJoinPool
 
 object ExecutionFacade {
     fun execute(pous: PouElements): State =
@@ -31,13 +33,40 @@ object ExecutionFacade {
         }
     }
 
-    public fun createExecutionContext(pous: PouElements, program: PouExecutable): IECExecutorContext {
+    /**
+     * @param primitiveState use a [SlotState], i.e., primitive slots and compiled statements, instead of maps of values.
+     *        Off by default: programs with variables of other than elementary numeric, bit string and enumeration
+     *        types are rejected, and values carry their declared type instead of the type of the last assignment.
+     * @param keepHistory keep the state of every cycle, see [IECExecutorContext.states]
+     */
+    @JvmOverloads
+    public fun createExecutionContext(pous: PouElements, program: PouExecutable,
+                                      primitiveState: Boolean = false,
+                                      keepHistory: Boolean = true): IECExecutorContext {
         if (program !in pous)
             pous.add(program)
         IEC61131Facade.resolveDataTypes(pous)
-        return IECExecutorContext(pous, program)
+        return IECExecutorContext(pous, program, primitiveState, keepHistory)
     }
 
+    /**
+     * Compiles the first program in [pous] into closures over primitive slots.
+     * @see StCompiler
+     */
+    fun compile(pous: PouElements): CompiledProgram {
+        val program = pous.findFirstProgram() ?: throw IllegalArgumentException()
+        return compile(pous, program)
+    }
+
+    fun compile(pous: PouElements, program: PouExecutable): CompiledProgram {
+        if (program !in pous)
+            pous.add(program)
+        IEC61131Facade.resolveDataTypes(pous)
+        return StCompiler().compile(program)
+    }
+
+    fun createCompiledExecutor(pous: PouElements): CompiledExecutor = CompiledExecutor(compile(pous))
+
     fun createInitialState(pous: PouElements): State {
         return createExecutionContext(pous).initialState
     }
@@ -70,20 +99,48 @@ object ExecutionFacade {
 
     fun getDefaultValue(dataType: AnyDt): EValue = DefaultInitValue.getInit(dataType)
     fun evaluateExpression(state: State, scope: Scope, expression: Expression): EValue =
-            expression.accept(ExpressionVisitor(state, scope))
+            if (state is SlotState) state.evaluate(expression, scope)
+            else expression.accept(ExpressionVisitor(state, scope))
 }
 
-class IECExecutorContext(val ast: PouElements, val entryPoint: PouExecutable) {
+/**
+ * Executes the cycles of the [entryPoint].
+ *
+ * If [keepHistory] is false and a [SlotState] is used, [states] holds only the initial state and one current state.
+ * The current state is updated in place by [executeCycle] with the same [Runtime], hence a cycle does not allocate
+ * apart from the given inputs.
+ */
+class IECExecutorContext(val ast: PouElements, val entryPoint: PouExecutable,
+                         primitiveState: Boolean = false,
+                         val keepHistory: Boolean = true) {
     val states: MutableList<State> = arrayListOf()
     val initialState: State
     val lastState: State
         get() = states[states.size - 1]
 
     init {
-        states.add(ExecutionFacade.createInitialState(entryPoint))
+        states.add(if (primitiveState) SlotState.create(entryPoint)
+        else ExecutionFacade.createInitialState(entryPoint))
         initialState = states[0]
     }
 
+    /** the state updated in place, if the history is not kept */
+    private val current: SlotState? =
+            if (keepHistory) null else (initialState as? SlotState)?.clone()?.also { states += it }
+    private val currentRuntime = current?.let { Runtime(it, entryPoint.scope) }
+
+    private val compiled by lazy { StCompiler().compile(entryPoint) }
+
+    /**
+     * Creates a simulation of [lanes] independent input traces of the entry point.
+     * In contrast to [executeCycle], the states are not kept in [states].
+     * @see BatchSimulation
+     */
+    @JvmOverloads
+    fun createBatch(lanes: Int, inputs: Collection<String>, observed: Collection<String>,
+                    pool: ForkJoinPool = ForkJoinPool.commonPool()) =
+            BatchSimulation(compiled, lanes, inputs, observed, pool)
+
     fun executeCode(State: State): State {
         val runtime = Runtime(State)
         ast.accept(runtime)
@@ -98,6 +155,14 @@ class IECExecutorContext(val ast: PouElements, val entryPoint: PouExecutable) {
 
     fun executeCycle(state: State = states[states.size - 1],
                      input: State = State()): State {
+        if (current != null && state === current) {
+            for ((name, value) in input) {
+                if (!current.layout.write(current.slots, name, value))
+                    throw ExecutionException("Variable $name not found")
+            }
+            entryPoint.accept(currentRuntime!!)
+            return current
+        }
         val s = state.clone()
         s += input
         val rt = Runtime(s, entryPoint.scope)
@@ -0,0 +1,100 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.datatypes.*
+import java.math.BigInteger
+
+/**
+ * IEC 61131-3 arithmetic on primitive values of a fixed width.
+ *
+ * Integers (`SINT` … `ULINT`) and bit strings (`BYTE` … `LWORD`) are `long`s in two's complement. Every result
+ * is wrapped to the width of its type by [IntWidth], e.g., `USINT#255 + 1 = 0` and `SINT#-128 - 1 = 127`.
+ * The 64-bit unsigned types use the whole `long`, values above [Long.MAX_VALUE] are negative.
+ * `REAL` is rounded to single precision, `LREAL` is a `double`.
+ *
+ * The promotions between the elementary types are precomputed, see [promote].
+ */
+object MachineArithmetic {
+    private val elementary: List<AnyDt> = listOf(SINT, INT, DINT, LINT, USINT, UINT, UDINT, ULINT,
+            AnyBit.BYTE, AnyBit.WORD, AnyBit.DWORD, AnyBit.LWORD, AnyReal.REAL, AnyReal.LREAL)
+    private val ids = HashMap<AnyDt, Int>().also { map -> elementary.forEachIndexed { i, dt -> map[dt] = i } }
+    private val promotions = Array(elementary.size) { i ->
+        Array(elementary.size) { j -> elementary[i] promoteWith elementary[j] }
+    }
+
+    /** The common type of [a] and [b], see [promoteWith]. */
+    fun promote(a: AnyDt, b: AnyDt): AnyDt? {
+        val i = ids[a]
+        val j = ids[b]
+        return if (i != null && j != null) promotions[i][j] else a promoteWith b
+    }
+
+    /** true if the values of [dt] fit into a `long`. */
+    fun isFixedWidth(dt: AnyInt) = dt.bitLength in 1..64
+
+    fun add(w: IntWidth, a: Long, b: Long) = w.wrap(a + b)
+    fun sub(w: IntWidth, a: Long, b: Long) = w.wrap(a - b)
+    fun mul(w: IntWidth, a: Long, b: Long) = w.wrap(a * b)
+    fun neg(w: IntWidth, a: Long) = w.wrap(-a)
+
+    /** Division rounding towards zero. */
+    fun div(w: IntWidth, a: Long, b: Long): Long {
+        if (b == 0L) throw ArithmeticException("Division by zero")
+        return w.wrap(if (w.isUnsigned64) java.lang.Long.divideUnsigned(a, b) else a / b)
+    }
+
+    /** The remainder of [div], it has the sign of the dividend, e.g., `-7 MOD 3 = -1`. */
+    fun mod(w: IntWidth, a: Long, b: Long): Long {
+        if (b == 0L) throw ArithmeticException("Division by zero")
+        return w.wrap(if (w.isUnsigned64) java.lang.Long.remainderUnsigned(a, b) else a % b)
+    }
+
+    /**
+     * Exponentiation by squaring with wrap-around. A negative exponent rounds `1 / a^-b` towards zero like [div],
+     * e.g., `2 ** -1 = 0` and `-1 ** -3 = -1`.
+     */
+    fun pow(w: IntWidth, a: Long, b: Long): Long {
+        if (b < 0 && !w.isUnsigned64) return when (a) {
+            0L -> throw ArithmeticException("Division by zero")
+            1L -> 1L
+            -1L -> if (b and 1L == 0L) 1L else -1L
+            else -> 0L
+        }
+        var result = 1L
+        var base = a
+        var e = b
+        while (e != 0L) {
+            if (e and 1L != 0L) result *= base
+            base *= base
+            e = e ushr 1
+        }
+        return w.wrap(result)
+    }
+
+    fun and(w: IntWidth, a: Long, b: Long) = w.wrap(a and b)
+    fun or(w: IntWidth, a: Long, b: Long) = w.wrap(a or b)
+    fun xor(w: IntWidth, a: Long, b: Long) = w.wrap(a xor b)
+    fun not(w: IntWidth, a: Long) = w.wrap(a.inv())
+
+    /** Rounds [v] to the precision of [dt]. */
+    fun round(dt: AnyReal, v: Double) = if (dt == AnyReal.REAL) v.toFloat().toDouble() else v
+
+    fun add(dt: AnyReal, a: Double, b: Double) = round(dt, a + b)
+    fun sub(dt: AnyReal, a: Double, b: Double) = round(dt, a - b)
+    fun mul(dt: AnyReal, a: Double, b: Double) = round(dt, a * b)
+    fun div(dt: AnyReal, a: Double, b: Double) = round(dt, a / b)
+
+    /**
+     * Two's complement wrap-around of [v] to [dt] for integer types of any width.
+     * Integers without a width, e.g. `ANY_INT`, are not bounded.
+     */
+    fun wrap(dt: AnyInt, v: BigInteger): BigInteger {
+        val bits = dt.bitLength
+        if (bits <= 0) return v
+        if (bits <= 64) {
+            val w = IntWidth.of(dt)
+            return w.toBigInteger(w.wrap(v.toLong()))
+        }
+        val m = v.mod(BigInteger.ONE.shiftLeft(bits))
+        return if (dt.isSigned && m.testBit(bits - 1)) m - BigInteger.ONE.shiftLeft(bits) else m
+    }
+}
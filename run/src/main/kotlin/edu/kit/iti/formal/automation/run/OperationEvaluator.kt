@@ -3,7 +3,8 @@ package edu.kit.iti.formal.automation.run
 import edu.kit.iti.formal.automation.datatypes.AnyBit
 import edu.kit.iti.formal.automation.datatypes.AnyInt
 import edu.kit.iti.formal.automation.datatypes.AnyReal
-import edu.kit.iti.formal.automation.datatypes.promoteWith
+import edu.kit.iti.formal.automation.datatypes.values.Bits
+import edu.kit.iti.formal.automation.datatypes.values.VAnyBit
 import edu.kit.iti.formal.automation.datatypes.values.VAnyInt
 import edu.kit.iti.formal.automation.datatypes.values.VAnyReal
 import edu.kit.iti.formal.automation.datatypes.values.VBool
@@ -16,78 +17,106 @@ import java.math.BigInteger
  * If Operation if illegal, an error will be thrown
  */
 object OperationEvaluator {
-    fun add(leftValue: EValue, rightValue: EValue): EValue {
+    private enum class Arithmetic { ADD, SUB, MUL, DIV, MOD }
+
+    fun add(leftValue: EValue, rightValue: EValue) = arithmetic(Arithmetic.ADD, leftValue, rightValue)
+
+    fun subtract(leftValue: EValue, rightValue: EValue) = arithmetic(Arithmetic.SUB, leftValue, rightValue)
+
+    fun multiply(leftValue: EValue, rightValue: EValue) = arithmetic(Arithmetic.MUL, leftValue, rightValue)
+
+    fun divide(leftValue: EValue, rightValue: EValue) = arithmetic(Arithmetic.DIV, leftValue, rightValue)
+
+    fun modulo(leftValue: EValue, rightValue: EValue): EValue {
         return when {
-            leftValue is VAnyReal || rightValue is VAnyReal -> add(toReal(leftValue), toReal(rightValue))
-            leftValue is VAnyInt && rightValue is VAnyInt -> add(leftValue, rightValue)
-            else -> throw TypeMissmatchException("must be numbers")
+            leftValue is VAnyInt && rightValue is VAnyInt -> arithmetic(Arithmetic.MOD, leftValue, rightValue)
+            else -> throw TypeMissmatchException("modulo expects both to be int")
         }
     }
 
-
     /**
-     * normalize the Expression's Value to its DataType
+     * normalize the Expression's Value to its DataType, by the two's complement wrap-around
      */
-    public fun normalizeInt(value: VAnyInt): VAnyInt {
+    fun normalizeInt(value: VAnyInt): VAnyInt {
         val (type, v) = value
-        if (type.isValid(v)) return value
-        //if negative and unsigned -> offset value into positive region
-        val mask = BigInteger.valueOf(2).pow(type.bitLength).subtract(BigInteger.valueOf(1))
-        if (!type.isSigned && value.value < BigInteger.ZERO) {
-            return VAnyInt(type, -v) //TODO not correct overflow
-        }
-        var newValue = value.value
-        while (newValue > type.upperBound) {
-            newValue -= (type.upperBound - type.lowerBound + BigInteger.valueOf(1))
-        }
-        return VAnyInt(type, newValue)
+        val wrapped = MachineArithmetic.wrap(type, v)
+        return if (wrapped == v) value else VAnyInt(type, wrapped)
     }
 
-    private fun add(leftValue: VAnyInt, rightValue: VAnyInt): VAnyInt {
-        val promotedType = leftValue.dataType promoteWith rightValue.dataType
-        if (promotedType is AnyInt) {
-            return normalizeInt(VAnyInt(promotedType,
-                    leftValue.value.add(rightValue.value)))
+    private fun arithmetic(op: Arithmetic, leftValue: EValue, rightValue: EValue): EValue {
+        return when {
+            leftValue is VAnyReal || rightValue is VAnyReal -> {
+                val dt = MachineArithmetic.promote(leftValue.dataType, rightValue.dataType) as? AnyReal
+                        ?: throw TypeMissmatchException("could not promote '${leftValue.value} ${op.name} ${rightValue.value}' to appropriate type")
+                arithmetic(op, dt, toReal(leftValue).value.toDouble(), toReal(rightValue).value.toDouble())
+            }
+            leftValue is VAnyInt && rightValue is VAnyInt -> arithmetic(op, leftValue, rightValue)
+            else -> throw TypeMissmatchException("must be numbers")
         }
-        TODO("choose correct datatype and modulo the addition")
     }
 
-    private fun add(leftValue: VAnyReal, rightValue: VAnyReal): VAnyReal {
-        val promotedType = (leftValue.dataType promoteWith rightValue.dataType)
-        if (promotedType is AnyReal) {
-            return VAnyReal(promotedType, leftValue.value)
+    private fun arithmetic(op: Arithmetic, dt: AnyReal, a: Double, b: Double): VAnyReal {
+        val v = when (op) {
+            Arithmetic.ADD -> MachineArithmetic.add(dt, a, b)
+            Arithmetic.SUB -> MachineArithmetic.sub(dt, a, b)
+            Arithmetic.MUL -> MachineArithmetic.mul(dt, a, b)
+            Arithmetic.DIV -> MachineArithmetic.div(dt, a, b)
+            Arithmetic.MOD -> throw TypeMissmatchException("modulo expects both to be int")
         }
-        throw TypeMissmatchException("could not promote '${leftValue.value}+${rightValue.value}' to appropriate type");
-    }
-
-
-    fun multiply(leftValue: EValue, rightValue: EValue): EValue {
-        return when {
-            leftValue is VAnyInt && rightValue is VAnyInt -> multiply(leftValue, rightValue)
-            else -> TODO("implement other data type")
+        if (!v.isFinite()) throw ArithmeticException("$a ${op.name} $b is not a finite number")
+        return VAnyReal(dt, BigDecimal.valueOf(v))
+    }
+
+    private fun arithmetic(op: Arithmetic, leftValue: VAnyInt, rightValue: VAnyInt): VAnyInt {
+        val dt = MachineArithmetic.promote(leftValue.dataType, rightValue.dataType) as? AnyInt
+                ?: throw TypeMissmatchException("could not promote '${leftValue.value} ${op.name} ${rightValue.value}' to appropriate type")
+        if (!MachineArithmetic.isFixedWidth(dt)) {
+            val a = leftValue.value
+            val b = rightValue.value
+            return VAnyInt(dt, MachineArithmetic.wrap(dt, when (op) {
+                Arithmetic.ADD -> a + b
+                Arithmetic.SUB -> a - b
+                Arithmetic.MUL -> a * b
+                Arithmetic.DIV -> a / b
+                Arithmetic.MOD -> a.rem(b)
+            }))
         }
+        // the low 64 bits suffice, the result is wrapped anyway
+        val w = IntWidth.of(dt)
+        val a = leftValue.value.toLong()
+        val b = rightValue.value.toLong()
+        return VAnyInt(dt, w.toBigInteger(when (op) {
+            Arithmetic.ADD -> MachineArithmetic.add(w, a, b)
+            Arithmetic.SUB -> MachineArithmetic.sub(w, a, b)
+            Arithmetic.MUL -> MachineArithmetic.mul(w, a, b)
+            Arithmetic.DIV -> MachineArithmetic.div(w, a, b)
+            Arithmetic.MOD -> MachineArithmetic.mod(w, a, b)
+        }))
     }
 
-    fun multiply(leftValue: VAnyInt, rightValue: VAnyInt): VAnyInt {
-        return normalizeInt(VAnyInt(leftValue.dataType, leftValue.value.multiply(rightValue.value)))
+    private fun bitwise(leftValue: VAnyBit, rightValue: VAnyBit, op: (IntWidth, Long, Long) -> Long): VAnyBit {
+        val dt = MachineArithmetic.promote(leftValue.dataType, rightValue.dataType) as? AnyBit
+                ?: throw TypeMissmatchException("bitwise operation on ${leftValue.dataType.name} " +
+                        "and ${rightValue.dataType.name}, expected bit strings")
+        return VAnyBit(dt, Bits(op(IntWidth.of(dt), leftValue.value.register, rightValue.value.register), dt.bitLength))
     }
 
 
-    fun not(eValue: EValue): EValue {
-        if (eValue is VBool) {
-            return VBool(eValue.dataType, eValue.value.not())
-        } else {
-            throw TypeMissmatchException("must be bool")
-        }
+    fun not(eValue: EValue): EValue = when (eValue) {
+        is VBool -> VBool(eValue.dataType, eValue.value.not())
+        is VAnyBit -> VAnyBit(eValue.dataType, Bits(MachineArithmetic.not(IntWidth.of(eValue.dataType),
+                eValue.value.register), eValue.dataType.bitLength))
+        else -> throw TypeMissmatchException("must be bool")
     }
 
     fun negate(eValue: EValue): EValue = when (eValue) {
-        is VAnyInt ->
-            normalizeInt(
-                    VAnyInt(
-                            eValue.dataType.asSigned(),
-                            eValue.value.negate()
-                    ))
+        is VAnyInt -> {
+            val dt = eValue.dataType.asSigned()
+            if (MachineArithmetic.isFixedWidth(dt)) {
+                val w = IntWidth.of(dt)
+                VAnyInt(dt, w.toBigInteger(MachineArithmetic.neg(w, eValue.value.toLong())))
+            } else normalizeInt(VAnyInt(dt, eValue.value.negate()))
+        }
         is VAnyReal -> VAnyReal(eValue.dataType, eValue.value.negate())
         else -> throw TypeMissmatchException("must be a number")
     }
@@ -101,11 +130,11 @@ object OperationEvaluator {
         return not(equalValues(leftValue, rightValue))
     }
 
-    fun and(leftValue: EValue, rightValue: EValue): VBool {
-        if (leftValue is VBool && rightValue is VBool) {
-            return VBool(AnyBit.BOOL, leftValue.value && rightValue.value)
-        } else {
-            throw TypeMissmatchException("operator \"and\" can only be applied to boolean values")
+    fun and(leftValue: EValue, rightValue: EValue): EValue {
+        return when {
+            leftValue is VBool && rightValue is VBool -> VBool(AnyBit.BOOL, leftValue.value && rightValue.value)
+            leftValue is VAnyBit && rightValue is VAnyBit -> bitwise(leftValue, rightValue, MachineArithmetic::and)
+            else -> throw TypeMissmatchException("operator \"and\" can only be applied to boolean values")
         }
     }
 
@@ -167,35 +196,30 @@ object OperationEvaluator {
     }
 
     private fun toReal(eValue: EValue): VAnyReal {
+        if (eValue is VAnyReal) return eValue
         val content = eValue.value
         return VAnyReal(AnyReal.REAL, when (content) {
             is BigInteger -> BigDecimal(content)
-            is BigDecimal -> content
             else -> throw TypeMissmatchException("cannot be a real number")
         })
     }
 
-    fun subtract(leftValue: EValue, rightValue: EValue): EValue {
-        return add(leftValue, negate(rightValue))
-    }
-
-    fun modulo(leftValue: VAnyInt, rightValue: VAnyInt) =
-            VAnyInt(leftValue.dataType, leftValue.value.mod(rightValue.value))
-
-    fun modulo(leftValue: EValue, rightValue: EValue): EValue {
-        return when {
-            leftValue is VAnyInt && rightValue is VAnyInt -> modulo(leftValue, rightValue)
-            else -> throw TypeMissmatchException("modulo expects both to be int")
-        }
-    }
-
     fun or(leftValue: VBool, rightValue: VBool) =
             VBool(leftValue.dataType, leftValue.value || rightValue.value)
 
     fun or(leftValue: EValue, rightValue: EValue): EValue {
         return when {
             leftValue is VBool && rightValue is VBool -> or(leftValue, rightValue)
+            leftValue is VAnyBit && rightValue is VAnyBit -> bitwise(leftValue, rightValue, MachineArithmetic::or)
             else -> throw TypeMissmatchException("or expects booleans")
         }
     }
+
+    fun xor(leftValue: EValue, rightValue: EValue): EValue {
+        return when {
+            leftValue is VBool && rightValue is VBool -> VBool(AnyBit.BOOL, leftValue.value != rightValue.value)
+            leftValue is VAnyBit && rightValue is VAnyBit -> bitwise(leftValue, rightValue, MachineArithmetic::xor)
+            else -> throw TypeMissmatchException("xor expects booleans")
+        }
+    }
 }
\ No newline at end of file
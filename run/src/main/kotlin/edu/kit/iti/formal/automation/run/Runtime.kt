@@ -37,6 +37,7 @@ class Runtime(val state: State, private val definitionScopeStack: Stack<Scope> =
     }
 
     override fun visit(fbc: InvocationStatement) {
+        if (executeCompiled(fbc)) return
         val fbName = fbc.callee.identifier
         val innerValue = state[fbName]!! as Value<RecordType, RecordValue>
         val innerState = State(innerValue.value.fieldValues)
@@ -197,6 +198,7 @@ class Runtime(val state: State, private val definitionScopeStack: Stack<Scope> =
     }
 
     override fun visit(statements: StatementList) {
+        if (executeCompiled(statements)) return
         statements.forEach {
             debug("Executing statement $it")
             it.accept(this)
@@ -204,6 +206,7 @@ class Runtime(val state: State, private val definitionScopeStack: Stack<Scope> =
     }
 
     override fun visit(assignmentStatement: AssignmentStatement) {
+        if (executeCompiled(assignmentStatement)) return
         val expressionVisitor = ExpressionVisitor(state, peekScope())
         val expressionValue = assignmentStatement.expression.accept(expressionVisitor)
         val location = (assignmentStatement.location as SymbolicReference)
@@ -212,6 +215,15 @@ class Runtime(val state: State, private val definitionScopeStack: Stack<Scope> =
         state[path] = expressionValue
     }
 
+    /**
+     * On a [SlotState], statements are compiled (once) and executed on the primitive slots.
+     */
+    private fun executeCompiled(statement: Statement): Boolean {
+        val s = state as? SlotState ?: return false
+        s.execute(statement, peekScope())
+        return true
+    }
+
     private fun peekScope() = definitionScopeStack.peek()
 }
 
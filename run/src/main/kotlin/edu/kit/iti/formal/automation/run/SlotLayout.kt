@@ -0,0 +1,310 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.VariableScope
+import edu.kit.iti.formal.automation.datatypes.*
+import edu.kit.iti.formal.automation.datatypes.values.*
+import edu.kit.iti.formal.automation.run.stexceptions.ExecutionException
+import edu.kit.iti.formal.automation.st.ast.FunctionBlockDeclaration
+import java.math.BigDecimal
+import java.math.BigInteger
+
+/**
+ * Storage class of a variable slot: integers, bit strings and enumeration values are `long`s,
+ * booleans are `boolean`s, and reals are `double`s.
+ */
+enum class SlotKind { LONG, BOOL, REAL }
+
+/**
+ * A variable flattened to a primitive slot. Fields of records and function block instances are flattened
+ * into dotted paths, e.g., `timer.Q`.
+ *
+ * @property internal slots that are not visible in the [State] of the program, e.g., function frames.
+ */
+data class Slot(val path: String, val kind: SlotKind, val index: Int, val dataType: AnyDt,
+                val init: EValue, val internal: Boolean = false)
+
+/** A position in the slot arrays, used to delimit the contiguous region of a frame. */
+data class SlotMark(val longs: Int, val bools: Int, val reals: Int)
+
+/**
+ * Primitive storage for a [SlotLayout].
+ */
+class Slots(longs: LongArray, bools: BooleanArray, reals: DoubleArray) {
+    var longs = longs
+        private set
+    var bools = bools
+        private set
+    var reals = reals
+        private set
+
+    constructor(layout: SlotLayout) : this(LongArray(layout.longCount),
+            BooleanArray(layout.boolCount), DoubleArray(layout.realCount))
+
+    fun copy() = Slots(longs.copyOf(), bools.copyOf(), reals.copyOf())
+
+    fun copyFrom(other: Slots) = copyFrom(other, SlotMark(0, 0, 0), SlotMark(longs.size, bools.size, reals.size))
+
+    /** Copies the region `[from, to)` of [other] into this storage. */
+    fun copyFrom(other: Slots, from: SlotMark, to: SlotMark) {
+        System.arraycopy(other.longs, from.longs, longs, from.longs, to.longs - from.longs)
+        System.arraycopy(other.bools, from.bools, bools, from.bools, to.bools - from.bools)
+        System.arraycopy(other.reals, from.reals, reals, from.reals, to.reals - from.reals)
+    }
+
+    /**
+     * Grows the arrays to the current size of the [layout], e.g., after frames for further functions were allocated.
+     * The new slots get their initial values.
+     */
+    fun ensureCapacity(layout: SlotLayout) {
+        val old = SlotMark(longs.size, bools.size, reals.size)
+        if (old == layout.mark()) return
+        longs = longs.copyOf(layout.longCount)
+        bools = bools.copyOf(layout.boolCount)
+        reals = reals.copyOf(layout.realCount)
+        layout.variables.filter {
+            when (it.kind) {
+                SlotKind.LONG -> it.index >= old.longs
+                SlotKind.BOOL -> it.index >= old.bools
+                SlotKind.REAL -> it.index >= old.reals
+            }
+        }.forEach { layout.write(this, it, it.init) }
+    }
+}
+
+/**
+ * Assigns every elementary variable of a program (including the fields of records and function block instances)
+ * a slot in primitive arrays. The layout is computed once, the values live in [Slots].
+ *
+ * Variables of unsupported types (strings, arrays, time, ...) are rejected with an [ExecutionException].
+ */
+class SlotLayout {
+    private val slots = LinkedHashMap<String, Slot>()
+
+    /** data types of the records (and function block instances) by their path */
+    val records = LinkedHashMap<String, RecordType>()
+
+    /** function block instances by their path */
+    val instances = LinkedHashMap<String, FunctionBlockDeclaration>()
+
+    /** the contiguous region `[start, end)` of every record and function block instance */
+    val ranges = LinkedHashMap<String, Pair<SlotMark, SlotMark>>()
+
+    /** names of the (allocated) variables, resp. fields, below a prefix */
+    private val children = LinkedHashMap<String, MutableList<String>>()
+
+    var longCount = 0
+        private set
+    var boolCount = 0
+        private set
+    var realCount = 0
+        private set
+
+    val variables: Collection<Slot>
+        get() = slots.values
+
+    operator fun get(path: String): Slot? = slots[path]
+    operator fun get(path: List<String>): Slot? = slots[path.joinToString(".")]
+    operator fun contains(path: String) = path in slots || path in records
+
+    /** Names of the variables below [prefix], e.g., `""` for the top level or `"timer."` for the fields of `timer`. */
+    fun children(prefix: String = ""): List<String> = children[prefix] ?: emptyList()
+
+    fun mark() = SlotMark(longCount, boolCount, realCount)
+
+    /**
+     * Allocates a slot for the variable [path] of the given [dataType] and initial value.
+     * Throws an [ExecutionException] if the data type is not supported.
+     */
+    fun allocate(path: String, init: EValue, dataType: AnyDt = init.dataType, internal: Boolean = false): Slot {
+        val kind = kindOf(dataType)
+                ?: throw ExecutionException("Unsupported data type ${dataType.name} of variable $path")
+        val index = when (kind) {
+            SlotKind.LONG -> longCount++
+            SlotKind.BOOL -> boolCount++
+            SlotKind.REAL -> realCount++
+        }
+        val value = if (kindOf(init.dataType) == null) ExecutionFacade.getDefaultValue(dataType) else init
+        val slot = Slot(path, kind, index, dataType, value, internal)
+        slots[path] = slot
+        if (!internal) addChild(path)
+        return slot
+    }
+
+    /**
+     * Allocates all [values] below [prefix]. Records and function block instances are flattened recursively.
+     * The [declarations] give the declared data types, and the function blocks of instances.
+     */
+    fun allocate(prefix: String, declarations: VariableScope?, values: Map<String, EValue>,
+                 internal: Boolean = false) {
+        for ((name, value) in values) {
+            val path = prefix + name
+            val declared = declarations?.get(name)?.dataType
+            val record = value.value as? RecordValue
+            if (record != null) {
+                val fb = (declared as? FunctionBlockDataType)?.functionBlock
+                if (fb != null) instances[path] = fb
+                val recordType = declared as? RecordType ?: value.dataType as RecordType
+                records[path] = recordType
+                if (!internal) addChild(path)
+                val start = mark()
+                allocate("$path.", fb?.scope?.variables ?: recordType.fields, record.fieldValues, internal)
+                ranges[path] = start to mark()
+            } else {
+                allocate(path, value, declared ?: value.dataType, internal)
+            }
+        }
+    }
+
+    private fun addChild(path: String) {
+        val i = path.lastIndexOf('.')
+        children.getOrPut(path.substring(0, i + 1)) { arrayListOf() }.add(path.substring(i + 1))
+    }
+
+    /** Creates a storage filled with the initial values. */
+    fun createSlots(): Slots {
+        val s = Slots(this)
+        slots.values.forEach { write(s, it, it.init) }
+        return s
+    }
+
+    fun write(s: Slots, slot: Slot, value: EValue) {
+        when (slot.kind) {
+            SlotKind.BOOL -> s.bools[slot.index] = value.value as Boolean
+            SlotKind.REAL -> s.reals[slot.index] = when (val v = value.value) {
+                is BigDecimal -> v.toDouble()
+                is BigInteger -> v.toDouble()
+                else -> throw ExecutionException("Can not assign $value to ${slot.path}")
+            }
+            SlotKind.LONG -> s.longs[slot.index] = when (val v = value.value) {
+                is BigInteger -> IntWidth.of(slot.dataType).wrap(v.toLong())
+                is Bits -> v.register
+                is String -> enumValue(slot.dataType as EnumerateType, v)
+                else -> throw ExecutionException("Can not assign $value to ${slot.path}")
+            }
+        }
+    }
+
+    fun read(s: Slots, slot: Slot): EValue {
+        return when (slot.kind) {
+            SlotKind.BOOL -> if (s.bools[slot.index]) TRUE else FALSE
+            SlotKind.REAL -> VAnyReal(slot.dataType as AnyReal, BigDecimal.valueOf(s.reals[slot.index]))
+            SlotKind.LONG -> box(slot.dataType, s.longs[slot.index])
+        }
+    }
+
+    /**
+     * Returns the value of the variable [path]. Records and function block instances are read into a new [VStruct].
+     */
+    fun read(s: Slots, path: String): EValue? {
+        slots[path]?.let { return read(s, it) }
+        val recordType = records[path] ?: return null
+        val value = VStruct(recordType, RecordValue())
+        for (name in children("$path.")) {
+            value.value.fieldValues[name] = read(s, "$path.$name")!!
+        }
+        return value
+    }
+
+    /**
+     * Writes the [value] to the variable [path]. The fields of records are written recursively.
+     * Returns false if the variable is not allocated.
+     */
+    fun write(s: Slots, path: String, value: EValue): Boolean {
+        slots[path]?.let {
+            write(s, it, value)
+            return true
+        }
+        if (path !in records) return false
+        val fields = (value.value as? RecordValue)?.fieldValues
+                ?: throw ExecutionException("Can not assign $value to $path")
+        fields.forEach { (name, v) -> write(s, "$path.$name", v) }
+        return true
+    }
+
+    /**
+     * Resets the variable [path] to its initial value. The fields of records are reset recursively.
+     * Returns false if the variable is not allocated.
+     */
+    fun reset(s: Slots, path: String): Boolean {
+        slots[path]?.let {
+            write(s, it, it.init)
+            return true
+        }
+        if (path !in records) return false
+        children("$path.").forEach { reset(s, "$path.$it") }
+        return true
+    }
+
+    /**
+     * Reads the visible variables into a [State]. Records and function block instances become nested [VStruct]s.
+     */
+    fun toState(s: Slots): State {
+        val state = State()
+        children().forEach { state[it] = read(s, it)!! }
+        return state
+    }
+
+    companion object {
+        /** Converts a `long` slot value of the given data type into a [Value]. */
+        fun box(dataType: AnyDt, v: Long): EValue = when (dataType) {
+            is EnumerateType -> VAnyEnum(dataType, dataType[v.toInt()]
+                    ?: throw ExecutionException("No value $v in enumeration ${dataType.name}"))
+            is AnyBit -> VAnyBit(dataType, Bits(v, dataType.bitLength))
+            is AnyInt -> VAnyInt(dataType, IntWidth.of(dataType).toBigInteger(v))
+            else -> throw ExecutionException("Unsupported data type $dataType")
+        }
+
+        fun kindOf(dataType: AnyDt): SlotKind? = when (dataType) {
+            AnyBit.BOOL -> SlotKind.BOOL
+            is AnyInt, is AnyBit, is EnumerateType -> SlotKind.LONG
+            is AnyReal -> SlotKind.REAL
+            else -> null
+        }
+
+        fun enumValue(dt: EnumerateType, name: String): Long {
+            val v = dt[name] ?: dt.allowedValues.entries.find { it.key.equals(name, true) }?.value
+            ?: throw ExecutionException("$name is not a value of enumeration ${dt.name}")
+            return v.toLong()
+        }
+    }
+}
+
+/**
+ * Two's complement wrap-around of a `long` to the bit width of an integer (or bit string) type.
+ *
+ * Types without a fixed width (e.g. `ANY_INT`) are treated as 64-bit.
+ */
+class IntWidth private constructor(val bits: Int, val isSigned: Boolean) {
+    private val shift = 64 - bits
+    private val mask = if (bits >= 64) -1L else (1L shl bits) - 1
+
+    /** true if values need unsigned comparison */
+    val isUnsigned64: Boolean
+        get() = bits >= 64 && !isSigned
+
+    fun wrap(v: Long): Long = when {
+        bits >= 64 -> v
+        isSigned -> (v shl shift) shr shift
+        else -> v and mask
+    }
+
+    fun compare(a: Long, b: Long) =
+            if (isUnsigned64) java.lang.Long.compareUnsigned(a, b) else a.compareTo(b)
+
+    fun toBigInteger(v: Long): BigInteger =
+            if (isUnsigned64 && v < 0) BigInteger.valueOf(v).add(BigInteger.ONE.shiftLeft(64))
+            else BigInteger.valueOf(v)
+
+    companion object {
+        private val SIGNED = Array(64) { IntWidth(it + 1, true) }
+        private val UNSIGNED = Array(64) { IntWidth(it + 1, false) }
+        private val LONG = SIGNED[63]
+
+        /** The (shared) width of [dt]. */
+        fun of(dt: AnyDt): IntWidth = when (dt) {
+            is AnyInt -> (if (dt.isSigned) SIGNED else UNSIGNED)[if (dt.bitLength in 1..63) dt.bitLength - 1 else 63]
+            is AnyBit -> UNSIGNED[dt.bitLength.coerceIn(1, 64) - 1]
+            else -> LONG
+        }
+    }
+}
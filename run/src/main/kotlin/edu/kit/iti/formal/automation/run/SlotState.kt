@@ -0,0 +1,108 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.datatypes.values.FALSE
+import edu.kit.iti.formal.automation.datatypes.values.TRUE
+import edu.kit.iti.formal.automation.datatypes.values.VAnyReal
+import edu.kit.iti.formal.automation.run.stexceptions.ExecutionException
+import edu.kit.iti.formal.automation.scope.Scope
+import edu.kit.iti.formal.automation.st.ast.*
+import java.math.BigDecimal
+import java.util.*
+
+/**
+ * A [State] whose variables live in primitive [Slots] of a [SlotLayout].
+ * Records and function block instances are contiguous sub-ranges of the slots (see [SlotLayout.ranges]).
+ *
+ * Every [SymbolicReference] is resolved to its slot once. Statements executed by the [Runtime] are compiled
+ * once by the [StCompiler] and run directly on the slots, hence a cycle does not allocate.
+ * The compiled code and the resolved references are shared between clones.
+ *
+ * The map view only contains the declared variables. It reads records and function block instances into
+ * new [edu.kit.iti.formal.automation.datatypes.values.VStruct]s, which are not connected to this state.
+ * As the slots are fixed, removing a variable resets it to its initial value.
+ */
+class SlotState private constructor(val context: Context, val slots: Slots)
+    : State(SlotMap(context.compiler.layout, slots)) {
+
+    val layout: SlotLayout
+        get() = context.compiler.layout
+
+    /** Caches shared between all clones of a state. */
+    class Context(val compiler: StCompiler) {
+        internal val references = IdentityHashMap<SymbolicReference, Slot>()
+        internal val statements = IdentityHashMap<Statement, CompiledStatement>()
+        internal val expressions = IdentityHashMap<Expression, CompiledExpr>()
+    }
+
+    fun slotOf(ref: SymbolicReference): Slot =
+            context.references.getOrPut(ref) { context.compiler.resolve(ref) }
+
+    fun read(ref: SymbolicReference): EValue = layout.read(slots, slotOf(ref))
+
+    fun write(ref: SymbolicReference, value: EValue) = layout.write(slots, slotOf(ref), value)
+
+    /**
+     * Executes the statement, compiled at the first execution. Returns the control flow signal,
+     * see [CompiledStatement].
+     */
+    fun execute(statement: Statement, scope: Scope): Int {
+        val compiled = context.statements.getOrPut(statement) {
+            context.compiler.compile(statement as? StatementList ?: StatementList(statement), scope)
+        }
+        slots.ensureCapacity(layout)
+        return compiled.exec(slots)
+    }
+
+    fun evaluate(expression: Expression, scope: Scope): EValue {
+        val compiled = context.expressions.getOrPut(expression) { context.compiler.compile(expression, scope) }
+        slots.ensureCapacity(layout)
+        return when (compiled) {
+            is CompiledExpr.Bool -> if (compiled.f.eval(slots)) TRUE else FALSE
+            is CompiledExpr.Real -> VAnyReal(compiled.dataType, BigDecimal.valueOf(compiled.f.eval(slots)))
+            is CompiledExpr.Num -> SlotLayout.box(compiled.dataType, compiled.f.eval(slots))
+        }
+    }
+
+    override fun get(name: List<String>): EValue? = layout.read(slots, name.joinToString("."))
+
+    override fun set(name: List<String>, value: EValue) {
+        val path = name.joinToString(".")
+        if (!layout.write(slots, path, value)) throw ExecutionException("Variable $path not found")
+    }
+
+    override fun clone() = SlotState(context, slots.copy())
+
+    companion object {
+        /** Creates the initial state of the given program. */
+        fun create(entryPoint: PouExecutable): SlotState {
+            val layout = SlotLayout()
+            layout.allocate("", entryPoint.scope.variables, ExecutionFacade.createInitialState(entryPoint.scope))
+            return SlotState(Context(StCompiler(layout)), layout.createSlots())
+        }
+    }
+}
+
+/** Map view on the top-level variables of a [SlotLayout]. [entries] is a snapshot. */
+private class SlotMap(val layout: SlotLayout, val slots: Slots) : AbstractMutableMap<String, EValue>() {
+    override val size: Int
+        get() = layout.children().size
+
+    override fun containsKey(key: String) = key in layout
+
+    override fun get(key: String): EValue? = layout.read(slots, key)
+
+    override fun put(key: String, value: EValue): EValue? {
+        val old = get(key)
+        if (!layout.write(slots, key, value)) throw ExecutionException("Variable $key not found")
+        return old
+    }
+
+    override fun remove(key: String): EValue? {
+        val old = get(key) ?: return null
+        layout.reset(slots, key)
+        return old
+    }
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, EValue>>
+        get() = layout.children().associateWithTo(LinkedHashMap()) { layout.read(slots, it)!! }.entries
+}
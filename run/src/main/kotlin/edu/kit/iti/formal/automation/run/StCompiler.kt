@@ -0,0 +1,619 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.datatypes.*
+import edu.kit.iti.formal.automation.operators.BinaryOperator
+import edu.kit.iti.formal.automation.operators.Operators
+import edu.kit.iti.formal.automation.run.stexceptions.ExecutionException
+import edu.kit.iti.formal.automation.run.stexceptions.TypeMissmatchException
+import edu.kit.iti.formal.automation.scope.Scope
+import edu.kit.iti.formal.automation.st.ast.*
+import edu.kit.iti.formal.automation.visitors.DefaultVisitorNN
+import java.util.*
+
+fun interface LongExpr {
+    fun eval(m: Slots): Long
+}
+
+fun interface BoolExpr {
+    fun eval(m: Slots): Boolean
+}
+
+fun interface RealExpr {
+    fun eval(m: Slots): Double
+}
+
+/**
+ * A compiled statement. The result signals the control flow: [NORMAL], [EXIT] or [RETURN].
+ */
+fun interface CompiledStatement {
+    fun exec(m: Slots): Int
+
+    companion object {
+        const val NORMAL = 0
+        const val EXIT = 1
+        const val RETURN = 2
+        val NOP = CompiledStatement { NORMAL }
+    }
+}
+
+/**
+ * A compiled expression together with its static data type.
+ */
+sealed class CompiledExpr {
+    abstract val dataType: AnyDt
+
+    /** integers, bit strings and enumeration values */
+    class Num(override val dataType: AnyDt, val f: LongExpr) : CompiledExpr()
+
+    class Bool(val f: BoolExpr) : CompiledExpr() {
+        override val dataType: AnyDt = AnyBit.BOOL
+    }
+
+    class Real(override val dataType: AnyReal, val f: RealExpr) : CompiledExpr()
+}
+
+/**
+ * A function with a static frame in the [SlotLayout]. Functions are not recursive,
+ * hence one frame per function suffices. The frame `[start, end)` is reset to the initial values on every call.
+ */
+class CompiledFunction(val declaration: FunctionDeclaration,
+                       val start: SlotMark, val end: SlotMark,
+                       val inputs: List<Slot>, val result: Slot?,
+                       val initial: Slots) {
+    var body: CompiledStatement = CompiledStatement.NOP
+}
+
+/**
+ * Compiles a resolved program (see [edu.kit.iti.formal.automation.IEC61131Facade.resolveDataTypes])
+ * into a tree of closures over primitive [Slots].
+ *
+ * In contrast to the [Runtime], the data types are resolved at compile time: every variable access is an array access,
+ * integer arithmetic is done on `long`s with the two's complement wrap-around of the static result type,
+ * and no values are boxed during a cycle.
+ *
+ * Supported are elementary types (integers, bit strings, enumerations, booleans, reals), records and function block
+ * instances, and calls of non-recursive functions. Unsupported constructs raise an [ExecutionException] at compile time.
+ */
+class StCompiler(val layout: SlotLayout = SlotLayout()) {
+    private val instanceBodies = HashMap<String, CompiledStatement>()
+    private val functions = IdentityHashMap<FunctionDeclaration, CompiledFunction>()
+    private val compiling = Collections.newSetFromMap(IdentityHashMap<FunctionDeclaration, Boolean>())
+    private var callSites = 0
+
+    fun compile(program: PouExecutable): CompiledProgram {
+        layout.allocate("", program.scope.variables, ExecutionFacade.createInitialState(program.scope))
+        val body = compile(program.stBody, program.scope)
+        return CompiledProgram(program, layout, body, layout.createSlots())
+    }
+
+    /**
+     * Compiles the given statements against the variables in [layout] below [prefix].
+     * Frames for called functions are added to the layout, see [Slots.ensureCapacity].
+     */
+    fun compile(statements: StatementList?, scope: Scope, prefix: String = ""): CompiledStatement =
+            StatementCompiler(prefix, scope).compile(statements)
+
+    fun compile(expression: Expression, scope: Scope, prefix: String = ""): CompiledExpr =
+            expression.accept(ExpressionCompiler(prefix, scope))
+
+    /** Resolves the reference to its slot in [layout]. */
+    fun resolve(ref: SymbolicReference, prefix: String = "") = resolve(prefix, ref)
+
+    private fun resolve(prefix: String, ref: SymbolicReference): Slot {
+        var cur: SymbolicReference? = ref
+        while (cur != null) {
+            if (cur.hasSubscripts() || cur.derefCount > 0)
+                throw ExecutionException("Array access and dereferencing are not supported: ${ref.toHuman()}")
+            cur = cur.sub
+        }
+        val path = prefix + ref.toPath().joinToString(".")
+        return layout[path] ?: throw ExecutionException("Variable $path not found or of unsupported type")
+    }
+
+    private fun instanceBody(path: String, fb: FunctionBlockDeclaration) =
+            instanceBodies.getOrPut(path) { StatementCompiler("$path.", fb.scope).compile(fb.stBody) }
+
+    private fun function(fd: FunctionDeclaration): CompiledFunction {
+        functions[fd]?.let { return it }
+        if (!compiling.add(fd))
+            throw ExecutionException("Recursive call of function ${fd.name} is not supported")
+        val prefix = "${fd.name}::"
+        val start = layout.mark()
+        layout.allocate(prefix, fd.scope.variables, ExecutionFacade.createInitialState(fd.scope), true)
+        val returnType = fd.returnType.obj
+        val result =
+                if (returnType == null || returnType == VOID) null
+                else layout.allocate(prefix + fd.name, ExecutionFacade.getDefaultValue(returnType), returnType, true)
+        val end = layout.mark()
+        val inputs = fd.scope.variables.filter { it.isInput }.map {
+            layout[prefix + it.name] ?: throw ExecutionException("Unsupported type of parameter ${it.name} of ${fd.name}")
+        }
+        val cf = CompiledFunction(fd, start, end, inputs, result, layout.createSlots())
+        cf.body = StatementCompiler(prefix, fd.scope).compile(fd.stBody)
+        functions[fd] = cf
+        compiling.remove(fd)
+        return cf
+    }
+
+    /** Stores the value of [expr] into [slot], with the wrap-around of the slot's data type. */
+    private fun assign(slot: Slot, expr: CompiledExpr): CompiledStatement {
+        val i = slot.index
+        return when (slot.kind) {
+            SlotKind.BOOL -> {
+                val f = (expr as? CompiledExpr.Bool ?: mismatch(slot, expr)).f
+                CompiledStatement { m -> m.bools[i] = f.eval(m); CompiledStatement.NORMAL }
+            }
+            SlotKind.REAL -> {
+                val f = real(expr) ?: mismatch(slot, expr)
+                CompiledStatement { m -> m.reals[i] = f.eval(m); CompiledStatement.NORMAL }
+            }
+            SlotKind.LONG -> {
+                val f = (expr as? CompiledExpr.Num ?: mismatch(slot, expr)).f
+                if ((slot.dataType is EnumerateType) != (expr.dataType is EnumerateType)) mismatch(slot, expr)
+                val w = IntWidth.of(slot.dataType)
+                CompiledStatement { m -> m.longs[i] = w.wrap(f.eval(m)); CompiledStatement.NORMAL }
+            }
+        }
+    }
+
+    private fun mismatch(slot: Slot, expr: CompiledExpr): Nothing =
+            throw TypeMissmatchException("Can not assign a value of ${expr.dataType.name} to ${slot.path}")
+
+    private fun read(slot: Slot): CompiledExpr {
+        val i = slot.index
+        return when (slot.kind) {
+            SlotKind.BOOL -> CompiledExpr.Bool(BoolExpr { m -> m.bools[i] })
+            SlotKind.REAL -> CompiledExpr.Real(slot.dataType as AnyReal, RealExpr { m -> m.reals[i] })
+            SlotKind.LONG -> CompiledExpr.Num(slot.dataType, LongExpr { m -> m.longs[i] })
+        }
+    }
+
+    private fun real(expr: CompiledExpr): RealExpr? = when {
+        expr is CompiledExpr.Real -> expr.f
+        expr is CompiledExpr.Num && expr.dataType is AnyInt -> {
+            val f = expr.f
+            RealExpr { m -> f.eval(m).toDouble() }
+        }
+        else -> null
+    }
+
+    private fun bool(expr: CompiledExpr): BoolExpr =
+            (expr as? CompiledExpr.Bool)?.f
+                    ?: throw TypeMissmatchException("Expected a boolean expression, got ${expr.dataType.name}")
+
+    private fun num(expr: CompiledExpr): CompiledExpr.Num =
+            expr as? CompiledExpr.Num
+                    ?: throw TypeMissmatchException("Expected an integer expression, got ${expr.dataType.name}")
+
+    /**
+     * Compiles the call of [fd] at a call site: the arguments are evaluated into temporary slots of the call site,
+     * then the frame is reset and the temporaries are copied into the input parameters.
+     */
+    private fun call(fd: FunctionDeclaration, parameters: List<InvocationParameter>,
+                     expressions: ExpressionCompiler): CompiledStatement {
+        val fn = function(fd)
+        val site = callSites++
+        val inputs = fd.scope.variables.filter { it.isInput }
+        val evaluate = ArrayList<CompiledStatement>()
+        val copy = ArrayList<CompiledStatement>()
+        parameters.filter { it.isInput }.forEachIndexed { idx, p ->
+            val target = if (p.name != null) layout["${fd.name}::${p.name}"]
+            else inputs.getOrNull(idx)?.let { layout["${fd.name}::${it.name}"] }
+            target ?: throw ExecutionException("No matching parameter for argument $idx of ${fd.name}")
+            val tmp = layout.allocate("${fd.name}#$site.${target.path}", target.init, target.dataType, true)
+            evaluate += assign(tmp, p.expression.accept(expressions))
+            copy += assign(target, read(tmp))
+        }
+        val args = evaluate.toTypedArray()
+        val copies = copy.toTypedArray()
+        return CompiledStatement { m ->
+            for (a in args) a.exec(m)
+            m.copyFrom(fn.initial, fn.start, fn.end)
+            for (c in copies) c.exec(m)
+            fn.body.exec(m)
+            CompiledStatement.NORMAL
+        }
+    }
+
+    private inner class ExpressionCompiler(val prefix: String, val scope: Scope) : DefaultVisitorNN<CompiledExpr>() {
+        override fun defaultVisit(obj: Any) =
+                throw ExecutionException("Unsupported expression: $obj")
+
+        override fun visit(parameter: InvocationParameter) = parameter.expression.accept(this)
+
+        override fun visit(literal: Literal): CompiledExpr = when (literal) {
+            is BooleanLit -> {
+                val v = literal.value
+                CompiledExpr.Bool(BoolExpr { v })
+            }
+            is IntegerLit -> {
+                val v = literal.value.toLong()
+                CompiledExpr.Num(literal.dataType(scope), LongExpr { v })
+            }
+            is BitLit -> {
+                val v = literal.value
+                CompiledExpr.Num(literal.dataType(scope), LongExpr { v })
+            }
+            is EnumLit -> {
+                val dt = literal.dataType.obj ?: literal.dataType(scope)
+                val v = SlotLayout.enumValue(dt, literal.value)
+                CompiledExpr.Num(dt, LongExpr { v })
+            }
+            is RealLit -> {
+                val v = literal.value.toDouble()
+                CompiledExpr.Real(literal.dataType(scope), RealExpr { v })
+            }
+            else -> throw ExecutionException("Unsupported literal: $literal")
+        }
+
+        override fun visit(symbolicReference: SymbolicReference) = read(resolve(prefix, symbolicReference))
+
+        override fun visit(invocation: Invocation): CompiledExpr {
+            val fd = scope.resolveFunction(invocation.calleeName)
+                    ?: throw ExecutionException("Could not find function ${invocation.calleeName}")
+            val result = function(fd).result
+                    ?: throw ExecutionException("Function ${fd.name} has no return value")
+            val invoke = call(fd, invocation.parameters, this)
+            return when (val r = read(result)) {
+                is CompiledExpr.Bool -> CompiledExpr.Bool(BoolExpr { m -> invoke.exec(m); r.f.eval(m) })
+                is CompiledExpr.Real -> CompiledExpr.Real(r.dataType, RealExpr { m -> invoke.exec(m); r.f.eval(m) })
+                is CompiledExpr.Num -> CompiledExpr.Num(r.dataType, LongExpr { m -> invoke.exec(m); r.f.eval(m) })
+            }
+        }
+
+        override fun visit(unaryExpression: UnaryExpression): CompiledExpr {
+            val e = unaryExpression.expression.accept(this)
+            return when (unaryExpression.operator) {
+                Operators.NOT -> when {
+                    e is CompiledExpr.Bool -> {
+                        val f = e.f
+                        CompiledExpr.Bool(BoolExpr { m -> !f.eval(m) })
+                    }
+                    e is CompiledExpr.Num && e.dataType is AnyBit -> {
+                        val f = e.f
+                        val w = IntWidth.of(e.dataType)
+                        CompiledExpr.Num(e.dataType, LongExpr { m -> w.wrap(f.eval(m).inv()) })
+                    }
+                    else -> throw TypeMissmatchException("NOT expects a boolean or a bit string")
+                }
+                Operators.MINUS -> when {
+                    e is CompiledExpr.Real -> {
+                        val f = e.f
+                        CompiledExpr.Real(e.dataType, RealExpr { m -> -f.eval(m) })
+                    }
+                    e is CompiledExpr.Num && e.dataType is AnyInt -> {
+                        val f = e.f
+                        val dt = (e.dataType as AnyInt).asSigned()
+                        val w = IntWidth.of(dt)
+                        CompiledExpr.Num(dt, LongExpr { m -> w.wrap(-f.eval(m)) })
+                    }
+                    else -> throw TypeMissmatchException("- expects a number")
+                }
+                else -> throw ExecutionException("Unsupported operator ${unaryExpression.operator.symbol}")
+            }
+        }
+
+        override fun visit(binaryExpression: BinaryExpression): CompiledExpr {
+            val l = binaryExpression.leftExpr.accept(this)
+            val r = binaryExpression.rightExpr.accept(this)
+            return when (val op = binaryExpression.operator) {
+                Operators.AND, Operators.OR, Operators.XOR -> logical(op, l, r)
+                Operators.EQUALS, Operators.NOT_EQUALS, Operators.LESS_THAN, Operators.LESS_EQUALS,
+                Operators.GREATER_THAN, Operators.GREATER_EQUALS -> comparison(op, l, r)
+                Operators.ADD, Operators.SUB, Operators.MULT, Operators.DIV, Operators.MOD, Operators.POWER ->
+                    arithmetic(op, l, r)
+                else -> throw ExecutionException("Unsupported operator ${op.symbol}")
+            }
+        }
+
+        private fun logical(op: BinaryOperator, l: CompiledExpr, r: CompiledExpr): CompiledExpr {
+            if (l is CompiledExpr.Bool && r is CompiledExpr.Bool) {
+                val a = l.f
+                val b = r.f
+                return CompiledExpr.Bool(when (op) {
+                    Operators.AND -> BoolExpr { m -> a.eval(m) && b.eval(m) }
+                    Operators.OR -> BoolExpr { m -> a.eval(m) || b.eval(m) }
+                    else -> BoolExpr { m -> a.eval(m) != b.eval(m) }
+                })
+            }
+            val dt = l.dataType promoteWith r.dataType
+            if (l is CompiledExpr.Num && r is CompiledExpr.Num && dt is AnyBit) {
+                val a = l.f
+                val b = r.f
+                return CompiledExpr.Num(dt, when (op) {
+                    Operators.AND -> LongExpr { m -> a.eval(m) and b.eval(m) }
+                    Operators.OR -> LongExpr { m -> a.eval(m) or b.eval(m) }
+                    else -> LongExpr { m -> a.eval(m) xor b.eval(m) }
+                })
+            }
+            throw TypeMissmatchException("${op.symbol} expects booleans or bit strings")
+        }
+
+        private fun comparison(op: BinaryOperator, l: CompiledExpr, r: CompiledExpr): CompiledExpr.Bool {
+            if (l is CompiledExpr.Bool && r is CompiledExpr.Bool) {
+                val a = l.f
+                val b = r.f
+                return CompiledExpr.Bool(when (op) {
+                    Operators.EQUALS -> BoolExpr { m -> a.eval(m) == b.eval(m) }
+                    Operators.NOT_EQUALS -> BoolExpr { m -> a.eval(m) != b.eval(m) }
+                    else -> throw TypeMissmatchException("${op.symbol} is not defined on booleans")
+                })
+            }
+            if (l is CompiledExpr.Real || r is CompiledExpr.Real) {
+                val a = real(l) ?: throw TypeMissmatchException("${op.symbol} expects numbers")
+                val b = real(r) ?: throw TypeMissmatchException("${op.symbol} expects numbers")
+                return CompiledExpr.Bool(when (op) {
+                    Operators.EQUALS -> BoolExpr { m -> a.eval(m) == b.eval(m) }
+                    Operators.NOT_EQUALS -> BoolExpr { m -> a.eval(m) != b.eval(m) }
+                    Operators.LESS_THAN -> BoolExpr { m -> a.eval(m) < b.eval(m) }
+                    Operators.LESS_EQUALS -> BoolExpr { m -> a.eval(m) <= b.eval(m) }
+                    Operators.GREATER_THAN -> BoolExpr { m -> a.eval(m) > b.eval(m) }
+                    else -> BoolExpr { m -> a.eval(m) >= b.eval(m) }
+                })
+            }
+            val ln = num(l)
+            val rn = num(r)
+            val unsigned = IntWidth.of((ln.dataType promoteWith rn.dataType) ?: ln.dataType).isUnsigned64
+            // unsigned 64-bit values are compared by flipping the sign bit
+            val a = if (unsigned) LongExpr { m -> ln.f.eval(m) xor Long.MIN_VALUE } else ln.f
+            val b = if (unsigned) LongExpr { m -> rn.f.eval(m) xor Long.MIN_VALUE } else rn.f
+            return CompiledExpr.Bool(when (op) {
+                Operators.EQUALS -> BoolExpr { m -> a.eval(m) == b.eval(m) }
+                Operators.NOT_EQUALS -> BoolExpr { m -> a.eval(m) != b.eval(m) }
+                Operators.LESS_THAN -> BoolExpr { m -> a.eval(m) < b.eval(m) }
+                Operators.LESS_EQUALS -> BoolExpr { m -> a.eval(m) <= b.eval(m) }
+                Operators.GREATER_THAN -> BoolExpr { m -> a.eval(m) > b.eval(m) }
+                else -> BoolExpr { m -> a.eval(m) >= b.eval(m) }
+            })
+        }
+
+        private fun arithmetic(op: BinaryOperator, l: CompiledExpr, r: CompiledExpr): CompiledExpr {
+            if (l is CompiledExpr.Real || r is CompiledExpr.Real) {
+                val a = real(l) ?: throw TypeMissmatchException("${op.symbol} expects numbers")
+                val b = real(r) ?: throw TypeMissmatchException("${op.symbol} expects numbers")
+                val dt = (l.dataType promoteWith r.dataType) as? AnyReal ?: AnyReal.REAL
+                return CompiledExpr.Real(dt, when (op) {
+                    Operators.ADD -> RealExpr { m -> MachineArithmetic.add(dt, a.eval(m), b.eval(m)) }
+                    Operators.SUB -> RealExpr { m -> MachineArithmetic.sub(dt, a.eval(m), b.eval(m)) }
+                    Operators.MULT -> RealExpr { m -> MachineArithmetic.mul(dt, a.eval(m), b.eval(m)) }
+                    Operators.DIV -> RealExpr { m -> MachineArithmetic.div(dt, a.eval(m), b.eval(m)) }
+                    Operators.POWER -> RealExpr { m -> MachineArithmetic.round(dt, Math.pow(a.eval(m), b.eval(m))) }
+                    else -> throw TypeMissmatchException("MOD expects integers")
+                })
+            }
+            val dt = (l.dataType promoteWith r.dataType) as? AnyInt
+                    ?: throw TypeMissmatchException("${op.symbol} expects numbers, got ${l.dataType.name} and ${r.dataType.name}")
+            val a = num(l).f
+            val b = num(r).f
+            val w = IntWidth.of(dt)
+            return CompiledExpr.Num(dt, when (op) {
+                Operators.ADD -> LongExpr { m -> MachineArithmetic.add(w, a.eval(m), b.eval(m)) }
+                Operators.SUB -> LongExpr { m -> MachineArithmetic.sub(w, a.eval(m), b.eval(m)) }
+                Operators.MULT -> LongExpr { m -> MachineArithmetic.mul(w, a.eval(m), b.eval(m)) }
+                Operators.DIV -> LongExpr { m -> MachineArithmetic.div(w, a.eval(m), b.eval(m)) }
+                Operators.MOD -> LongExpr { m -> MachineArithmetic.mod(w, a.eval(m), b.eval(m)) }
+                else -> LongExpr { m -> MachineArithmetic.pow(w, a.eval(m), b.eval(m)) }
+            })
+        }
+    }
+
+    private inner class StatementCompiler(val prefix: String, val scope: Scope) : DefaultVisitorNN<CompiledStatement>() {
+        private val expressions = ExpressionCompiler(prefix, scope)
+
+        fun compile(body: StatementList?) = body?.accept(this) ?: CompiledStatement.NOP
+
+        private fun condition(expr: Expression) = bool(expr.accept(expressions))
+
+        override fun defaultVisit(obj: Any) =
+                throw ExecutionException("Unsupported statement: $obj")
+
+        override fun visit(statements: StatementList): CompiledStatement {
+            val stmts = statements.map { it.accept(this) }.filter { it !== CompiledStatement.NOP }.toTypedArray()
+            return when (stmts.size) {
+                0 -> CompiledStatement.NOP
+                1 -> stmts[0]
+                else -> CompiledStatement { m ->
+                    for (s in stmts) {
+                        val r = s.exec(m)
+                        if (r != CompiledStatement.NORMAL) return@CompiledStatement r
+                    }
+                    CompiledStatement.NORMAL
+                }
+            }
+        }
+
+        override fun visit(commentStatement: CommentStatement) = CompiledStatement.NOP
+        override fun visit(exitStatement: ExitStatement) = CompiledStatement { CompiledStatement.EXIT }
+        override fun visit(returnStatement: ReturnStatement) = CompiledStatement { CompiledStatement.RETURN }
+
+        override fun visit(assignmentStatement: AssignmentStatement): CompiledStatement {
+            val location = assignmentStatement.location as? SymbolicReference
+                    ?: throw ExecutionException("Unsupported assignment target: ${assignmentStatement.location}")
+            return assign(resolve(prefix, location), assignmentStatement.expression.accept(expressions))
+        }
+
+        override fun visit(ifStatement: IfStatement): CompiledStatement {
+            val conditions = ifStatement.conditionalBranches.map { condition(it.condition) }.toTypedArray()
+            val branches = ifStatement.conditionalBranches.map { it.statements.accept(this) }.toTypedArray()
+            val elseBranch = ifStatement.elseBranch.accept(this)
+            return CompiledStatement { m ->
+                for (i in conditions.indices) {
+                    if (conditions[i].eval(m)) return@CompiledStatement branches[i].exec(m)
+                }
+                elseBranch.exec(m)
+            }
+        }
+
+        override fun visit(whileStatement: WhileStatement): CompiledStatement {
+            val cond = condition(whileStatement.condition)
+            val body = whileStatement.statements.accept(this)
+            return CompiledStatement { m ->
+                while (cond.eval(m)) {
+                    val r = body.exec(m)
+                    if (r == CompiledStatement.EXIT) break
+                    if (r == CompiledStatement.RETURN) return@CompiledStatement r
+                }
+                CompiledStatement.NORMAL
+            }
+        }
+
+        override fun visit(repeatStatement: RepeatStatement): CompiledStatement {
+            val cond = condition(repeatStatement.condition)
+            val body = repeatStatement.statements.accept(this)
+            return CompiledStatement { m ->
+                do {
+                    val r = body.exec(m)
+                    if (r == CompiledStatement.EXIT) break
+                    if (r == CompiledStatement.RETURN) return@CompiledStatement r
+                } while (!cond.eval(m))
+                CompiledStatement.NORMAL
+            }
+        }
+
+        /**
+         * IEC 61131-3 semantics: the bounds are inclusive, the step is evaluated once.
+         * The loop also terminates if the loop variable would overflow.
+         */
+        override fun visit(forStatement: ForStatement): CompiledStatement {
+            val slot = resolve(prefix, SymbolicReference(forStatement.variable))
+            if (slot.kind != SlotKind.LONG || slot.dataType !is AnyInt)
+                throw TypeMissmatchException("Loop variable ${slot.path} must be an integer")
+            val i = slot.index
+            val w = IntWidth.of(slot.dataType)
+            val start = num(forStatement.start.accept(expressions)).f
+            val stop = num(forStatement.stop.accept(expressions)).f
+            val step = forStatement.step?.let { num(it.accept(expressions)).f } ?: LongExpr { 1L }
+            val body = forStatement.statements.accept(this)
+            return CompiledStatement { m ->
+                val to = stop.eval(m)
+                val by = step.eval(m)
+                m.longs[i] = w.wrap(start.eval(m))
+                while (if (by >= 0) w.compare(m.longs[i], to) <= 0 else w.compare(m.longs[i], to) >= 0) {
+                    val r = body.exec(m)
+                    if (r == CompiledStatement.EXIT) break
+                    if (r == CompiledStatement.RETURN) return@CompiledStatement r
+                    // the last iteration, if the increment leaves the range of the type, e.g., `TO 16#FFFFFFFFFFFFFFFF`
+                    val v = m.longs[i]
+                    val next = w.wrap(v + by)
+                    if (if (by >= 0) w.compare(next, v) < 0 else w.compare(next, v) > 0) break
+                    m.longs[i] = next
+                }
+                CompiledStatement.NORMAL
+            }
+        }
+
+        override fun visit(caseStatement: CaseStatement): CompiledStatement {
+            val e = num(caseStatement.expression.accept(expressions))
+            val f = e.f
+            val w = IntWidth.of(e.dataType)
+            val lower = ArrayList<Long>()
+            val upper = ArrayList<Long>()
+            val target = ArrayList<Int>()
+            val bodies = caseStatement.cases.mapIndexed { idx, case ->
+                for (c in case.conditions) {
+                    val (lo, hi) = caseRange(c, e.dataType)
+                    lower += lo
+                    upper += hi
+                    target += idx
+                }
+                case.statements.accept(this)
+            }.toTypedArray()
+            val lo = lower.toLongArray()
+            val hi = upper.toLongArray()
+            val to = target.toIntArray()
+            val elseCase = caseStatement.elseCase.accept(this)
+            return CompiledStatement { m ->
+                val v = f.eval(m)
+                for (k in lo.indices) {
+                    if (w.compare(lo[k], v) <= 0 && w.compare(v, hi[k]) <= 0) return@CompiledStatement bodies[to[k]].exec(m)
+                }
+                elseCase.exec(m)
+            }
+        }
+
+        private fun caseRange(c: CaseCondition, dataType: AnyDt): Pair<Long, Long> = when (c) {
+            is CaseCondition.IntegerCondition -> c.value.value.toLong().let { it to it }
+            is CaseCondition.Range -> c.range.start.value.toLong() to c.range.stop.value.toLong()
+            is CaseCondition.Enumeration -> {
+                val dt = c.start.dataType.obj ?: dataType as? EnumerateType
+                ?: throw TypeMissmatchException("Case label ${c.start.value} is not an enumeration value")
+                val start = SlotLayout.enumValue(dt, c.start.value)
+                start to (c.stop?.let { SlotLayout.enumValue(dt, it.value) } ?: start)
+            }
+            else -> throw ExecutionException("Unsupported case condition: $c")
+        }
+
+        override fun visit(invocation: InvocationStatement): CompiledStatement {
+            val path = prefix + invocation.callee.toPath().joinToString(".")
+            val fb = layout.instances[path]
+            if (fb == null) {
+                val fd = scope.resolveFunction(invocation.callee.identifier)
+                        ?: throw ExecutionException("Could not find function block instance or function $path")
+                return call(fd, invocation.parameters, expressions)
+            }
+
+            val fbInputs = fb.scope.variables.filter { it.isInput }
+            val inputs = invocation.parameters.filter { it.isInput }.mapIndexed { idx, p ->
+                val name = p.name ?: fbInputs.getOrNull(idx)?.name
+                ?: throw ExecutionException("No matching input for argument $idx of $path")
+                assign(resolve("$path.", SymbolicReference(name)), p.expression.accept(expressions))
+            }.toTypedArray()
+            val outputs = invocation.parameters.filter { it.isOutput }.map { p ->
+                val target = p.expression as? SymbolicReference
+                        ?: throw ExecutionException("Output ${p.name} of $path must be assigned to a variable")
+                assign(resolve(prefix, target), read(resolve("$path.", SymbolicReference(p.name!!))))
+            }.toTypedArray()
+            val body = instanceBody(path, fb)
+            return CompiledStatement { m ->
+                for (s in inputs) s.exec(m)
+                body.exec(m)
+                for (s in outputs) s.exec(m)
+                CompiledStatement.NORMAL
+            }
+        }
+    }
+}
+
+/**
+ * A compiled program. It is immutable and can be shared, the state of an execution lives in [Slots].
+ */
+class CompiledProgram(val entryPoint: PouExecutable, val layout: SlotLayout,
+                      private val body: CompiledStatement, val initial: Slots) {
+    fun createSlots() = initial.copy()
+
+    /** Executes one cycle on the given storage. */
+    fun executeCycle(m: Slots) {
+        body.exec(m)
+    }
+}
+
+/**
+ * Executes a [CompiledProgram], similar to [IECExecutorContext], but keeps only the current state.
+ */
+class CompiledExecutor(val program: CompiledProgram) {
+    val slots: Slots = program.createSlots()
+
+    val lastState: State
+        get() = program.layout.toState(slots)
+
+    operator fun get(name: String): EValue? = program.layout[name]?.let { program.layout.read(slots, it) }
+
+    operator fun set(name: String, value: EValue) {
+        val slot = program.layout[name] ?: throw ExecutionException("Variable $name not found")
+        program.layout.write(slots, slot, value)
+    }
+
+    fun executeCycle(vararg inputs: Pair<String, EValue>): CompiledExecutor {
+        inputs.forEach { (name, value) -> this[name] = value }
+        program.executeCycle(slots)
+        return this
+    }
+
+    fun executeCycle(input: State): CompiledExecutor {
+        input.forEach { (name, value) -> this[name] = value }
+        program.executeCycle(slots)
+        return this
+    }
+
+    fun reset() = slots.copyFrom(program.initial)
+}
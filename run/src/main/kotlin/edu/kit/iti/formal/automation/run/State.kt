@@ -8,14 +8,14 @@ import java.util.*
 
 typealias EValue = Value<*, *>
 
-class State(private val impl: MutableMap<String, EValue> = HashMap()/*val parent: State?*/)
+open class State(private val impl: MutableMap<String, EValue> = HashMap()/*val parent: State?*/)
     : MutableMap<String, EValue> by impl {
     fun declare(key: String, dataType: AnyDt) = declare(key, ExecutionFacade.getDefaultValue(dataType))
     fun <T : AnyDt, S : Any> declare(key: String, value: Value<T, S>) = impl.put(key, value)
     //operator fun get(name: String) = impl[name]
     operator fun contains(key: String) = key in impl
 
-    operator fun get(name: List<String>): EValue? {
+    open operator fun get(name: List<String>): EValue? {
         if (name.isEmpty()) return null
         if (name.size == 1) return this[name[0]]
         try {
@@ -33,7 +33,7 @@ class State(private val impl: MutableMap<String, EValue> = HashMap()/*val parent
         impl += values
     }
 
-    operator fun set(name: List<String>, value: EValue) {
+    open operator fun set(name: List<String>, value: EValue) {
         if (name.isEmpty()) return
         if (name.size == 1) this[name[0]] = value
         try {
@@ -50,7 +50,7 @@ class State(private val impl: MutableMap<String, EValue> = HashMap()/*val parent
         impl[name] = value
     }
 
-    fun clone(): State {
+    open fun clone(): State {
         //TODO copy
         val s = State(HashMap(impl))
         return s
@@ -0,0 +1,70 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.IEC61131Facade
+import edu.kit.iti.formal.automation.datatypes.INT
+import edu.kit.iti.formal.automation.datatypes.values.VAnyInt
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ForkJoinPool
+
+class BatchSimulationTest {
+    companion object {
+        private val pool = ForkJoinPool(4)
+
+        @AfterAll
+        @JvmStatic
+        fun shutdown() {
+            pool.shutdown()
+        }
+    }
+
+    private fun context() = ExecutionFacade.createExecutionContext(
+            IEC61131Facade.file(javaClass.getResourceAsStream("runtimeTest.cycles.st")))
+
+    /** lane `l` adds `l + cycle` in every cycle */
+    private val input = BatchInput { cycle, inputs ->
+        val i = inputs["I"].longs
+        for (lane in i.indices) i[lane] = (lane + cycle).toLong()
+        true
+    }
+
+    @Test
+    fun lanesAreIndependent() {
+        val lanes = 200
+        val batch = context().createBatch(lanes, listOf("I"), listOf("counter"), pool)
+        val expected = LongArray(lanes)
+        val sink = BatchSink { cycle, outputs ->
+            for (lane in 0 until lanes) {
+                val c = expected[lane] + lane + cycle
+                expected[lane] = if (c > 1000) 0 else c
+                assertEquals(expected[lane], outputs["counter"].longs[lane], "lane $lane in cycle $cycle")
+            }
+        }
+        assertEquals(50, batch.run(50, input, sink))
+        assertEquals(0, batch.history.size)
+        assertEquals(VAnyInt(INT, expected[7]), batch.state(7)["counter"])
+    }
+
+    @Test
+    fun sameAsSequentialExecution() {
+        val batch = context().createBatch(3, listOf("I"), listOf("counter"))
+        batch.run(20, input)
+        assertEquals(20, batch.history.size)
+
+        for (lane in 0 until 3) {
+            val exec = context()
+            for (cycle in 0 until 20) {
+                val state = exec.executeCycle("I" to VAnyInt(INT, (lane + cycle).toLong()))
+                assertEquals(state["counter"], batch.history[cycle].value("counter", lane))
+            }
+        }
+    }
+
+    @Test
+    fun inputsAreWrapped() {
+        val batch = context().createBatch(1, listOf("I"), listOf("counter"), pool)
+        batch.run(1, BatchInput { _, inputs -> inputs["I"].longs[0] = 65536L + 5; true })
+        assertEquals(VAnyInt(INT, 5), batch.state(0)["counter"])
+    }
+}
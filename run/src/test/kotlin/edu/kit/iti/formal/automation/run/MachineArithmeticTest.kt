@@ -0,0 +1,101 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.datatypes.*
+import edu.kit.iti.formal.automation.datatypes.values.VAnyInt
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.math.BigInteger
+import java.util.*
+
+/**
+ * Property tests of the [MachineArithmetic] against arithmetic on [BigInteger]s,
+ * whose results are reduced modulo `2^n` into the range of the type.
+ */
+class MachineArithmeticTest {
+    private val types = listOf(SINT, INT, DINT, LINT, USINT, UINT, UDINT, ULINT)
+    private val random = Random(42)
+
+    private fun reference(dt: AnyInt, v: BigInteger): BigInteger {
+        val range = BigInteger.ONE.shiftLeft(dt.bitLength)
+        val m = v.mod(range)
+        return if (dt.isSigned && m > dt.upperBound) m - range else m
+    }
+
+    /** Random values of [dt], biased towards the bounds. */
+    private fun value(dt: AnyInt): BigInteger = when (random.nextInt(4)) {
+        0 -> dt.upperBound - BigInteger.valueOf(random.nextInt(3).toLong())
+        1 -> dt.lowerBound + BigInteger.valueOf(random.nextInt(3).toLong())
+        2 -> reference(dt, BigInteger.valueOf(random.nextInt(256).toLong() - 128))
+        else -> reference(dt, BigInteger(dt.bitLength, random))
+    }
+
+    private fun check(op: String, kernel: (IntWidth, Long, Long) -> Long, expected: (BigInteger, BigInteger) -> BigInteger?) {
+        for (dt in types) {
+            val w = IntWidth.of(dt)
+            repeat(2000) {
+                val a = value(dt)
+                val b = value(dt)
+                val e = expected(a, b) ?: return@repeat
+                assertEquals(reference(dt, e), w.toBigInteger(kernel(w, a.toLong(), b.toLong())), "$dt: $a $op $b")
+            }
+        }
+    }
+
+    @Test
+    fun add() = check("+", MachineArithmetic::add) { a, b -> a + b }
+
+    @Test
+    fun sub() = check("-", MachineArithmetic::sub) { a, b -> a - b }
+
+    @Test
+    fun mul() = check("*", MachineArithmetic::mul) { a, b -> a * b }
+
+    @Test
+    fun div() = check("/", MachineArithmetic::div) { a, b -> if (b.signum() == 0) null else a / b }
+
+    @Test
+    fun mod() = check("MOD", MachineArithmetic::mod) { a, b -> if (b.signum() == 0) null else a.rem(b) }
+
+    @Test
+    fun modTruncates() {
+        val w = IntWidth.of(INT)
+        assertEquals(-1L, MachineArithmetic.mod(w, -7, 3))
+        assertEquals(1L, MachineArithmetic.mod(w, 7, -3))
+        assertEquals(-1L, MachineArithmetic.mod(w, -7, -3))
+        assertEquals(0L, MachineArithmetic.mod(IntWidth.of(LINT), Long.MIN_VALUE, -1))
+        // ULINT#18446744073709551609 MOD 10 = 9
+        assertEquals(9L, MachineArithmetic.mod(IntWidth.of(ULINT), -7, 10))
+    }
+
+    @Test
+    fun modWide() {
+        val dt = AnyInt(80, true)
+        val v = OperationEvaluator.modulo(VAnyInt(dt, BigInteger.valueOf(-7)), VAnyInt(dt, BigInteger.valueOf(3)))
+        assertEquals(BigInteger.valueOf(-1), (v as VAnyInt).value)
+    }
+
+    @Test
+    fun neg() = check("-", { w, a, _ -> MachineArithmetic.neg(w, a) }) { a, _ -> a.negate() }
+
+    @Test
+    fun normalize() {
+        for (dt in types + AnyInt(80, true) + AnyInt(80, false)) {
+            repeat(2000) {
+                val v = BigInteger(dt.bitLength + 8, random).let { if (random.nextBoolean()) it.negate() else it }
+                assertEquals(reference(dt, v), OperationEvaluator.normalizeInt(VAnyInt(dt, v)).value, "$dt: $v")
+            }
+        }
+    }
+
+    @Test
+    fun promotions() {
+        val all = types + listOf(AnyBit.BYTE, AnyBit.WORD, AnyBit.DWORD, AnyBit.LWORD, AnyReal.REAL, AnyReal.LREAL)
+        for (a in all) for (b in all) assertEquals(a promoteWith b, MachineArithmetic.promote(a, b))
+    }
+
+    @Test
+    fun real() {
+        assertEquals(0.1f.toDouble() + 0.2f.toDouble(), MachineArithmetic.add(AnyReal.LREAL, 0.1f.toDouble(), 0.2f.toDouble()))
+        assertEquals((0.1f + 0.2f).toDouble(), MachineArithmetic.add(AnyReal.REAL, 0.1f.toDouble(), 0.2f.toDouble()))
+    }
+}
@@ -21,12 +21,16 @@
  */
 package edu.kit.iti.formal.automation.run
 
-import edu.kit.iti.formal.automation.datatypes.AnyInt
-import edu.kit.iti.formal.automation.datatypes.INT
-import edu.kit.iti.formal.automation.datatypes.UINT
+import edu.kit.iti.formal.automation.datatypes.*
+import edu.kit.iti.formal.automation.datatypes.values.Bits
+import edu.kit.iti.formal.automation.datatypes.values.VAnyBit
 import edu.kit.iti.formal.automation.datatypes.values.VAnyInt
+import edu.kit.iti.formal.automation.datatypes.values.VAnyReal
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import edu.kit.iti.formal.automation.run.stexceptions.TypeMissmatchException
+import java.math.BigDecimal
 import java.math.BigInteger
 
 class OperationEvaluatorTest {
@@ -44,9 +48,34 @@ class OperationEvaluatorTest {
                 VAnyInt(INT, BigInteger.valueOf(4)),
                 OperationEvaluator.normalizeInt(VAnyInt(INT, 4)))
         assertEquals(
-                VAnyInt(UINT, 8),
+                VAnyInt(UINT, 65528),
                 OperationEvaluator.normalizeInt(VAnyInt(UINT, -8))
         )
+        assertEquals(
+                VAnyInt(INT, -32768),
+                OperationEvaluator.normalizeInt(VAnyInt(INT, 32768))
+        )
+    }
+
+    @Test
+    fun promotion() {
+        val res = OperationEvaluator.multiply(VAnyInt(SINT, 100), VAnyInt(INT, 100))
+        assertEquals(VAnyInt(INT, 10000), res)
+        assertEquals(VAnyInt(USINT, 0), OperationEvaluator.add(VAnyInt(USINT, 255), VAnyInt(USINT, 1)))
     }
 
+    @Test
+    fun reals() {
+        val res = OperationEvaluator.add(VAnyReal(AnyReal.LREAL, BigDecimal("0.5")), VAnyInt(INT, 2))
+        assertEquals(VAnyReal(AnyReal.LREAL, BigDecimal.valueOf(2.5)), res)
+    }
+
+    @Test
+    fun bitwiseRejectsIntegers() {
+        val word = VAnyBit(AnyBit.WORD, Bits(0xF0, 16))
+        assertEquals(VAnyBit(AnyBit.WORD, Bits(0xF00F, 16)),
+                OperationEvaluator.xor(word, VAnyBit(AnyBit.WORD, Bits(0xF0FF, 16))))
+        assertThrows<TypeMissmatchException> { OperationEvaluator.and(word, VAnyInt(INT, 1)) }
+        assertThrows<TypeMissmatchException> { OperationEvaluator.or(VAnyInt(INT, 1), VAnyInt(INT, 2)) }
+    }
 }
@@ -0,0 +1,77 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.IEC61131Facade
+import edu.kit.iti.formal.automation.datatypes.INT
+import edu.kit.iti.formal.automation.datatypes.values.VAnyInt
+import edu.kit.iti.formal.automation.visitors.findFirstProgram
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class SlotStateTest {
+    private fun context(name: String, keepHistory: Boolean = true): IECExecutorContext {
+        val ast = IEC61131Facade.file(javaClass.getResourceAsStream("runtimeTest.$name.st"))
+        return ExecutionFacade.createExecutionContext(ast, ast.findFirstProgram()!!, true, keepHistory)
+    }
+
+    @Test
+    fun cycles() {
+        val exec = context("cycles")
+        assertTrue(exec.lastState is SlotState)
+        var counter = 0L
+        for (i in 1L..1000L) {
+            val state = exec.executeCycle("I" to VAnyInt(INT, i))
+            counter = if (counter + i > 1000) 0 else counter + i
+            assertEquals(VAnyInt(INT, counter), state["counter"])
+        }
+        assertEquals(1001, exec.states.size)
+        assertEquals(VAnyInt(INT, 1), exec.states[1]["counter"])
+    }
+
+    @Test
+    fun cyclesInPlace() {
+        val exec = context("cycles", keepHistory = false)
+        val current = exec.lastState
+        var counter = 0L
+        for (i in 1L..1000L) {
+            val state = exec.executeCycle("I" to VAnyInt(INT, i))
+            counter = if (counter + i > 1000) 0 else counter + i
+            assertSame(current, state)
+            assertEquals(VAnyInt(INT, counter), state["counter"])
+        }
+        assertEquals(2, exec.states.size)
+        assertEquals(VAnyInt(INT, 0), exec.initialState["counter"])
+    }
+
+    @Test
+    fun removeResets() {
+        val exec = context("structTest")
+        val state = exec.executeCycle()
+        assertEquals(VAnyInt(INT, 7), state.remove("Var2"))
+        assertEquals(exec.initialState["Var2"], state["Var2"])
+        state.remove("Var3")
+        assertEquals(exec.initialState[listOf("Var3", "y")], state[listOf("Var3", "y")])
+        assertNull(state.remove("unknown"))
+    }
+
+    @Test
+    fun nestedAccess() {
+        val exec = context("structTest")
+        val state = exec.executeCycle()
+        assertEquals(VAnyInt(INT, -70000 + 65536), state[listOf("Var3", "y")])
+        state[listOf("Var1", "x")] = VAnyInt(INT, 42)
+        assertEquals(VAnyInt(INT, 42), state[listOf("Var1", "x")])
+
+        val clone = state.clone()
+        clone[listOf("Var1", "x")] = VAnyInt(INT, 1)
+        assertEquals(VAnyInt(INT, 42), state[listOf("Var1", "x")])
+        assertEquals(setOf("Var1", "Var2", "Var3"), state.keys)
+    }
+
+    @Test
+    fun functionBlock() {
+        val interpreter = ExecutionFacade.createExecutionContext(
+                IEC61131Facade.file(javaClass.getResourceAsStream("runtimeTest.functionBlockTest.st")))
+        val exec = context("functionBlockTest")
+        assertEquals(interpreter.executeCycle()["e"], exec.executeCycle()["e"])
+    }
+}
@@ -0,0 +1,127 @@
+package edu.kit.iti.formal.automation.run
+
+import edu.kit.iti.formal.automation.IEC61131Facade
+import edu.kit.iti.formal.automation.datatypes.INT
+import edu.kit.iti.formal.automation.datatypes.values.*
+import edu.kit.iti.formal.automation.run.stexceptions.ExecutionException
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTimeoutPreemptively
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import java.time.Duration
+import java.util.*
+
+/**
+ * Differential tests of the [StCompiler] against the interpreter ([Runtime]).
+ */
+class StCompilerTest {
+    private fun parse(name: String) =
+            IEC61131Facade.file(javaClass.getResourceAsStream("runtimeTest.$name.st"))
+
+    @ParameterizedTest
+    @ValueSource(strings = ["testIfStatement", "whileLoopTest", "repeatLoopTest", "advancedTest", "functionBlockTest"])
+    fun singleCycle(name: String) {
+        val interpreter = ExecutionFacade.createExecutionContext(parse(name))
+        val compiled = ExecutionFacade.createCompiledExecutor(parse(name))
+        repeat(3) {
+            interpreter.executeCycle()
+            compiled.executeCycle()
+            assertSameState(interpreter.lastState, compiled.lastState)
+        }
+    }
+
+    @Test
+    fun cycles() {
+        val interpreter = ExecutionFacade.createExecutionContext(parse("cycles"))
+        val compiled = ExecutionFacade.createCompiledExecutor(parse("cycles"))
+        for (i in 1L..1000L) {
+            interpreter.executeCycle("I" to VAnyInt(INT, i))
+            compiled.executeCycle("I" to VAnyInt(INT, i))
+            assertSameState(interpreter.lastState, compiled.lastState)
+        }
+    }
+
+    @Test
+    fun arithmetic() {
+        val interpreter = ExecutionFacade.createExecutionContext(parse("arithmetic"))
+        val compiled = ExecutionFacade.createCompiledExecutor(parse("arithmetic"))
+        for (i in 50L downTo -50L) {
+            interpreter.executeCycle("I" to VAnyInt(INT, i))
+            compiled.executeCycle("I" to VAnyInt(INT, i))
+            assertSameState(interpreter.lastState, compiled.lastState)
+        }
+        // -50 MOD 7 and -50 MOD -7 truncate towards zero
+        assertEquals(VAnyInt(INT, -1), compiled.lastState["m"])
+        assertEquals(VAnyInt(INT, -1), compiled.lastState["n"])
+    }
+
+    @Test
+    fun elevator() {
+        val interpreter = ExecutionFacade.createExecutionContext(parse("elevatorTest"))
+        val compiled = ExecutionFacade.createCompiledExecutor(parse("elevatorTest"))
+        val random = Random(42)
+        repeat(500) {
+            val inputs = arrayOf(
+                    "ButtonPressed" to if (random.nextBoolean()) TRUE else FALSE,
+                    "CurrentPos" to VAnyInt(INT, random.nextInt(5).toLong()),
+                    "RequestedPos" to VAnyInt(INT, random.nextInt(5).toLong()))
+            interpreter.executeCycle(*inputs)
+            compiled.executeCycle(*inputs)
+            assertSameState(interpreter.lastState, compiled.lastState)
+        }
+    }
+
+    @Test
+    fun wrapAround() {
+        val state = ExecutionFacade.createCompiledExecutor(parse("structTest")).executeCycle().lastState
+        val var3 = state["Var3"]!!.value as RecordValue
+        assertEquals(VAnyInt(INT, 1), var3.fieldValues["x"])
+        assertEquals(VAnyInt(INT, -70000 + 65536), var3.fieldValues["y"])
+        assertEquals(VAnyInt(INT, 7), state["Var2"])
+    }
+
+    @Test
+    fun forLoopUpToMax() {
+        val state = assertTimeoutPreemptively(Duration.ofSeconds(10)) {
+            ExecutionFacade.createCompiledExecutor(parse("forLoopBounds")).executeCycle().lastState
+        }
+        assertEquals(VAnyInt(INT, 3), state["n"])
+        assertEquals(VAnyInt(INT, 3), state["m"])
+    }
+
+    @Test
+    fun unsignedCaseAndPower() {
+        val state = ExecutionFacade.createCompiledExecutor(parse("unsignedCase")).executeCycle().lastState
+        assertEquals(VAnyInt(INT, 2), state["c"])
+        assertEquals(VAnyInt(INT, 81), state["p"])
+        assertEquals(VAnyInt(INT, 0), state["q"])
+        // 2 ** 7 = 128 wraps to -128 in SINT
+        assertEquals(-128, (state["r"] as VAnyInt).value.toInt())
+    }
+
+    @Test
+    fun unsupportedType() {
+        assertThrows<ExecutionException> { ExecutionFacade.createCompiledExecutor(parse("stringVariable")) }
+    }
+
+    @Test
+    fun function() {
+        val state = ExecutionFacade.createCompiledExecutor(parse("functionTest")).executeCycle().lastState
+        assertEquals(-162.0, (state["Var1"] as VAnyReal).value.toDouble())
+    }
+
+    private fun assertSameState(expected: State, actual: State) {
+        for ((name, value) in actual) {
+            assertEquals(normalize(expected[name]), normalize(value), name)
+        }
+    }
+
+    /** Abstracts from the data types, the interpreter keeps the type of the last assigned expression. */
+    private fun normalize(value: EValue?): Any? = when (value) {
+        is VStruct -> value.value.fieldValues.mapValues { normalize(it.value) }
+        is VAnyReal -> value.value.toDouble()
+        else -> value?.value
+    }
+}
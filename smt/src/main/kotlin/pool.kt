@@ -0,0 +1,217 @@
+package edu.kit.iti.formal.smt
+
+import edu.kit.iti.formal.util.info
+import java.io.Closeable
+import java.io.IOException
+import java.io.Writer
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A long-lived SMT solver process (`z3 -in -smt2`) on top of [InteractiveSmtSolverImpl].
+ *
+ * A preamble of shared declarations is loaded once at the base level; it is only replaced (by a `(reset)`)
+ * if a query requires a different one. Every query is enclosed in `(push)` and `(pop)`.
+ * The end of the answer of a query is detected by an `echo` of a unique sentinel.
+ */
+class SmtWorker(commandLine: List<String>) : Closeable {
+    private val solver = InteractiveSmtSolverImpl(command = commandLine.toTypedArray())
+    private var preamble: String? = null
+    @Volatile
+    private var broken = false
+
+    init {
+        solver.start()
+    }
+
+    val isAlive: Boolean
+        get() = !broken && solver.process?.isAlive == true
+
+    /**
+     * Checks the satisfiability of [problem] on top of [preamble].
+     * The answer is given by the first `sat`, `unsat` or `unknown` in the output of the solver.
+     */
+    fun check(problem: String, preamble: String = ""): SmtAnswer = check(preamble) { it.write(problem) }
+
+    /**
+     * Checks the satisfiability of the problem written by [problem] directly into the stdin of the solver.
+     * If writing fails, the process is killed, as its input is incomplete.
+     */
+    fun check(preamble: String = "", problem: (Writer) -> Unit): SmtAnswer =
+            try {
+                query(problem, preamble)
+            } catch (e: Exception) {
+                destroy()
+                throw e
+            }
+
+    private fun query(problem: (Writer) -> Unit, preamble: String): SmtAnswer {
+        if (preamble != this.preamble) {
+            send(if (this.preamble != null) "(reset)\n$preamble" else preamble)
+            section()
+            this.preamble = preamble
+        }
+        val input = solver.smtIn ?: throw IllegalStateException("SMT process not started.")
+        input.write("(push)\n")
+        problem(input)
+        send("\n(pop)")
+        return section().asSequence()
+                .mapNotNull { SmtAnswer.values().find { a -> a.name.toLowerCase() == it } }
+                .firstOrNull() ?: SmtAnswer.UNKNOWN
+    }
+
+    private fun send(commands: String) {
+        solver.send("$commands\n(echo \"$SENTINEL\")\n")
+    }
+
+    /** The answers of the solver up to the next sentinel. */
+    private fun section(): List<String> {
+        val answers = arrayListOf<String>()
+        while (true) {
+            val s = solver.read().toString()
+            if (s == SENTINEL) return answers
+            answers += s
+        }
+    }
+
+    /** Kills the process, e.g., if a query exceeds its time limit. */
+    fun destroy() {
+        broken = true
+        solver.process?.destroyForcibly()
+    }
+
+    override fun close() {
+        try {
+            solver.dispose()
+        } catch (e: IOException) {
+            // the process is already gone
+        }
+    }
+
+    companion object {
+        private const val SENTINEL = "__smt_worker_done__"
+    }
+}
+
+/**
+ * A pool of warm [SmtWorker]s. In contrast to [SmtFacade.checkSmtSat], which starts a new z3 for every check,
+ * the processes and their loaded [preamble] are reused between queries.
+ *
+ * Queries are executed asynchronously on at most [size] workers. A query running longer than [timeout]
+ * milliseconds (`0` disables the limit) kills its worker and completes exceptionally with a [TimeoutException].
+ * A worker whose process died, by a timeout, cancellation or a crash, is replaced by a fresh process on demand.
+ */
+class SmtSolverPool @JvmOverloads constructor(
+        val commandLine: List<String> = listOf("z3", "-in", "-smt2"),
+        val size: Int = Runtime.getRuntime().availableProcessors(),
+        var timeout: Long = 0,
+        val preamble: String = "") : Closeable {
+
+    private val idle = LinkedBlockingQueue<SmtWorker>()
+    private val workers = ConcurrentHashMap.newKeySet<SmtWorker>()
+    private val executor = Executors.newFixedThreadPool(size, daemonThreads("smt-pool"))
+    private val watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("smt-watchdog"))
+    private val startedCounter = AtomicInteger()
+
+    /** Number of solver processes started by this pool. */
+    val started: Int
+        get() = startedCounter.get()
+
+    private val shutdownHook = Thread { close() }
+
+    init {
+        Runtime.getRuntime().addShutdownHook(shutdownHook)
+    }
+
+    /**
+     * Checks the satisfiability of [problem]. The declarations in [preamble] are shared between queries,
+     * hence [problem] must not repeat them.
+     */
+    @JvmOverloads
+    fun submit(problem: String, preamble: String = this.preamble): CompletableFuture<SmtAnswer> =
+            submit(preamble) { it.write(problem) }
+
+    /**
+     * Checks the satisfiability of the problem written by [problem]. It is called on a thread of the pool,
+     * and writes directly into the stdin of the solver.
+     */
+    fun submit(preamble: String, problem: (Writer) -> Unit): CompletableFuture<SmtAnswer> {
+        val future = CompletableFuture<SmtAnswer>()
+        executor.execute {
+            if (future.isDone) return@execute
+            try {
+                run(problem, preamble, future)
+            } catch (e: Exception) {
+                future.completeExceptionally(e)
+            }
+        }
+        return future
+    }
+
+    private fun run(problem: (Writer) -> Unit, preamble: String, future: CompletableFuture<SmtAnswer>) {
+        val worker = nextWorker()
+        // the first of the answer, the timeout and a cancellation decides the query;
+        // the worker is only killed if the query is still running
+        val decided = AtomicBoolean()
+        future.whenComplete { _, _ -> if (future.isCancelled && decided.compareAndSet(false, true)) worker.destroy() }
+        val limit = timeout
+        val kill = if (limit > 0) watchdog.schedule({
+            if (decided.compareAndSet(false, true)) {
+                worker.destroy()
+                future.completeExceptionally(TimeoutException("SMT solver exceeded $limit ms"))
+            }
+        }, limit, TimeUnit.MILLISECONDS) else null
+        var answer: SmtAnswer? = null
+        var error: Exception? = null
+        try {
+            val a = worker.check(preamble, problem)
+            if (decided.compareAndSet(false, true)) answer = a
+        } catch (e: Exception) {
+            // a killed worker fails, but the query is already decided
+            if (decided.compareAndSet(false, true)) error = e
+        } finally {
+            kill?.cancel(false)
+            if (worker.isAlive) idle.offer(worker)
+            else workers.remove(worker)
+        }
+        // completed after the worker is idle again, such that the next query can reuse it
+        if (answer != null) future.complete(answer)
+        if (error != null) future.completeExceptionally(error)
+    }
+
+    /** An idle worker with a running process, or a fresh one. */
+    private fun nextWorker(): SmtWorker {
+        while (true) {
+            val worker = idle.poll() ?: return startWorker()
+            if (worker.isAlive) return worker
+            info("SMT pool: replace crashed solver")
+            workers.remove(worker)
+        }
+    }
+
+    private fun startWorker(): SmtWorker {
+        startedCounter.incrementAndGet()
+        return SmtWorker(commandLine).also { workers += it }
+    }
+
+    override fun close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook)
+        } catch (e: IllegalStateException) {
+            // called by the hook itself, the JVM is shutting down
+        }
+        executor.shutdownNow()
+        watchdog.shutdownNow()
+        idle.clear()
+        workers.forEach { it.close() }
+        workers.clear()
+    }
+
+    private fun daemonThreads(name: String): ThreadFactory {
+        val counter = AtomicInteger()
+        return ThreadFactory { r ->
+            Thread(r, "$name-${counter.incrementAndGet()}").also { it.isDaemon = true }
+        }
+    }
+}
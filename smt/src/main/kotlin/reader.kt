@@ -0,0 +1,187 @@
+package edu.kit.iti.formal.smt
+
+import java.io.IOException
+import java.io.Reader
+import java.math.BigInteger
+
+/**
+ * Reads S-expressions directly from a character stream, e.g., the output of an SMT solver.
+ *
+ * In contrast to [SExprFacade.parseExpr], no intermediate string and no ANTLR parse tree is created.
+ * The input is read in blocks, and the parser uses an explicit stack, hence deeply nested terms are supported.
+ * Equal symbols share their [String] instance.
+ *
+ * Numerals become [SInteger]s, `#x` and `#b` literals [SBitVector]s; everything else, including
+ * quoted symbols and string literals, becomes an [SSymbol]. Comments (`; ...`) are skipped.
+ */
+class SExprReader(private val input: Reader, bufferSize: Int = 8192) {
+    private val buffer = CharArray(bufferSize)
+    private var pos = 0
+    private var limit = 0
+
+    private var token = CharArray(64)
+    private var tokenLength = 0
+
+    private val symbols = SymbolTable()
+
+    /** The next S-expression, or null at the end of the input. */
+    fun read(): SExpr? {
+        val stack = ArrayList<SList>()
+        while (true) {
+            val c = skipWhitespace()
+            if (c == -1) {
+                if (stack.isEmpty()) return null
+                throw IOException("Unexpected end of input in S-expression")
+            }
+            val expr: SExpr = when (c) {
+                '('.toInt() -> {
+                    pos++
+                    stack += SList()
+                    continue
+                }
+                ')'.toInt() -> {
+                    pos++
+                    if (stack.isEmpty()) continue // unbalanced, as the ANTLR grammar we skip it
+                    stack.removeAt(stack.size - 1)
+                }
+                '|'.toInt() -> SSymbol(readDelimited('|'))
+                '"'.toInt() -> SSymbol(readDelimited('"'))
+                else -> readAtom()
+            }
+            if (stack.isEmpty()) return expr
+            stack.last().list.add(expr)
+        }
+    }
+
+    /** All remaining S-expressions. */
+    fun readAll(): List<SExpr> {
+        val list = arrayListOf<SExpr>()
+        while (true) list += read() ?: return list
+    }
+
+    private fun fill(): Boolean {
+        if (pos < limit) return true
+        val n = input.read(buffer)
+        if (n <= 0) return false
+        pos = 0
+        limit = n
+        return true
+    }
+
+    /** Skips whitespace and comments. Returns the next character without consuming it, or -1. */
+    private fun skipWhitespace(): Int {
+        while (fill()) {
+            val c = buffer[pos]
+            when {
+                c == ';' -> while (fill() && buffer[pos] != '\n') pos++
+                c.isWhitespace() -> pos++
+                else -> return c.toInt()
+            }
+        }
+        return -1
+    }
+
+    private fun append(c: Char) {
+        if (tokenLength == token.size) token = token.copyOf(2 * token.size)
+        token[tokenLength++] = c
+    }
+
+    /**
+     * Reads a quoted symbol or string including its delimiters.
+     * Within strings, `""` is an escaped quote.
+     */
+    private fun readDelimited(delimiter: Char): String {
+        tokenLength = 0
+        append(buffer[pos++])
+        while (true) {
+            if (!fill()) throw IOException("Unexpected end of input in $delimiter-delimited literal")
+            val c = buffer[pos++]
+            append(c)
+            if (c == delimiter) {
+                if (delimiter == '"' && fill() && buffer[pos] == '"') {
+                    append(buffer[pos++])
+                    continue
+                }
+                return symbols.intern(token, tokenLength)
+            }
+        }
+    }
+
+    private fun readAtom(): SExpr {
+        tokenLength = 0
+        while (fill()) {
+            val c = buffer[pos]
+            if (c.isWhitespace() || c == '(' || c == ')' || c == ';') break
+            append(c)
+            pos++
+        }
+        return when {
+            isNumeral() -> SInteger(if (tokenLength < 19) BigInteger.valueOf(longValue())
+            else BigInteger(String(token, 0, tokenLength)))
+            tokenLength > 2 && token[0] == '#' && token[1] == 'x' && isDigits(16) ->
+                SBitVector(BigInteger(String(token, 2, tokenLength - 2), 16), 4 * (tokenLength - 2))
+            tokenLength > 2 && token[0] == '#' && token[1] == 'b' && isDigits(2) ->
+                SBitVector(BigInteger(String(token, 2, tokenLength - 2), 2), tokenLength - 2)
+            else -> SSymbol(symbols.intern(token, tokenLength))
+        }
+    }
+
+    private fun isNumeral(): Boolean {
+        if (tokenLength == 0) return false
+        for (i in 0 until tokenLength) if (token[i] !in '0'..'9') return false
+        return true
+    }
+
+    private fun isDigits(radix: Int): Boolean {
+        for (i in 2 until tokenLength) if (Character.digit(token[i], radix) < 0) return false
+        return true
+    }
+
+    private fun longValue(): Long {
+        var v = 0L
+        for (i in 0 until tokenLength) v = 10 * v + (token[i] - '0')
+        return v
+    }
+
+    /**
+     * Interns strings given as character ranges, without creating a string for known symbols.
+     * Open addressing with linear probing, the hash is compatible to [String.hashCode].
+     */
+    private class SymbolTable {
+        private var table = arrayOfNulls<String>(256)
+        private var size = 0
+
+        fun intern(chars: CharArray, length: Int): String {
+            var h = 0
+            for (i in 0 until length) h = 31 * h + chars[i].toInt()
+            val mask = table.size - 1
+            var i = h and mask
+            while (true) {
+                val s = table[i] ?: break
+                if (s.length == length && s.hashCode() == h && matches(s, chars, length)) return s
+                i = (i + 1) and mask
+            }
+            val s = String(chars, 0, length)
+            table[i] = s
+            if (++size * 2 > table.size) rehash()
+            return s
+        }
+
+        private fun matches(s: String, chars: CharArray, length: Int): Boolean {
+            for (i in 0 until length) if (s[i] != chars[i]) return false
+            return true
+        }
+
+        private fun rehash() {
+            val old = table
+            table = arrayOfNulls(2 * old.size)
+            val mask = table.size - 1
+            for (s in old) {
+                if (s == null) continue
+                var i = s.hashCode() and mask
+                while (table[i] != null) i = (i + 1) and mask
+                table[i] = s
+            }
+        }
+    }
+}
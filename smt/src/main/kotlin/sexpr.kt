@@ -3,6 +3,8 @@ package edu.kit.iti.formal.smt
 import org.antlr.v4.runtime.CharStream
 import org.antlr.v4.runtime.CharStreams
 import org.antlr.v4.runtime.CommonTokenStream
+import java.io.Reader
+import java.io.StringReader
 import java.math.BigInteger
 
 /**
@@ -36,6 +38,11 @@ object SExprFacade {
 
     fun parseExpr(stream: String): SExpr = parseExpr(CharStreams.fromString(stream))
 
+    /** Reads all S-expressions from [input] with the [SExprReader], without ANTLR. */
+    fun read(input: Reader): List<SExpr> = SExprReader(input).readAll()
+
+    fun read(input: String): List<SExpr> = read(StringReader(input))
+
     fun sexpr(vararg args: Any) = sexpr(args.toList())
 
     fun sexpr(args: Collection<Any>): SList {
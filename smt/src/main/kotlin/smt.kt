@@ -1,7 +1,15 @@
 package edu.kit.iti.formal.smt
 
-import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.Writer
 import java.math.BigInteger
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 
 object SmtFacade {
@@ -61,24 +69,58 @@ object SmtFacade {
     /**
      *
      */
-    suspend fun checkSmtSat(problem: String): SmtAnswer = coroutineScope {
+    suspend fun checkSmtSat(problem: String): SmtAnswer = checkSmtSat { it.write(problem) }
+
+    /** Checks the problem in [file], z3 reads it directly. */
+    suspend fun checkSmtSat(file: File): SmtAnswer = checkSmtSat(ProcessBuilder.Redirect.from(file)) {}
+
+    /** Checks the problem written by [problem], which is streamed into the stdin of z3. */
+    suspend fun checkSmtSat(problem: (Writer) -> Unit): SmtAnswer =
+            checkSmtSat(ProcessBuilder.Redirect.PIPE, problem)
+
+    private suspend fun checkSmtSat(input: ProcessBuilder.Redirect, problem: (Writer) -> Unit): SmtAnswer =
+            withContext(Dispatchers.IO) {
         val process = ProcessBuilder("z3", "-in", "-smt2")
                 .redirectError(ProcessBuilder.Redirect.PIPE)
-                .redirectInput(ProcessBuilder.Redirect.PIPE)
+                .redirectInput(input)
                 .redirectOutput(ProcessBuilder.Redirect.PIPE)
                 .start()
-
-        process.outputStream.writer().use { it.write(problem) }
-        val error = process.waitFor()
-        process.inputStream.bufferedReader().useLines { lines ->
-            for (it in lines) {
-                when (it) {
-                    "sat" -> return@useLines SmtAnswer.SAT
-                    "unsat" -> return@useLines SmtAnswer.UNSAT
-                    "unknown" -> return@useLines SmtAnswer.UNKNOWN
+        try {
+            if (input == ProcessBuilder.Redirect.PIPE) process.outputStream.bufferedWriter().use(problem)
+            // z3 is killed if the calling coroutine is cancelled
+            while (!process.waitFor(50, TimeUnit.MILLISECONDS)) ensureActive()
+            process.inputStream.bufferedReader().useLines { lines ->
+                for (it in lines) {
+                    when (it) {
+                        "sat" -> return@useLines SmtAnswer.SAT
+                        "unsat" -> return@useLines SmtAnswer.UNSAT
+                        "unknown" -> return@useLines SmtAnswer.UNKNOWN
+                    }
                 }
+                SmtAnswer.UNKNOWN
             }
-            SmtAnswer.UNKNOWN
+        } finally {
+            if (process.isAlive) process.destroyForcibly()
+        }
+    }
+
+    /**
+     * Checks [problem] on a warm solver of the [pool], on top of the shared declarations in [preamble].
+     * Cancelling the calling coroutine kills the solver.
+     */
+    suspend fun checkSmtSat(problem: String, pool: SmtSolverPool, preamble: String = pool.preamble): SmtAnswer =
+            checkSmtSat(pool, preamble) { it.write(problem) }
+
+    /**
+     * Checks the problem written by [problem] on a warm solver of the [pool], see [checkSmtSat].
+     * [problem] is called on a thread of the pool and writes directly into the stdin of the solver.
+     */
+    suspend fun checkSmtSat(pool: SmtSolverPool, preamble: String = pool.preamble,
+                            problem: (Writer) -> Unit): SmtAnswer {
+        val future = pool.submit(preamble, problem)
+        return suspendCancellableCoroutine { cont ->
+            cont.invokeOnCancellation { future.cancel(true) }
+            future.whenComplete { r, e -> if (e != null) cont.resumeWithException(e) else cont.resume(r) }
         }
     }
 }
@@ -110,7 +152,12 @@ data class SInteger(var num: BigInteger) : SAtom() {
 }
 
 data class SBitVector(var num: BigInteger, var bitSize: Int) : SAtom() {
-    override fun toString() = "#x" + SmtFacade.hexFromInt(num, bitSize)
+    /** Two's complement, in hexadecimal if [bitSize] is a multiple of 4, in binary otherwise. */
+    override fun toString(): String {
+        val value = num.mod(BigInteger.ONE.shiftLeft(bitSize))
+        return if (bitSize % 4 == 0) "#x" + value.toString(16).padStart(bitSize / 4, '0')
+        else "#b" + value.toString(2).padStart(bitSize, '0')
+    }
 }
 
 data class SSymbol(var text: String) : SAtom() {
@@ -144,8 +191,7 @@ data class SList(val list: ArrayList<SExpr> = ArrayList()) : MutableList<SExpr>
     override val isAtom: Boolean
         get() = false
 
-    override fun toString() = list
-            .joinToString(" ", "(", ")") { it.toString() }
+    override fun toString() = StringBuilder().also { writeTo(it) }.toString()
 
     companion object {
         fun singleton(s: SExpr): SList = SList(listOf(s))
@@ -7,8 +7,8 @@ package edu.kit.iti.formal.smt
  */
 
 import edu.kit.iti.formal.util.findProgram
-import org.antlr.v4.runtime.CharStreams
 import java.io.File
+import java.io.IOException
 import java.io.Reader
 import java.io.Writer
 import java.util.concurrent.TimeUnit
@@ -38,6 +38,7 @@ class CliSmtSolverImpl(
         val command: Array<String>) : CliSmtSolver {
     val out = smtFile.bufferedWriter()
     var smtOut: Reader? = null
+    private var sexprReader: SExprReader? = null
 
     companion object {
         fun getZ3(): CliSmtSolverImpl {
@@ -51,10 +52,14 @@ class CliSmtSolverImpl(
         out.write(sexpr + "\n")
     }
 
+    override fun send(sexpr: SExpr) {
+        sexpr.writeTo(out)
+        out.write("\n")
+    }
+
     override fun read(): SExpr {
-        val s = smtOut ?: throw IllegalStateException("SMT process not started before read.")
-        val reader = readFirstSexpr(s)
-        return SExprFacade.parseExpr(CharStreams.fromString(reader))
+        val s = sexprReader ?: throw IllegalStateException("SMT process not started before read.")
+        return s.read() ?: throw IOException("End of SMT solver output")
     }
 
     override fun run(timeout: Long, unit: TimeUnit) {
@@ -65,13 +70,13 @@ class CliSmtSolverImpl(
         val process = pb.start()
 
         smtOut = process.inputStream.reader()
+        sexprReader = SExprReader(smtOut!!)
         process.waitFor(timeout, unit)
     }
 
     override fun readAll(): List<SExpr> {
-        val s = smtOut ?: throw IllegalStateException("SMT process not started before read.")
-        val text = s.readText()
-        return SExprFacade.parse(CharStreams.fromString(text))
+        val s = sexprReader ?: throw IllegalStateException("SMT process not started before read.")
+        return s.readAll()
     }
 }
 
@@ -102,6 +107,7 @@ class InteractiveSmtSolverImpl(
     var process: Process? = null
     var smtIn: Writer? = null
     var smtOut: Reader? = null
+    private var sexprReader: SExprReader? = null
 
     companion object {
         fun getZ3(): InteractiveSmtSolverImpl {
@@ -120,8 +126,9 @@ class InteractiveSmtSolverImpl(
     override fun start() {
         val processBuilder = ProcessBuilder(*command)
         process = processBuilder.start()
-        smtIn = process!!.outputStream.writer()
+        smtIn = process!!.outputStream.bufferedWriter()
         smtOut = process!!.inputStream.reader()
+        sexprReader = SExprReader(smtOut!!)
     }
 
     override fun send(sexpr: String) {
@@ -132,10 +139,16 @@ class InteractiveSmtSolverImpl(
         }
     }
 
+    override fun send(sexpr: SExpr) {
+        val s = smtIn ?: throw IllegalStateException("SMT process not started before read.")
+        sexpr.writeTo(s)
+        s.write("\n")
+        s.flush()
+    }
+
     override fun read(): SExpr {
-        val s = smtOut ?: throw IllegalStateException("SMT process not started before read.")
-        val reader = readFirstSexpr(s)
-        return SExprFacade.parseExpr(CharStreams.fromString(reader))
+        val s = sexprReader ?: throw IllegalStateException("SMT process not started before read.")
+        return s.read() ?: throw IOException("End of SMT solver output")
     }
 
     private fun quit(): Int {
@@ -0,0 +1,75 @@
+package edu.kit.iti.formal.smt
+
+/**
+ * Writes [SExpr]s to an [Appendable], e.g., a file or the input of a solver, without building intermediate strings.
+ *
+ * Lists are traversed with an explicit stack, hence deeply nested terms (like long `ite` chains)
+ * do not overflow the call stack.
+ * Subclasses can change the printing of atoms by overriding [writeAtom].
+ */
+open class SExprWriter(val out: Appendable) {
+    private val lists = ArrayList<SList>()
+    private var indices = IntArray(16)
+    private var operators = BooleanArray(16)
+
+    fun write(expr: SExpr): SExprWriter {
+        if (expr !is SList) {
+            writeAtom(expr as SAtom, false)
+            return this
+        }
+        push(expr, false)
+        while (lists.isNotEmpty()) {
+            val top = lists.size - 1
+            val list = lists[top]
+            val i = indices[top]
+            if (i == list.size) {
+                out.append(')')
+                lists.removeAt(top)
+                continue
+            }
+            indices[top] = i + 1
+            if (i > 0) out.append(' ')
+            val child = list[i]
+            val operator = operators[top] || i == 0
+            if (child is SList) push(child, operator)
+            else writeAtom(child as SAtom, operator)
+        }
+        return this
+    }
+
+    fun writeln(expr: SExpr): SExprWriter {
+        write(expr)
+        out.append('\n')
+        return this
+    }
+
+    fun writeAll(exprs: Iterable<SExpr>, separator: String = "\n"): SExprWriter {
+        exprs.forEach { write(it); out.append(separator) }
+        return this
+    }
+
+    /**
+     * Writes an [atom]. [operator] is true for the first element of a list,
+     * and for all atoms inside a list that is the first element of a list, e.g., `(_ extract 7 0)`.
+     */
+    protected open fun writeAtom(atom: SAtom, operator: Boolean) {
+        out.append(atom.toString())
+    }
+
+    private fun push(list: SList, operator: Boolean) {
+        out.append('(')
+        val depth = lists.size
+        if (depth == indices.size) {
+            indices = indices.copyOf(2 * depth)
+            operators = operators.copyOf(2 * depth)
+        }
+        lists += list
+        indices[depth] = 0
+        operators[depth] = operator
+    }
+}
+
+/** Writes this expression to [out], see [SExprWriter]. */
+fun SExpr.writeTo(out: Appendable) {
+    SExprWriter(out).write(this)
+}
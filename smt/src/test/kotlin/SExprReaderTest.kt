@@ -0,0 +1,94 @@
+import edu.kit.iti.formal.smt.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+import java.io.StringReader
+import java.math.BigInteger
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares the [SExprReader] with the ANTLR-based [SExprFacade.parse].
+ *
+ * The benchmark is only executed if the system property `benchmark` is set.
+ */
+class SExprReaderTest {
+    private val samples = listOf(
+            "sat",
+            "(abc) def",
+            "(123 (456) 789) 2423424",
+            "|ab c| (a |b c| ())",
+            "(define-fun x () Int (- 5))",
+            "((x 1) (y (ite (= a b) 2 3)))")
+
+    @Test
+    fun sameAsAntlr() {
+        for (s in samples) {
+            assertEquals(SExprFacade.parse(org.antlr.v4.runtime.CharStreams.fromString(s)).map { it.toString() },
+                    SExprFacade.read(s).map { it.toString() }, s)
+        }
+    }
+
+    @Test
+    fun atoms() {
+        val (num, hex, bin, str) = SExprFacade.read("""12345678901234567890123 #x0f #b101 "a "" b"""")
+        assertEquals(SInteger(BigInteger("12345678901234567890123")), num)
+        assertEquals(SBitVector(BigInteger.valueOf(15), 8), hex)
+        assertEquals("#x0f", hex.toString())
+        assertEquals(SBitVector(BigInteger.valueOf(5), 3), bin)
+        assertEquals("#b101", bin.toString())
+        assertEquals("\"a \"\" b\"", (str as SSymbol).text)
+    }
+
+    @Test
+    fun commentsAndInterning() {
+        val list = SExprFacade.read("; comment\n(model ; inner\n x x)")
+        assertEquals(1, list.size)
+        val model = list.first() as SList
+        assertEquals(3, model.size)
+        assertSame((model[1] as SSymbol).text, (model[2] as SSymbol).text)
+    }
+
+    @Test
+    fun deepNesting() {
+        val depth = 100_000
+        val text = "(f ".repeat(depth) + "x" + ")".repeat(depth)
+        var e = SExprReader(StringReader(text)).read()
+        var d = 0
+        while (e is SList) {
+            e = e[1]
+            d++
+        }
+        assertEquals(depth, d)
+    }
+
+    @Test
+    fun readerIsIncremental() {
+        val reader = SExprReader(StringReader("sat (a b)\nunsat"), bufferSize = 2)
+        assertEquals("sat", reader.read().toString())
+        assertEquals("(a b)", reader.read().toString())
+        assertEquals("unsat", reader.read().toString())
+        assertNull(reader.read())
+    }
+
+    /** Output of `get-model` on a bit-vector heavy problem. */
+    private fun model(vars: Int) = buildString {
+        append("(model\n")
+        for (i in 0 until vars) {
+            append("  (define-fun |state_$i| () (_ BitVec 16)\n")
+            append("    (ite (= x_$i #x${"%04x".format(i % 65536)}) #b0000000000000101 (bvadd y_$i #x0001)))\n")
+        }
+        append(")\n")
+    }
+
+    @Test
+    fun benchmark() {
+        Assumptions.assumeTrue(System.getProperty("benchmark") != null)
+        for (vars in listOf(1000, 10_000, 100_000)) {
+            val text = model(vars)
+            val antlr = measureTimeMillis { SExprFacade.parse(org.antlr.v4.runtime.CharStreams.fromString(text)) }
+            val reader = measureTimeMillis { SExprFacade.read(text) }
+            val mb = text.length / 1e6
+            println("vars: $vars\t%.1f MB\tantlr: $antlr ms\treader: $reader ms".format(mb))
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import edu.kit.iti.formal.smt.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class SExprWriterTest {
+    @Test
+    fun sameFormat() {
+        for (s in listOf("(abc)", "(123 (456) 789)", "(define-fun x () Int (- 5))",
+                "((_ extract 7 0) (ite (= a b) #x0f #b101))")) {
+            val expr = SExprFacade.read(s).first()
+            assertEquals(s, StringBuilder().also { expr.writeTo(it) }.toString())
+        }
+    }
+
+    @Test
+    fun operatorPositions() {
+        val atoms = arrayListOf<Pair<String, Boolean>>()
+        val writer = object : SExprWriter(StringBuilder()) {
+            override fun writeAtom(atom: SAtom, operator: Boolean) {
+                atoms += atom.toString() to operator
+                super.writeAtom(atom, operator)
+            }
+        }
+        writer.write(SExprFacade.read("(f ((_ extract 7 0) x) y)").first())
+        assertEquals(listOf("f" to true, "_" to true, "extract" to true, "7" to true, "0" to true,
+                "x" to false, "y" to false), atoms)
+    }
+
+    @Test
+    fun deepNesting() {
+        val depth = 100_000
+        var e: SExpr = SSymbol("x")
+        repeat(depth) { e = SList(arrayListOf(SSymbol("ite"), SSymbol("c"), e, SSymbol("y"))) }
+        val out = StringBuilder()
+        e.writeTo(out)
+        assertEquals("(ite c ".repeat(depth) + "x" + " y)".repeat(depth), out.toString())
+    }
+}
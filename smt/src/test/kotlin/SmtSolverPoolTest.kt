@@ -0,0 +1,80 @@
+import edu.kit.iti.formal.smt.SmtAnswer
+import edu.kit.iti.formal.smt.SmtSolverPool
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Runs the [SmtSolverPool] against `fake-z3.sh`.
+ */
+class SmtSolverPoolTest {
+    private val fake = listOf("sh", File(javaClass.getResource("/fake-z3.sh").toURI()).absolutePath)
+    private val declareX = "(declare-const x Int)"
+
+    @BeforeEach
+    fun posixShell() = assumeTrue(File("/bin/sh").exists())
+
+    @Test
+    fun workersAreReused() {
+        SmtSolverPool(fake, 2, preamble = declareX).use { pool ->
+            val futures = (1..10).map {
+                pool.submit(if (it % 2 == 0) "(assert (> x 0))\n(check-sat)" else "(assert false)\n(check-sat)")
+            }
+            futures.forEachIndexed { i, f ->
+                assertEquals(if (i % 2 == 1) SmtAnswer.SAT else SmtAnswer.UNSAT, f.get(10, TimeUnit.SECONDS))
+            }
+            assertTrue(pool.started <= 2)
+        }
+    }
+
+    @Test
+    fun preambleIsReplaced() {
+        SmtSolverPool(fake, 1).use { pool ->
+            assertEquals(SmtAnswer.UNKNOWN, pool.submit("(check-sat)").get(10, TimeUnit.SECONDS))
+            assertEquals(SmtAnswer.SAT, pool.submit("(check-sat)", declareX).get(10, TimeUnit.SECONDS))
+            assertEquals(SmtAnswer.UNKNOWN, pool.submit("(check-sat)").get(10, TimeUnit.SECONDS))
+            assertEquals(1, pool.started)
+        }
+    }
+
+    @Test
+    fun timeoutReplacesWorker() {
+        SmtSolverPool(fake, 1, 500, declareX).use { pool ->
+            val e = assertThrows(ExecutionException::class.java) {
+                pool.submit("; HANG\n(check-sat)").get(10, TimeUnit.SECONDS)
+            }
+            assertTrue(e.cause is TimeoutException)
+            assertEquals(SmtAnswer.SAT, pool.submit("(check-sat)").get(10, TimeUnit.SECONDS))
+            assertEquals(2, pool.started)
+        }
+    }
+
+    @Test
+    fun cancelAfterAnswerKeepsWorker() {
+        SmtSolverPool(fake, 1, 10_000, declareX).use { pool ->
+            val f = pool.submit("(check-sat)")
+            assertEquals(SmtAnswer.SAT, f.get(10, TimeUnit.SECONDS))
+            assertFalse(f.cancel(true))
+            repeat(5) { assertEquals(SmtAnswer.SAT, pool.submit("(check-sat)").get(10, TimeUnit.SECONDS)) }
+            assertEquals(1, pool.started)
+        }
+    }
+
+    @Test
+    fun crashReplacesWorker() {
+        SmtSolverPool(fake, 1, preamble = declareX).use { pool ->
+            val e = assertThrows(ExecutionException::class.java) {
+                pool.submit("; CRASH").get(10, TimeUnit.SECONDS)
+            }
+            assertTrue(e.cause is IOException)
+            assertEquals(SmtAnswer.SAT, pool.submit("(check-sat)").get(10, TimeUnit.SECONDS))
+            assertEquals(2, pool.started)
+        }
+    }
+}
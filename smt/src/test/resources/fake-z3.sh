@@ -0,0 +1,22 @@
+#!/bin/sh
+# Stand-in for `z3 -in -smt2` used by SmtSolverPoolTest.
+# `(assert false)` makes the current scope unsat, `(check-sat)` answers `unknown` if `x` is not declared.
+# A line containing HANG never terminates, a line containing CRASH kills the solver.
+declared=0
+unsat=0
+while IFS= read -r line; do
+    case "$line" in
+        *HANG*) exec sleep 600 ;;
+        *CRASH*) exit 1 ;;
+        "(declare-const x "*) declared=1 ;;
+        "(assert false)") unsat=1 ;;
+        "(pop)") unsat=0 ;;
+        "(reset)") declared=0; unsat=0 ;;
+        "(check-sat)")
+            if [ $unsat = 1 ]; then echo unsat
+            elif [ $declared = 1 ]; then echo sat
+            else echo unknown; fi ;;
+        "(echo "*) s=${line#'(echo "'}; echo "${s%'")'}" ;;
+        "(exit)") exit 0 ;;
+    esac
+done
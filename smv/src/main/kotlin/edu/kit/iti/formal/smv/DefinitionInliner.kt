@@ -0,0 +1,160 @@
+package edu.kit.iti.formal.smv
+
+import edu.kit.iti.formal.smv.ast.*
+import java.util.*
+
+/**
+ * Inlines definitions (`DEFINE`s) into expressions.
+ *
+ * In contrast to a fixpoint iteration with [ExpressionReplacerRecur], every definition is unfolded exactly once:
+ * the definitions are processed in dependency (topological) order, and the unfolded right-hand sides are memoized.
+ * Unfolded expressions share the unfolded definitions they contain, and the given expressions are never modified.
+ *
+ * If a [factory] is given, the unfolded expressions are canonical.
+ */
+class DefinitionInliner(private val definitions: Map<SVariable, SMVExpr>,
+                        private val factory: SMVExprFactory? = null) {
+    private val unfolded = HashMap<SVariable, SMVExpr>(definitions.size)
+    private val substitution = Substitution()
+
+    /**
+     * Returns the unfolded definition of the given variable, or null if [v] is not defined.
+     */
+    fun unfold(v: SVariable): SMVExpr? {
+        if (v !in definitions) return null
+        resolve(v)
+        return unfolded[v]
+    }
+
+    /**
+     * Returns the given expression with all definitions inlined.
+     */
+    fun inline(expr: SMVExpr): SMVExpr {
+        expr.freeVariables().filter { it in definitions }.forEach { resolve(it) }
+        return expr.accept(substitution)
+    }
+
+    /**
+     * All definitions unfolded.
+     */
+    fun unfoldAll(): Map<SVariable, SMVExpr> {
+        definitions.keys.forEach { resolve(it) }
+        return unfolded
+    }
+
+    /**
+     * Unfolds [root] and all definitions it depends on, in post-order of an iterative depth-first search.
+     */
+    private fun resolve(root: SVariable) {
+        if (root in unfolded) return
+        val onStack = HashSet<SVariable>()
+        val stack = ArrayDeque<Pair<SVariable, Iterator<SVariable>>>()
+        stack.push(root to dependencies(root))
+        onStack.add(root)
+        while (stack.isNotEmpty()) {
+            val (v, deps) = stack.peek()
+            val next = deps.asSequence().firstOrNull { it !in unfolded }
+            if (next == null) {
+                stack.pop()
+                onStack.remove(v)
+                unfolded[v] = definitions.getValue(v).accept(substitution)
+            } else {
+                if (next in onStack) {
+                    throw IllegalStateException("Cyclic definition of ${next.name}")
+                }
+                onStack.add(next)
+                stack.push(next to dependencies(next))
+            }
+        }
+    }
+
+    private fun dependencies(v: SVariable): Iterator<SVariable> =
+            definitions.getValue(v).freeVariables().filter { it in definitions }.iterator()
+
+    /**
+     * Replaces defined variables by their (already computed) unfolding and
+     * rebuilds only the nodes on the path to a replacement.
+     */
+    private inner class Substitution : SMVAstDefaultVisitorNN<SMVExpr>() {
+        override fun defaultVisit(top: SMVAst): SMVExpr = top as SMVExpr
+
+        override fun visit(v: SVariable): SMVExpr = unfolded[v] ?: v
+
+        override fun visit(be: SBinaryExpression): SMVExpr {
+            val left = be.left.accept(this)
+            val right = be.right.accept(this)
+            return when {
+                left === be.left && right === be.right -> be
+                factory != null -> factory.binary(left, be.operator, right)
+                else -> SBinaryExpression(left, be.operator, right)
+            }
+        }
+
+        override fun visit(ue: SUnaryExpression): SMVExpr {
+            val expr = ue.expr.accept(this)
+            return when {
+                expr === ue.expr -> ue
+                factory != null -> factory.unary(ue.operator, expr)
+                else -> SUnaryExpression(ue.operator, expr)
+            }
+        }
+
+        override fun visit(ce: SCaseExpression): SMVExpr {
+            val cases = ce.cases.map { SCaseExpression.Case(it.condition.accept(this), it.then.accept(this)) }
+            val unchanged = cases.indices.all {
+                cases[it].condition === ce.cases[it].condition && cases[it].then === ce.cases[it].then
+            }
+            return when {
+                unchanged -> ce
+                factory != null -> factory.case(cases)
+                else -> SCaseExpression(cases.toMutableList())
+            }
+        }
+
+        override fun visit(func: SFunction): SMVExpr {
+            val args = func.arguments.map { it.accept(this) }
+            return when {
+                args.indices.all { args[it] === func.arguments[it] } -> func
+                factory != null -> factory.function(func.name, args, func.typeSolver)
+                else -> SFunction(func.name, args).also { it.typeSolver = func.typeSolver }
+            }
+        }
+
+        override fun visit(quantified: SQuantified): SMVExpr {
+            val args = quantified.quantified.map { it.accept(this) }
+            return if (args.indices.all { args[it] === quantified.quantified[it] }) quantified
+            else SQuantified(quantified.operator, args.toMutableList())
+        }
+    }
+}
+
+/**
+ * Returns the set of variables occurring in this expression.
+ */
+fun SMVExpr.freeVariables(): Set<SVariable> {
+    val vars = LinkedHashSet<SVariable>()
+    accept(object : SMVAstScanner() {
+        override fun visit(v: SVariable) {
+            vars.add(v)
+        }
+
+        override fun visit(func: SFunction) {
+            func.arguments.forEach { it.accept(this) }
+        }
+    })
+    return vars
+}
+
+/**
+ * Inlines all definitions of this module into the assignments, the INIT and TRANS expressions.
+ * The definitions are removed afterwards.
+ * @see DefinitionInliner
+ */
+fun SMVModule.unfoldDefinitions(factory: SMVExprFactory? = null) {
+    val inliner = DefinitionInliner(definitions.map { it.target to it.expr }.toMap(), factory)
+    definitions.clear()
+    initAssignments.forEach { it.expr = inliner.inline(it.expr) }
+    nextAssignments.forEach { it.expr = inliner.inline(it.expr) }
+    transExpr = transExpr.map { inliner.inline(it) }.toMutableList()
+    initExpr = initExpr.map { inliner.inline(it) }.toMutableList()
+}
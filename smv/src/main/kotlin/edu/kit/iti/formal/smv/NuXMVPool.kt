@@ -0,0 +1,239 @@
+package edu.kit.iti.formal.smv
+
+import edu.kit.iti.formal.util.info
+import java.io.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A long-lived interactive nuXmv process (`nuXmv -int`), driven over stdin/stdout.
+ *
+ * Every query resets the previous model, reads the given module file and runs the commands.
+ * The end of the output of a query is detected by an `echo` of a unique sentinel.
+ */
+class NuXMVWorker(commandLine: List<String>, workingDirectory: File = File(".")) : Closeable {
+    private val process: Process = ProcessBuilder(commandLine + "-int")
+            .directory(workingDirectory)
+            .redirectErrorStream(true)
+            .start()
+    private val stdin = process.outputStream.bufferedWriter()
+    private val stdout = process.inputStream.bufferedReader()
+    private var queries = 0
+    @Volatile
+    private var broken = false
+
+    val isAlive: Boolean
+        get() = !broken && process.isAlive
+
+    init {
+        send(PREAMBLE)
+        section().skipRest()
+    }
+
+    /**
+     * Runs [commands] on the model in [moduleFile] and returns the complete output of nuXmv.
+     * `read_model` and `quit` in [commands] are ignored, the worker handles them.
+     */
+    fun query(moduleFile: File, commands: List<String>): String = query(moduleFile, commands) { it.readText() }
+
+    /**
+     * Runs [commands] on the model in [moduleFile] and hands the output of nuXmv to [parser] while it is produced.
+     * If the query fails, the process is killed, as its output is no longer in sync.
+     */
+    fun <T> query(moduleFile: File, commands: List<String>, parser: (BufferedReader) -> T): T {
+        val seq = arrayListOf<String>()
+        if (queries++ > 0) seq += "reset"
+        seq += "read_model -i ${moduleFile.absolutePath}"
+        commands.filterTo(seq) { it != "read_model" && it !in POSTAMBLE }
+        try {
+            send(seq)
+            val output = section()
+            val result = parser(BufferedReader(output))
+            output.skipRest()
+            return result
+        } catch (e: Exception) {
+            destroy()
+            throw e
+        }
+    }
+
+    private fun send(commands: List<String>) {
+        commands.forEach { stdin.write(it); stdin.newLine() }
+        stdin.write("echo $SENTINEL")
+        stdin.newLine()
+        stdin.flush()
+    }
+
+    /** The output up to the next sentinel. */
+    private fun section() = LineSectionReader(stdout, inclusive = false, requireEnd = true) { it.contains(SENTINEL) }
+
+    /** Kills the process, e.g., if a query exceeds its time limit. */
+    fun destroy() {
+        broken = true
+        process.destroyForcibly()
+    }
+
+    override fun close() {
+        if (process.isAlive) {
+            try {
+                POSTAMBLE.forEach { stdin.write(it); stdin.newLine() }
+                stdin.flush()
+            } catch (e: IOException) {
+                // the process is already gone
+            }
+            if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroyForcibly()
+        }
+    }
+
+    companion object {
+        private const val SENTINEL = "__nuXmv_worker_done__"
+    }
+}
+
+/**
+ * A pool of warm [NuXMVWorker]s. In contrast to [NuXMVProcess], which starts a new nuXmv for every check,
+ * the processes are reused between queries.
+ *
+ * Queries are executed asynchronously on at most [size] workers. A query running longer than [timeout]
+ * milliseconds (`0` disables the limit) kills its worker and completes exceptionally with a [TimeoutException].
+ * Cancelling a running query kills its worker, too.
+ * A worker whose process died, by a timeout, cancellation or a crash, is replaced by a fresh process on demand.
+ */
+class NuXMVPool @JvmOverloads constructor(
+        val commandLine: List<String> = listOf("nuXmv"),
+        val size: Int = Runtime.getRuntime().availableProcessors(),
+        var timeout: Long = 0,
+        val workingDirectory: File = File(".")) : Closeable {
+
+    private val idle = LinkedBlockingQueue<NuXMVWorker>()
+    private val workers = ConcurrentHashMap.newKeySet<NuXMVWorker>()
+    private val executor = Executors.newFixedThreadPool(size, daemonThreads("nuxmv-pool"))
+    private val watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("nuxmv-watchdog"))
+    private val startedCounter = AtomicInteger()
+
+    /** Number of nuXmv processes started by this pool. */
+    val started: Int
+        get() = startedCounter.get()
+
+    private val shutdownHook = Thread { close() }
+
+    init {
+        Runtime.getRuntime().addShutdownHook(shutdownHook)
+    }
+
+    /** Starts workers until [size] workers are idle. */
+    fun warmUp() {
+        while (idle.size < size) idle.offer(startWorker())
+    }
+
+    /**
+     * Checks the model in [moduleFile]. The output of nuXmv is parsed while it is read, and copied into [logFile].
+     * Only the variables in [projection] are kept in a counter example.
+     */
+    @JvmOverloads
+    fun submit(moduleFile: File,
+               commands: List<String> = NuXMVInvariantsCommand.IC3.commands.toList(),
+               logFile: File? = null,
+               projection: Set<String>? = null): CompletableFuture<NuXMVOutput> =
+            submit(moduleFile, commands, logFile) { parseXmlOutput(it, projection) }
+
+    fun submit(moduleFile: File, command: NuXMVInvariantsCommand, logFile: File? = null) =
+            submit(moduleFile, command.commands.toList(), logFile)
+
+    fun submit(moduleFile: File, commands: List<String>, logFile: File?,
+               parser: NuXMVStreamParser): CompletableFuture<NuXMVOutput> {
+        val future = CompletableFuture<NuXMVOutput>()
+        executor.execute {
+            if (future.isDone) return@execute
+            try {
+                run(moduleFile, commands, logFile, parser, future)
+            } catch (e: Exception) {
+                future.completeExceptionally(e)
+            }
+        }
+        return future
+    }
+
+    private fun run(moduleFile: File, commands: List<String>, logFile: File?,
+                    parser: NuXMVStreamParser, future: CompletableFuture<NuXMVOutput>) {
+        val worker = nextWorker()
+        // the first of the output, the timeout and a cancellation decides the query;
+        // the worker is only killed if the query is still running
+        val decided = AtomicBoolean()
+        future.whenComplete { _, _ -> if (future.isCancelled && decided.compareAndSet(false, true)) worker.destroy() }
+        val limit = timeout
+        val kill = if (limit > 0) watchdog.schedule({
+            if (decided.compareAndSet(false, true)) {
+                worker.destroy()
+                future.completeExceptionally(TimeoutException("nuXmv exceeded $limit ms on $moduleFile"))
+            }
+        }, limit, TimeUnit.MILLISECONDS) else null
+        var output: NuXMVOutput? = null
+        var error: Exception? = null
+        try {
+            info("nuXmv pool: $moduleFile")
+            val o = if (logFile == null) worker.query(moduleFile, commands, parser)
+            else logFile.bufferedWriter().use { log ->
+                worker.query(moduleFile, commands) { parser(BufferedReader(TeeReader(it, log))) }
+            }
+            if (decided.compareAndSet(false, true)) output = o
+        } catch (e: Exception) {
+            // a killed worker fails, but the query is already decided
+            if (decided.compareAndSet(false, true)) error = e
+        } finally {
+            kill?.cancel(false)
+            if (worker.isAlive) idle.offer(worker)
+            else workers.remove(worker)
+        }
+        // completed after the worker is idle again, such that the next query can reuse it
+        if (output != null) future.complete(output)
+        if (error != null) future.completeExceptionally(error)
+    }
+
+    /** An idle worker with a running process, or a fresh one. */
+    private fun nextWorker(): NuXMVWorker {
+        while (true) {
+            val worker = idle.poll() ?: return startWorker()
+            if (worker.isAlive) return worker
+            info("nuXmv pool: replace crashed worker")
+            workers.remove(worker)
+        }
+    }
+
+    private fun startWorker(): NuXMVWorker {
+        startedCounter.incrementAndGet()
+        return NuXMVWorker(commandLine, workingDirectory).also { workers += it }
+    }
+
+    override fun close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook)
+        } catch (e: IllegalStateException) {
+            // called by the hook itself, the JVM is shutting down
+        }
+        executor.shutdownNow()
+        watchdog.shutdownNow()
+        idle.clear()
+        workers.forEach { it.close() }
+        workers.clear()
+    }
+
+    private fun daemonThreads(name: String): ThreadFactory {
+        val counter = AtomicInteger()
+        return ThreadFactory { r ->
+            Thread(r, "$name-${counter.incrementAndGet()}").also { it.isDaemon = true }
+        }
+    }
+}
+
+/** Copies everything read from [input] into [log]. */
+internal class TeeReader(val input: Reader, val log: Writer) : Reader() {
+    override fun read(cbuf: CharArray, off: Int, len: Int): Int {
+        val n = input.read(cbuf, off, len)
+        if (n > 0) log.write(cbuf, off, n)
+        return n
+    }
+
+    override fun close() = input.close()
+}
@@ -0,0 +1,197 @@
+package edu.kit.iti.formal.smv
+
+import edu.kit.iti.formal.smv.ast.*
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Hash-consing factory for [SMVExpr]s.
+ *
+ * Structurally equal expressions that are built through the same factory are represented by
+ * one canonical instance. Canonical ("interned") expressions cache their hash code and are compared
+ * by identity against other expressions of the same factory, so they are cheap keys for
+ * `HashMap<SMVExpr, ...>` lookups, e.g., in [ExpressionReplacer] or [VariableReplacer].
+ *
+ * Interned expressions are immutable, their setters throw an [IllegalStateException]:
+ * [SMVAstMutableVisitor]s rebuild them instead of changing them in place. Use [SMVExpr.clone] to get a mutable copy,
+ * or a [CanonicalCopier] for a whole AST.
+ * The canonical instances are created by the factory, the expressions given to [intern] are never frozen.
+ *
+ * Variables are canonicalized by name. If a variable with the same name but a different data type
+ * is already registered, the given variable (and every expression containing it) stays un-interned.
+ */
+class SMVExprFactory {
+    private val table = ConcurrentHashMap<Any, SMVExpr>()
+
+    /** number of canonical expressions */
+    val size: Int
+        get() = table.size
+
+    fun variable(name: String, dataType: SMVType?): SVariable =
+            intern(SVariable(name).also { it.dataType = dataType }) as SVariable
+
+    fun literal(literal: SLiteral): SLiteral = intern(literal) as SLiteral
+
+    fun binary(left: SMVExpr, op: SBinaryOperator, right: SMVExpr): SMVExpr {
+        val l = intern(left)
+        val r = intern(right)
+        return canonical(listOf(l, r), { BinaryKey(l, op, r) }) { SBinaryExpression(l, op, r) }
+                ?: SBinaryExpression(l, op, r)
+    }
+
+    fun unary(op: SUnaryOperator, expr: SMVExpr): SMVExpr {
+        val e = intern(expr)
+        return canonical(listOf(e), { UnaryKey(op, e) }) { SUnaryExpression(op, e) }
+                ?: SUnaryExpression(op, e)
+    }
+
+    fun not(expr: SMVExpr) = unary(SUnaryOperator.NEGATE, expr)
+    fun and(left: SMVExpr, right: SMVExpr) = binary(left, SBinaryOperator.AND, right)
+    fun or(left: SMVExpr, right: SMVExpr) = binary(left, SBinaryOperator.OR, right)
+
+    fun case(cases: List<SCaseExpression.Case>): SMVExpr {
+        val args = cases.flatMap { listOf(intern(it.condition), intern(it.then)) }
+        return canonical(args, { NaryKey("case", null, args) }) {
+            val frozen = args.indices.step(2).map { i ->
+                SCaseExpression.Case(args[i], args[i + 1]).also { it.frozen = true }
+            }
+            SCaseExpression(Collections.unmodifiableList(frozen))
+        } ?: caseOf(args)
+    }
+
+    private fun caseOf(args: List<SMVExpr>) =
+            SCaseExpression().also { ce -> for (i in args.indices step 2) ce.add(args[i], args[i + 1]) }
+
+    fun function(name: String, arguments: List<SMVExpr>, typeSolver: FunctionTypeSolver? = null): SMVExpr {
+        val args = arguments.map { intern(it) }
+        return canonical(args, { NaryKey(name, typeSolver, args) }) { functionOf(name, args, typeSolver) }
+                ?: functionOf(name, args, typeSolver)
+    }
+
+    private fun functionOf(name: String, args: List<SMVExpr>, typeSolver: FunctionTypeSolver?) =
+            SFunction(name, args).also { it.typeSolver = typeSolver }
+
+    /**
+     * Returns the canonical instance of the given expression. Sub-expressions are interned bottom-up.
+     * The canonical instance is a copy, [expr] stays mutable. If [expr] has no canonical counterpart,
+     * e.g., a variable with a conflicting data type, [expr] is returned with its sub-expressions replaced by
+     * their canonical instances, and only rebuilt if one of them changed.
+     */
+    fun intern(expr: SMVExpr): SMVExpr {
+        if (expr.internedBy === this) return expr
+        return when (expr) {
+            is SVariable -> {
+                val c = table.computeIfAbsent(VariableKey(expr.name)) {
+                    SVariable(expr.name).also { it.dataType = expr.dataType; it.internedBy = this }
+                }
+                if (c.dataType == expr.dataType) c else expr
+            }
+            is SLiteral -> {
+                // the key is a private copy, the given literal may be changed afterwards
+                val key = expr.clone()
+                table.computeIfAbsent(key) { expr.clone().also { it.internedBy = this } }
+            }
+            is SBinaryExpression -> {
+                val l = intern(expr.left)
+                val r = intern(expr.right)
+                canonical(listOf(l, r), { BinaryKey(l, expr.operator, r) }) { SBinaryExpression(l, expr.operator, r) }
+                        ?: if (l === expr.left && r === expr.right) expr else SBinaryExpression(l, expr.operator, r)
+            }
+            is SUnaryExpression -> {
+                val e = intern(expr.expr)
+                canonical(listOf(e), { UnaryKey(expr.operator, e) }) { SUnaryExpression(expr.operator, e) }
+                        ?: if (e === expr.expr) expr else SUnaryExpression(expr.operator, e)
+            }
+            is SCaseExpression -> case(expr.cases)
+            is SFunction -> function(expr.name, expr.arguments, expr.typeSolver)
+            else -> expr
+        }
+    }
+
+    /**
+     * The canonical expression for the key, which is created by [create] if it is missing.
+     * Null if not all [children] are canonical.
+     */
+    private fun canonical(children: List<SMVExpr>, key: () -> Any, create: () -> SMVExpr): SMVExpr? {
+        if (children.any { it.internedBy !== this }) return null
+        return table.computeIfAbsent(key()) { create().also { it.internedBy = this } }
+    }
+
+    /** Forgets all canonical expressions. Already interned expressions stay immutable. */
+    fun clear() = table.clear()
+
+    private data class VariableKey(val name: String)
+
+    /** children are canonical, hence compared by identity */
+    private class BinaryKey(val left: SMVExpr, val op: SBinaryOperator, val right: SMVExpr) {
+        private val hash = 31 * (31 * System.identityHashCode(left) + op.hashCode()) + System.identityHashCode(right)
+        override fun hashCode() = hash
+        override fun equals(other: Any?) =
+                other is BinaryKey && other.left === left && other.op == op && other.right === right
+    }
+
+    private class UnaryKey(val op: SUnaryOperator, val expr: SMVExpr) {
+        private val hash = 31 * op.hashCode() + System.identityHashCode(expr)
+        override fun hashCode() = hash
+        override fun equals(other: Any?) = other is UnaryKey && other.op == op && other.expr === expr
+    }
+
+    private class NaryKey(val name: String, val typeSolver: FunctionTypeSolver?, val args: List<SMVExpr>) {
+        private val hash = args.fold(31 * name.hashCode() + System.identityHashCode(typeSolver)) { h, a ->
+            31 * h + System.identityHashCode(a)
+        }
+
+        override fun hashCode() = hash
+        override fun equals(other: Any?) =
+                other is NaryKey && other.name == name && other.typeSolver === typeSolver
+                        && other.args.size == args.size && other.args.indices.all { other.args[it] === args[it] }
+    }
+}
+
+/**
+ * Replaces the canonical expressions of an AST by mutable copies, for code that changes expressions in place.
+ *
+ * A canonical expression that occurs several times is copied once, hence the copies share their sub-expressions
+ * like the canonical instances do. Nodes that are not canonical are updated in place.
+ */
+class CanonicalCopier : SMVAstMutableVisitor() {
+    private val copies = IdentityHashMap<SMVExpr, SMVExpr>()
+
+    private inline fun copy(expr: SMVExpr, create: () -> SMVExpr): SMVExpr =
+            copies[expr] ?: create().also { copies[expr] = it }
+
+    fun copy(expr: SMVExpr) = expr.accept(this) as SMVExpr
+
+    override fun visit(v: SVariable): SMVExpr = if (v.isInterned) copy(v) { v.clone() } else v
+
+    override fun visit(l: SLiteral): SMVExpr = if (l.isInterned) copy(l) { l.clone() } else l
+
+    override fun visit(be: SBinaryExpression): SMVExpr =
+            if (be.isInterned) copy(be) { SBinaryExpression(copy(be.left), be.operator, copy(be.right)) }
+            else super.visit(be)
+
+    override fun visit(ue: SUnaryExpression): SMVExpr =
+            if (ue.isInterned) copy(ue) { SUnaryExpression(ue.operator, copy(ue.expr)) }
+            else super.visit(ue)
+
+    override fun visit(ce: SCaseExpression): SMVExpr =
+            if (ce.isInterned) copy(ce) {
+                SCaseExpression().also { c -> ce.cases.forEach { c.add(copy(it.condition), copy(it.then)) } }
+            }
+            else super.visit(ce)
+
+    override fun visit(func: SFunction): SMVExpr {
+        if (func.isInterned)
+            return copy(func) { SFunction(func.name, func.arguments.map { copy(it) }).also { it.typeSolver = func.typeSolver } }
+        func.arguments = func.arguments.map { copy(it) }
+        return func
+    }
+
+    override fun visit(smvModule: SMVModule): SMVModule {
+        super.visit(smvModule)
+        smvModule.invariantSpecs = smvModule.invariantSpecs.map { copy(it) }.toMutableList()
+        smvModule.initExpr = smvModule.initExpr.map { copy(it) }.toMutableList()
+        smvModule.transExpr = smvModule.transExpr.map { copy(it) }.toMutableList()
+        return smvModule
+    }
+}
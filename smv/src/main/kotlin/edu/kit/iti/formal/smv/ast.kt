@@ -56,13 +56,21 @@ data class SAssignment(
 }
 
 data class SBinaryExpression(private var _left: SMVExpr,
-                             var operator: SBinaryOperator,
+                             private var _operator: SBinaryOperator,
                              private var _right: SMVExpr)
     : SMVExpr() {
 
+    var operator: SBinaryOperator
+        get() = _operator
+        set(value) {
+            checkMutable()
+            _operator = value
+        }
+
     var left: SMVExpr
         get() = _left
         set(value) {
+            checkMutable()
             if (value === this) throw IllegalArgumentException()
             if (this in value) error("recursion")
             _left = value
@@ -71,6 +79,7 @@ data class SBinaryExpression(private var _left: SMVExpr,
     var right: SMVExpr
         get() = _right
         set(value) {
+            checkMutable()
             if (value === this) throw IllegalArgumentException()
             _right = value
         }
@@ -89,6 +98,14 @@ data class SBinaryExpression(private var _left: SMVExpr,
     }
 
     override fun clone() = SBinaryExpression(left.clone(), operator, right.clone())
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is SBinaryExpression || isOtherCanonical(other)) return false
+        return operator == other.operator && left == other.left && right == other.right
+    }
+
+    override fun hashCode() = cachedHashCode { 31 * (31 * left.hashCode() + operator.hashCode()) + right.hashCode() }
 }
 
 private class Find(val target: SMVExpr) : SMVAstDefaultVisitorNN<Unit>() {
@@ -109,7 +126,13 @@ private operator fun SMVExpr.contains(e: SBinaryExpression): Boolean {
 /**
  *
  */
-data class SCaseExpression(var cases: MutableList<Case> = arrayListOf()) : SMVExpr() {
+data class SCaseExpression(private var _cases: MutableList<Case> = arrayListOf()) : SMVExpr() {
+    var cases: MutableList<Case>
+        get() = _cases
+        set(value) {
+            checkMutable()
+            _cases = value
+        }
 
     override val dataType: SMVType?
         get() {
@@ -118,6 +141,7 @@ data class SCaseExpression(var cases: MutableList<Case> = arrayListOf()) : SMVEx
         }
 
     fun add(condition: SMVExpr, value: SMVExpr) {
+        checkMutable()
         cases.add(Case(condition, value))
     }
 
@@ -160,6 +184,7 @@ data class SCaseExpression(var cases: MutableList<Case> = arrayListOf()) : SMVEx
     }
 
     fun addCase(cond: SMVExpr, `var`: SMVExpr): Case {
+        checkMutable()
         val c = Case(cond, `var`)
         cases.add(c)
         return c
@@ -169,16 +194,30 @@ data class SCaseExpression(var cases: MutableList<Case> = arrayListOf()) : SMVEx
     /**
      *
      */
-    data class Case(
-            /**
-             *
-             */
-            var condition: SMVExpr,
-            /**
-             *
-             */
-            var then: SMVExpr
-    ) {
+    class Case(condition: SMVExpr, then: SMVExpr) {
+        /** Set for the cases of a canonical [SCaseExpression]. */
+        internal var frozen = false
+
+        var condition: SMVExpr = condition
+            set(value) {
+                check(!frozen) { "Canonical expressions are immutable, use clone()." }
+                field = value
+            }
+
+        var then: SMVExpr = then
+            set(value) {
+                check(!frozen) { "Canonical expressions are immutable, use clone()." }
+                field = value
+            }
+
+        operator fun component1() = condition
+        operator fun component2() = then
+
+        override fun equals(other: Any?) =
+                this === other || other is Case && condition == other.condition && then == other.then
+
+        override fun hashCode() = 31 * condition.hashCode() + then.hashCode()
+
         override fun toString(): String {
             return ":: $condition->$then"
         }
@@ -188,6 +227,14 @@ data class SCaseExpression(var cases: MutableList<Case> = arrayListOf()) : SMVEx
 
     override fun clone() = SCaseExpression(cases.map { it.clone() }.toMutableList())
 
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is SCaseExpression || isOtherCanonical(other)) return false
+        return cases == other.cases
+    }
+
+    override fun hashCode() = cachedHashCode { cases.hashCode() }
+
 }
 
 
@@ -197,8 +244,19 @@ data class SCaseExpression(var cases: MutableList<Case> = arrayListOf()) : SMVEx
  */
 data class SFunction(
         val name: String,
-        var arguments: List<SMVExpr>) : SMVExpr() {
+        private var _arguments: List<SMVExpr>) : SMVExpr() {
+    var arguments: List<SMVExpr>
+        get() = _arguments
+        set(value) {
+            checkMutable()
+            _arguments = value
+        }
+
     var typeSolver: FunctionTypeSolver? = null
+        set(value) {
+            checkMutable()
+            field = value
+        }
 
     override val dataType: SMVType?
         get() = typeSolver?.invoke(this)
@@ -216,6 +274,14 @@ data class SFunction(
         return SFunction(name,
                 arguments.map { a -> a.prefix(prefix) })
     }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is SFunction || isOtherCanonical(other)) return false
+        return name == other.name && arguments == other.arguments
+    }
+
+    override fun hashCode() = cachedHashCode { 31 * name.hashCode() + arguments.hashCode() }
 }
 
 sealed class SLiteral(open val value: Any, override val dataType: SMVType) : SMVExpr() {
@@ -262,45 +328,108 @@ sealed class SLiteral(open val value: Any, override val dataType: SMVType) : SMV
     }
 }
 
-data class SIntegerLiteral(override var value: BigInteger)
-    : SLiteral(value, SMVTypes.INT) {
+data class SIntegerLiteral(private var _value: BigInteger)
+    : SLiteral(_value, SMVTypes.INT) {
+    override var value: BigInteger
+        get() = _value
+        set(v) {
+            checkMutable()
+            _value = v
+        }
+
     override fun prefix(prefix: String): SMVExpr = SIntegerLiteral(value)
 
     override fun clone() = copy()
 }
 
-data class SFloatLiteral(override var value: BigDecimal)
-    : SLiteral(value, SMVTypes.FLOAT) {
+data class SFloatLiteral(private var _value: BigDecimal)
+    : SLiteral(_value, SMVTypes.FLOAT) {
+    override var value: BigDecimal
+        get() = _value
+        set(v) {
+            checkMutable()
+            _value = v
+        }
+
     override fun prefix(prefix: String): SMVExpr = SFloatLiteral(value)
     override fun clone() = copy()
 }
 
-data class SWordLiteral(override var value: BigInteger,
-                        override var dataType: SMVWordType)
-    : SLiteral(value, dataType) {
+data class SWordLiteral(private var _value: BigInteger,
+                        private var _dataType: SMVWordType)
+    : SLiteral(_value, _dataType) {
+    override var value: BigInteger
+        get() = _value
+        set(v) {
+            checkMutable()
+            _value = v
+        }
+
+    override var dataType: SMVWordType
+        get() = _dataType
+        set(v) {
+            checkMutable()
+            _dataType = v
+        }
+
     override fun prefix(prefix: String): SMVExpr = SWordLiteral(value, dataType)
     override fun clone() = copy()
 }
 
-data class SBooleanLiteral(override var value: Boolean)
-    : SLiteral(value, SMVTypes.BOOLEAN) {
+data class SBooleanLiteral(private var _value: Boolean)
+    : SLiteral(_value, SMVTypes.BOOLEAN) {
+    override var value: Boolean
+        get() = _value
+        set(v) {
+            checkMutable()
+            _value = v
+        }
+
     override fun prefix(prefix: String): SMVExpr = SBooleanLiteral(value)
     override fun clone() = copy()
 }
 
-data class SEnumLiteral(override var value: String,
-                        override var dataType: EnumType = SMVTypes.GENERIC_ENUM)
-    : SLiteral(value, dataType) {
+data class SEnumLiteral(private var _value: String,
+                        private var _dataType: EnumType = SMVTypes.GENERIC_ENUM)
+    : SLiteral(_value, _dataType) {
+    override var value: String
+        get() = _value
+        set(v) {
+            checkMutable()
+            _value = v
+        }
+
+    override var dataType: EnumType
+        get() = _dataType
+        set(v) {
+            checkMutable()
+            _dataType = v
+        }
+
     override fun prefix(prefix: String): SMVExpr = SEnumLiteral(value)
     override fun clone() = copy()
 }
 
 // Use with caution!
-data class SGenericLiteral(override var value: Any,
-                           override var dataType: SMVType)
-    : SLiteral(value, dataType) {
+data class SGenericLiteral(private var _value: Any,
+                           private var _dataType: SMVType)
+    : SLiteral(_value, _dataType) {
+    override var value: Any
+        get() = _value
+        set(v) {
+            checkMutable()
+            _value = v
+        }
+
+    override var dataType: SMVType
+        get() = _dataType
+        set(v) {
+            checkMutable()
+            _dataType = v
+        }
+
     init {
-        require(dataType.allowedValue(value)) {
+        require(_dataType.allowedValue(_value)) {
             "Value $value is not allowed for $dataType"
         }
     }
@@ -312,6 +441,39 @@ data class SGenericLiteral(override var value: Any,
 abstract class SMVExpr : SMVAst() {
     abstract val dataType: SMVType?
 
+    /**
+     * The factory, which made this expression canonical, or null.
+     * Canonical expressions must not be modified.
+     * @see SMVExprFactory
+     */
+    var internedBy: SMVExprFactory? = null
+        internal set
+
+    val isInterned: Boolean
+        get() = internedBy != null
+
+    private var hashCache: Int = 0
+
+    /**
+     * Computes the structural hash code. The value is cached for canonical expressions.
+     */
+    protected fun cachedHashCode(compute: () -> Int): Int {
+        if (!isInterned) return compute()
+        if (hashCache == 0) hashCache = compute()
+        return hashCache
+    }
+
+    /**
+     * Two canonical expressions of the same factory are equal iff they are identical.
+     * Returns true if this short-cut applies, and both are different.
+     */
+    protected fun isOtherCanonical(other: SMVExpr): Boolean =
+            internedBy != null && internedBy === other.internedBy && this !== other
+
+    protected fun checkMutable() {
+        check(!isInterned) { "Canonical expressions are immutable, use clone()." }
+    }
+
     //region builder methods
     fun eventually(): SQuantified = SQuantified(STemporalOperator.F, this)
 
@@ -435,8 +597,19 @@ data class SMVModule
 /**
  *
  */
-data class SVariable(var name: String) : SMVExpr(), Comparable<SVariable> {
+data class SVariable(private var _name: String) : SMVExpr(), Comparable<SVariable> {
+    var name: String
+        get() = _name
+        set(value) {
+            checkMutable()
+            _name = value
+        }
+
     override var dataType: SMVType? = null
+        set(value) {
+            checkMutable()
+            field = value
+        }
 
     constructor(n: String, dt: SMVType) : this(n) {
         dataType = dt
@@ -719,14 +892,22 @@ enum class STemporalOperator constructor(val language: TemporalLanguage,
  *
  */
 data class SUnaryExpression(
-        /**
-         *
-         */
-        var operator: SUnaryOperator,
-        /**
-         *
-         */
-        var expr: SMVExpr) : SMVExpr() {
+        private var _operator: SUnaryOperator,
+        private var _expr: SMVExpr) : SMVExpr() {
+
+    var operator: SUnaryOperator
+        get() = _operator
+        set(value) {
+            checkMutable()
+            _operator = value
+        }
+
+    var expr: SMVExpr
+        get() = _expr
+        set(value) {
+            checkMutable()
+            _expr = value
+        }
 
     override val dataType: SMVType?
         get() = expr.dataType
@@ -737,6 +918,14 @@ data class SUnaryExpression(
 
     override fun clone() = SUnaryExpression(operator, expr.clone())
 
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is SUnaryExpression || isOtherCanonical(other)) return false
+        return operator == other.operator && expr == other.expr
+    }
+
+    override fun hashCode() = cachedHashCode { 31 * operator.hashCode() + expr.hashCode() }
+
     override fun <T> accept(visitor: SMVAstVisitor<T>): T {
         return visitor.visit(this)
     }
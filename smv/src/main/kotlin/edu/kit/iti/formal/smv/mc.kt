@@ -1,10 +1,16 @@
 package edu.kit.iti.formal.smv
 
 import edu.kit.iti.formal.util.info
-import org.jdom2.input.SAXBuilder
+import java.io.BufferedReader
+import java.io.EOFException
 import java.io.File
+import java.io.Reader
 import java.io.StringReader
 import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
 
 
 /**
@@ -40,6 +46,9 @@ val POSTAMBLE = listOf(
 
 typealias NuXMVOutputParser = (txt: String) -> NuXMVOutput
 
+/** Parses the output of nuXmv while it is read, see [parseXmlOutput]. */
+typealias NuXMVStreamParser = (output: BufferedReader) -> NuXMVOutput
+
 /**
  * @author Alexander Weigl
  */
@@ -49,7 +58,10 @@ class ProcessRunner(val commandLine: Array<String>,
                     var stdoutFile: File = File(workingDirectory, "stdout.log")
 ) : Callable<String> {
 
-    override fun call(): String {
+    override fun call(): String = run().readText()
+
+    /** Runs the process and returns the file with its output. */
+    fun run(): File {
         val pb = ProcessBuilder(*commandLine)
                 //.redirectError(stderrFile)
                 .redirectError(ProcessBuilder.Redirect.PIPE)
@@ -61,9 +73,14 @@ class ProcessRunner(val commandLine: Array<String>,
         // destroy the sub-process, if java is killed
         Runtime.getRuntime().addShutdownHook(
                 Thread { if (process.isAlive) process.destroyForcibly() })
-        process.waitFor()
-
-        return stdoutFile.bufferedReader().readText()
+        try {
+            process.waitFor()
+        } catch (e: InterruptedException) {
+            // the caller gave up, e.g., on a timeout
+            process.destroyForcibly()
+            throw e
+        }
+        return stdoutFile
     }
 }
 
@@ -76,24 +93,52 @@ class NuXMVProcess(var moduleFile: File, val commandFile: File) : Callable<NuXMV
     var workingDirectory = moduleFile.parentFile
     var outputFile = File(workingDirectory, "nuxmv.log")
     var result: NuXMVOutput? = null
-    var outputParser: NuXMVOutputParser = ::parseXmlOutput
 
+    /** If set, only these variables are kept in a counter example. */
+    var projection: Set<String>? = null
+    var outputParser: NuXMVStreamParser = { parseXmlOutput(it, projection) }
+
+    /**
+     * Runs nuXmv. Its output is parsed while it is produced, and copied into [outputFile].
+     * Interrupting the calling thread kills the process.
+     */
     override fun call(): NuXMVOutput {
         workingDirectory.mkdirs()
         val commands = arrayOf(executablePath, "-int", moduleFile.absolutePath)
+        info(commands.joinToString(" "))
+        info("nuXmv working dir=\"$workingDirectory\"")
+        info("nuXmv: results=\"$outputFile\"")
+        val process = ProcessBuilder(*commands)
+                .directory(workingDirectory)
+                .redirectErrorStream(true)
+                .redirectInput(commandFile)
+                .start()
+        // destroy the sub-process, if java is killed
+        val hook = Thread { if (process.isAlive) process.destroyForcibly() }
+        Runtime.getRuntime().addShutdownHook(hook)
+        // the calling thread only waits, such that it can be interrupted while the output is parsed
+        val parsing = FutureTask<NuXMVOutput> {
+            outputFile.bufferedWriter().use { log ->
+                BufferedReader(TeeReader(process.inputStream.reader(), log)).use(outputParser)
+            }
+        }
+        Thread(parsing, "nuxmv-output").also { it.isDaemon = true }.start()
         try {
-            info(commands.joinToString(" "))
-            info("nuXmv working dir=\"$workingDirectory\"")
-            info("nuXmv: results=\"$outputFile\"")
-            val pr = ProcessRunner(commands,
-                    commandFile,
-                    workingDirectory,
-                    outputFile)
-            val output = pr.call()
-            result = outputParser(output)
+            process.waitFor()
+            result = parsing.get()
             return result!!
         } catch (e: InterruptedException) {
+            // the caller gave up, e.g., on a timeout
+            process.destroyForcibly()
             e.printStackTrace()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook)
+            } catch (e: IllegalStateException) {
+                // the JVM is shutting down
+            }
         }
         return NuXMVOutput.Error()
     }
@@ -110,6 +155,77 @@ fun writeNuxmvCommandFile(commands: Array<String>, f: File): File {
 }
 
 
+/**
+ * The values of a counter example in columns: one array per variable, indexed by the step.
+ * Variable names and values are interned, hence a repeated value is only stored once.
+ *
+ * As a list, every step is a read-only [Map] view from variable names to values.
+ */
+class CounterExampleStates : AbstractList<Map<String, String>>() {
+    private val index = LinkedHashMap<String, Int>()
+    private val columns = arrayListOf<Array<String?>>()
+    private val pool = HashMap<String, String>()
+    private var rows = 0
+    private var capacity = 16
+
+    override val size: Int
+        get() = rows
+
+    val variables: Set<String>
+        get() = index.keys
+
+    fun intern(s: String): String = pool.getOrPut(s) { s }
+
+    /** Appends an empty step and returns its index. */
+    fun addRow(): Int {
+        if (rows == capacity) {
+            capacity *= 2
+            for (i in columns.indices) columns[i] = columns[i].copyOf(capacity)
+        }
+        return rows++
+    }
+
+    operator fun plusAssign(row: Map<String, String>) {
+        val r = addRow()
+        row.forEach { (k, v) -> this[r, k] = v }
+    }
+
+    operator fun get(row: Int, variable: String): String? {
+        if (row < 0 || row >= rows) return null
+        val c = index[variable] ?: return null
+        return columns[c][row]
+    }
+
+    operator fun set(row: Int, variable: String, value: String) {
+        if (row < 0 || row >= rows) throw IndexOutOfBoundsException("$row")
+        val c = index.getOrPut(intern(variable)) {
+            columns += arrayOfNulls<String>(capacity)
+            columns.size - 1
+        }
+        columns[c][row] = intern(value)
+    }
+
+    /** The values of [variable] over all steps, or null if the variable does not occur. */
+    fun column(variable: String): List<String?>? =
+            index[variable]?.let { columns[it].asList().subList(0, rows) }
+
+    override fun get(index: Int): Map<String, String> {
+        if (index < 0 || index >= rows) throw IndexOutOfBoundsException("$index")
+        return Step(index)
+    }
+
+    private inner class Step(val row: Int) : AbstractMap<String, String>() {
+        override fun get(key: String): String? = this@CounterExampleStates[row, key]
+
+        override fun containsKey(key: String) = get(key) != null
+
+        override val entries: Set<Map.Entry<String, String>>
+            get() = index.entries.mapNotNullTo(LinkedHashSet()) { (name, c) ->
+                columns[c][row]?.let { java.util.AbstractMap.SimpleImmutableEntry(name, it) }
+            }
+    }
+}
+
 /**
  *
  */
@@ -118,45 +234,61 @@ data class CounterExample(
         var id: Int = 0,
         var desc: String = "",
         val inputVariables: MutableSet<String> = hashSetOf(),
-        val states: MutableList<MutableMap<String, String>> = arrayListOf()
+        val states: CounterExampleStates = CounterExampleStates()
 ) {
-    operator fun get(cycle: Int, name: String): String? =
-            try {
-                states[cycle][name]
-            } catch (e: IndexOutOfBoundsException) {
-                null
-            }
+    operator fun get(cycle: Int, name: String): String? = states[cycle, name]
 
     val stateSize: Int get() = states.size
 
 
     companion object {
-        fun load(text: String): CounterExample {
-            val ce = CounterExample()
-            val saxBuilder = SAXBuilder()
-            val doc = saxBuilder.build(StringReader(text));
-            val root = doc.rootElement
-            ce.type = Integer.parseInt(root.getAttributeValue("type"))
-            ce.id = Integer.parseInt(root.getAttributeValue("id"))
-            ce.desc = root.getAttributeValue("desc")
-
-            root.getChildren("node").forEach { node ->
-                val m = HashMap<String, String>()
-                node.getChild("state")?.getChildren("value")?.forEach {
-                    m[it.getAttributeValue("variable")] = it.textTrim
-                }
+        private val xmlInputFactory: XMLInputFactory by lazy {
+            XMLInputFactory.newInstance().also {
+                it.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+                it.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+                it.setProperty(XMLInputFactory.IS_COALESCING, true)
+            }
+        }
 
-                node.getChild("combinatorial")?.getChildren("value")?.forEach {
-                    m[it.getAttributeValue("variable")] = it.textTrim
-                }
+        fun load(text: String, projection: Set<String>? = null): CounterExample =
+                load(StringReader(text), projection)
 
-                node.getChild("input")?.getChildren("value")?.forEach {
-                    ce.inputVariables.add(it.getAttributeValue("variable"))
-                    m[it.getAttributeValue("variable")] = it.textTrim
+        /**
+         * Reads a counter example in the XML format of nuXmv (trace plugin 6) without building a document.
+         * If a [projection] is given, only the values of these variables are kept.
+         */
+        fun load(input: Reader, projection: Set<String>? = null): CounterExample {
+            val ce = CounterExample()
+            val xml = xmlInputFactory.createXMLStreamReader(input)
+            try {
+                var row = -1
+                var section: String? = null
+                while (xml.hasNext()) {
+                    when (xml.next()) {
+                        XMLStreamConstants.START_ELEMENT -> when (xml.localName) {
+                            "counter-example" -> {
+                                ce.type = Integer.parseInt(xml.getAttributeValue(null, "type"))
+                                ce.id = Integer.parseInt(xml.getAttributeValue(null, "id"))
+                                ce.desc = xml.getAttributeValue(null, "desc")
+                            }
+                            "node" -> row = ce.states.addRow()
+                            "state", "combinatorial", "input" -> section = xml.localName
+                            "value" -> {
+                                val variable = xml.getAttributeValue(null, "variable")
+                                if (section != null && row >= 0
+                                        && (projection == null || variable in projection)) {
+                                    ce.states[row, variable] = xml.elementText.trim()
+                                    if (section == "input") ce.inputVariables += ce.states.intern(variable)
+                                }
+                            }
+                        }
+                        XMLStreamConstants.END_ELEMENT ->
+                            if (xml.localName == section) section = null
+                    }
                 }
-                ce.states += m
+            } finally {
+                xml.close()
             }
-
             return ce
         }
     }
@@ -173,12 +305,7 @@ sealed class NuXMVOutput {
     class Cex(val counterExample: CounterExample) : NuXMVOutput()
 }
 
-/**
- *
- */
-fun parseXmlOutput(text: String): NuXMVOutput {
-    val lines = text.split('\n')
-    val errorLinePredicate = { it: String ->
+private fun isErrorLine(it: String) =
         //empirical
         it.contains("error") //<-- critical
                 || it.contains("syntax error")
@@ -188,24 +315,86 @@ fun parseXmlOutput(text: String): NuXMVOutput {
                 || it.contains("aborting")
                 || it.contains("multiple declaration of identifier")
 
+/**
+ *
+ */
+fun parseXmlOutput(text: String): NuXMVOutput = parseXmlOutput(BufferedReader(StringReader(text)))
 
+/**
+ * Parses the output of nuXmv line by line. The first counter example is handed to the streaming
+ * [CounterExample.load], only the values of the variables in [projection] are kept.
+ * All lines are checked for error messages, those inside the counter example are removed from it.
+ */
+fun parseXmlOutput(output: BufferedReader, projection: Set<String>? = null): NuXMVOutput {
+    val errors = arrayListOf<String>()
+    var cex: CounterExample? = null
+    while (true) {
+        val line = output.readLine() ?: break
+        if (cex == null && line.startsWith("<counter-example")) {
+            val section = LineSectionReader(output, line, skip = { l ->
+                (!l.trimStart().startsWith("<") && isErrorLine(l)).also { if (it) errors += l }
+            }) { it == "</counter-example>" }
+            cex = CounterExample.load(section, projection)
+        } else if (isErrorLine(line)) {
+            errors += line
+        }
+    }
+    return when {
+        errors.isNotEmpty() -> NuXMVOutput.Error(errors)
+        cex != null -> NuXMVOutput.Cex(cex)
+        else -> NuXMVOutput.Verified
     }
+}
 
-    if (errorLinePredicate(text)) {
-        val errors = lines.filter(errorLinePredicate)
-        return NuXMVOutput.Error(errors)
+/**
+ * A reader over the lines of [lines], starting with [first] and ending with the line
+ * matching [isLast] (inclusive, unless [inclusive] is false).
+ * If [requireEnd] is set, an [EOFException] is thrown if [lines] ends before the last line.
+ * Lines matching [skip] are left out.
+ */
+internal class LineSectionReader(private val lines: BufferedReader,
+                                 first: String? = null,
+                                 private val inclusive: Boolean = true,
+                                 private val requireEnd: Boolean = false,
+                                 private val skip: (String) -> Boolean = { false },
+                                 private val isLast: (String) -> Boolean) : Reader() {
+    private var current: String? = first?.plus('\n')
+    private var pos = 0
+    private var finished = first != null && isLast(first)
+
+    override fun read(cbuf: CharArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        while (current == null || pos == current!!.length) {
+            if (finished) return -1
+            val line = lines.readLine() ?: return endOfInput()
+            finished = isLast(line)
+            if (!finished && skip(line)) continue
+            pos = 0
+            current = if (finished && !inclusive) "" else line + '\n'
+        }
+        val c = current!!
+        val n = minOf(len, c.length - pos)
+        c.toCharArray(cbuf, off, pos, pos + n)
+        pos += n
+        return n
     }
 
-    val idxCex = lines.indexOfFirst {
-        it.startsWith("<counter-example")
+    /** Consumes the remaining lines of this section. */
+    fun skipRest() {
+        current = null
+        while (!finished) {
+            val line = lines.readLine() ?: run { endOfInput(); return }
+            finished = isLast(line)
+        }
     }
-    if (idxCex != -1) {
-        val closing = lines.lastIndexOf("</counter-example>")
-        val xml = lines.slice(idxCex..closing)
-                .joinToString("\n")
-        return NuXMVOutput.Cex(CounterExample.load(xml))
+
+    private fun endOfInput(): Int {
+        finished = true
+        if (requireEnd) throw EOFException("Output ended unexpectedly")
+        return -1
     }
-    return NuXMVOutput.Verified
+
+    override fun close() {}
 }
 
 /**
@@ -114,13 +114,23 @@ abstract class SMVAstMutableVisitor : SMVAstVisitor<SMVAst> {
     override fun visit(v: SVariable): SMVExpr = v
 
     override fun visit(be: SBinaryExpression): SMVExpr {
-        be.left = be.left.accept(this) as SMVExpr
-        be.right = be.right.accept(this) as SMVExpr
+        val left = be.left.accept(this) as SMVExpr
+        val right = be.right.accept(this) as SMVExpr
+        if (be.isInterned) {
+            return if (left === be.left && right === be.right) be
+            else SBinaryExpression(left, be.operator, right)
+        }
+        be.left = left
+        be.right = right
         return be
     }
 
     override fun visit(ue: SUnaryExpression): SMVExpr {
-        ue.expr = ue.expr.accept(this) as SMVExpr
+        val expr = ue.expr.accept(this) as SMVExpr
+        if (ue.isInterned) {
+            return if (expr === ue.expr) ue else SUnaryExpression(ue.operator, expr)
+        }
+        ue.expr = expr
         return ue
     }
 
@@ -133,6 +143,15 @@ abstract class SMVAstMutableVisitor : SMVAstVisitor<SMVAst> {
     }
 
     override fun visit(ce: SCaseExpression): SMVExpr {
+        if (ce.isInterned) {
+            val cases = ce.cases.map {
+                SCaseExpression.Case(it.condition.accept(this) as SMVExpr, it.then.accept(this) as SMVExpr)
+            }
+            val unchanged = cases.indices.all {
+                cases[it].condition === ce.cases[it].condition && cases[it].then === ce.cases[it].then
+            }
+            return if (unchanged) ce else SCaseExpression(cases.toMutableList())
+        }
         for (c in ce.cases) {
             c.condition = c.condition.accept(this) as SMVExpr
             c.then = c.then.accept(this) as SMVExpr
@@ -200,13 +219,23 @@ class SMVAstMutableTraversal(val visitor: SMVAstMutableVisitor) : SMVAstMutableV
     override fun visit(v: SVariable): SMVExpr = v
 
     override fun visit(be: SBinaryExpression): SMVExpr {
-        be.left = be.left.accept(visitor) as SMVExpr
-        be.right = be.right.accept(visitor) as SMVExpr
+        val left = be.left.accept(visitor) as SMVExpr
+        val right = be.right.accept(visitor) as SMVExpr
+        if (be.isInterned) {
+            return if (left === be.left && right === be.right) be
+            else SBinaryExpression(left, be.operator, right)
+        }
+        be.left = left
+        be.right = right
         return be
     }
 
     override fun visit(ue: SUnaryExpression): SMVExpr {
-        ue.expr = ue.expr.accept(visitor) as SMVExpr
+        val expr = ue.expr.accept(visitor) as SMVExpr
+        if (ue.isInterned) {
+            return if (expr === ue.expr) ue else SUnaryExpression(ue.operator, expr)
+        }
+        ue.expr = expr
         return ue
     }
 
@@ -219,6 +248,15 @@ class SMVAstMutableTraversal(val visitor: SMVAstMutableVisitor) : SMVAstMutableV
     }
 
     override fun visit(ce: SCaseExpression): SMVExpr {
+        if (ce.isInterned) {
+            val cases = ce.cases.map {
+                SCaseExpression.Case(it.condition.accept(visitor) as SMVExpr, it.then.accept(visitor) as SMVExpr)
+            }
+            val unchanged = cases.indices.all {
+                cases[it].condition === ce.cases[it].condition && cases[it].then === ce.cases[it].then
+            }
+            return if (unchanged) ce else SCaseExpression(cases.toMutableList())
+        }
         for (c in ce.cases) {
             c.condition = c.condition.accept(visitor) as SMVExpr
             c.then = c.then.accept(visitor) as SMVExpr
@@ -241,9 +279,12 @@ class SMVAstMutableTraversal(val visitor: SMVAstMutableVisitor) : SMVAstMutableV
     }
 */
     override fun visit(func: SFunction): SMVExpr {
-        func.arguments =
-                func.arguments.map { it.accept(visitor) as SMVExpr }
-                        .toMutableList()
+        val arguments = func.arguments.map { it.accept(visitor) as SMVExpr }
+        if (func.isInterned) {
+            return if (arguments.indices.all { arguments[it] === func.arguments[it] }) func
+            else SFunction(func.name, arguments).also { it.typeSolver = func.typeSolver }
+        }
+        func.arguments = arguments.toMutableList()
         return func
     }
 
@@ -21,7 +21,8 @@
  */
 package edu.kit.iti.formal.smv
 
- import org.junit.jupiter.api.Test
+ import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
 
 /**
  * @author Alexander Weigl
@@ -39,4 +40,35 @@ class McKtTest {
             is NuXMVOutput.Cex -> println(out.counterExample)
         }
     }
+
+    @Test
+    fun testStreamingWithProjection() {
+        val out = javaClass.getResourceAsStream("/cex.xml").bufferedReader().use {
+            parseXmlOutput(it, setOf("z", "x"))
+        }
+        val cex = (out as NuXMVOutput.Cex).counterExample
+        assertEquals("IC3 counterexample", cex.desc)
+        assertEquals(102, cex.stateSize)
+        assertEquals(setOf("z", "x"), cex.states.variables)
+        assertEquals(setOf("x"), cex.inputVariables)
+        assertEquals("0ud16_1", cex[1, "z"])
+        assertNull(cex[1, "y"])
+        assertEquals(mapOf("z" to "0ud16_0", "x" to "0ud1_1"), cex.states[0])
+        assertSame(cex[0, "x"], cex[1, "x"])
+    }
+
+    @Test
+    fun testErrorLines() {
+        val out = parseXmlOutput("nuXmv > read_model\nfile m.smv: line 3: syntax error\n")
+        assertEquals(listOf("file m.smv: line 3: syntax error"), (out as NuXMVOutput.Error).errors)
+        assertSame(NuXMVOutput.Verified, parseXmlOutput("-- invariant is true\n"))
+    }
+
+    @Test
+    fun testErrorLinesInsideCounterExample() {
+        val xml = javaClass.getResource("/cex.xml").readText()
+                .replaceFirst("\t</node>\n", "\t</node>\nnuXmv: error: out of memory, aborting\n")
+        val out = parseXmlOutput(xml)
+        assertEquals(listOf("nuXmv: error: out of memory, aborting"), (out as NuXMVOutput.Error).errors)
+    }
 }
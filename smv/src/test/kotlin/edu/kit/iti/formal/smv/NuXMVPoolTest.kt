@@ -0,0 +1,89 @@
+package edu.kit.iti.formal.smv
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Runs the [NuXMVPool] against `fake-nuxmv.sh`.
+ */
+class NuXMVPoolTest {
+    @TempDir
+    lateinit var tmp: File
+
+    private val fake = listOf("sh", File(javaClass.getResource("/fake-nuxmv.sh").toURI()).absolutePath)
+
+    @BeforeEach
+    fun posixShell() = assumeTrue(File("/bin/sh").exists())
+
+    private fun model(name: String, content: String) = File(tmp, name).also { it.writeText(content) }
+
+    @Test
+    fun workersAreReused() {
+        NuXMVPool(fake, 2).use { pool ->
+            val verified = model("ok.smv", "MODULE main")
+            val failing = model("fail.smv", "MODULE main -- FAIL")
+            val futures = (1..10).map { pool.submit(if (it % 2 == 0) verified else failing) }
+            futures.forEachIndexed { i, f ->
+                val out = f.get(10, TimeUnit.SECONDS)
+                if (i % 2 == 1) assertSame(NuXMVOutput.Verified, out)
+                else assertEquals(102, (out as NuXMVOutput.Cex).counterExample.stateSize)
+            }
+            assertTrue(pool.started <= 2)
+        }
+    }
+
+    @Test
+    fun timeoutReplacesWorker() {
+        NuXMVPool(fake, 1, 500).use { pool ->
+            val e = assertThrows(ExecutionException::class.java) {
+                pool.submit(model("hang.smv", "HANG")).get(10, TimeUnit.SECONDS)
+            }
+            assertTrue(e.cause is TimeoutException)
+            val log = File(tmp, "nuxmv.log")
+            val out = pool.submit(model("ok.smv", "MODULE main"), NuXMVInvariantsCommand.IC3, log)
+            assertSame(NuXMVOutput.Verified, out.get(10, TimeUnit.SECONDS))
+            assertEquals(2, pool.started)
+            assertTrue(log.readText().contains("invariant is true"))
+        }
+    }
+
+    @Test
+    fun crashReplacesWorker() {
+        NuXMVPool(fake, 1).use { pool ->
+            assertThrows(ExecutionException::class.java) {
+                pool.submit(model("crash.smv", "CRASH")).get(10, TimeUnit.SECONDS)
+            }
+            val out = pool.submit(model("ok.smv", "MODULE main")).get(10, TimeUnit.SECONDS)
+            assertSame(NuXMVOutput.Verified, out)
+            assertEquals(2, pool.started)
+        }
+    }
+
+    /** A cancellation racing with the result (as in a portfolio) must not kill the worker of another query. */
+    @Test
+    fun cancelRacesWithResult() {
+        NuXMVPool(fake, 1).use { pool ->
+            val verified = model("ok.smv", "MODULE main")
+            val canceller = Executors.newSingleThreadExecutor()
+            try {
+                repeat(50) { i ->
+                    val raced = pool.submit(verified)
+                    canceller.execute { if (i % 5 != 0) Thread.sleep(0, i * 20_000); raced.cancel(true) }
+                    val next = pool.submit(verified)
+                    assertSame(NuXMVOutput.Verified, next.get(10, TimeUnit.SECONDS))
+                    if (!raced.isCancelled) assertSame(NuXMVOutput.Verified, raced.get())
+                }
+            } finally {
+                canceller.shutdownNow()
+            }
+        }
+    }
+}
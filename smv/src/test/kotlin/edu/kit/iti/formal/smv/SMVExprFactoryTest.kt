@@ -0,0 +1,98 @@
+package edu.kit.iti.formal.smv
+
+import edu.kit.iti.formal.smv.ast.*
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class SMVExprFactoryTest {
+    private val a = SVariable("a", SMVTypes.BOOLEAN)
+    private val b = SVariable("b", SMVTypes.BOOLEAN)
+
+    @Test
+    fun structuralSharing() {
+        val f = SMVExprFactory()
+        val x = f.and(a, f.not(b))
+        val y = f.and(SVariable("a", SMVTypes.BOOLEAN), f.not(SVariable("b", SMVTypes.BOOLEAN)))
+        Assertions.assertSame(x, y)
+        Assertions.assertTrue(x.isInterned)
+        Assertions.assertSame(x, f.intern(a and b.not()))
+    }
+
+    @Test
+    fun equalityToPlainExpressions() {
+        val f = SMVExprFactory()
+        val plain = (a and b.not()) or SLiteral.TRUE
+        val interned = f.intern(plain.clone())
+        Assertions.assertEquals(plain, interned)
+        Assertions.assertEquals(interned, plain)
+        Assertions.assertEquals(plain.hashCode(), interned.hashCode())
+        Assertions.assertNotEquals(f.or(a, b), f.and(a, b))
+    }
+
+    @Test
+    fun differentTypesAreNotMerged() {
+        val f = SMVExprFactory()
+        val x = f.binary(a, SBinaryOperator.AND, b)
+        val other = SVariable("a", SMVTypes.INT)
+        val y = f.binary(other, SBinaryOperator.AND, b)
+        Assertions.assertNotSame(x, y)
+        Assertions.assertFalse(y.isInterned)
+    }
+
+    @Test
+    fun mutableVisitorsDoNotChangeCanonicalExpressions() {
+        val f = SMVExprFactory()
+        val x = f.and(a, b)
+        val replaced = x.accept(VariableReplacer(mapOf(a to SLiteral.TRUE)))
+        Assertions.assertEquals("a & b", x.repr())
+        Assertions.assertEquals("TRUE & b", replaced.repr())
+    }
+
+    @Test
+    fun callerNodesStayMutable() {
+        val f = SMVExprFactory()
+        val v = SVariable("v", SMVTypes.BOOLEAN)
+        val plain = v and b
+        val interned = f.intern(plain)
+        Assertions.assertNotSame(plain, interned)
+        Assertions.assertFalse(plain.isInterned)
+        Assertions.assertFalse(v.isInterned)
+        v.name = "w"
+        plain.operator = SBinaryOperator.OR
+        Assertions.assertEquals("v & b", interned.repr())
+        Assertions.assertSame(interned, f.intern(SVariable("v", SMVTypes.BOOLEAN) and b))
+    }
+
+    @Test
+    fun canonicalNodesAreImmutable() {
+        val f = SMVExprFactory()
+        val v = f.variable("v", SMVTypes.BOOLEAN)
+        val n = f.not(v) as SUnaryExpression
+        val c = f.case(listOf(SCaseExpression.Case(v, SLiteral.TRUE))) as SCaseExpression
+        val fn = f.function("max", listOf(v, b)) as SFunction
+        val l = f.literal(SIntegerLiteral(5.toBigInteger())) as SIntegerLiteral
+        Assertions.assertThrows(IllegalStateException::class.java) { v.name = "w" }
+        Assertions.assertThrows(IllegalStateException::class.java) { v.dataType = SMVTypes.INT }
+        Assertions.assertThrows(IllegalStateException::class.java) { n.expr = b }
+        Assertions.assertThrows(IllegalStateException::class.java) { c.cases[0].then = SLiteral.FALSE }
+        Assertions.assertThrows(IllegalStateException::class.java) { c.add(b, b) }
+        Assertions.assertThrows(IllegalStateException::class.java) { fn.arguments = listOf() }
+        Assertions.assertThrows(IllegalStateException::class.java) { l.value = 6.toBigInteger() }
+        Assertions.assertFalse(v.clone().isInterned)
+    }
+
+    @Test
+    fun copierKeepsSharing() {
+        val f = SMVExprFactory()
+        val shared = f.and(a, b)
+        val x = f.or(shared, f.not(shared)) as SBinaryExpression
+        val copy = CanonicalCopier().copy(x) as SBinaryExpression
+        Assertions.assertFalse(copy.isInterned)
+        Assertions.assertEquals(x, copy)
+        val left = copy.left as SBinaryExpression
+        Assertions.assertFalse(left.isInterned)
+        Assertions.assertSame(left, (copy.right as SUnaryExpression).expr)
+        left.operator = SBinaryOperator.XOR
+        Assertions.assertEquals("a & b", shared.repr())
+    }
+}
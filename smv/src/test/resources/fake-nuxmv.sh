@@ -0,0 +1,20 @@
+#!/bin/sh
+# Stand-in for `nuXmv -int` used by NuXMVPoolTest.
+# A model containing `FAIL` yields the counter example of cex.xml, a model containing `HANG` never terminates,
+# a model containing `CRASH` terminates the process.
+echo "*** This is nuXmv 0.0.0 (fake)"
+dir=$(dirname "$0")
+model=""
+while IFS= read -r line; do
+    case "$line" in
+        "read_model -i "*) model="${line#read_model -i }" ;;
+        reset) model="" ;;
+        check_invar*)
+            if grep -q HANG "$model"; then exec sleep 600; fi
+            if grep -q CRASH "$model"; then exit 1; fi
+            if grep -q FAIL "$model"; then cat "$dir/cex.xml"
+            else echo "-- invariant is true"; fi ;;
+        "echo "*) echo "${line#echo }" ;;
+        quit) exit 0 ;;
+    esac
+done
@@ -40,6 +40,9 @@ const val HAVOC_PREFIX = "__havoc_"
 
 
 /**
+ * The symbolic execution builds canonical expressions ([SMVExprFactory]), which are immutable.
+ * The results of this facade are mutable copies ([CanonicalCopier]), as their consumers change expressions in place.
+ *
  * @author Alexander Weigl
  * @version 2 (12.12.16)
  */
@@ -56,9 +59,9 @@ object SymbExFacade {
             se.assign(vd, ts[i])
         }
         se.visit(decl as PouExecutable)
-        val uf = se.peek().unfolded()
+        val uf = se.peek().unfolded(se.exprFactory)
         val v = uf.entries.find { (k, _) -> k.name == decl.name }!!.value
-        return v
+        return CanonicalCopier().copy(v)
     }
 
     fun getDefaultSimplifier(): SimplifierPipelineST0 =
@@ -127,6 +130,7 @@ object SymbExFacade {
 
         val moduleBuilder = ModuleBuilder(exec, se.peek(), supportSpecialStatements = true)
         moduleBuilder.run()
+        moduleBuilder.module.accept(CanonicalCopier())
         /*//debug
         for (entry in se.lineNumberMap) {
             System.out.format("%05d: %s %s\n", entry.key, entry.value.first, entry.value.second)
@@ -145,19 +149,24 @@ object SymbExFacade {
         return DefaultTypeTranslator().translate(vd)
     }
 
-    fun evaluateStatements(seq: StatementList, scope: Scope, useDefinitions: Boolean = true): SymbolicState {
+    /**
+     * @param shareDefinitions share definitions between branch states instead of deep cloning,
+     *                         see [SymbolicState.shareDefinitions]
+     */
+    fun evaluateStatements(seq: StatementList, scope: Scope, useDefinitions: Boolean = true,
+                           shareDefinitions: Boolean = true): SymbolicState {
         val program = ProgramDeclaration(scope = scope, stBody = seq)
         IEC61131Facade.resolveDataTypes(PouElements(arrayListOf(program)))
-        val symbex = SymbolicExecutioner(scope, useDefinitions)
+        val symbex = SymbolicExecutioner(scope, useDefinitions, shareDefinitions)
         symbex.scope = scope
         program.accept(symbex)
-        return symbex.peek()
+        return symbex.peek().also { it.copyCanonical() }
     }
 
     fun evaluateExpression(sstate: SymbolicState, exc: Expression, scope: Scope): SMVExpr {
         val symbex = SymbolicExecutioner(scope)
         symbex.push(sstate)
-        return exc.accept(symbex) as SMVExpr
+        return CanonicalCopier().copy(exc.accept(symbex) as SMVExpr)
     }
 
     fun evaluateExpression(ssa: Map<SVariable, SMVExpr>, exc: Expression, scope: Scope): SMVExpr {
@@ -169,7 +178,7 @@ object SymbExFacade {
 
     fun evaluateExpression(expr: Expression, scope: Scope): SMVExpr {
         val symbex = SymbolicExecutioner(scope)
-        return expr.accept(symbex) as SMVExpr
+        return CanonicalCopier().copy(expr.accept(symbex) as SMVExpr)
     }
 
     fun evaluateExpression(ssa: Map<SVariable, SMVExpr>, expr: SMVExpr): SMVExpr {
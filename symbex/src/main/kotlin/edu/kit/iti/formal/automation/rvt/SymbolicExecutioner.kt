@@ -18,7 +18,7 @@ import edu.kit.iti.formal.automation.st.InitValueTranslator
 import edu.kit.iti.formal.automation.st.ast.*
 import edu.kit.iti.formal.automation.st.ast.Invoked.*
 import edu.kit.iti.formal.automation.visitors.DefaultVisitor
-import edu.kit.iti.formal.smv.SMVFacade
+import edu.kit.iti.formal.smv.SMVExprFactory
 import edu.kit.iti.formal.smv.SMVTypes
 import edu.kit.iti.formal.smv.ast.*
 import java.util.*
@@ -44,23 +44,36 @@ class LineMap(private val map: HashMap<Int, Pair<String, Position>> = HashMap())
  */
 open class SymbolicExecutioner(
         var scope: Scope = Scope.defaultScope(),
-        val useDefinitions: Boolean = true) : DefaultVisitor<SMVExpr>() {
+        val useDefinitions: Boolean = true,
+        val shareDefinitions: Boolean = true) : DefaultVisitor<SMVExpr>() {
     override fun defaultVisit(obj: Any) = throw IllegalStateException("Symbolic Executioner does not handle $obj")
 
     private val varCache = HashMap<String, SVariable>()
-    var operationMap: OperationMap = DefaultOperationMap()
+
+    /**
+     * Factory for canonical expressions. Branch conditions, operators and merged case expressions are
+     * built through this factory, s.t. structurally equal expressions are shared.
+     */
+    var exprFactory: SMVExprFactory = SMVExprFactory()
+        set(value) {
+            field = value
+            operationMap = DefaultOperationMap(value)
+        }
+    var operationMap: OperationMap = DefaultOperationMap(exprFactory)
     var typeTranslator: TypeTranslator = DefaultTypeTranslator()
     var valueTranslator: ValueTranslator = DefaultValueTranslator()
     var initValueTranslator: InitValueTranslator = DefaultInitValue
 
     private val state = Stack<SymbolicState>()
-    private var globalState = SymbolicState(useDefinitions = useDefinitions)
+    private var globalState = newState()
     private var caseExpression: Expression? = null
 
     init {
         push(SymbolicState(globalState))
     }
 
+    private fun newState() = SymbolicState(useDefinitions = useDefinitions, shareDefinitions = shareDefinitions)
+
     fun peek(): SymbolicState {
         return state.peek()
     }
@@ -148,7 +161,7 @@ open class SymbolicExecutioner(
 
         scope = exec.scope
 
-        push(SymbolicState(useDefinitions = useDefinitions))
+        push(newState())
 
         // initialize root state
         for (vd in scope) {
@@ -156,7 +169,7 @@ open class SymbolicExecutioner(
             assign(vd, s)
         }
 
-        globalState = SymbolicState()
+        globalState = SymbolicState(shareDefinitions = shareDefinitions)
         for (variable in scope.filterByFlags(VariableDeclaration.GLOBAL)) {
             globalState[lift(variable)] = peek()[lift(variable)]!!
         }
@@ -293,7 +306,7 @@ open class SymbolicExecutioner(
             val variable = SVariable("${getRandomLabel()}_${t.name}", t.dataType!!);
             callerState.map[variable] = u
         }*/
-        val unfolded = calleeState.unfolded()
+        val unfolded = calleeState.unfolded(exprFactory)
         return unfolded.entries.find { (a, b) -> a.name == fName }?.value
     }
 
@@ -309,8 +322,8 @@ open class SymbolicExecutioner(
             statements.accept(this)
             branchStates.addBranch(condition, pop())
             assignIBC(iln, condition1.startPosition,
-                    branchConditionDefinitions and condition);
-            branchConditionDefinitions = branchConditionDefinitions and condition.not()
+                    exprFactory.and(branchConditionDefinitions, condition))
+            branchConditionDefinitions = exprFactory.and(branchConditionDefinitions, exprFactory.not(condition))
         }
 
         push()
@@ -338,8 +351,8 @@ open class SymbolicExecutioner(
         var branchCondition: SMVExpr = SLiteral.TRUE
         for (gs in caseStatement.cases) {
             val condition = buildCondition(caseStatement.expression, gs)
-            assignIBC(caseStatement.startPosition, gs.startPosition, branchCondition and condition);
-            branchCondition = branchCondition and condition.not()
+            assignIBC(caseStatement.startPosition, gs.startPosition, exprFactory.and(branchCondition, condition))
+            branchCondition = exprFactory.and(branchCondition, exprFactory.not(condition))
             push()
             gs.statements.accept(this)
             branchStates.addBranch(condition, pop())
@@ -363,7 +376,7 @@ open class SymbolicExecutioner(
         return c.conditions
                 .map { a -> a.accept(this) }
                 .map { it!! }
-                .reduce(SMVFacade.reducerKt(SBinaryOperator.OR))
+                .reduce(exprFactory::or)
     }
 
     override fun visit(r: CaseCondition.Range): SMVExpr {
@@ -412,14 +425,15 @@ open class SymbolicExecutioner(
     }
 
     fun SymbolicBranches.asCompressed(pos: Position): SymbolicState {
-        val sb = SymbolicState(useDefinitions = useDefinitions)
+        val sb = newState()
         sb.auxiliaryDefinitions.putAll(auxiliary)
         variables.forEach { (t, u) ->
-            val sv = sb.ensureVariable(t)
+            val sv = histories[t]?.let { SymbolicVariableShared(t, DefinitionHistory.merge(it)) }
+                    ?: sb.ensureVariable(t)
             val cnt = assignmentCounter.incrementAndGet()
             lineNumberMap[cnt] = t.name to pos
             val postfix = String.format("%s%05d", ASSIGN_SEPARATOR, cnt)
-            sv.push(u.compress(), postfix)
+            sv.push(exprFactory.intern(u.compress()), postfix)
 
             if (sv is SymbolicVariableTracing)
                 defines[t]?.let { sv.values.putAll(it) }
@@ -469,17 +483,22 @@ open class SymbolicExecutioner(
 class SymbolicBranches {
     val variables: HashMap<SVariable, SCaseExpression> = HashMap()
     val defines = HashMap<SVariable, HashMap<SVariable, SMVExpr>>()
+    /** definitions of [SymbolicVariableShared]s, merged lazily without copying */
+    val histories = HashMap<SVariable, MutableList<DefinitionHistory?>>()
     val auxiliary = HashMap<SVariable, SMVExpr>()
 
     fun addBranch(condition: SMVExpr, state: SymbolicState) {
         for ((key, value) in state.variables) {
             getVariable(key).add(condition, value.value)
-            if (value is SymbolicVariableTracing)
-                getDefines(key).putAll(value.values)
+            when (value) {
+                is SymbolicVariableShared -> getHistories(key).add(value.history)
+                is SymbolicVariableTracing -> getDefines(key).putAll(value.values)
+            }
         }
         this.auxiliary.putAll(state.auxiliaryDefinitions)
     }
 
     fun getVariable(key: SVariable): SCaseExpression = variables.computeIfAbsent(key) { SCaseExpression() }
     fun getDefines(key: SVariable): HashMap<SVariable, SMVExpr> = defines.computeIfAbsent(key) { HashMap() }
+    fun getHistories(key: SVariable): MutableList<DefinitionHistory?> = histories.computeIfAbsent(key) { arrayListOf() }
 }
@@ -22,7 +22,10 @@ package edu.kit.iti.formal.automation.rvt
  * #L%
  */
 
+import edu.kit.iti.formal.smv.DefinitionInliner
 import edu.kit.iti.formal.smv.ExpressionReplacerRecur
+import edu.kit.iti.formal.smv.CanonicalCopier
+import edu.kit.iti.formal.smv.SMVExprFactory
 import edu.kit.iti.formal.smv.SMVAstVisitor
 import edu.kit.iti.formal.smv.ast.SMVAst
 import edu.kit.iti.formal.smv.ast.SMVExpr
@@ -42,13 +45,23 @@ interface SymbolicVariable {
     fun clone(): SymbolicVariable
 }
 
+/**
+ * A symbolic variable that remembers every assignment as a definition.
+ */
+interface SymbolicVariableWithHistory : SymbolicVariable {
+    /** all definitions (`<var>$<counter>` to value) of this variable */
+    val values: Map<SVariable, SMVExpr>
+}
+
 
 /**
  * A symbolic variable represents a variable in the program.
  * Additional to its current value we remind every assignment to this variable.
+ *
+ * The definitions are copied on every [clone].
  */
-data class SymbolicVariableTracing(override val variable: SVariable) : SymbolicVariable {
-    val values = TreeMap<SVariable, SMVExpr>()
+data class SymbolicVariableTracing(override val variable: SVariable) : SymbolicVariableWithHistory {
+    override val values = TreeMap<SVariable, SMVExpr>()
     var current = variable
 
     override val value: SMVExpr
@@ -67,6 +80,99 @@ data class SymbolicVariableTracing(override val variable: SVariable) : SymbolicV
     }
 }
 
+/**
+ * A persistent list of definitions. Every node points to its predecessor,
+ * hence states of different branches share their common prefix of definitions.
+ */
+class DefinitionHistory private constructor(
+        val name: SVariable,
+        val value: SMVExpr,
+        val parent: DefinitionHistory?) {
+    val depth: Int = (parent?.depth ?: 0) + 1
+
+    fun push(name: SVariable, value: SMVExpr) = DefinitionHistory(name, value, this)
+
+    fun asSequence(): Sequence<DefinitionHistory> = generateSequence(this) { it.parent }
+
+    /** A copy of this history with every value replaced by [f]. */
+    fun mapValues(f: (SMVExpr) -> SMVExpr): DefinitionHistory =
+            asSequence().toList().asReversed().fold(null as DefinitionHistory?) { h, node ->
+                h?.push(node.name, f(node.value)) ?: of(node.name, f(node.value))
+            }!!
+
+    fun toMap(): SortedMap<SVariable, SMVExpr> =
+            asSequence().associateTo(TreeMap()) { it.name to it.value }
+
+    companion object {
+        fun of(name: SVariable, value: SMVExpr) = DefinitionHistory(name, value, null)
+
+        /**
+         * Finds the longest common prefix of both histories. Returns null if they do not share any node.
+         */
+        fun commonAncestor(a: DefinitionHistory?, b: DefinitionHistory?): DefinitionHistory? {
+            var x = a
+            var y = b
+            while (x != null && y != null && x !== y) {
+                when {
+                    x.depth > y.depth -> x = x.parent
+                    y.depth > x.depth -> y = y.parent
+                    else -> {
+                        x = x.parent
+                        y = y.parent
+                    }
+                }
+            }
+            return if (x === y) x else null
+        }
+
+        /**
+         * Merges the given histories, e.g., of different branches, into one history.
+         * The common prefix is shared, only the definitions after the branching point are re-linked.
+         */
+        fun merge(histories: Collection<DefinitionHistory?>): DefinitionHistory? {
+            val nonNull = histories.filterNotNull()
+            if (nonNull.isEmpty()) return null
+            val ancestor = nonNull.fold(nonNull.first() as DefinitionHistory?) { a, b -> commonAncestor(a, b) }
+            var result = ancestor
+            val seen = Collections.newSetFromMap(IdentityHashMap<DefinitionHistory, Boolean>())
+            for (h in nonNull) {
+                val suffix = h.asSequence().takeWhile { it !== ancestor }.toList()
+                for (node in suffix.asReversed()) {
+                    if (seen.add(node)) {
+                        result = result?.push(node.name, node.value) ?: of(node.name, node.value)
+                    }
+                }
+            }
+            return result
+        }
+    }
+}
+
+/**
+ * A symbolic variable with the same semantics as [SymbolicVariableTracing],
+ * but the definitions are stored in a persistent [DefinitionHistory].
+ * A [clone] is therefore in constant time and shares the definitions with the original.
+ */
+class SymbolicVariableShared(override val variable: SVariable,
+                             var history: DefinitionHistory? = null) : SymbolicVariableWithHistory {
+    var current = history?.name ?: variable
+
+    override val value: SMVExpr
+        get() = current
+
+    override val values: Map<SVariable, SMVExpr>
+        get() = history?.toMap() ?: emptyMap()
+
+    override fun push(value: SMVExpr, postfix: String) {
+        current = SVariable(variable.name + postfix, variable.dataType!!)
+        history = history?.push(current, value) ?: DefinitionHistory.of(current, value)
+    }
+
+    override fun clone(): SymbolicVariable = SymbolicVariableShared(variable, history)
+
+    override fun toString() = "SymbolicVariableShared(variable=$variable, current=$current)"
+}
+
 data class SymbolicVariableSimple(override val variable: SVariable,
                                   override var value: SMVExpr = variable) : SymbolicVariable {
     override fun push(value: SMVExpr, postfix: String) {
@@ -84,15 +190,20 @@ data class SymbolicVariableSimple(override val variable: SVariable,
  *
  * Every assignment is done as a side-definition.
  *
+ * If [shareDefinitions] is set, a copy of a state shares the symbolic variables with its origin,
+ * and variables are only cloned on their next assignment ([SymbolicVariableShared]).
+ * Otherwise every copy clones all variables including their definitions ([SymbolicVariableTracing]).
  */
 data class SymbolicState(
         val variables: HashMap<SVariable, SymbolicVariable> = HashMap(),
-        val useDefinitions: Boolean = true) : MutableMap<SVariable, SMVExpr> {
+        val useDefinitions: Boolean = true,
+        val shareDefinitions: Boolean = true) : MutableMap<SVariable, SMVExpr> {
 
     val auxiliaryDefinitions: HashMap<SVariable, SMVExpr> = HashMap()
 
-    constructor(m: SymbolicState) : this(useDefinitions = m.useDefinitions) {
-        m.variables.forEach { (v, u) -> variables[v] = u.clone() }
+    constructor(m: SymbolicState) : this(useDefinitions = m.useDefinitions, shareDefinitions = m.shareDefinitions) {
+        if (shareDefinitions) variables.putAll(m.variables)
+        else m.variables.forEach { (v, u) -> variables[v] = u.clone() }
         auxiliaryDefinitions.putAll(m.auxiliaryDefinitions)
     }
 
@@ -139,15 +250,24 @@ data class SymbolicState(
     override fun put(key: SVariable, value: SMVExpr): SMVExpr? = throw IllegalArgumentException("Use assign(...) instead")
 
     fun assign(key: SVariable, assignCounter: Int, v: SMVExpr) {
-        val s = ensureVariable(key)
+        val s = if (shareDefinitions) {
+            // copy-on-write: the variable may be shared with other states
+            val fresh = variables[key]?.clone() ?: createVariable(key)
+            variables[key] = fresh
+            fresh
+        } else ensureVariable(key)
         val postfix = String.format("%s%05d", ASSIGN_SEPARATOR, assignCounter)
         s.push(v, postfix)
     }
 
-    fun ensureVariable(key: SVariable) = variables.computeIfAbsent(key) {
-        if (useDefinitions) SymbolicVariableTracing(key)
-        else SymbolicVariableSimple(key)
-    }
+    fun ensureVariable(key: SVariable) = variables.computeIfAbsent(key, ::createVariable)
+
+    fun createVariable(key: SVariable): SymbolicVariable =
+            when {
+                !useDefinitions -> SymbolicVariableSimple(key)
+                shareDefinitions -> SymbolicVariableShared(key)
+                else -> SymbolicVariableTracing(key)
+            }
 
     override fun putAll(from: Map<out SVariable, SMVExpr>) {
         from.forEach { (a, b) -> put(a, b) }
@@ -168,8 +288,19 @@ data class SymbolicState(
 
     /**
      * Get an representation of this state without any use of definitions.
+     * Every definition is unfolded once in dependency order, see [DefinitionInliner].
+     * If a [factory] is given, the unfolded expressions are canonical.
      */
-    fun unfolded(): Map<SVariable, SMVExpr> {
+    @JvmOverloads
+    fun unfolded(factory: SMVExprFactory? = null): Map<SVariable, SMVExpr> {
+        val inliner = DefinitionInliner(getAllDefinitions(), factory)
+        return variables.map { (a, b) -> a to inliner.inline(b.value) }.toMap()
+    }
+
+    /**
+     * Same as [unfolded], but by a fixpoint iteration over the whole state, substituting definitions until nothing changes.
+     */
+    fun unfoldedByFixpoint(): Map<SVariable, SMVExpr> {
         var m = variables.map { (a, b) -> a to b.value }.toMap()
         val defs = getAllDefinitions()
         val r = ExpressionReplacerRecur(defs)
@@ -184,13 +315,34 @@ data class SymbolicState(
         return m
     }
 
+    /**
+     * Replaces the canonical expressions of this state, i.e., the values, definitions and auxiliary definitions,
+     * by mutable copies, see [CanonicalCopier]. The symbolic variables are replaced, not changed,
+     * as they may be shared with other states.
+     */
+    fun copyCanonical(copier: CanonicalCopier = CanonicalCopier()) {
+        auxiliaryDefinitions.replaceAll { _, e -> copier.copy(e) }
+        variables.replaceAll { _, sv ->
+            when (sv) {
+                is SymbolicVariableSimple -> SymbolicVariableSimple(sv.variable, copier.copy(sv.value))
+                is SymbolicVariableShared -> SymbolicVariableShared(sv.variable, sv.history?.mapValues(copier::copy))
+                is SymbolicVariableTracing -> SymbolicVariableTracing(sv.variable).also { t ->
+                    t.current = sv.current
+                    sv.values.forEach { (n, e) -> t.values[n] = copier.copy(e) }
+                }
+                else -> sv
+            }
+        }
+    }
+
     fun getAllDefinitions(): Map<SVariable, SMVExpr> {
         val defs: HashMap<SVariable, SMVExpr> = HashMap()
         defs.putAll(auxiliaryDefinitions)
 
         for ((_, b) in variables) {
-            if (b is SymbolicVariableTracing) {
-                defs.putAll(b.values)
+            when (b) {
+                is SymbolicVariableShared -> b.history?.asSequence()?.forEach { defs[it.name] = it.value }
+                is SymbolicVariableWithHistory -> defs.putAll(b.values)
             }
         }
 
@@ -26,6 +26,7 @@ import edu.kit.iti.formal.automation.getSMVOperator
 import edu.kit.iti.formal.automation.operators.BinaryOperator
 import edu.kit.iti.formal.automation.operators.Operators
 import edu.kit.iti.formal.automation.operators.UnaryOperator
+import edu.kit.iti.formal.smv.SMVExprFactory
 import edu.kit.iti.formal.smv.SMVFacade
 import edu.kit.iti.formal.smv.ast.*
 import java.math.BigInteger
@@ -33,21 +34,24 @@ import java.math.BigInteger
 /**
  * Default translation for ST-Operators.
  *
+ * If a [factory] is given, the translated expressions are canonical (hash-consed).
+ *
  * @author Alexander Weigl
  * @version 1 (15.04.17)
  */
-class DefaultOperationMap : OperationMap {
+class DefaultOperationMap(val factory: SMVExprFactory? = null) : OperationMap {
     override fun translateBinaryOperator(left: SMVExpr, operator: BinaryOperator, right: SMVExpr): SMVExpr {
         if (operator == Operators.DIV) {
-            return div(left, right)
+            return div(left, right).let { factory?.intern(it) ?: it }
         }
         val op = getSMVOperator(operator)
-        return SBinaryExpression(left, op, right)
+        return factory?.binary(left, op, right) ?: SBinaryExpression(left, op, right)
     }
 
     override fun translateUnaryOperator(operator: UnaryOperator,
                                         sub: SMVExpr): SMVExpr {
-        return SUnaryExpression(getSMVOperator(operator), sub)
+        val op = getSMVOperator(operator)
+        return factory?.unary(op, sub) ?: SUnaryExpression(op, sub)
     }
 
     /**
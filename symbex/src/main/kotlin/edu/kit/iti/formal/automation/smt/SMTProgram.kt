@@ -2,6 +2,7 @@ package edu.kit.iti.formal.automation.smt
 
 import edu.kit.iti.formal.smt.SExpr
 import edu.kit.iti.formal.smt.SExprFacade.sexpr
+import edu.kit.iti.formal.smt.SExprWriter
 import edu.kit.iti.formal.smt.SList
 import edu.kit.iti.formal.smt.SSymbol
 import java.util.*
@@ -86,23 +87,18 @@ class SMTProgram(
      * @return
      */
     val preamble: String
-        get() {
-            val sb = StringBuilder()
-            sb.append("(set-logic QF_BV)\n")
-            sb.append(
-                    "(define-fun <> ((a Bool) (b Bool)) Bool\n" + "  (not (= a b)))\n")
-
-            for (i in 1..64) {
-                sb.append(String.format("(define-fun <> ((a (_ BitVec %d)) (b (_ BitVec %d))) Bool (not (= a b)))\n", i, i))
-            }
+        get() = StringBuilder().also { writePreamble(it) }.toString()
 
+    /** Writes the [preamble] to [out], without building the string. */
+    fun writePreamble(out: Appendable) {
+        out.append(OPERATORS)
 
-            val init = initFunction
-            val next = nextFunction
-            sb.append(init.toString()).append("\n\n")
-            sb.append(next.toString()).append("\n\n")
-            return sb.toString()
-        }
+        val writer = SExprWriter(out)
+        writer.write(initFunction)
+        out.append("\n\n")
+        writer.write(nextFunction)
+        out.append("\n\n")
+    }
 
     private fun toSExpr(sortSExpr: Collection<SExpr>): SExpr = SList(sortSExpr)
 
@@ -131,17 +127,17 @@ class SMTProgram(
     /**
      * @return
      */
-    fun getStepDefinition(withInput: Boolean, prefix: String = "", suffix: String = ""): String {
-        val sb = StringBuilder()
+    fun getStepDefinition(withInput: Boolean, prefix: String = "", suffix: String = ""): String =
+            StringBuilder().also { writeStepDefinition(it, withInput, prefix, suffix) }.toString()
+
+    /** Writes the [getStepDefinition] to [out], without building the string. */
+    fun writeStepDefinition(out: Appendable, withInput: Boolean, prefix: String = "", suffix: String = "") {
         val init = getDefineInputTypes(prefix, suffix)
         val next = getDefineStateTypes(prefix, suffix)
 
         val vars = if (withInput) (init + next) else next
 
-        vars.forEach { SExpr ->
-            sb.append(SExpr.toString()).append("\n\n")
-        }
-        return sb.toString()
+        SExprWriter(out).writeAll(vars, "\n\n")
     }
 
     fun getAssertInit(suffix: String): SExpr {
@@ -179,6 +175,20 @@ class SMTProgram(
 
         val DECLARE_DATATYPES = "declare-datatypes"
 
+        /**
+         * The logic and the definitions of the operators used by [DefaultS2SFunctionTranslator], e.g., `<>`.
+         * They are independent of the program.
+         */
+        val OPERATORS: String = StringBuilder().also { out ->
+            out.append("(set-logic QF_BV)\n")
+            out.append(
+                    "(define-fun <> ((a Bool) (b Bool)) Bool\n" + "  (not (= a b)))\n")
+
+            for (i in 1..64) {
+                out.append(String.format("(define-fun <> ((a (_ BitVec %d)) (b (_ BitVec %d))) Bool (not (= a b)))\n", i, i))
+            }
+        }.toString()
+
         /**
          * adds the given arguments in the map into the given SExprs.
          *
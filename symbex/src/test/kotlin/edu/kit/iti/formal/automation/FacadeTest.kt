@@ -24,6 +24,8 @@ package edu.kit.iti.formal.automation
 
 import edu.kit.iti.formal.automation.st.ast.FunctionDeclaration
 import edu.kit.iti.formal.automation.st.ast.ProgramDeclaration
+import edu.kit.iti.formal.smv.SMVAstMutableVisitor
+import edu.kit.iti.formal.smv.ast.SMVExpr
 import edu.kit.iti.formal.smv.ast.SVariable
 import org.antlr.v4.runtime.CharStreams
 import org.junit.jupiter.api.Assertions
@@ -78,5 +80,25 @@ class FacadeTest {
             Assumptions.assumeTrue(e.message?.startsWith("Cannot run program") ?: false)
         }
     }
-}
 
+    /** The symbolic execution builds canonical expressions, the facade hands out mutable copies. */
+    @Test
+    fun resultsAreMutable() {
+        val (toplevels, _) = IEC61131Facade.fileResolve(CharStreams.fromString("""
+            PROGRAM p
+                VAR_INPUT a : BOOL; b : BOOL; END_VAR
+                VAR x : BOOL; y : BOOL; END_VAR
+                IF a THEN x := a AND b; ELSE x := b AND a; END_IF
+                y := a AND b;
+            END_PROGRAM""".trimIndent()))
+        val module = SymbExFacade.evaluateProgram(toplevels.filterIsInstance<ProgramDeclaration>().first())
+        Assertions.assertTrue(module.nextAssignments.isNotEmpty())
+        module.accept(object : SMVAstMutableVisitor() {
+            override fun visit(v: SVariable): SMVExpr {
+                Assertions.assertFalse(v.isInterned, v.name)
+                v.name = v.name.toUpperCase()
+                return v
+            }
+        })
+    }
+}
@@ -4,7 +4,7 @@ import com.google.common.truth.Truth.assertThat
 import edu.kit.iti.formal.automation.datatypes.INT
 import edu.kit.iti.formal.automation.rvt.SymbolicState
 import edu.kit.iti.formal.automation.rvt.SymbolicVariable
-import edu.kit.iti.formal.automation.rvt.SymbolicVariableTracing
+import edu.kit.iti.formal.automation.rvt.SymbolicVariableWithHistory
 import edu.kit.iti.formal.automation.scope.Scope
 import edu.kit.iti.formal.automation.st.ast.VariableDeclaration
 import edu.kit.iti.formal.smv.ast.SMVExpr
@@ -17,7 +17,7 @@ private val Map<SVariable, SymbolicVariable>.stringified: Map<String, String>
     get() =
         asSequence()
                 .flatMap { (a, b) ->
-                    if (b is SymbolicVariableTracing)
+                    if (b is SymbolicVariableWithHistory)
                         b.values.entries.asSequence().map { (a, b) -> a.repr() to b.repr() }
                     else
                         listOf(a.repr() to b.value.repr()).asSequence()
@@ -307,10 +307,36 @@ class SymbolicExecutionTest {
         }
     }
 
-    private fun executeStatements(statements: String, useDefs: Boolean=true): SymbolicState {
+    @Test
+    fun sharedDefinitionsEqualToTracing() {
+        val statements = """
+                    a := 2; c := 4; b := 0;
+                    IF a = 2 THEN
+                        b := 2;
+                        IF c > 2 THEN c := c + 1; ELSE b := b + c; END_IF;
+                    ELSIF a = 3 THEN
+                        a := a + b;
+                    ELSE
+                        b := 1; c := 2;
+                    END_IF;
+                    CASE c OF
+                        1: a := 5;
+                        2: b := a + 1;
+                    ELSE
+                        c := a;
+                    END_CASE;"""
+        val shared = executeStatements(statements, shareDefs = true)
+        val tracing = executeStatements(statements, shareDefs = false)
+        assertThat(shared.variables.stringified).isEqualTo(tracing.variables.stringified)
+        assertThat(shared.stringifed).isEqualTo(tracing.stringifed)
+        assertThat(shared.unfolded().stringifed).isEqualTo(tracing.unfolded().stringifed)
+    }
+
+    private fun executeStatements(statements: String, useDefs: Boolean = true,
+                                  shareDefs: Boolean = true): SymbolicState {
         val list = IEC61131Facade.statements(statements)
         IEC61131Facade.resolveDataTypes(elements = *arrayOf(list))
-        return SymbExFacade.evaluateStatements(list, scope, useDefs)
+        return SymbExFacade.evaluateStatements(list, scope, useDefs, shareDefs)
     }
 }
 
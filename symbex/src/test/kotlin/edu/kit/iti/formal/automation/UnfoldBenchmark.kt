@@ -0,0 +1,57 @@
+package edu.kit.iti.formal.automation
+
+import com.google.common.truth.Truth.assertThat
+import edu.kit.iti.formal.automation.datatypes.INT
+import edu.kit.iti.formal.automation.rvt.SymbolicState
+import edu.kit.iti.formal.automation.scope.Scope
+import edu.kit.iti.formal.automation.st.ast.VariableDeclaration
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares the dependency-ordered unfolding of definitions against the fixpoint iteration
+ * on long sequential ST bodies.
+ *
+ * The benchmark is only executed if the system property `benchmark` is set.
+ */
+class UnfoldBenchmark {
+    private val scope = arrayOf("a", "b", "c")
+            .map { VariableDeclaration(it, 0, INT) }
+            .let { Scope(it) }
+
+    private fun sequentialBody(length: Int) =
+            (0 until length).joinToString("\n") { "a := a + b; b := b + $it; c := c * a;" }
+
+    private fun branchingBody(length: Int) =
+            (0 until length).joinToString("\n") { "a := a + b; IF a > $it THEN c := c + 1; END_IF;" }
+
+    private fun execute(body: String): SymbolicState {
+        val list = IEC61131Facade.statements(body)
+        IEC61131Facade.resolveDataTypes(elements = *arrayOf(list))
+        return SymbExFacade.evaluateStatements(list, scope)
+    }
+
+    @Test
+    fun unfoldedEqualsFixpoint() {
+        assertSameUnfolding(execute(sequentialBody(25)))
+        assertSameUnfolding(execute(branchingBody(8)))
+    }
+
+    private fun assertSameUnfolding(state: SymbolicState) {
+        val expected = state.unfoldedByFixpoint().mapKeys { it.key.name }.mapValues { it.value.repr() }
+        val actual = state.unfolded().mapKeys { it.key.name }.mapValues { it.value.repr() }
+        assertThat(actual).isEqualTo(expected)
+    }
+
+    @Test
+    fun benchmark() {
+        Assumptions.assumeTrue(System.getProperty("benchmark") != null)
+        for (length in listOf(100, 200, 400, 800)) {
+            val state = execute(sequentialBody(length))
+            val fixpoint = measureTimeMillis { state.unfoldedByFixpoint() }
+            val inliner = measureTimeMillis { state.unfolded() }
+            println("length: $length\tfixpoint: $fixpoint ms\tinliner: $inliner ms")
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package edu.kit.iti.formal.automation.plcopenxml
+
+import edu.kit.iti.formal.util.CodeWriter
+import org.jdom2.Element
+import java.io.File
+import java.io.InputStream
+import java.net.URL
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants.*
+import javax.xml.stream.XMLStreamReader
+
+/**
+ * A top-level unit of a PLCopen XML file: a `pou` or a `dataType`.
+ *
+ * [element] only holds the subtree of this unit, without namespaces (like [PCLOpenXMLBuilder.FACTORY]).
+ */
+class PLCopenUnit(val name: String, val isDataType: Boolean, val element: Element) {
+    /** Translates this unit into Structured Text with the translators of [PouExtractor] or [DataTypeExtractor]. */
+    fun translate(): String {
+        val writer = CodeWriter()
+        if (isDataType) DataTypeExtractor(listOf(element), writer).run()
+        else PouExtractor(listOf(element), writer).run(element)
+        return writer.stream.toString()
+    }
+}
+
+/**
+ * Reads PLCopen XML files with StAX, unit by unit.
+ *
+ * In contrast to [PCLOpenXMLBuilder], the document is never loaded as a whole.
+ * Only the subtree of the current `pou` or `dataType` is materialized; units that are not selected
+ * are skipped without building any nodes.
+ */
+class PLCopenStreamReader(private val open: () -> InputStream) {
+    constructor(file: File) : this({ file.inputStream().buffered() })
+    constructor(url: URL) : this({ url.openStream().buffered() })
+
+    /**
+     * Reads the units whose name satisfies [select], in document order, and hands them to [action].
+     * Reading stops if [action] returns false.
+     */
+    fun read(select: (String) -> Boolean = { true }, action: (PLCopenUnit) -> Boolean) {
+        open().use { input ->
+            val reader = FACTORY.createXMLStreamReader(input)
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != START_ELEMENT || reader.localName !in UNITS) continue
+                    val name = reader.getAttributeValue(null, "name") ?: ""
+                    if (!select(name)) {
+                        skipElement(reader)
+                        continue
+                    }
+                    val unit = PLCopenUnit(name, reader.localName == "dataType", buildElement(reader))
+                    if (!action(unit)) return
+                }
+            } finally {
+                reader.close()
+            }
+        }
+    }
+
+    /** All units of the file. */
+    fun units(): List<PLCopenUnit> = arrayListOf<PLCopenUnit>().also { list -> read { list += it; true } }
+
+    /** The first unit named [name], or null. Stops reading after it is found. */
+    fun find(name: String): PLCopenUnit? {
+        var found: PLCopenUnit? = null
+        read({ it == name }) { found = it; false }
+        return found
+    }
+
+    /** The names of all units; the subtrees of the units are skipped. */
+    fun names(): List<String> = arrayListOf<String>().also { list -> read({ list += it; false }) { true } }
+
+    companion object {
+        private val UNITS = setOf("pou", "dataType")
+
+        private val FACTORY: XMLInputFactory = XMLInputFactory.newInstance().apply {
+            setProperty(XMLInputFactory.SUPPORT_DTD, false)
+            setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+            setProperty(XMLInputFactory.IS_COALESCING, true)
+        }
+
+        /** Builds the element at the current START_ELEMENT, ignoring namespaces. */
+        private fun buildElement(reader: XMLStreamReader): Element {
+            val element = Element(reader.localName)
+            for (i in 0 until reader.attributeCount) {
+                if (reader.getAttributePrefix(i).isNullOrEmpty())
+                    element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i))
+            }
+            while (true) {
+                when (reader.next()) {
+                    START_ELEMENT -> element.addContent(buildElement(reader))
+                    CHARACTERS, CDATA, SPACE -> element.addContent(reader.text)
+                    END_ELEMENT -> return element
+                }
+            }
+        }
+
+        /** Skips to the END_ELEMENT of the element at the current START_ELEMENT. */
+        private fun skipElement(reader: XMLStreamReader) {
+            var depth = 1
+            while (depth > 0) {
+                when (reader.next()) {
+                    START_ELEMENT -> depth++
+                    END_ELEMENT -> depth--
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package edu.kit.iti.formal.automation.xml
+
+import LoadHelp
+import edu.kit.iti.formal.automation.plcopenxml.IECXMLFacade
+import edu.kit.iti.formal.automation.plcopenxml.PLCopenStreamReader
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+
+class PLCopenStreamReaderTest {
+    private fun reader(name: String): PLCopenStreamReader {
+        val path = LoadHelp.getResource(name)
+        Assumptions.assumeTrue(path != null)
+        return PLCopenStreamReader(path!!.toFile())
+    }
+
+    private fun normalize(s: String) = s.lines().map { it.trim() }.filter { it.isNotEmpty() }
+
+    @Test
+    fun names() {
+        assertEquals(listOf("Magazin", "Main", "Crane"), reader("test.xml").names())
+    }
+
+    @Test
+    fun sameAsDocumentTranslation() {
+        for (file in listOf("test.xml", "FBDExample.xml", "test_st_in_main_and_nested_sfc.xml")) {
+            val whole = normalize(IECXMLFacade.extractPLCOpenXml(LoadHelp.getResource(file)!!))
+            for (unit in reader(file).units()) {
+                val text = normalize(unit.translate())
+                assertTrue(text.isNotEmpty())
+                assertTrue(java.util.Collections.indexOfSubList(whole, text) >= 0, "${unit.name} in $file")
+            }
+        }
+    }
+
+    @Test
+    fun findStopsAtUnit() {
+        val unit = reader("FBDExample.xml").find("FBDRecursive")
+        assertNotNull(unit)
+        assertTrue(unit!!.translate().startsWith("FUNCTION_BLOCK FBDRecursive"))
+        assertNull(reader("FBDExample.xml").find("DoesNotExist"))
+    }
+}